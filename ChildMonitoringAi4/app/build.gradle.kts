@@ -38,6 +38,14 @@ android {
     kotlinOptions {
         jvmTarget = "17"
     }
+
+    // Local unit tests run against the stub android.jar; let Log and friends return defaults
+    testOptions {
+        unitTests.isReturnDefaultValues = true
+    }
+
+    // MockContentProvider and MockContentResolver for instrumented provider tests
+    useLibrary("android.test.mock")
 }
 
 dependencies {
@@ -48,6 +56,8 @@ dependencies {
     implementation(libs.firebase.storage)
     implementation(libs.play.services.location)
     testImplementation(libs.junit)
+    // android.jar only has stubs of org.json; local unit tests need the real one
+    testImplementation("org.json:json:20231013")
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 
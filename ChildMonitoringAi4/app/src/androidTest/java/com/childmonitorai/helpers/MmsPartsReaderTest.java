@@ -0,0 +1,179 @@
+package com.childmonitorai.helpers;
+
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Runs MmsPartsReader against a fake "mms" provider that answers the way MmsProvider does and
+// counts the queries it gets
+@RunWith(AndroidJUnit4.class)
+public class MmsPartsReaderTest {
+    private static final int MAX_TEXT_CHARS = 32 * 1024; // MmsPartsReader.MAX_TEXT_CHARS
+
+    private FakeMmsProvider provider;
+    private MmsPartsReader reader;
+
+    @Before
+    public void setUp() {
+        provider = new FakeMmsProvider(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir());
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider("mms", provider);
+        reader = new MmsPartsReader(resolver);
+    }
+
+    @Test
+    public void partsAreReadWithOneQueryPerWindow() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 1; i <= 250; i++) {
+            String id = String.valueOf(i);
+            ids.add(id);
+            provider.addSender(id, "555-" + i);
+            provider.addPart(id, "image/jpeg", null, null);
+            provider.addPart(id, "text/plain", "body " + i, null);
+        }
+
+        Map<String, MmsPartsReader.MmsContent> contents = reader.read(ids);
+
+        assertEquals(3, provider.partQueries); // windows of 100
+        assertEquals(250, provider.addressQueries); // MmsProvider has no bulk address URI
+        assertEquals(0, provider.filesOpened);
+        assertEquals(250, contents.size());
+        assertEquals("555-7", contents.get("7").senderAddress);
+        assertEquals("body 7", contents.get("7").text.toString());
+        assertEquals("body 250", contents.get("250").text.toString());
+    }
+
+    @Test
+    public void fileBackedTextIsStreamedUpToTheCap() throws IOException {
+        char[] longText = new char[MAX_TEXT_CHARS + 1000];
+        Arrays.fill(longText, 'x');
+        provider.addPart("1", "text/plain", "head ", null);
+        provider.addPart("1", "text/html", null, new String(longText));
+        provider.addPart("1", "text/plain", "tail", null);
+
+        MmsPartsReader.MmsContent content = reader.read(Arrays.asList("1")).get("1");
+
+        assertEquals(1, provider.partQueries);
+        assertEquals(1, provider.filesOpened);
+        assertEquals(MAX_TEXT_CHARS, content.text.length());
+        assertTrue(content.text.toString().startsWith("head xxx"));
+        assertNull(content.senderAddress);
+    }
+
+    @Test
+    public void messagesWithoutPartsOrSenderAreStillReturned() {
+        provider.addSender("2", "555-0100");
+        provider.addPart("2", "text/plain", "hello", null);
+
+        Map<String, MmsPartsReader.MmsContent> contents = reader.read(Arrays.asList("1", "2"));
+
+        assertEquals(2, contents.size());
+        assertNull(contents.get("1").senderAddress);
+        assertEquals("", contents.get("1").text.toString());
+        assertEquals("555-0100", contents.get("2").senderAddress);
+        assertEquals("hello", contents.get("2").text.toString());
+    }
+
+    private static class FakeMmsProvider extends MockContentProvider {
+        private final File dir;
+        private final List<String[]> parts = new ArrayList<>(); // _id, mid, ct, text
+        private final Map<String, String> partFiles = new HashMap<>();
+        private final Map<String, String> senders = new HashMap<>();
+        int partQueries;
+        int addressQueries;
+        int filesOpened;
+
+        FakeMmsProvider(File dir) {
+            this.dir = dir;
+        }
+
+        void addSender(String mmsId, String address) {
+            senders.put(mmsId, address);
+        }
+
+        void addPart(String mmsId, String contentType, String text, String fileText) {
+            String partId = String.valueOf(parts.size() + 1);
+            parts.add(new String[]{partId, mmsId, contentType, text});
+            if (fileText != null) {
+                partFiles.put(partId, fileText);
+            }
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() == 1 && segments.get(0).equals("part")) {
+                partQueries++;
+                assertTrue(selection.startsWith("ct IN ('text/plain', 'text/html')"));
+                Set<String> mids = new HashSet<>(Arrays.asList(selectionArgs));
+                MatrixCursor cursor = new MatrixCursor(projection);
+                for (String[] part : parts) {
+                    if (mids.contains(part[1]) && part[2].startsWith("text/")) {
+                        cursor.addRow(new Object[]{part[0], part[1], part[3]});
+                    }
+                }
+                return cursor;
+            }
+            if (segments.size() == 2 && segments.get(1).equals("addr")) {
+                addressQueries++;
+                MatrixCursor cursor = new MatrixCursor(projection);
+                String sender = senders.get(segments.get(0));
+                if (sender != null) {
+                    cursor.addRow(new Object[]{sender});
+                }
+                return cursor;
+            }
+            // MmsProvider logs "invalid request" and returns null for URIs it does not match
+            return null;
+        }
+
+        @Override
+        public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+            String text = partFiles.get(uri.getLastPathSegment());
+            if (text == null) {
+                throw new FileNotFoundException(uri.toString());
+            }
+            filesOpened++;
+            File file = new File(dir, "part_" + uri.getLastPathSegment());
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(text.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new FileNotFoundException(e.getMessage());
+            }
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+
+        @Override
+        public AssetFileDescriptor openAssetFile(Uri uri, String mode) throws FileNotFoundException {
+            return new AssetFileDescriptor(openFile(uri, mode), 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.childmonitorai.ml;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+// Builds the smallest model ToxicityAnalyzer accepts: FLOAT32 token IDs [1, sequence] in,
+// one FULLY_CONNECTED layer, FLOAT32 scores [1, labels] out. score[j] = bias[j] + sum over i
+// of weights[j][i] * token[i], so tests can compute the expected scores by hand.
+//
+// The model is written as a TFLite FlatBuffer (schema v3) without the flatbuffers library.
+// Every object is written after the one that points at it, so all offsets are positive.
+final class TinyClassifierModel {
+    private static final int TENSOR_FLOAT32 = 0;
+    private static final int OP_FULLY_CONNECTED = 9;
+    private static final int OPTIONS_FULLY_CONNECTED = 8;
+
+    private TinyClassifierModel() {
+    }
+
+    static ByteBuffer build(float[][] weights, float[] bias) {
+        int labels = weights.length;
+        int sequence = weights[0].length;
+        float[] flatWeights = new float[labels * sequence];
+        for (int j = 0; j < labels; j++) {
+            System.arraycopy(weights[j], 0, flatWeights, j * sequence, sequence);
+        }
+
+        Obj model = table(
+                scalar(0, 4, 3), // version
+                child(1, tables(table(
+                        scalar(0, 1, OP_FULLY_CONNECTED), // deprecated_builtin_code
+                        scalar(2, 4, 1), // version
+                        scalar(3, 4, OP_FULLY_CONNECTED)))), // builtin_code
+                child(2, tables(table( // subgraphs
+                        child(0, tables(
+                                tensor(new int[]{1, sequence}, 0, "input"),
+                                tensor(new int[]{labels, sequence}, 1, "weights"),
+                                tensor(new int[]{labels}, 2, "bias"),
+                                tensor(new int[]{1, labels}, 0, "scores"))),
+                        child(1, ints(0)),
+                        child(2, ints(3)),
+                        child(3, tables(table(
+                                scalar(0, 4, 0), // opcode_index
+                                child(1, ints(0, 1, 2)),
+                                child(2, ints(3)),
+                                scalar(3, 1, OPTIONS_FULLY_CONNECTED),
+                                child(4, table())))), // FullyConnectedOptions, all defaults
+                        child(4, string("main"))))),
+                child(3, string("tiny toxicity fixture")),
+                child(4, tables( // buffers; 0 is the empty sentinel
+                        table(),
+                        table(child(0, floats(flatWeights))),
+                        table(child(0, floats(bias))))));
+
+        Writer writer = new Writer();
+        writer.buffer.putInt(0); // root offset
+        writer.buffer.put("TFL3".getBytes(StandardCharsets.US_ASCII));
+        int root = model.write(writer);
+        writer.buffer.putInt(0, root);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(writer.buffer.position()).order(ByteOrder.nativeOrder());
+        writer.buffer.flip();
+        direct.put(writer.buffer);
+        direct.rewind();
+        return direct;
+    }
+
+    private interface Obj {
+        // Returns the position uoffsets to this object point at
+        int write(Writer writer);
+    }
+
+    private static final class Writer {
+        ByteBuffer buffer = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+
+        void align(int alignment) {
+            while (buffer.position() % alignment != 0) {
+                buffer.put((byte) 0);
+            }
+        }
+
+        // Points the uoffset at position at to target
+        void patch(int at, int target) {
+            buffer.putInt(at, target - at);
+        }
+    }
+
+    private static final class Field {
+        final int index;
+        final int size; // 1 or 4 for scalars
+        final long value;
+        final Obj child; // non-null for offset fields
+
+        Field(int index, int size, long value, Obj child) {
+            this.index = index;
+            this.size = size;
+            this.value = value;
+            this.child = child;
+        }
+    }
+
+    private static Field scalar(int index, int size, long value) {
+        return new Field(index, size, value, null);
+    }
+
+    private static Field child(int index, Obj child) {
+        return new Field(index, 4, 0, child);
+    }
+
+    // vtable, then the table (soffset to the vtable, then the fields), then the children
+    private static Obj table(Field... fields) {
+        return writer -> {
+            int slots = 0;
+            for (Field field : fields) {
+                slots = Math.max(slots, field.index + 1);
+            }
+            int[] fieldOffsets = new int[slots];
+            int size = 4;
+            for (Field field : fields) {
+                size = (size + field.size - 1) / field.size * field.size;
+                fieldOffsets[field.index] = size;
+                size += field.size;
+            }
+            size = (size + 3) / 4 * 4;
+
+            writer.align(2);
+            if ((writer.buffer.position() + 4 + 2 * slots) % 4 != 0) {
+                writer.buffer.putShort((short) 0); // keeps the table 4-aligned
+            }
+            int vtable = writer.buffer.position();
+            writer.buffer.putShort((short) (4 + 2 * slots));
+            writer.buffer.putShort((short) size);
+            for (int offset : fieldOffsets) {
+                writer.buffer.putShort((short) offset);
+            }
+
+            int table = writer.buffer.position();
+            writer.buffer.putInt(table - vtable);
+            int[] childAt = new int[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                Field field = fields[i];
+                writer.buffer.position(table + fieldOffsets[field.index]);
+                if (field.size == 1) {
+                    writer.buffer.put((byte) field.value);
+                } else {
+                    writer.buffer.putInt((int) field.value);
+                }
+                childAt[i] = table + fieldOffsets[field.index];
+            }
+            writer.buffer.position(table + size);
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].child != null) {
+                    writer.patch(childAt[i], fields[i].child.write(writer));
+                }
+            }
+            return table;
+        };
+    }
+
+    private static Obj tables(Obj... elements) {
+        return writer -> {
+            writer.align(4);
+            int vector = writer.buffer.position();
+            writer.buffer.putInt(elements.length);
+            for (int i = 0; i < elements.length; i++) {
+                writer.buffer.putInt(0);
+            }
+            for (int i = 0; i < elements.length; i++) {
+                writer.patch(vector + 4 + 4 * i, elements[i].write(writer));
+            }
+            return vector;
+        };
+    }
+
+    private static Obj ints(int... values) {
+        return writer -> {
+            writer.align(4);
+            int vector = writer.buffer.position();
+            writer.buffer.putInt(values.length);
+            for (int value : values) {
+                writer.buffer.putInt(value);
+            }
+            return vector;
+        };
+    }
+
+    // As a [ubyte] vector with the data 16-aligned, the way TFLite buffers are written
+    private static Obj floats(float[] values) {
+        return writer -> {
+            while ((writer.buffer.position() + 4) % 16 != 0) {
+                writer.buffer.put((byte) 0);
+            }
+            int vector = writer.buffer.position();
+            writer.buffer.putInt(values.length * 4);
+            for (float value : values) {
+                writer.buffer.putFloat(value);
+            }
+            return vector;
+        };
+    }
+
+    private static Obj string(String value) {
+        return writer -> {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writer.align(4);
+            int string = writer.buffer.position();
+            writer.buffer.putInt(bytes.length);
+            writer.buffer.put(bytes);
+            writer.buffer.put((byte) 0);
+            return string;
+        };
+    }
+
+    private static Obj tensor(int[] shape, int buffer, String name) {
+        return table(
+                child(0, ints(shape)),
+                scalar(1, 1, TENSOR_FLOAT32),
+                scalar(2, 4, buffer),
+                child(3, string(name)));
+    }
+}
@@ -0,0 +1,98 @@
+package com.childmonitorai.ml;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+// Runs ToxicityAnalyzer on the real TFLite runtime with TinyClassifierModel. With 4 tokens
+// per message, "toxicity" = 0.1 x the sum of the token IDs after <START> and "neutral" is a
+// constant 0.4, so "hate" (ID 10) scores 1.0 and "hello" (ID 3) 0.3.
+@RunWith(AndroidJUnit4.class)
+public class ToxicityAnalyzerTest {
+    private static final String VOCAB = "<PAD> 0\n<START> 1\n<UNKNOWN> 2\nhello 3\nhate 10\n";
+    private static final float DELTA = 1e-5f;
+
+    private ToxicityAnalyzer analyzer;
+
+    @Before
+    public void setUp() throws Exception {
+        analyzer = new ToxicityAnalyzer(
+                TinyClassifierModel.build(new float[][]{{0f, 0.1f, 0.1f, 0.1f}, {0f, 0f, 0f, 0f}}, new float[]{0f, 0.4f}),
+                Arrays.asList("toxicity", "neutral"),
+                new ByteArrayInputStream(VOCAB.getBytes(StandardCharsets.UTF_8)));
+        assertTrue(analyzer.isAvailable());
+    }
+
+    @After
+    public void tearDown() {
+        analyzer.close();
+    }
+
+    @Test
+    public void singleMessageIsScored() {
+        ToxicityAnalyzer.Result result = analyzer.analyze("hate");
+
+        assertNotNull(result);
+        assertTrue(result.isToxic);
+        assertEquals("toxicity", result.highestLabel);
+        assertEquals(1.0, result.highestScore, DELTA);
+        assertEquals(0.4f, result.scores.get("neutral"), DELTA);
+    }
+
+    // The tensors switch between batch size 1 and 16; each shape needs a buffer of its size
+    @Test
+    public void singleAndBatchedPassesAlternate() {
+        for (int round = 0; round < 3; round++) {
+            List<ToxicityAnalyzer.Result> batch = analyzer.analyzeBatch(Arrays.asList("hello", "hate", "zzz"));
+            assertNotNull(batch);
+            assertEquals(0.3f, batch.get(0).scores.get("toxicity"), DELTA);
+            assertEquals(1.0f, batch.get(1).scores.get("toxicity"), DELTA);
+            assertEquals(0.2f, batch.get(2).scores.get("toxicity"), DELTA); // <UNKNOWN>
+
+            ToxicityAnalyzer.Result single = analyzer.analyze("hello");
+            assertNotNull(single);
+            assertFalse(single.isToxic);
+            assertEquals("neutral", single.highestLabel);
+        }
+    }
+
+    // 33 messages run as 16 + 16 + 1, so the shape changes within one call
+    @Test
+    public void longListsAreSplitIntoBatches() {
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 33; i++) {
+            texts.add(i % 2 == 0 ? "hello" : "hate hate");
+        }
+
+        List<ToxicityAnalyzer.Result> results = analyzer.analyzeBatch(texts);
+
+        assertNotNull(results);
+        assertEquals(33, results.size());
+        for (int i = 0; i < 33; i++) {
+            assertEquals("message " + i, i % 2 == 0 ? 0.3f : 2.0f, results.get(i).scores.get("toxicity"), DELTA);
+        }
+    }
+
+    @Test
+    public void textsAreCutToTheSequenceLength() {
+        // <START> plus the first three words
+        ToxicityAnalyzer.Result result = analyzer.analyze("hate hate hate hate hate");
+
+        assertNotNull(result);
+        assertEquals(3.0, result.highestScore, DELTA);
+    }
+}
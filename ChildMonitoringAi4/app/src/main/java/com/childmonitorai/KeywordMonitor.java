@@ -1,5 +1,7 @@
 package com.childmonitorai;
 
+import com.childmonitorai.helpers.KeywordMatcher;
+
 import java.util.Arrays;
 import java.util.List;
 
@@ -17,6 +19,7 @@ public class KeywordMonitor {
         "betting.com",
         "casino.com"
     );
+    private static final KeywordMatcher FLAGGED_MATCHER = KeywordMatcher.compile(FLAGGED_CONTENT);
 
     // Hardcoded parent device token for testing
     private static final String PARENT_DEVICE_TOKEN = "your_test_device_token_here";
@@ -26,14 +29,7 @@ public class KeywordMonitor {
     }
 
     public boolean isFlaggedContent(String content) {
-        if (content == null) return false;
-        String lowerContent = content.toLowerCase();
-        for (String keyword : FLAGGED_CONTENT) {
-            if (lowerContent.contains(keyword)) {
-                return true;
-            }
-        }
-        return false;
+        return FLAGGED_MATCHER.matches(content);
     }
 
     public String getParentDeviceToken() {
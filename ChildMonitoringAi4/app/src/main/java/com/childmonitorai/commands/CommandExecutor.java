@@ -2,6 +2,7 @@ package com.childmonitorai.commands;
 import com.childmonitorai.MessageDisplayActivity;
 import com.childmonitorai.database.FirebaseStorageHelper;
 import com.childmonitorai.helpers.CameraHelper;
+import com.childmonitorai.helpers.ContactNameResolver;
 import com.childmonitorai.models.Command;
 
 
@@ -44,6 +45,7 @@ public class CommandExecutor {
     private Context context;
     private FirebaseStorageHelper storageHelper;
     private CameraHelper cameraHelper;
+    private ContactNameResolver contactNameResolver;
 
     public CommandExecutor(String userId, String deviceId, Context context) {
         this.userId = userId;
@@ -52,6 +54,8 @@ public class CommandExecutor {
         this.mDatabase = FirebaseDatabase.getInstance().getReference();
         this.storageHelper = new FirebaseStorageHelper();
         this.cameraHelper = new CameraHelper(context, userId, deviceId, storageHelper, this::updateCommandStatus);
+        this.contactNameResolver = ContactNameResolver.getInstance();
+        contactNameResolver.initialize(context);
     }
 
 
@@ -184,6 +188,7 @@ public class CommandExecutor {
             StringBuilder result = new StringBuilder();
             SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
             int count = 0;
+            contactNameResolver.preload(); // one contacts query instead of one per row
 
             while (cursor.moveToNext() && count < dataCount) {
                 String number = cursor.getString(numberIndex);
@@ -192,8 +197,9 @@ public class CommandExecutor {
                 int duration = cursor.getInt(durationIndex);
 
                 result.append("Call ").append(count + 1).append(":\n")
-                        .append("Number: ").append(number).append("\n")
-                        .append("Date: ").append(dateFormat.format(new Date(callDate))).append("\n")
+                        .append("Number: ").append(number).append("\n");
+                appendContactName(result, number);
+                result.append("Date: ").append(dateFormat.format(new Date(callDate))).append("\n")
                         .append("Type: ").append(getCallTypeString(callType)).append("\n")
                         .append("Duration: ").append(duration).append(" seconds\n\n");
 
@@ -317,6 +323,7 @@ public class CommandExecutor {
             StringBuilder result = new StringBuilder();
             SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
             int count = 0;
+            contactNameResolver.preload(); // one contacts query instead of one per row
 
             while (cursor.moveToNext() && count < dataCount) {
                 String address = cursor.getString(addressIndex);
@@ -325,8 +332,9 @@ public class CommandExecutor {
                 int type = cursor.getInt(typeIndex);
 
                 result.append("SMS ").append(count + 1).append(":\n")
-                        .append("Address: ").append(address).append("\n")
-                        .append("Date: ").append(dateFormat.format(new Date(smsDate))).append("\n")
+                        .append("Address: ").append(address).append("\n");
+                appendContactName(result, address);
+                result.append("Date: ").append(dateFormat.format(new Date(smsDate))).append("\n")
                         .append("Type: ").append(getSmsTypeString(type)).append("\n")
                         .append("Body: ").append(body).append("\n\n");
 
@@ -342,6 +350,13 @@ public class CommandExecutor {
         }
     }
 
+    private void appendContactName(StringBuilder result, String phoneNumber) {
+        String name = contactNameResolver.resolve(phoneNumber);
+        if (name != null) {
+            result.append("Name: ").append(name).append("\n");
+        }
+    }
+
     private void vibratePhone(String date, String timestamp, int duration) {
         Vibrator vibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
         if (vibrator == null || !vibrator.hasVibrator()) {
@@ -0,0 +1,151 @@
+package com.childmonitorai.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Rows waiting to be packed into an archive chunk. ArchiveWriter stores every row here as it
+// arrives and deletes it once the chunk holding it is in the outbox, so rows survive the
+// process without being uploaded one node at a time. A row written again under the same
+// stream and key replaces the pending one. Only ArchiveWriter's worker thread touches this
+// class.
+class ArchiveJournal extends SQLiteOpenHelper {
+    private static final String TAG = "ArchiveJournal";
+    private static final String DB_NAME = "archive_journal.db";
+    private static final int DB_VERSION = 1;
+
+    private static final String TABLE = "rows";
+    private static final String COL_ID = "_id";
+    private static final String COL_STREAM = "stream"; // "{uid}/phones/{model}/{type}"
+    private static final String COL_DATE = "date";
+    private static final String COL_HOUR = "hour";
+    private static final String COL_KEY = "record_key";
+    private static final String COL_TIMESTAMP = "timestamp";
+    private static final String COL_FIELDS = "fields";
+
+    static class Row {
+        long id = -1; // -1 until stored
+        final String stream;
+        final String date;
+        final String hour;
+        final String key;
+        final long timestamp;
+        final Map<String, Object> fields;
+
+        Row(String stream, String date, String hour, String key, long timestamp, Map<String, Object> fields) {
+            this.stream = stream;
+            this.date = date;
+            this.hour = hour;
+            this.key = key;
+            this.timestamp = timestamp;
+            this.fields = fields;
+        }
+    }
+
+    ArchiveJournal(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COL_STREAM + " TEXT NOT NULL, "
+                + COL_DATE + " TEXT NOT NULL, "
+                + COL_HOUR + " TEXT NOT NULL, "
+                + COL_KEY + " TEXT NOT NULL, "
+                + COL_TIMESTAMP + " INTEGER NOT NULL, "
+                + COL_FIELDS + " TEXT, "
+                + "UNIQUE (" + COL_STREAM + ", " + COL_KEY + "))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    // Returns the row id, or -1 if the row could not be persisted
+    long put(Row row) {
+        ContentValues values = new ContentValues();
+        values.put(COL_STREAM, row.stream);
+        values.put(COL_DATE, row.date);
+        values.put(COL_HOUR, row.hour);
+        values.put(COL_KEY, row.key);
+        values.put(COL_TIMESTAMP, row.timestamp);
+        values.put(COL_FIELDS, UploadOutbox.encode(row.fields));
+        try {
+            return getWritableDatabase().insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to persist archive row " + row.stream + "/" + row.key + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    // Oldest rows first, skipping the ones already handed to the outbox
+    @SuppressWarnings("unchecked")
+    List<Row> load(Set<Long> excludedIds) {
+        List<Row> rows = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE,
+                new String[]{COL_ID, COL_STREAM, COL_DATE, COL_HOUR, COL_KEY, COL_TIMESTAMP, COL_FIELDS},
+                null, null, null, null, COL_ID + " ASC")) {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                if (excludedIds.contains(id)) continue;
+                try {
+                    Row row = new Row(cursor.getString(1), cursor.getString(2), cursor.getString(3),
+                            cursor.getString(4), cursor.getLong(5), (Map<String, Object>) UploadOutbox.decode(cursor.getString(6)));
+                    row.id = id;
+                    rows.add(row);
+                } catch (JSONException | ClassCastException e) {
+                    Log.e(TAG, "Dropping unreadable archive row " + cursor.getString(4));
+                    delete(id);
+                }
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to read archive journal: " + e.getMessage());
+        }
+        return rows;
+    }
+
+    private void delete(long id) {
+        try {
+            getWritableDatabase().delete(TABLE, COL_ID + " = ?", new String[]{String.valueOf(id)});
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to delete archive row: " + e.getMessage());
+        }
+    }
+
+    void delete(List<Long> ids) {
+        if (ids.isEmpty()) return;
+        SQLiteDatabase db;
+        try {
+            db = getWritableDatabase();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to open archive journal: " + e.getMessage());
+            return;
+        }
+        db.beginTransaction();
+        try {
+            for (Long id : ids) {
+                db.delete(TABLE, COL_ID + " = ?", new String[]{String.valueOf(id)});
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to delete archived rows: " + e.getMessage());
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.childmonitorai.database;
+
+import android.content.Context;
+import android.util.Base64;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Archive mode for high-volume streams (web visits, location, clipboard). Instead of one push
+// node per record, records are packed into ChunkCodec chunks stored as single nodes under
+// "<type>_archive/<date>/<chunkId>", with a small entry under
+// "<type>_archive_index/<date>/<chunkId>" so the dashboard can find chunks without
+// downloading them. Enabled per device by preferences/settings/archiveMode.
+//
+// Rows go to ArchiveJournal as they arrive. Every flush packs the rows that arrived since the
+// previous one into a new, immutable chunk per hour and hands it to the outbox, then drops
+// those rows from the journal; a chunk is never re-encoded or re-uploaded. The chunk id is
+// "<hour>_<first journal row id>", so rebuilding a chunk after a crash rewrites the same
+// path. A record written again with the same key (a web visit's duration, say) shows up
+// again in a later chunk; readers keep the last version by key (databaseKey for web visits).
+public class ArchiveWriter {
+    private static final String TAG = "ArchiveWriter";
+    private static final String SETTING_KEY = "archiveMode";
+    private static final long FLUSH_DELAY_MS = 60 * 1000; // 1 minute
+    private static final int MAX_ROWS_PER_CHUNK = 2000;
+
+    private static ArchiveWriter instance;
+
+    private final BatchUploader batchUploader;
+    private final ScheduledExecutorService scheduler;
+    private final Set<String> watchedDevices = new HashSet<>();
+    private final Map<String, Boolean> enabledDevices = new HashMap<>();
+    private boolean initialized;
+
+    // Only touched on the scheduler thread
+    private ArchiveJournal journal; // null until initialize()
+    private final List<ArchiveJournal.Row> unjournaled = new ArrayList<>(); // before initialize() or after a disk error
+    private final Map<String, List<TaskCompletionSource<Void>>> waiting = new HashMap<>(); // stream/key -> append() callers
+    private final Set<Long> inFlight = new HashSet<>(); // row ids handed to the outbox, not yet accepted
+    private ScheduledFuture<?> scheduledFlush;
+
+    private ArchiveWriter() {
+        batchUploader = BatchUploader.getInstance();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    public static synchronized ArchiveWriter getInstance() {
+        if (instance == null) {
+            instance = new ArchiveWriter();
+        }
+        return instance;
+    }
+
+    // Starts listening to the device's archiveMode setting on first use; false until loaded
+    public synchronized boolean isEnabled(String userId, String phoneModel) {
+        String device = userId + "/phones/" + phoneModel;
+        if (watchedDevices.add(device)) {
+            FirebaseDatabase.getInstance().getReference("users").child(userId).child("phones").child(phoneModel)
+                    .child("preferences").child("settings").child(SETTING_KEY)
+                    .addValueEventListener(new ValueEventListener() {
+                        @Override
+                        public void onDataChange(DataSnapshot snapshot) {
+                            Boolean enabled = snapshot.getValue(Boolean.class);
+                            synchronized (ArchiveWriter.this) {
+                                enabledDevices.put(device, enabled != null && enabled);
+                            }
+                            Log.d(TAG, "Archive mode for " + phoneModel + ": " + enabled);
+                        }
+
+                        @Override
+                        public void onCancelled(DatabaseError error) {
+                            Log.e(TAG, "Failed to read archive setting: " + error.getMessage());
+                        }
+                    });
+        }
+        Boolean enabled = enabledDevices.get(device);
+        return enabled != null && enabled;
+    }
+
+    // Opens the journal and packs the rows a previous run left in it
+    public void initialize(Context context) {
+        synchronized (this) {
+            if (initialized) return;
+            initialized = true;
+        }
+
+        Context appContext = context.getApplicationContext();
+        scheduler.execute(() -> {
+            journal = new ArchiveJournal(appContext);
+            List<ArchiveJournal.Row> early = new ArrayList<>(unjournaled);
+            unjournaled.clear();
+            for (ArchiveJournal.Row row : early) {
+                store(row);
+            }
+            flushNow();
+        });
+    }
+
+    // Adds a record to its hour's stream, replacing a pending one with the same key. The task
+    // completes once a chunk containing this version of the record has been committed.
+    public Task<Void> append(String userId, String phoneModel, String dataType, String key,
+                             long timestamp, Map<String, Object> fields) {
+        Date time = new Date(timestamp);
+        String date = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(time);
+        String hour = new SimpleDateFormat("HH", Locale.getDefault()).format(time);
+        Map<String, Object> rowFields = new HashMap<>(fields);
+        rowFields.remove("timestamp"); // stored in the delta-encoded timestamp column
+        ArchiveJournal.Row row = new ArchiveJournal.Row(userId + "/phones/" + phoneModel + "/" + dataType,
+                date, hour, key, timestamp, rowFields);
+
+        TaskCompletionSource<Void> completion = new TaskCompletionSource<>();
+        scheduler.execute(() -> {
+            List<TaskCompletionSource<Void>> callers = waiting.get(row.stream + "/" + row.key);
+            if (callers == null) {
+                callers = new ArrayList<>();
+                waiting.put(row.stream + "/" + row.key, callers);
+            }
+            callers.add(completion);
+            store(row);
+            if (scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flushNow, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        });
+        return completion.getTask();
+    }
+
+    public void flush() {
+        scheduler.execute(this::flushNow);
+    }
+
+    private void store(ArchiveJournal.Row row) {
+        row.id = journal != null ? journal.put(row) : -1;
+        if (row.id == -1) {
+            unjournaled.add(row);
+        }
+    }
+
+    private void flushNow() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+
+        // One chunk per stream and hour, latest version per key, at most MAX_ROWS_PER_CHUNK rows
+        List<ArchiveJournal.Row> pending = journal != null
+                ? journal.load(inFlight) : new ArrayList<ArchiveJournal.Row>();
+        pending.addAll(unjournaled);
+        unjournaled.clear();
+        Map<String, List<Map<String, ArchiveJournal.Row>>> groups = new LinkedHashMap<>();
+        for (ArchiveJournal.Row row : pending) {
+            String group = row.stream + "/" + row.date + "/" + row.hour;
+            List<Map<String, ArchiveJournal.Row>> chunks = groups.get(group);
+            if (chunks == null) {
+                chunks = new ArrayList<>();
+                groups.put(group, chunks);
+            }
+            Map<String, ArchiveJournal.Row> chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if (chunk == null || (chunk.size() >= MAX_ROWS_PER_CHUNK && !chunk.containsKey(row.key))) {
+                chunk = new LinkedHashMap<>();
+                chunks.add(chunk);
+            }
+            chunk.put(row.key, row);
+        }
+
+        for (List<Map<String, ArchiveJournal.Row>> chunks : groups.values()) {
+            for (Map<String, ArchiveJournal.Row> chunk : chunks) {
+                write(new ArrayList<>(chunk.values()));
+            }
+        }
+    }
+
+    private void write(List<ArchiveJournal.Row> chunk) {
+        ArchiveJournal.Row head = chunk.get(0);
+        List<Long> rowIds = new ArrayList<>();
+        List<TaskCompletionSource<Void>> completions = new ArrayList<>();
+        List<ChunkCodec.Row> rows = new ArrayList<>();
+        for (ArchiveJournal.Row row : chunk) {
+            if (row.id != -1) {
+                rowIds.add(row.id);
+            }
+            List<TaskCompletionSource<Void>> callers = waiting.remove(row.stream + "/" + row.key);
+            if (callers != null) {
+                completions.addAll(callers);
+            }
+            rows.add(new ChunkCodec.Row(row.timestamp, row.fields));
+        }
+        Collections.sort(rows, (a, b) -> Long.compare(a.timestamp, b.timestamp));
+
+        byte[] encoded;
+        try {
+            encoded = ChunkCodec.encode(rows);
+        } catch (IOException e) {
+            // Not something a retry fixes; the rows stay in the journal until they can be read
+            Log.e(TAG, "Failed to encode archive chunk for " + head.stream + ": " + e.getMessage());
+            for (TaskCompletionSource<Void> completion : completions) {
+                completion.trySetException(e);
+            }
+            return;
+        }
+
+        // Journal row ids are never reused; rows kept only in memory fall back to the clock
+        String chunkId = head.hour + "_" + (rowIds.isEmpty() ? System.currentTimeMillis() : Collections.min(rowIds));
+        String chunkPath = head.stream + "_archive/" + head.date + "/" + chunkId;
+        String indexPath = head.stream + "_archive_index/" + head.date + "/" + chunkId;
+        long first = rows.get(0).timestamp;
+        long last = rows.get(rows.size() - 1).timestamp;
+
+        Map<String, Object> chunkValue = new HashMap<>();
+        chunkValue.put("encoding", ChunkCodec.ENCODING);
+        chunkValue.put("data", Base64.encodeToString(encoded, Base64.NO_WRAP));
+        chunkValue.put("count", rows.size());
+        chunkValue.put("first", first);
+        chunkValue.put("last", last);
+
+        Map<String, Object> indexValue = new HashMap<>();
+        indexValue.put("count", rows.size());
+        indexValue.put("first", first);
+        indexValue.put("last", last);
+        indexValue.put("bytes", encoded.length);
+
+        // Once the outbox holds the chunk, it is responsible for it and the rows can go
+        inFlight.addAll(rowIds);
+        TaskCompletionSource<Void> accepted = new TaskCompletionSource<>();
+        batchUploader.enqueue("archive", chunkPath, chunkValue, null, accepted)
+                .addOnSuccessListener(aVoid -> {
+                    Log.d(TAG, "Archived " + rows.size() + " records in " + encoded.length + " bytes: " + chunkPath);
+                    for (TaskCompletionSource<Void> completion : completions) {
+                        completion.trySetResult(null);
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    for (TaskCompletionSource<Void> completion : completions) {
+                        completion.trySetException(e);
+                    }
+                });
+        // After the chunk: a flush triggered between the two calls, and outbox replays, which
+        // go oldest first, then never publish an index entry before the chunk it points at
+        batchUploader.enqueue("archive", indexPath, indexValue);
+        accepted.getTask().addOnCompleteListener(scheduler, task -> {
+            inFlight.removeAll(rowIds);
+            if (task.isSuccessful()) {
+                if (journal != null) {
+                    journal.delete(rowIds);
+                }
+            } else if (!rowIds.isEmpty() && scheduledFlush == null) {
+                // Not in the outbox and not committed; pack the rows again later
+                scheduledFlush = scheduler.schedule(this::flushNow, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+}
@@ -0,0 +1,561 @@
+package com.childmonitorai.database;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.childmonitorai.helpers.MonitorMetrics;
+import com.childmonitorai.helpers.NetworkHelper;
+import com.childmonitorai.models.RecordSerializer;
+import com.childmonitorai.models.RecordWriter;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DatabaseException;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Write-behind queue shared by all monitors. Records are grouped per data type and
+// flushed as a single multi-path updateChildren() once the batch is full or too old.
+// Once initialize() has been called every record is also written to an on-device outbox
+// first and only removed after Firebase acknowledges it, so records survive process death
+// and are replayed with exponential backoff on restart or when the network returns.
+// Alert batches are sent as soon as they are enqueued, and batches of BULK data types are
+// held (see UploadScheduler) until an unmetered network or charger is available.
+public class BatchUploader {
+    private static final String TAG = "BatchUploader";
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 20;
+    private static final long DEFAULT_MAX_DELAY_MS = 5 * 1000; // 5 seconds
+
+    private static final int REPLAY_BATCH_SIZE = 100;
+    private static final long REPLAY_BASE_DELAY_MS = 5 * 1000; // 5 seconds
+    private static final long REPLAY_MAX_DELAY_MS = 15 * 60 * 1000; // 15 minutes
+    private static final int TRIM_EVERY_WRITES = 500;
+    private static final int MAX_HELD_RECORDS = 1000; // per data type, sent anyway beyond this
+
+    private static BatchUploader instance;
+
+    private final DatabaseReference usersRef;
+    private final ScheduledExecutorService scheduler;
+    private final Random random = new Random();
+    private final Map<String, FlushPolicy> policies = new HashMap<>();
+    private final UploadScheduler uploadScheduler;
+    private boolean initialized;
+
+    // Everything below is only touched from the scheduler thread
+    private final Map<String, List<PendingWrite>> pendingWrites = new HashMap<>();
+    private final Map<String, ScheduledFuture<?>> scheduledFlushes = new HashMap<>();
+    private final Set<Long> liveRowIds = new HashSet<>(); // outbox rows owned by a live batch
+    private final Map<String, Long> heldSince = new HashMap<>(); // bulk data type -> first held
+    private UploadOutbox outbox;
+    private ScheduledFuture<?> scheduledReplay;
+    private boolean replayInFlight;
+    private boolean bulkReplayRequested;
+    private int replayFailures;
+    private int writesSinceTrim;
+
+    public static class FlushPolicy {
+        private final int maxBatchSize;
+        private final long maxDelayMs;
+
+        public FlushPolicy(int maxBatchSize, long maxDelayMs) {
+            this.maxBatchSize = Math.max(1, maxBatchSize);
+            this.maxDelayMs = Math.max(0, maxDelayMs);
+        }
+
+        public int getMaxBatchSize() { return maxBatchSize; }
+        public long getMaxDelayMs() { return maxDelayMs; }
+    }
+
+    private static class PendingWrite {
+        final String path;
+        final Object value;
+        final RecordSerializer<Object> serializer; // null when value is already a Firebase value
+        final TaskCompletionSource<Void> completion = new TaskCompletionSource<>();
+        final long enqueuedAt = System.currentTimeMillis();
+        final TaskCompletionSource<Void> accepted; // optional, see enqueue(..., accepted)
+        long rowId = -1;
+
+        PendingWrite(String path, Object value, RecordSerializer<?> serializer) {
+            this(path, value, serializer, null);
+        }
+
+        @SuppressWarnings("unchecked")
+        PendingWrite(String path, Object value, RecordSerializer<?> serializer, TaskCompletionSource<Void> accepted) {
+            this.path = path;
+            this.value = value;
+            this.serializer = (RecordSerializer<Object>) serializer;
+            this.accepted = accepted;
+        }
+    }
+
+    // Writes serialized fields as "{path}/{field}" entries of the batch payload
+    static class PayloadWriter implements RecordWriter {
+        final TreeMap<String, Object> updates;
+        String prefix;
+        // True when nothing else in the payload overlaps the record, so its fields can be
+        // put directly instead of being collapsed one by one
+        boolean direct;
+
+        PayloadWriter(TreeMap<String, Object> updates) {
+            this.updates = updates;
+        }
+
+        void begin(String path) {
+            prefix = path + "/";
+            direct = !overlaps(updates, path);
+        }
+
+        @Override
+        public void write(String field, Object value) {
+            if (direct) {
+                updates.put(prefix + field, value);
+            } else {
+                putCollapsed(updates, prefix + field, value);
+            }
+        }
+    }
+
+    private BatchUploader() {
+        usersRef = FirebaseDatabase.getInstance().getReference("users");
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        uploadScheduler = UploadScheduler.getInstance();
+
+        // Defaults per data type, can be overridden through setFlushPolicy()
+        policies.put("notifications", new FlushPolicy(1, 0));
+        policies.put("calls", new FlushPolicy(20, 5 * 1000));
+        policies.put("sms", new FlushPolicy(20, 5 * 1000));
+        policies.put("mms", new FlushPolicy(10, 5 * 1000));
+        policies.put("location", new FlushPolicy(10, 60 * 1000));
+        policies.put("social_media_messages", new FlushPolicy(50, 3 * 1000));
+        policies.put("web_visits", new FlushPolicy(20, 10 * 1000));
+        policies.put("clipboard", new FlushPolicy(10, 10 * 1000));
+        policies.put("apps", new FlushPolicy(50, 10 * 1000));
+        policies.put("app_sessions", new FlushPolicy(50, 30 * 1000));
+    }
+
+    public static synchronized BatchUploader getInstance() {
+        if (instance == null) {
+            instance = new BatchUploader();
+        }
+        return instance;
+    }
+
+    // Opens the outbox and replays anything left over from a previous run
+    public void initialize(Context context) {
+        synchronized (this) {
+            if (initialized) return;
+            initialized = true;
+        }
+
+        Context appContext = context.getApplicationContext();
+        scheduler.execute(() -> {
+            outbox = new UploadOutbox(appContext);
+            replay();
+        });
+
+        NetworkHelper.getInstance().initialize(appContext);
+        NetworkHelper.getInstance().addListener(() -> scheduler.execute(() -> {
+            // Connectivity is back, retry right away instead of waiting out the backoff
+            replayFailures = 0;
+            cancelScheduledReplay();
+            replay();
+        }));
+    }
+
+    public synchronized void setFlushPolicy(String dataType, int maxBatchSize, long maxDelayMs) {
+        policies.put(dataType, new FlushPolicy(maxBatchSize, maxDelayMs));
+    }
+
+    public synchronized FlushPolicy getFlushPolicy(String dataType) {
+        FlushPolicy policy = policies.get(dataType);
+        return policy != null ? policy : new FlushPolicy(DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_DELAY_MS);
+    }
+
+    // path is relative to the "users" node, e.g. "{uid}/phones/{model}/sms/{date}/{id}".
+    // The returned task completes once the batch containing this record is committed.
+    public Task<Void> enqueue(String dataType, String path, Object value) {
+        PendingWrite write = new PendingWrite(path, value, null);
+        scheduler.execute(() -> addWrite(dataType, write));
+        return write.completion.getTask();
+    }
+
+    // Same as enqueue() but the record is only serialized when its batch is flushed,
+    // straight into the payload, instead of being turned into a map up front
+    public <T> Task<Void> enqueue(String dataType, String path, T record, RecordSerializer<T> serializer) {
+        PendingWrite write = new PendingWrite(path, record, serializer);
+        scheduler.execute(() -> addWrite(dataType, write));
+        return write.completion.getTask();
+    }
+
+    // Same as enqueue(), and also completes accepted once the record is stored in the outbox,
+    // so callers can advance their own checkpoints without waiting for Firebase. Without an
+    // outbox (before initialize(), or if the write to it failed) accepted follows the commit.
+    // A null serializer means record is already a Firebase value.
+    public <T> Task<Void> enqueue(String dataType, String path, T record, RecordSerializer<T> serializer,
+                                  TaskCompletionSource<Void> accepted) {
+        PendingWrite write = new PendingWrite(path, record, serializer, accepted);
+        scheduler.execute(() -> addWrite(dataType, write));
+        return write.completion.getTask();
+    }
+
+    public void flush(String dataType) {
+        scheduler.execute(() -> flushNow(dataType));
+    }
+
+    public void flushAll() {
+        scheduler.execute(() -> {
+            for (String dataType : new ArrayList<>(pendingWrites.keySet())) {
+                flushNow(dataType);
+            }
+        });
+    }
+
+    private void addWrite(String dataType, PendingWrite write) {
+        if (outbox != null) {
+            write.rowId = write.serializer != null
+                    ? outbox.put(dataType, write.path, write.value, write.serializer)
+                    : outbox.put(dataType, write.path, write.value);
+            if (write.rowId != -1) {
+                liveRowIds.add(write.rowId);
+            }
+            if (++writesSinceTrim >= TRIM_EVERY_WRITES) {
+                writesSinceTrim = 0;
+                outbox.trim();
+            }
+        }
+        if (write.accepted != null) {
+            if (write.rowId != -1) {
+                write.accepted.trySetResult(null);
+            } else {
+                write.completion.getTask()
+                        .addOnSuccessListener(aVoid -> write.accepted.trySetResult(null))
+                        .addOnFailureListener(write.accepted::trySetException);
+            }
+        }
+
+        List<PendingWrite> queue = pendingWrites.get(dataType);
+        if (queue == null) {
+            queue = new ArrayList<>();
+            pendingWrites.put(dataType, queue);
+        }
+        queue.add(write);
+
+        FlushPolicy policy = getFlushPolicy(dataType);
+        if (queue.size() >= policy.getMaxBatchSize() || policy.getMaxDelayMs() == 0) {
+            flushNow(dataType);
+        } else if (!scheduledFlushes.containsKey(dataType)) {
+            scheduledFlushes.put(dataType,
+                    scheduler.schedule(() -> flushNow(dataType), policy.getMaxDelayMs(), TimeUnit.MILLISECONDS));
+        }
+    }
+
+    // Sends held bulk batches and the bulk records waiting in the outbox, whatever the
+    // current conditions. Completes once every held record has been attempted.
+    Task<Void> flushBulk() {
+        TaskCompletionSource<Void> done = new TaskCompletionSource<>();
+        scheduler.execute(() -> {
+            List<Task<Void>> attempts = new ArrayList<>();
+            for (String dataType : uploadScheduler.getDataTypes(UploadPriority.BULK)) {
+                List<PendingWrite> held = pendingWrites.get(dataType);
+                if (held == null) continue;
+                for (PendingWrite write : held) {
+                    attempts.add(write.completion.getTask());
+                }
+                flushNow(dataType, true);
+            }
+            replay(true);
+            Tasks.whenAll(attempts).addOnCompleteListener(task -> done.trySetResult(null));
+        });
+        return done.getTask();
+    }
+
+    private void flushNow(String dataType) {
+        flushNow(dataType, false);
+    }
+
+    private void flushNow(String dataType, boolean force) {
+        ScheduledFuture<?> scheduled = scheduledFlushes.remove(dataType);
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        List<PendingWrite> batch = pendingWrites.get(dataType);
+        if (batch == null || batch.isEmpty()) {
+            pendingWrites.remove(dataType);
+            return;
+        }
+        if (!force && hold(dataType, batch.size())) {
+            return;
+        }
+        pendingWrites.remove(dataType);
+        heldSince.remove(dataType);
+
+        // Later writes to the same path win, matching the old setValue() ordering
+        TreeMap<String, Object> updates = new TreeMap<>();
+        PayloadWriter payload = new PayloadWriter(updates);
+        List<Long> rowIds = new ArrayList<>();
+        for (PendingWrite write : batch) {
+            if (write.serializer != null) {
+                payload.begin(write.path);
+                write.serializer.serialize(write.value, payload);
+            } else {
+                putCollapsed(updates, write.path, write.value);
+            }
+            if (write.rowId != -1) {
+                rowIds.add(write.rowId);
+            }
+        }
+
+        MonitorMetrics metrics = MonitorMetrics.forDataType(dataType);
+        long payloadBytes = MonitorMetrics.estimateSize(updates);
+        Task<Void> commit;
+        try {
+            commit = usersRef.updateChildren(updates);
+        } catch (DatabaseException e) {
+            // Rejected before anything was sent (invalid path or value); the records stay in
+            // the outbox and replay sorts out which of them Firebase refuses
+            failBatch(dataType, batch, rowIds, metrics, e);
+            return;
+        }
+        commit.addOnSuccessListener(aVoid -> {
+                    Log.d(TAG, "Flushed " + batch.size() + " " + dataType + " records in one batch.");
+                    long now = System.currentTimeMillis();
+                    metrics.recordBytes(payloadBytes);
+                    for (PendingWrite write : batch) {
+                        metrics.recordUpload(now - write.enqueuedAt);
+                    }
+                    scheduler.execute(() -> acknowledge(rowIds));
+                    for (PendingWrite write : batch) {
+                        write.completion.trySetResult(null);
+                    }
+                })
+                .addOnFailureListener(e -> failBatch(dataType, batch, rowIds, metrics, e));
+    }
+
+    private void failBatch(String dataType, List<PendingWrite> batch, List<Long> rowIds,
+                           MonitorMetrics metrics, Exception e) {
+        Log.e(TAG, "Failed to flush " + dataType + " batch: " + e.getMessage());
+        metrics.recordError();
+        // The records stay in the outbox and are handed over to replay
+        scheduler.execute(() -> {
+            liveRowIds.removeAll(rowIds);
+            scheduleReplay();
+        });
+        for (PendingWrite write : batch) {
+            write.completion.trySetException(e);
+        }
+    }
+
+    // Adds path = value to a multi-path update, keeping it valid: Firebase rejects an update
+    // that contains both a path and one of its descendants. A later write to a path replaces
+    // the earlier writes below it, and a later write below an earlier one is merged into that
+    // earlier value, so the result is the same as applying the writes in order.
+    static void putCollapsed(TreeMap<String, Object> updates, String path, Object value) {
+        // '0' follows '/', so this range holds exactly the keys below path
+        updates.subMap(path + "/", path + "0").clear();
+
+        for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+            String ancestor = path.substring(0, slash);
+            if (!updates.containsKey(ancestor)) continue;
+
+            Map<String, Object> merged = copyOf(updates.get(ancestor));
+            Map<String, Object> node = merged;
+            String[] segments = path.substring(slash + 1).split("/");
+            for (int i = 0; i < segments.length - 1; i++) {
+                Map<String, Object> child = copyOf(node.get(segments[i]));
+                node.put(segments[i], child);
+                node = child;
+            }
+            if (value != null) {
+                node.put(segments[segments.length - 1], value);
+            } else {
+                node.remove(segments[segments.length - 1]);
+            }
+            updates.put(ancestor, merged);
+            return;
+        }
+        updates.put(path, value);
+    }
+
+    // Whether the payload already holds path itself, one of its ancestors or descendants
+    static boolean overlaps(TreeMap<String, Object> updates, String path) {
+        if (updates.containsKey(path) || !updates.subMap(path + "/", path + "0").isEmpty()) {
+            return true;
+        }
+        for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+            if (updates.containsKey(path.substring(0, slash))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A deleted or scalar node becomes an empty map that children can be written into
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> copyOf(Object value) {
+        return value instanceof Map ? new HashMap<>((Map<String, Object>) value) : new HashMap<String, Object>();
+    }
+
+    // Keeps a bulk batch queued while sending it is not allowed, until it has waited
+    // MAX_BULK_HOLD_MS or grown to MAX_HELD_RECORDS
+    private boolean hold(String dataType, int size) {
+        if (uploadScheduler.getPriority(dataType) != UploadPriority.BULK
+                || uploadScheduler.canSendBulk() || size >= MAX_HELD_RECORDS) {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        Long since = heldSince.get(dataType);
+        if (since == null) {
+            since = now;
+            heldSince.put(dataType, now);
+            Log.d(TAG, "Holding " + dataType + " until an unmetered network or charger is available");
+        }
+        long remaining = since + UploadScheduler.MAX_BULK_HOLD_MS - now;
+        if (remaining <= 0) {
+            return false;
+        }
+
+        scheduledFlushes.put(dataType,
+                scheduler.schedule(() -> flushNow(dataType), remaining, TimeUnit.MILLISECONDS));
+        uploadScheduler.onBulkHeld();
+        return true;
+    }
+
+    private void acknowledge(List<Long> rowIds) {
+        liveRowIds.removeAll(rowIds);
+        if (outbox != null) {
+            outbox.delete(rowIds);
+        }
+    }
+
+    private void replay() {
+        replay(false);
+    }
+
+    // Sends outbox records that no live batch owns, REPLAY_BATCH_SIZE at a time so memory
+    // stays bounded no matter how large the backlog on disk is. Bulk records are skipped
+    // unless bulk sending is allowed or includeBulk is set.
+    private void replay(boolean includeBulk) {
+        if (outbox == null) return;
+        if (replayInFlight) {
+            bulkReplayRequested |= includeBulk; // picked up when the running replay finishes
+            return;
+        }
+        if (!NetworkHelper.getInstance().isConnected()) {
+            Log.d(TAG, "No network, postponing outbox replay");
+            return;
+        }
+
+        boolean withBulk = includeBulk || bulkReplayRequested;
+        bulkReplayRequested = false;
+        Set<String> excludedTypes = withBulk || uploadScheduler.canSendBulk()
+                ? new HashSet<>() : uploadScheduler.getDataTypes(UploadPriority.BULK);
+        List<UploadOutbox.Entry> entries = outbox.peek(REPLAY_BATCH_SIZE + liveRowIds.size(), excludedTypes);
+        TreeMap<String, Object> updates = new TreeMap<>();
+        List<Long> rowIds = new ArrayList<>();
+        List<UploadOutbox.Entry> replayed = new ArrayList<>();
+        for (UploadOutbox.Entry entry : entries) {
+            if (liveRowIds.contains(entry.id)) continue;
+            putCollapsed(updates, entry.path, entry.value);
+            rowIds.add(entry.id);
+            replayed.add(entry);
+            if (rowIds.size() == REPLAY_BATCH_SIZE) break;
+        }
+        if (rowIds.isEmpty()) {
+            return;
+        }
+
+        Log.d(TAG, "Replaying " + rowIds.size() + " records from the outbox");
+        Task<Void> commit;
+        try {
+            commit = usersRef.updateChildren(updates);
+        } catch (DatabaseException e) {
+            Log.e(TAG, "Outbox replay rejected: " + e.getMessage());
+            replayOneByOne(replayed);
+            return;
+        }
+        replayInFlight = true;
+        commit.addOnSuccessListener(aVoid -> scheduler.execute(() -> {
+                    replayInFlight = false;
+                    replayFailures = 0;
+                    acknowledge(rowIds);
+                    for (UploadOutbox.Entry entry : replayed) {
+                        MonitorMetrics metrics = MonitorMetrics.forDataType(entry.dataType);
+                        metrics.recordUploads(1);
+                        metrics.recordBytes(entry.path.length() + MonitorMetrics.estimateSize(entry.value));
+                    }
+                    if (rowIds.size() == REPLAY_BATCH_SIZE || bulkReplayRequested) {
+                        replay(withBulk);
+                    }
+                }))
+                .addOnFailureListener(e -> scheduler.execute(() -> {
+                    Log.e(TAG, "Outbox replay failed: " + e.getMessage());
+                    replayInFlight = false;
+                    replayFailures++;
+                    scheduleReplay();
+                }));
+    }
+
+    // A rejected update would be rejected again on every replay and block the rows behind it,
+    // so the records are sent one at a time instead and the ones Firebase refuses are deleted
+    private void replayOneByOne(List<UploadOutbox.Entry> entries) {
+        List<Long> rejected = new ArrayList<>();
+        for (UploadOutbox.Entry entry : entries) {
+            Map<String, Object> update = new HashMap<>();
+            update.put(entry.path, entry.value);
+            Task<Void> commit;
+            try {
+                commit = usersRef.updateChildren(update);
+            } catch (DatabaseException e) {
+                Log.e(TAG, "Dropping " + entry.dataType + " record rejected at " + entry.path + ": " + e.getMessage());
+                MonitorMetrics.forDataType(entry.dataType).recordError();
+                rejected.add(entry.id);
+                continue;
+            }
+            liveRowIds.add(entry.id);
+            List<Long> rowIds = new ArrayList<>();
+            rowIds.add(entry.id);
+            commit.addOnSuccessListener(aVoid -> scheduler.execute(() -> acknowledge(rowIds)))
+                    .addOnFailureListener(e -> scheduler.execute(() -> {
+                        liveRowIds.remove(entry.id);
+                        scheduleReplay();
+                    }));
+        }
+        acknowledge(rejected);
+    }
+
+    private void scheduleReplay() {
+        if (outbox == null || scheduledReplay != null) return;
+
+        long delay = REPLAY_BASE_DELAY_MS << Math.min(replayFailures, 10);
+        delay = Math.min(delay, REPLAY_MAX_DELAY_MS);
+        delay += random.nextInt((int) (delay / 5) + 1); // jitter so devices don't retry in lockstep
+
+        Log.d(TAG, "Next outbox replay in " + delay + "ms");
+        scheduledReplay = scheduler.schedule(() -> {
+            scheduledReplay = null;
+            replay();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelScheduledReplay() {
+        if (scheduledReplay != null) {
+            scheduledReplay.cancel(false);
+            scheduledReplay = null;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.childmonitorai.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Columnar encoding for archive chunks. Rows are stored column by column so repeated values
+// (package names, titles, coordinates) sit next to each other before gzip, and timestamps
+// are written as zigzag varint deltas from the previous row.
+//
+// Layout (inside gzip): "CMA" version, varint rowCount, varint columnCount, column names,
+// timestamp deltas, then every column as (type tag, value) per row.
+public final class ChunkCodec {
+    public static final String ENCODING = "cma1+gzip+base64";
+
+    private static final byte[] MAGIC = {'C', 'M', 'A'};
+    private static final int VERSION = 1;
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_STRING = 1;
+    private static final int TYPE_LONG = 2;
+    private static final int TYPE_DOUBLE = 3;
+    private static final int TYPE_TRUE = 4;
+    private static final int TYPE_FALSE = 5;
+
+    public static class Row {
+        final long timestamp;
+        final Map<String, Object> fields;
+
+        public Row(long timestamp, Map<String, Object> fields) {
+            this.timestamp = timestamp;
+            this.fields = fields;
+        }
+
+        public long getTimestamp() { return timestamp; }
+        public Map<String, Object> getFields() { return fields; }
+    }
+
+    private ChunkCodec() {
+    }
+
+    // Rows are expected in timestamp order; out-of-order rows still round-trip, just with
+    // negative deltas
+    public static byte[] encode(List<Row> rows) throws IOException {
+        Set<String> columns = new LinkedHashSet<>();
+        for (Row row : rows) {
+            columns.addAll(row.fields.keySet());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            writeVarint(out, rows.size());
+            writeVarint(out, columns.size());
+            for (String column : columns) {
+                out.writeUTF(column);
+            }
+
+            long previous = 0;
+            for (Row row : rows) {
+                writeVarint(out, zigzag(row.timestamp - previous));
+                previous = row.timestamp;
+            }
+
+            for (String column : columns) {
+                for (Row row : rows) {
+                    writeValue(out, row.fields.get(column));
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    public static List<Row> decode(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data)))) {
+            for (byte magic : MAGIC) {
+                if (in.readByte() != magic) throw new IOException("Not an archive chunk");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) throw new IOException("Unsupported chunk version " + version);
+
+            int rowCount = (int) readVarint(in);
+            int columnCount = (int) readVarint(in);
+            String[] columns = new String[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                columns[i] = in.readUTF();
+            }
+
+            List<Row> rows = new ArrayList<>(rowCount);
+            long previous = 0;
+            for (int i = 0; i < rowCount; i++) {
+                previous += unzigzag(readVarint(in));
+                rows.add(new Row(previous, new HashMap<>()));
+            }
+
+            for (String column : columns) {
+                for (Row row : rows) {
+                    Object value = readValue(in);
+                    if (value != null) {
+                        row.fields.put(column, value);
+                    }
+                }
+            }
+            return rows;
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short) {
+            out.writeByte(TYPE_LONG);
+            writeVarint(out, zigzag(((Number) value).longValue()));
+        } else if (value instanceof Number) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else {
+            byte[] utf8 = String.valueOf(value).getBytes("UTF-8");
+            out.writeByte(TYPE_STRING);
+            writeVarint(out, utf8.length);
+            out.write(utf8);
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        int type = in.readUnsignedByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_TRUE:
+                return true;
+            case TYPE_FALSE:
+                return false;
+            case TYPE_LONG:
+                return unzigzag(readVarint(in));
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_STRING:
+                byte[] utf8 = new byte[(int) readVarint(in)];
+                in.readFully(utf8);
+                return new String(utf8, "UTF-8");
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
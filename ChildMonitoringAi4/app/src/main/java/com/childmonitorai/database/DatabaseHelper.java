@@ -1,4 +1,5 @@
 package com.childmonitorai.database;
+import com.childmonitorai.helpers.MonitorMetrics;
 import com.childmonitorai.models.CallData;
 import com.childmonitorai.models.ClipboardData;
 import com.childmonitorai.models.ContactData;
@@ -8,10 +9,13 @@ import com.childmonitorai.models.SMSData;
 import com.childmonitorai.models.WebVisitData;
 import com.childmonitorai.models.AppUsageData;
 import com.childmonitorai.models.SessionData;
+import com.childmonitorai.models.RecordSerializer;
+import com.childmonitorai.models.RecordSerializers;
 
 
 
 import static android.content.ContentValues.TAG;
+import android.content.Context;
 import android.util.Log;
 
 import com.google.android.gms.tasks.Tasks;
@@ -19,19 +23,46 @@ import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
 import java.util.Date;
 import java.util.Locale;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-public class DatabaseHelper {
+public class DatabaseHelper implements TelemetrySink {
+    private static final Set<String> USAGE_COUNTER_FIELDS =
+            new HashSet<>(Arrays.asList("usage_duration", "launch_count"));
 
     private static DatabaseReference database;
+    private final BatchUploader batchUploader;
+    private final UploadIndex uploadIndex;
+    private final UsageAccumulator usageAccumulator;
+    private final ArchiveWriter archiveWriter;
 
     public DatabaseHelper() {
         // Firebase initialization
         database = FirebaseDatabase.getInstance().getReference("users");
+        batchUploader = BatchUploader.getInstance();
+        uploadIndex = UploadIndex.getInstance();
+        usageAccumulator = UsageAccumulator.getInstance();
+        archiveWriter = ArchiveWriter.getInstance();
+    }
+
+    // Enables the on-device state used by uploads; safe to call from every service's onCreate
+    public static void initialize(Context context) {
+        UploadIndex.getInstance().initialize(context.getApplicationContext());
+        UploadScheduler.getInstance().initialize(context);
+        BatchUploader.getInstance().initialize(context);
+        UsageAccumulator.getInstance().initialize(context);
+        ArchiveWriter.getInstance().initialize(context);
+        FirebaseStorageHelper.initialize(context);
     }
 
     // Helper method to avoid repetition of paths
@@ -44,136 +75,125 @@ public class DatabaseHelper {
                 .child(uniqueId);
     }
 
-    // Upload all call data grouped by date and check for duplication of recent data only
-    public void uploadCallDataByDate(String userId, String phoneModel, CallData callData, String uniqueCallId, String callDate) {
-        DatabaseReference callRef = getPhoneDataReference(userId, phoneModel, "calls", uniqueCallId, callDate);
-
-        callRef.get().addOnCompleteListener(task -> {
-            if (task.isSuccessful() && !task.getResult().exists()) {
-                Map<String, Object> callMap = new HashMap<>();
-                callMap.put("date", callData.getDate());
-                callMap.put("duration", callData.getCallDuration());
-                callMap.put("number", callData.getPhoneNumber());
-                callMap.put("type", callData.getCallType());
-                callMap.put("timestamp", callData.getTimestamp());
-                callMap.put("contactName", callData.getContactName()); // Include contact name
-
-                callRef.setValue(callMap).addOnSuccessListener(aVoid -> 
-                                Log.d("DatabaseHelper", "Call data uploaded successfully."))
-                        .addOnFailureListener(e -> 
-                                Log.e("DatabaseHelper", "Failed to upload call data: " + e.getMessage()));
-            } else {
-                Log.d("DatabaseHelper", "Duplicate call data found for recent call, skipping upload.");
-            }
-        }).addOnFailureListener(e -> Log.e("DatabaseHelper", "Error checking for duplication: " + e.getMessage()));
+    // Same location as getPhoneDataReference, as a path relative to "users" for batched writes
+    static String getPhoneDataPath(String userId, String phoneModel, String dataType, String uniqueId, String date) {
+        return userId + "/phones/" + phoneModel + "/" + dataType + "/" + date + "/" + uniqueId;
     }
 
-    // Upload all SMS data grouped by date and check for duplication of recent SMS only
-    public void uploadSMSDataByDate(String userId, String phoneModel, SMSData smsData, String uniqueSMSId, String smsDate) {
-        DatabaseReference smsRef = getPhoneDataReference(userId, phoneModel, "sms", uniqueSMSId, smsDate);
-
-        smsRef.get().addOnCompleteListener(task -> {
-            if (task.isSuccessful() && !task.getResult().exists()) {
-                Map<String, Object> smsMap = new HashMap<>();
-                smsMap.put("type", smsData.getType());
-                smsMap.put("address", smsData.getAddress());
-                smsMap.put("body", smsData.getBody());
-                smsMap.put("timestamp", smsData.getTimestamp());
-                smsMap.put("date", smsData.getDate());
-                smsMap.put("contactName", smsData.getContactName()); 
-
-                smsRef.setValue(smsMap).addOnSuccessListener(aVoid -> 
-                                Log.d("DatabaseHelper", "SMS data uploaded successfully."))
-                        .addOnFailureListener(e -> 
-                                Log.e("DatabaseHelper", "Failed to upload SMS data: " + e.getMessage()));
-            } else {
-                Log.d("DatabaseHelper", "Duplicate SMS data found for recent SMS, skipping upload.");
+    // Queues a record unless the local upload index has already seen its ID. The index is
+    // only rebuilt from remoteDateNode when it has no local history for that day.
+    // A null serializer means value is already a Firebase value (e.g. a map).
+    // The returned task completes once the record is stored in the outbox or known to be a
+    // duplicate, which is what incremental readers wait for before moving their checkpoint.
+    private <T> Task<Void> uploadIfNew(String dataType, String indexType, DatabaseReference remoteDateNode, String date,
+                                       String uniqueId, String path, T value, RecordSerializer<T> serializer, String label) {
+        TaskCompletionSource<Void> accepted = new TaskCompletionSource<>();
+        uploadIndex.whenReady(indexType, date, remoteDateNode, () -> {
+            if (!uploadIndex.markUploaded(indexType, date, uniqueId)) {
+                Log.d("DatabaseHelper", "Duplicate " + label + " data found, skipping upload.");
+                MonitorMetrics.forDataType(dataType).recordDedupHit();
+                accepted.trySetResult(null);
+                return;
             }
-        }).addOnFailureListener(e -> Log.e("DatabaseHelper", "Error accessing Firebase: " + e.getMessage()));
+            batchUploader.enqueue(dataType, path, value, serializer, accepted).addOnFailureListener(e -> {
+                uploadIndex.forget(indexType, date, uniqueId);
+                Log.e("DatabaseHelper", "Failed to upload " + label + " data: " + e.getMessage());
+            });
+        });
+        return accepted.getTask();
+    }
+
+    private DatabaseReference getDateReference(String userId, String phoneModel, String dataType, String date) {
+        return database.child(userId)
+                .child("phones")
+                .child(phoneModel)
+                .child(dataType)
+                .child(date);
+    }
+
+    // Upload all call data grouped by date, skipping calls the upload index has already seen
+    @Override
+    public Task<Void> uploadCallDataByDate(String userId, String phoneModel, CallData callData, String uniqueCallId, String callDate) {
+        return uploadIfNew("calls", "calls", getDateReference(userId, phoneModel, "calls", callDate), callDate, uniqueCallId,
+                getPhoneDataPath(userId, phoneModel, "calls", uniqueCallId, callDate), callData, RecordSerializers.CALL, "call");
+    }
+
+    // Upload all SMS data grouped by date, skipping SMS the upload index has already seen
+    @Override
+    public Task<Void> uploadSMSDataByDate(String userId, String phoneModel, SMSData smsData, String uniqueSMSId, String smsDate) {
+        return uploadIfNew("sms", "sms", getDateReference(userId, phoneModel, "sms", smsDate), smsDate, uniqueSMSId,
+                getPhoneDataPath(userId, phoneModel, "sms", uniqueSMSId, smsDate), smsData, RecordSerializers.SMS, "SMS");
     }
 
     // Upload MMS data grouped by date
-    public void uploadMMSDataByDate(String userId, String phoneModel, MMSData mmsData, String uniqueMMSId, String mmsDate) {
-        DatabaseReference mmsRef = getPhoneDataReference(userId, phoneModel, "mms", uniqueMMSId, mmsDate);
-
-        mmsRef.get().addOnCompleteListener(task -> {
-            if (task.isSuccessful() && !task.getResult().exists()) {
-                Map<String, Object> mmsMap = new HashMap<>();
-                mmsMap.put("subject", mmsData.getSubject());
-                mmsMap.put("date", mmsData.getDate());
-                mmsMap.put("senderAddress", mmsData.getSenderAddress());
-                mmsMap.put("content", mmsData.getContent());
-
-                mmsRef.setValue(mmsMap).addOnSuccessListener(aVoid -> 
-                                Log.d("DatabaseHelper", "MMS data uploaded successfully."))
-                        .addOnFailureListener(e -> 
-                                Log.e("DatabaseHelper", "Failed to upload MMS data: " + e.getMessage()));
-            } else {
-                Log.d("DatabaseHelper", "Duplicate MMS data found for recent MMS, skipping upload.");
-            }
-        }).addOnFailureListener(e -> Log.e("DatabaseHelper", "Error checking for duplication: " + e.getMessage()));
+    @Override
+    public Task<Void> uploadMMSDataByDate(String userId, String phoneModel, MMSData mmsData, String uniqueMMSId, String mmsDate) {
+        return uploadIfNew("mms", "mms", getDateReference(userId, phoneModel, "mms", mmsDate), mmsDate, uniqueMMSId,
+                getPhoneDataPath(userId, phoneModel, "mms", uniqueMMSId, mmsDate), mmsData, RecordSerializers.MMS, "MMS");
     }
 
     // Upload location data by date
+    @Override
     public void uploadLocationDataByDate(String userId, String phoneModel, Map<String, Object> locationData, String uniqueLocationId, String locationDate) {
         String sanitizedLocationId = sanitizePath(uniqueLocationId);
-        DatabaseReference locationRef = getPhoneDataReference(userId, phoneModel, "location", sanitizedLocationId, locationDate);
-
-        // Fetch existing data to avoid duplicates
-        locationRef.get().addOnCompleteListener(task -> {
-            if (task.isSuccessful() && !task.getResult().exists()) {
-                // If no existing data, create the data map and upload
-                locationRef.setValue(locationData)
-                        .addOnSuccessListener(aVoid -> Log.d("DatabaseHelper", "Location data uploaded successfully."))
-                        .addOnFailureListener(e -> Log.e("DatabaseHelper", "Failed to upload location data: " + e.getMessage()));
-            } else {
-                Log.d("DatabaseHelper", "Duplicate location data found for the same date, skipping upload.");
-            }
-        }).addOnFailureListener(e -> Log.e("DatabaseHelper", "Error accessing Firebase: " + e.getMessage()));
-    }
+        if (archiveWriter.isEnabled(userId, phoneModel)) {
+            archiveWriter.append(userId, phoneModel, "location", sanitizedLocationId,
+                    parseTimestamp(locationData.get("timestamp")), locationData);
+            return;
+        }
 
-    // Upload contact data without date node
-    public void uploadContactData(String userId, String phoneModel, ContactData contactData, String uniqueContactId) {
-        DatabaseReference contactRef = getPhoneDataReference(userId, phoneModel, "contacts", uniqueContactId, "");
+        uploadIfNew("location", "location", getDateReference(userId, phoneModel, "location", locationDate), locationDate,
+                sanitizedLocationId, getPhoneDataPath(userId, phoneModel, "location", sanitizedLocationId, locationDate),
+                locationData, null, "location");
+    }
 
-        contactRef.get().addOnCompleteListener(task -> {
-            if (task.isSuccessful()) {
-                DataSnapshot snapshot = task.getResult();
-                if (snapshot.exists()) {
-                    // Contact exists, check if it's actually changed
-                    ContactData existingContact = snapshot.getValue(ContactData.class);
-                    if (existingContact != null) {
-                        // Only update if the contact details have actually changed
-                        if (!existingContact.getPhoneNumber().equals(contactData.getPhoneNumber()) ||
-                            !existingContact.getName().equals(contactData.getName())) {
-                            
-                            // Set the original name before modification
-                            contactData.setNameBeforeModification(existingContact.getName());
-                            contactData.setLastModifiedTime(System.currentTimeMillis());
-                            
-                            // Upload the updated contact
-                            uploadContactToFirebase(contactRef, contactData);
-                        } else {
-                            Log.d(TAG, "Contact unchanged, skipping upload: " + contactData.getName());
+    @Override
+    public Task<Map<String, ContactData>> fetchContacts(String userId, String phoneModel) {
+        return database.child(userId).child("phones").child(phoneModel).child("contacts").get()
+                .continueWith(task -> {
+                    Map<String, ContactData> contacts = new HashMap<>();
+                    for (DataSnapshot child : task.getResult().getChildren()) {
+                        ContactData contact = child.getValue(ContactData.class);
+                        if (contact != null) {
+                            contacts.put(child.getKey(), contact);
                         }
                     }
-                } else {
-                    // It's a new contact
-                    contactData.setCreationTime(System.currentTimeMillis());
-                    uploadContactToFirebase(contactRef, contactData);
-                }
-            } else {
-                Log.e(TAG, "Error checking existing contact: " + task.getException().getMessage());
-            }
-        });
+                    return contacts;
+                });
     }
 
-    private void uploadContactToFirebase(DatabaseReference contactRef, ContactData contactData) {
-        contactRef.setValue(contactData)
-                .addOnSuccessListener(aVoid -> Log.d(TAG, "Contact uploaded successfully: " + contactData.getName()))
-                .addOnFailureListener(e -> Log.e(TAG, "Failed to upload contact: " + e.getMessage()));
+    // Uploads a contact delta computed by ContactMonitor: changed contacts are written and
+    // deleted ones removed, all queued together so they go out in one batch. Contacts are bulk
+    // data and wait in the uploader for an unmetered network or charger. The task completes
+    // once every write is stored in the outbox.
+    @Override
+    public Task<Void> uploadContactDelta(String userId, String phoneModel, Map<String, ContactData> changedContacts,
+                                         Collection<String> deletedContactIds) {
+        String contactsPath = userId + "/phones/" + phoneModel + "/contacts/";
+        List<Task<Void>> accepted = new ArrayList<>();
+        List<Task<Void>> committed = new ArrayList<>();
+        for (Map.Entry<String, ContactData> entry : changedContacts.entrySet()) {
+            TaskCompletionSource<Void> source = new TaskCompletionSource<>();
+            committed.add(batchUploader.enqueue("contacts", contactsPath + entry.getKey(), entry.getValue(),
+                    RecordSerializers.CONTACT, source));
+            accepted.add(source.getTask());
+        }
+        for (String contactId : deletedContactIds) {
+            // A null value removes the node in the same updateChildren() call
+            TaskCompletionSource<Void> source = new TaskCompletionSource<>();
+            committed.add(batchUploader.enqueue("contacts", contactsPath + contactId, null, null, source));
+            accepted.add(source.getTask());
+        }
+        batchUploader.flush("contacts");
+
+        Tasks.whenAll(committed)
+                .addOnSuccessListener(aVoid -> Log.d("DatabaseHelper", "Contact delta uploaded: " + changedContacts.size()
+                        + " changed, " + deletedContactIds.size() + " deleted"))
+                .addOnFailureListener(e -> Log.e("DatabaseHelper", "Failed to upload contact delta: " + e.getMessage()));
+        return Tasks.whenAll(accepted);
     }
 
+    @Override
     public Task<Void> uploadAppData(String userId, String phoneModel, String uniqueKey, Map<String, Object> appMap) {
         DatabaseReference appRef = database.child(userId)
                 .child("phones")
@@ -196,6 +216,7 @@ public class DatabaseHelper {
                             existingVersion != null && newVersion != null) {
                             
                             if (existingStatus.equals(newStatus) && existingVersion.equals(newVersion)) {
+                                MonitorMetrics.forDataType("apps").recordDedupHit();
                                 return Tasks.forResult(null);
                             }
                         }
@@ -215,13 +236,14 @@ public class DatabaseHelper {
                     appMap.put("lastUpdated", System.currentTimeMillis());
                 }
                 
-                return appRef.setValue(appMap);
+                return batchUploader.enqueue("apps", userId + "/phones/" + phoneModel + "/apps/" + uniqueKey, appMap);
             } else {
                 return Tasks.forException(task.getException());
             }
         });
     }
 
+    @Override
     public Task<Void> uploadWebVisitDataByDate(String userId, String phoneModel, WebVisitData visitData) {
         DatabaseReference dbRef = database.child(userId)
                 .child("phones")
@@ -232,75 +254,33 @@ public class DatabaseHelper {
         if (visitData.getDatabaseKey() == null) {
             String key = dbRef.push().getKey();
             visitData.setDatabaseKey(key);
-            return dbRef.child(key).setValue(visitData);
-        } else {
-            return dbRef.child(visitData.getDatabaseKey()).setValue(visitData);
         }
+        if (archiveWriter.isEnabled(userId, phoneModel)) {
+            return archiveWriter.append(userId, phoneModel, "web_visits", visitData.getDatabaseKey(), visitData.getTimestamp(),
+                    RecordSerializers.toMap(visitData, RecordSerializers.WEB_VISIT));
+        }
+        String path = userId + "/phones/" + phoneModel + "/web_visits/" + visitData.getDate() + "/" + visitData.getDatabaseKey();
+        return batchUploader.enqueue("web_visits", path, visitData, RecordSerializers.WEB_VISIT);
     }
 
+    @Override
     public void uploadAppUsageDataByDate(String userId, String phoneModel, AppUsageData appUsageData) {
         if (appUsageData.getUsageDuration() == 0 && appUsageData.getLaunchCount() == 0) {
             Log.d(TAG, "Skipping upload for " + appUsageData.getPackageName() + " - no usage data");
             return;
         }
 
-        String sanitizedPackageName = sanitizePath(appUsageData.getPackageName());
         String date = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date());
+        Log.d(TAG, "Accumulating usage data for " + appUsageData.getPackageName());
 
-        Log.d(TAG, "Attempting to upload usage data for " + appUsageData.getPackageName());
-
-        DatabaseReference usageRef = database.child(userId)
-                .child("phones")
-                .child(phoneModel)
-                .child("app_usage")
-                .child(date)
-                .child(sanitizedPackageName);
-
-        Map<String, Object> usageMap = new HashMap<>();
-        usageMap.put("package_name", appUsageData.getPackageName());
-        usageMap.put("app_name", appUsageData.getAppName());
-        usageMap.put("usage_duration", appUsageData.getUsageDuration());
-        usageMap.put("launch_count", appUsageData.getLaunchCount());
-        usageMap.put("last_used", appUsageData.getLastTimeUsed());
-        usageMap.put("first_time_used", appUsageData.getFirstTimeUsed());
-        usageMap.put("total_foreground_time", appUsageData.getTotalForegroundTime());
-        usageMap.put("day_launch_count", appUsageData.getDayLaunchCount());
-        usageMap.put("day_usage_time", appUsageData.getDayUsageTime());
-        usageMap.put("is_system_app", appUsageData.isSystemApp());
-        usageMap.put("category", appUsageData.getCategory());
-        usageMap.put("last_update_time", System.currentTimeMillis());
-        usageMap.put("timestamp", appUsageData.getTimestamp());
-
-        // First check if there's existing data for today
-        usageRef.get().addOnCompleteListener(task -> {
-            if (task.isSuccessful()) {
-                Map<String, Object> existingData = (Map<String, Object>) task.getResult().getValue();
-                if (existingData != null) {
-                    // Accumulate usage data
-                    long existingDuration = (long) existingData.get("usage_duration");
-                    long existingLaunches = (long) existingData.get("launch_count");
-                    usageMap.put("usage_duration", existingDuration + appUsageData.getUsageDuration());
-                    usageMap.put("launch_count", existingLaunches + appUsageData.getLaunchCount());
-                    Log.d(TAG, "Updating existing usage data for " + appUsageData.getPackageName());
-                } else {
-                    Log.d(TAG, "Creating new usage data entry for " + appUsageData.getPackageName());
-                }
-                
-                // Upload updated data with completion listener
-                usageRef.setValue(usageMap)
-                        .addOnSuccessListener(aVoid -> {
-                            Log.d(TAG, "Successfully uploaded usage data for " + appUsageData.getPackageName());
-                        })
-                        .addOnFailureListener(e -> {
-                            Log.e(TAG, "Failed to upload usage data for " + appUsageData.getPackageName() + ": " + e.getMessage());
-                        });
-            } else {
-                Log.e(TAG, "Failed to query existing data: " + task.getException().getMessage());
-            }
-        });
+        // usage_duration and launch_count are added server-side, everything else is overwritten
+        appUsageData.setLastUpdateTime(System.currentTimeMillis());
+        usageAccumulator.update(getAppUsagePath(userId, phoneModel, date, appUsageData.getPackageName()),
+                appUsageData, RecordSerializers.APP_USAGE, USAGE_COUNTER_FIELDS);
     }
 
-    public static void uploadClipboardDataByDate(String userId, String phoneModel, ClipboardData clipboardData) {
+    @Override
+    public void uploadClipboardData(String userId, String phoneModel, ClipboardData clipboardData) {
         String date = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date());
         DatabaseReference ref = FirebaseDatabase.getInstance().getReference("users")
                 .child(userId)
@@ -310,15 +290,13 @@ public class DatabaseHelper {
                 .child(date);
 
         String key = ref.push().getKey();
-        if (key != null) {
-            // Create a map for the clipboard data to be uploaded
-            Map<String, Object> clipboardMap = new HashMap<>();
-            clipboardMap.put("content", clipboardData.getContent());
-            clipboardMap.put("timestamp", clipboardData.getTimestamp());
-
-            // Upload the clipboard data to Firebase
-            ref.child(key).setValue(clipboardMap)
-                    .addOnSuccessListener(aVoid -> Log.d("DatabaseHelper", "Clipboard data uploaded successfully."))
+        if (key != null && archiveWriter.isEnabled(userId, phoneModel)) {
+            archiveWriter.append(userId, phoneModel, "clipboard", key, clipboardData.getTimestamp(),
+                    RecordSerializers.toMap(clipboardData, RecordSerializers.CLIPBOARD));
+        } else if (key != null) {
+            // Queue the clipboard data for the next batched write
+            String path = userId + "/phones/" + phoneModel + "/clipboard/" + date + "/" + key;
+            batchUploader.enqueue("clipboard", path, clipboardData, RecordSerializers.CLIPBOARD)
                     .addOnFailureListener(e -> Log.e("DatabaseHelper", "Failed to upload clipboard data: " + e.getMessage()));
         } else {
             Log.e("DatabaseHelper", "Failed to generate database key");
@@ -326,122 +304,100 @@ public class DatabaseHelper {
     }
 
     // Upload Social Media messages with date node 
+    @Override
     public void uploadSocialMessageData(String userId, String phoneModel, MessageData messageData, String uniqueMessageId, String messageDate, String platform) {
-        DatabaseReference messageRef = database.child(userId)
-                .child("phones")
-                .child(phoneModel)
-                .child("social_media_messages")
-                .child(messageDate) 
-                .child(platform) 
-                .child(uniqueMessageId); 
-
-        messageRef.get().addOnCompleteListener(task -> {
-            if (task.isSuccessful() && !task.getResult().exists()) {
-                Map<String, Object> messageMap = new HashMap<>();
-                messageMap.put("sender", messageData.getSender());
-                messageMap.put("receiver", messageData.getReceiver());
-                messageMap.put("message", messageData.getMessage());
-                messageMap.put("timestamp", messageData.getTimestamp());
-                messageMap.put("direction", messageData.getDirection());
-                messageMap.put("platform", platform);
-
-                // Set the value under the social_media_messages node
-                messageRef.setValue(messageMap).addOnSuccessListener(aVoid -> {
-                            Log.d("DatabaseHelper", platform + " message data uploaded successfully.");
-                        })
-                        .addOnFailureListener(e -> {
-                            Log.e("DatabaseHelper", "Failed to upload " + platform + " message data: " + e.getMessage());
-                        });
-            } else {
-                Log.d("DatabaseHelper", "Duplicate " + platform + " message data found, skipping upload.");
+        DatabaseReference platformRef = getDateReference(userId, phoneModel, "social_media_messages", messageDate)
+                .child(platform);
+        messageData.setPlatform(platform);
+
+        // Queue the value under the social_media_messages node
+        String path = userId + "/phones/" + phoneModel + "/social_media_messages/" + messageDate + "/" + platform + "/" + uniqueMessageId;
+        uploadIfNew("social_media_messages", "social_media_messages/" + platform, platformRef, messageDate,
+                uniqueMessageId, path, messageData, RecordSerializers.MESSAGE, platform + " message");
+    }
+
+    // Same paths as uploadSocialMessageData, but the index is checked once for the whole batch
+    // and the batch is sent right away instead of waiting for the flush delay
+    @Override
+    public Task<Void> uploadSocialMessages(String userId, String phoneModel, String platform, String messageDate, Map<String, MessageData> messages) {
+        DatabaseReference platformRef = getDateReference(userId, phoneModel, "social_media_messages", messageDate)
+                .child(platform);
+        String indexType = "social_media_messages/" + platform;
+        TaskCompletionSource<Void> stored = new TaskCompletionSource<>();
+        uploadIndex.whenReady(indexType, messageDate, platformRef, () -> {
+            List<Task<Void>> accepted = new ArrayList<>();
+            for (Map.Entry<String, MessageData> entry : messages.entrySet()) {
+                String uniqueMessageId = entry.getKey();
+                if (!uploadIndex.markUploaded(indexType, messageDate, uniqueMessageId)) {
+                    MonitorMetrics.forDataType("social_media_messages").recordDedupHit();
+                    continue;
+                }
+                MessageData messageData = entry.getValue();
+                messageData.setPlatform(platform);
+                String path = userId + "/phones/" + phoneModel + "/social_media_messages/" + messageDate + "/" + platform + "/" + uniqueMessageId;
+                TaskCompletionSource<Void> source = new TaskCompletionSource<>();
+                batchUploader.enqueue("social_media_messages", path, messageData, RecordSerializers.MESSAGE, source).addOnFailureListener(e -> {
+                    uploadIndex.forget(indexType, messageDate, uniqueMessageId);
+                    Log.e("DatabaseHelper", "Failed to upload " + platform + " message data: " + e.getMessage());
+                });
+                accepted.add(source.getTask());
             }
-        }).addOnFailureListener(e -> Log.e("DatabaseHelper", "Error checking for duplication: " + e.getMessage()));
+            batchUploader.flush("social_media_messages");
+            Tasks.whenAll(accepted)
+                    .addOnSuccessListener(aVoid -> stored.trySetResult(null))
+                    .addOnFailureListener(stored::trySetException);
+        });
+        return stored.getTask();
     }
 
+    @Override
     public void uploadSessionData(String userId, String phoneModel, SessionData sessionData) {
         String date = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date(sessionData.getStartTime()));
         String sanitizedPackageName = sanitizePath(sessionData.getPackageName());
-        
-        DatabaseReference sessionRef = database.child(userId)
-                .child("phones")
-                .child(phoneModel)
-                .child("app_sessions")
-                .child(date)
-                .child(sanitizedPackageName)
-                .child(sessionData.getSessionId());
-
-        Map<String, Object> sessionMap = new HashMap<>();
-        sessionMap.put("package_name", sessionData.getPackageName());
-        sessionMap.put("app_name", sessionData.getAppName());
-        sessionMap.put("start_time", sessionData.getStartTime());
-        sessionMap.put("end_time", sessionData.getEndTime());
-        sessionMap.put("duration", sessionData.getDuration());
-        sessionMap.put("timed_out", sessionData.isTimedOut());
-
-        sessionRef.setValue(sessionMap)
-                .addOnSuccessListener(aVoid -> {
-                    Log.d(TAG, "Session data uploaded successfully");
-                    // Also update the daily aggregated usage
-                    updateDailyUsage(userId, phoneModel, sessionData);
-                })
+
+        String path = userId + "/phones/" + phoneModel + "/app_sessions/" + date + "/" + sanitizedPackageName + "/" + sessionData.getSessionId();
+        batchUploader.enqueue("app_sessions", path, sessionData, RecordSerializers.SESSION)
+                .addOnSuccessListener(aVoid -> Log.d(TAG, "Session data uploaded successfully"))
                 .addOnFailureListener(e -> 
                     Log.e(TAG, "Failed to upload session data: " + e.getMessage()));
+
+        // Also update the daily aggregated usage; the session itself is kept by the outbox
+        String usagePath = getAppUsagePath(userId, phoneModel, date, sessionData.getPackageName());
+        usageAccumulator.set(usagePath, "package_name", sessionData.getPackageName());
+        usageAccumulator.set(usagePath, "app_name", sessionData.getAppName());
+        usageAccumulator.addDelta(usagePath, "total_duration", sessionData.getDuration());
+        usageAccumulator.addDelta(usagePath, "session_count", 1);
+        usageAccumulator.setMax(usagePath, "last_used", sessionData.getEndTime());
     }
 
-    private void updateDailyUsage(String userId, String phoneModel, SessionData sessionData) {
-        String date = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date(sessionData.getStartTime()));
-        String sanitizedPackageName = sanitizePath(sessionData.getPackageName());
-        
-        DatabaseReference dailyRef = database.child(userId)
-                .child("phones")
-                .child(phoneModel)
-                .child("app_usage")
-                .child(date)
-                .child(sanitizedPackageName);
-
-        dailyRef.runTransaction(new com.google.firebase.database.Transaction.Handler() {
-            @Override
-            public com.google.firebase.database.Transaction.Result doTransaction(com.google.firebase.database.MutableData mutableData) {
-                Map<String, Object> current = (Map<String, Object>) mutableData.getValue(Object.class);
-                if (current == null) {
-                    current = new HashMap<>();
-                    current.put("package_name", sessionData.getPackageName());
-                    current.put("app_name", sessionData.getAppName());
-                    current.put("total_duration", sessionData.getDuration());
-                    current.put("session_count", 1L);
-                    current.put("last_used", sessionData.getEndTime());
-                } else {
-                    long totalDuration = current.get("total_duration") instanceof Long ? 
-                        (Long) current.get("total_duration") : 0L;
-                    long sessionCount = current.get("session_count") instanceof Long ? 
-                        (Long) current.get("session_count") : 0L;
-                    
-                    current.put("total_duration", totalDuration + sessionData.getDuration());
-                    current.put("session_count", sessionCount + 1);
-                    
-                    long lastUsed = current.get("last_used") instanceof Long ? 
-                        (Long) current.get("last_used") : 0L;
-                    current.put("last_used", Math.max(lastUsed, sessionData.getEndTime()));
-                }
-                mutableData.setValue(current);
-                return com.google.firebase.database.Transaction.success(mutableData);
-            }
+    // Parent notifications go out as soon as they are enqueued, ahead of any held bulk data
+    @Override
+    public Task<Void> uploadAlert(String userId, String phoneModel, Map<String, Object> notification) {
+        String date = new SimpleDateFormat("yyyyMMdd", Locale.getDefault()).format(new Date());
+        String key = database.child(userId).child("phones").child(phoneModel)
+                .child("notifications").child(date).push().getKey();
+        String path = userId + "/phones/" + phoneModel + "/notifications/" + date + "/" + key;
+        return batchUploader.enqueue("notifications", path, notification);
+    }
 
-            @Override
-            public void onComplete(com.google.firebase.database.DatabaseError error, 
-                                 boolean committed, 
-                                 com.google.firebase.database.DataSnapshot currentData) {
-                if (error != null) {
-                    Log.e(TAG, "Error updating daily usage: " + error.getMessage());
-                } else {
-                    Log.d(TAG, "Daily usage updated successfully");
-                }
-            }
-        });
+    private static String getAppUsagePath(String userId, String phoneModel, String date, String packageName) {
+        return userId + "/phones/" + phoneModel + "/app_usage/" + date + "/" + sanitizePath(packageName);
+    }
+
+    // Location fixes carry their timestamp as a string
+    private static long parseTimestamp(Object timestamp) {
+        if (timestamp instanceof Number) {
+            return ((Number) timestamp).longValue();
+        }
+        try {
+            return Long.parseLong(String.valueOf(timestamp));
+        } catch (NumberFormatException e) {
+            return System.currentTimeMillis();
+        }
     }
 
     // Helper function to sanitize paths and remove invalid characters
-    String sanitizePath(String originalPath) {
+    static String sanitizePath(String originalPath) {
         if (originalPath == null) return "";
         
         // Replace any character that's not alphanumeric, underscore, or hyphen
@@ -1,17 +1,46 @@
 package com.childmonitorai.database;
 
+import android.content.Context;
+import android.util.Log;
+
+import com.childmonitorai.helpers.NetworkHelper;
 import com.google.firebase.storage.FirebaseStorage;
 import com.google.firebase.storage.StorageReference;
 import com.google.firebase.storage.UploadTask;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
 public class FirebaseStorageHelper {
+    private static final String TAG = "FirebaseStorageHelper";
+    private static final String SPOOL_DIR = "upload_spool";
+    private static final long RETRY_BASE_DELAY_MS = 10 * 1000; // 10 seconds
+    private static final long RETRY_MAX_DELAY_MS = 30 * 60 * 1000; // 30 minutes
+
+    // Bytes are spooled to disk before each upload and deleted once Storage accepts them,
+    // so media captured while offline or right before the process dies is uploaded later.
+    private static File spoolDir;
+    private static final Set<String> inFlight = Collections.synchronizedSet(new HashSet<>());
+    private static final ScheduledExecutorService retryExecutor = Executors.newSingleThreadScheduledExecutor();
+    private static int retryFailures;
+    private static boolean retryScheduled;
+
     private final FirebaseStorage storage;
     
     public interface ScreenshotCallback {
@@ -38,9 +67,139 @@ public class FirebaseStorageHelper {
         storage = FirebaseStorage.getInstance();
     }
 
+    public static synchronized void initialize(Context context) {
+        if (spoolDir != null) return;
+
+        File dir = new File(context.getApplicationContext().getFilesDir(), SPOOL_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "Could not create upload spool directory");
+            return;
+        }
+        spoolDir = dir;
+
+        NetworkHelper.getInstance().initialize(context);
+        NetworkHelper.getInstance().addListener(() -> retryExecutor.execute(() -> {
+            synchronized (FirebaseStorageHelper.class) {
+                retryFailures = 0;
+            }
+            retrySpooled();
+        }));
+        retryExecutor.execute(FirebaseStorageHelper::retrySpooled);
+    }
+
+    // Storage paths are unique per capture, so the path doubles as the idempotency key
+    private UploadTask putBytesDurably(StorageReference storageRef, String path, byte[] data) {
+        File spoolFile = spool(path, data);
+        if (spoolFile != null) {
+            inFlight.add(spoolFile.getName());
+        }
+
+        UploadTask uploadTask = storageRef.putBytes(data);
+        uploadTask.addOnSuccessListener(taskSnapshot -> {
+            if (spoolFile != null) {
+                inFlight.remove(spoolFile.getName());
+                if (!spoolFile.delete()) {
+                    Log.w(TAG, "Failed to delete spooled upload " + spoolFile.getName());
+                }
+            }
+        }).addOnFailureListener(exception -> {
+            if (spoolFile != null) {
+                inFlight.remove(spoolFile.getName());
+                scheduleRetry();
+            }
+        });
+        return uploadTask;
+    }
+
+    private static File spool(String path, byte[] data) {
+        File dir = spoolDir;
+        if (dir == null || data == null) return null;
+
+        try {
+            File file = new File(dir, URLEncoder.encode(path, "UTF-8"));
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(data);
+            }
+            return file;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to spool upload " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Re-uploads spooled files one at a time so only a single file is held in memory.
+    // Callbacks of the original request are gone at this point; only the file is delivered.
+    private static void retrySpooled() {
+        File dir = spoolDir;
+        if (dir == null || !NetworkHelper.getInstance().isConnected()) return;
+
+        File[] files = dir.listFiles();
+        if (files == null) return;
+
+        for (File file : files) {
+            if (inFlight.contains(file.getName())) continue;
+
+            String path;
+            byte[] data;
+            try {
+                path = URLDecoder.decode(file.getName(), "UTF-8");
+                data = readFile(file);
+            } catch (IOException e) {
+                Log.e(TAG, "Dropping unreadable spooled upload " + file.getName());
+                file.delete();
+                continue;
+            }
+
+            inFlight.add(file.getName());
+            FirebaseStorage.getInstance().getReference().child(path).putBytes(data)
+                    .addOnSuccessListener(taskSnapshot -> retryExecutor.execute(() -> {
+                        inFlight.remove(file.getName());
+                        file.delete();
+                        synchronized (FirebaseStorageHelper.class) {
+                            retryFailures = 0;
+                        }
+                        Log.d(TAG, "Uploaded spooled file " + path);
+                        retrySpooled();
+                    }))
+                    .addOnFailureListener(exception -> {
+                        inFlight.remove(file.getName());
+                        Log.e(TAG, "Spooled upload failed for " + path + ": " + exception.getMessage());
+                        scheduleRetry();
+                    });
+            return;
+        }
+    }
+
+    private static synchronized void scheduleRetry() {
+        if (retryScheduled || spoolDir == null) return;
+        retryScheduled = true;
+
+        long delay = Math.min(RETRY_BASE_DELAY_MS << Math.min(retryFailures, 10), RETRY_MAX_DELAY_MS);
+        retryFailures++;
+        retryExecutor.schedule(() -> {
+            synchronized (FirebaseStorageHelper.class) {
+                retryScheduled = false;
+            }
+            retrySpooled();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) throw new IOException("Unexpected end of file");
+                offset += read;
+            }
+        }
+        return data;
+    }
+
     public void uploadImage(String path, byte[] imageData) {
         StorageReference storageRef = storage.getReference().child(path);
-        UploadTask uploadTask = storageRef.putBytes(imageData);
+        UploadTask uploadTask = putBytesDurably(storageRef, path, imageData);
         uploadTask.addOnSuccessListener(taskSnapshot -> {
             // Handle successful upload
         }).addOnFailureListener(exception -> {
@@ -58,7 +217,7 @@ public class FirebaseStorageHelper {
         String path = String.format("%s/%s/periodic_screenshots/%s", userId, phoneModel, fileName);
 
         StorageReference storageRef = storage.getReference().child(path);
-        UploadTask uploadTask = storageRef.putBytes(screenshotData);
+        UploadTask uploadTask = putBytesDurably(storageRef, path, screenshotData);
         
         uploadTask.addOnSuccessListener(taskSnapshot -> {
             // Screenshot uploaded successfully
@@ -79,7 +238,7 @@ public class FirebaseStorageHelper {
         String path = String.format("%s/%s/screenshot_commands/%s", userId, phoneModel, fileName);
 
         StorageReference storageRef = storage.getReference().child(path);
-        UploadTask uploadTask = storageRef.putBytes(screenshotData);
+        UploadTask uploadTask = putBytesDurably(storageRef, path, screenshotData);
         
         uploadTask.addOnSuccessListener(taskSnapshot -> {
             storageRef.getDownloadUrl().addOnSuccessListener(uri -> {
@@ -112,7 +271,7 @@ public class FirebaseStorageHelper {
         );
 
         StorageReference storageRef = storage.getReference().child(path);
-        UploadTask uploadTask = storageRef.putBytes(captureData);
+        UploadTask uploadTask = putBytesDurably(storageRef, path, captureData);
         
         uploadTask.addOnSuccessListener(taskSnapshot -> {
             storageRef.getDownloadUrl().addOnSuccessListener(uri -> {
@@ -145,7 +304,7 @@ public class FirebaseStorageHelper {
         );
 
         StorageReference storageRef = storage.getReference().child(path);
-        UploadTask uploadTask = storageRef.putBytes(audioData);
+        UploadTask uploadTask = putBytesDurably(storageRef, path, audioData);
         
         uploadTask.addOnSuccessListener(taskSnapshot -> {
             storageRef.getDownloadUrl().addOnSuccessListener(uri -> {
@@ -179,7 +338,7 @@ public class FirebaseStorageHelper {
             if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
                 imageData = Files.readAllBytes(Paths.get(localPath));
             }
-            UploadTask uploadTask = storageRef.putBytes(imageData);
+            UploadTask uploadTask = putBytesDurably(storageRef, path, imageData);
             
             uploadTask.addOnSuccessListener(taskSnapshot -> {
                 storageRef.getDownloadUrl().addOnSuccessListener(uri -> {
@@ -224,7 +383,7 @@ public class FirebaseStorageHelper {
         
         StorageReference storageRef = storage.getReference().child(path);
         
-        UploadTask uploadTask = storageRef.putBytes(compressedData);
+        UploadTask uploadTask = putBytesDurably(storageRef, path, compressedData);
         uploadTask.addOnSuccessListener(taskSnapshot -> {
             storageRef.getDownloadUrl().addOnSuccessListener(uri -> {
                 if (callback != null) {
@@ -0,0 +1,283 @@
+package com.childmonitorai.database;
+
+import com.childmonitorai.models.AppUsageData;
+import com.childmonitorai.models.CallData;
+import com.childmonitorai.models.ClipboardData;
+import com.childmonitorai.models.ContactData;
+import com.childmonitorai.models.MMSData;
+import com.childmonitorai.models.MessageData;
+import com.childmonitorai.models.SMSData;
+import com.childmonitorai.models.SessionData;
+import com.childmonitorai.models.WebVisitData;
+import com.childmonitorai.models.RecordSerializers;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Stand-in backend that records every write locally instead of sending it to Firebase.
+// Paths match DatabaseHelper and payloads come from the same RecordSerializers. The time
+// spent inside each upload call is tracked per data type, so the SMS, call, social and web
+// pipelines can be driven and measured without a Firebase project. Avoids android.* so it
+// also runs on a plain JVM.
+public class RecordingTelemetrySink implements TelemetrySink {
+    private static final int DEFAULT_MAX_RECORDS = 10000;
+
+    private final int maxRecords;
+    private final Writer fileWriter;
+    private final ArrayDeque<Record> records = new ArrayDeque<>();
+    private final Map<String, Stats> stats = new HashMap<>();
+    private final AtomicLong keySequence = new AtomicLong();
+
+    public static class Record {
+        private final String dataType;
+        private final String path;
+        private final Object value;
+        private final long recordedAt;
+        private final long latencyNanos;
+
+        Record(String dataType, String path, Object value, long recordedAt, long latencyNanos) {
+            this.dataType = dataType;
+            this.path = path;
+            this.value = value;
+            this.recordedAt = recordedAt;
+            this.latencyNanos = latencyNanos;
+        }
+
+        public String getDataType() { return dataType; }
+        public String getPath() { return path; }
+        public Object getValue() { return value; }
+        public long getRecordedAt() { return recordedAt; }
+        public long getLatencyNanos() { return latencyNanos; }
+    }
+
+    public static class Stats {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        public synchronized long getCount() { return count; }
+        public synchronized long getTotalNanos() { return totalNanos; }
+        public synchronized long getMaxNanos() { return maxNanos; }
+        public synchronized long getAverageNanos() { return count == 0 ? 0 : totalNanos / count; }
+
+        synchronized void add(long latencyNanos) {
+            count++;
+            totalNanos += latencyNanos;
+            maxNanos = Math.max(maxNanos, latencyNanos);
+        }
+    }
+
+    // Keeps the most recent records in memory only
+    public RecordingTelemetrySink() {
+        this(DEFAULT_MAX_RECORDS);
+    }
+
+    public RecordingTelemetrySink(int maxRecords) {
+        this.maxRecords = maxRecords;
+        this.fileWriter = null;
+    }
+
+    // Additionally appends every record to file as "time<TAB>type<TAB>path<TAB>value" lines
+    public RecordingTelemetrySink(int maxRecords, File file) throws IOException {
+        this.maxRecords = maxRecords;
+        this.fileWriter = new FileWriter(file, true);
+    }
+
+    @Override
+    public Task<Void> uploadCallDataByDate(String userId, String phoneModel, CallData callData, String uniqueCallId, String callDate) {
+        long start = System.nanoTime();
+        record("calls", DatabaseHelper.getPhoneDataPath(userId, phoneModel, "calls", uniqueCallId, callDate),
+                RecordSerializers.toMap(callData, RecordSerializers.CALL), start);
+        return Tasks.forResult(null);
+    }
+
+    @Override
+    public Task<Void> uploadSMSDataByDate(String userId, String phoneModel, SMSData smsData, String uniqueSMSId, String smsDate) {
+        long start = System.nanoTime();
+        record("sms", DatabaseHelper.getPhoneDataPath(userId, phoneModel, "sms", uniqueSMSId, smsDate),
+                RecordSerializers.toMap(smsData, RecordSerializers.SMS), start);
+        return Tasks.forResult(null);
+    }
+
+    @Override
+    public Task<Void> uploadMMSDataByDate(String userId, String phoneModel, MMSData mmsData, String uniqueMMSId, String mmsDate) {
+        long start = System.nanoTime();
+        record("mms", DatabaseHelper.getPhoneDataPath(userId, phoneModel, "mms", uniqueMMSId, mmsDate),
+                RecordSerializers.toMap(mmsData, RecordSerializers.MMS), start);
+        return Tasks.forResult(null);
+    }
+
+    @Override
+    public void uploadLocationDataByDate(String userId, String phoneModel, Map<String, Object> locationData, String uniqueLocationId, String locationDate) {
+        long start = System.nanoTime();
+        record("location", DatabaseHelper.getPhoneDataPath(userId, phoneModel, "location",
+                DatabaseHelper.sanitizePath(uniqueLocationId), locationDate), locationData, start);
+    }
+
+    // Nothing is stored anywhere, so every contact is new to the monitor
+    @Override
+    public Task<Map<String, ContactData>> fetchContacts(String userId, String phoneModel) {
+        return Tasks.forResult(new HashMap<String, ContactData>());
+    }
+
+    @Override
+    public Task<Void> uploadContactDelta(String userId, String phoneModel, Map<String, ContactData> changedContacts,
+                                         Collection<String> deletedContactIds) {
+        for (Map.Entry<String, ContactData> entry : changedContacts.entrySet()) {
+            long start = System.nanoTime();
+            record("contacts", userId + "/phones/" + phoneModel + "/contacts/" + entry.getKey(),
+                    RecordSerializers.toMap(entry.getValue(), RecordSerializers.CONTACT), start);
+        }
+        for (String contactId : deletedContactIds) {
+            long start = System.nanoTime();
+            record("contacts", userId + "/phones/" + phoneModel + "/contacts/" + contactId, null, start);
+        }
+        return Tasks.forResult(null);
+    }
+
+    @Override
+    public Task<Void> uploadAppData(String userId, String phoneModel, String uniqueKey, Map<String, Object> appMap) {
+        long start = System.nanoTime();
+        record("apps", userId + "/phones/" + phoneModel + "/apps/" + uniqueKey, appMap, start);
+        return Tasks.forResult(null);
+    }
+
+    @Override
+    public Task<Void> uploadWebVisitDataByDate(String userId, String phoneModel, WebVisitData visitData) {
+        long start = System.nanoTime();
+        if (visitData.getDatabaseKey() == null) {
+            visitData.setDatabaseKey(nextKey());
+        }
+        record("web_visits", userId + "/phones/" + phoneModel + "/web_visits/" + visitData.getDate() + "/" + visitData.getDatabaseKey(),
+                RecordSerializers.toMap(visitData, RecordSerializers.WEB_VISIT), start);
+        return Tasks.forResult(null);
+    }
+
+    @Override
+    public void uploadAppUsageDataByDate(String userId, String phoneModel, AppUsageData appUsageData) {
+        long start = System.nanoTime();
+        record("app_usage", userId + "/phones/" + phoneModel + "/app_usage/" + today() + "/"
+                + DatabaseHelper.sanitizePath(appUsageData.getPackageName()), RecordSerializers.toMap(appUsageData, RecordSerializers.APP_USAGE), start);
+    }
+
+    @Override
+    public void uploadClipboardData(String userId, String phoneModel, ClipboardData clipboardData) {
+        long start = System.nanoTime();
+        record("clipboard", userId + "/phones/" + phoneModel + "/clipboard/" + today() + "/" + nextKey(),
+                RecordSerializers.toMap(clipboardData, RecordSerializers.CLIPBOARD), start);
+    }
+
+    @Override
+    public void uploadSocialMessageData(String userId, String phoneModel, MessageData messageData, String uniqueMessageId, String messageDate, String platform) {
+        long start = System.nanoTime();
+        messageData.setPlatform(platform);
+        record("social_media_messages", userId + "/phones/" + phoneModel + "/social_media_messages/" + messageDate + "/" + platform + "/" + uniqueMessageId,
+                RecordSerializers.toMap(messageData, RecordSerializers.MESSAGE), start);
+    }
+
+    @Override
+    public Task<Void> uploadSocialMessages(String userId, String phoneModel, String platform, String messageDate, Map<String, MessageData> messages) {
+        for (Map.Entry<String, MessageData> entry : messages.entrySet()) {
+            uploadSocialMessageData(userId, phoneModel, entry.getValue(), entry.getKey(), messageDate, platform);
+        }
+        return Tasks.forResult(null);
+    }
+
+    @Override
+    public void uploadSessionData(String userId, String phoneModel, SessionData sessionData) {
+        long start = System.nanoTime();
+        String date = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date(sessionData.getStartTime()));
+        record("app_sessions", userId + "/phones/" + phoneModel + "/app_sessions/" + date + "/"
+                + DatabaseHelper.sanitizePath(sessionData.getPackageName()) + "/" + sessionData.getSessionId(),
+                RecordSerializers.toMap(sessionData, RecordSerializers.SESSION), start);
+    }
+
+    @Override
+    public Task<Void> uploadAlert(String userId, String phoneModel, Map<String, Object> notification) {
+        long start = System.nanoTime();
+        String date = new SimpleDateFormat("yyyyMMdd", Locale.getDefault()).format(new Date());
+        record("notifications", userId + "/phones/" + phoneModel + "/notifications/" + date + "/" + nextKey(), notification, start);
+        return Tasks.forResult(null);
+    }
+
+    public synchronized List<Record> getRecords() {
+        return new ArrayList<>(records);
+    }
+
+    public synchronized List<Record> getRecords(String dataType) {
+        List<Record> result = new ArrayList<>();
+        for (Record record : records) {
+            if (record.dataType.equals(dataType)) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    // Counts keep growing after the in-memory record list is full
+    public synchronized Stats getStats(String dataType) {
+        Stats typeStats = stats.get(dataType);
+        return typeStats != null ? typeStats : new Stats();
+    }
+
+    public synchronized Map<String, Stats> getAllStats() {
+        return new HashMap<>(stats);
+    }
+
+    public synchronized void reset() {
+        records.clear();
+        stats.clear();
+    }
+
+    public synchronized void close() throws IOException {
+        if (fileWriter != null) {
+            fileWriter.close();
+        }
+    }
+
+    private synchronized void record(String dataType, String path, Object value, long startNanos) {
+        long now = System.currentTimeMillis();
+        if (fileWriter != null) {
+            try {
+                fileWriter.write(now + "\t" + dataType + "\t" + path + "\t" + value + "\n");
+            } catch (IOException e) {
+                System.err.println("RecordingTelemetrySink: failed to write record: " + e.getMessage());
+            }
+        }
+
+        long latency = System.nanoTime() - startNanos;
+        if (records.size() >= maxRecords) {
+            records.pollFirst();
+        }
+        records.add(new Record(dataType, path, value, now, latency));
+
+        Stats typeStats = stats.get(dataType);
+        if (typeStats == null) {
+            typeStats = new Stats();
+            stats.put(dataType, typeStats);
+        }
+        typeStats.add(latency);
+    }
+
+    private String nextKey() {
+        return "rec_" + System.currentTimeMillis() + "_" + keySequence.incrementAndGet();
+    }
+
+    private static String today() {
+        return new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date());
+    }
+}
@@ -0,0 +1,56 @@
+package com.childmonitorai.database;
+
+import com.childmonitorai.models.AppUsageData;
+import com.childmonitorai.models.CallData;
+import com.childmonitorai.models.ClipboardData;
+import com.childmonitorai.models.ContactData;
+import com.childmonitorai.models.MMSData;
+import com.childmonitorai.models.MessageData;
+import com.childmonitorai.models.SMSData;
+import com.childmonitorai.models.SessionData;
+import com.childmonitorai.models.WebVisitData;
+import com.google.android.gms.tasks.Task;
+
+import java.util.Collection;
+import java.util.Map;
+
+// Upload surface used by the monitors. DatabaseHelper is the Firebase implementation;
+// RecordingTelemetrySink stands in for it when measuring the pipelines without a backend.
+// Monitors get the active sink through TelemetrySinks.get(). Calls, SMS and MMS return a
+// task that completes once the record has been accepted for upload (stored in the outbox
+// or skipped as a duplicate), not when it reaches Firebase.
+public interface TelemetrySink {
+    Task<Void> uploadCallDataByDate(String userId, String phoneModel, CallData callData, String uniqueCallId, String callDate);
+
+    Task<Void> uploadSMSDataByDate(String userId, String phoneModel, SMSData smsData, String uniqueSMSId, String smsDate);
+
+    Task<Void> uploadMMSDataByDate(String userId, String phoneModel, MMSData mmsData, String uniqueMMSId, String mmsDate);
+
+    void uploadLocationDataByDate(String userId, String phoneModel, Map<String, Object> locationData, String uniqueLocationId, String locationDate);
+
+    // Contacts already stored for the device, keyed by contact ID. ContactMonitor seeds its
+    // snapshot from these before its first sync so it does not overwrite them.
+    Task<Map<String, ContactData>> fetchContacts(String userId, String phoneModel);
+
+    // Writes the changed contacts and removes the deleted ones; completes once accepted
+    Task<Void> uploadContactDelta(String userId, String phoneModel, Map<String, ContactData> changedContacts,
+                                  Collection<String> deletedContactIds);
+
+    Task<Void> uploadAppData(String userId, String phoneModel, String uniqueKey, Map<String, Object> appMap);
+
+    Task<Void> uploadWebVisitDataByDate(String userId, String phoneModel, WebVisitData visitData);
+
+    void uploadAppUsageDataByDate(String userId, String phoneModel, AppUsageData appUsageData);
+
+    void uploadClipboardData(String userId, String phoneModel, ClipboardData clipboardData);
+
+    void uploadSocialMessageData(String userId, String phoneModel, MessageData messageData, String uniqueMessageId, String messageDate, String platform);
+
+    // One conversation's buffered messages for one day, keyed by message ID, sent as one write.
+    // The task completes once every message is stored in the outbox (or was already uploaded).
+    Task<Void> uploadSocialMessages(String userId, String phoneModel, String platform, String messageDate, Map<String, MessageData> messages);
+
+    void uploadSessionData(String userId, String phoneModel, SessionData sessionData);
+
+    Task<Void> uploadAlert(String userId, String phoneModel, Map<String, Object> notification);
+}
@@ -0,0 +1,21 @@
+package com.childmonitorai.database;
+
+// Holds the sink every monitor uploads through. Defaults to Firebase; load tests and
+// benchmarks swap in a RecordingTelemetrySink before starting the monitors.
+public final class TelemetrySinks {
+    private static TelemetrySink sink;
+
+    private TelemetrySinks() {
+    }
+
+    public static synchronized TelemetrySink get() {
+        if (sink == null) {
+            sink = new DatabaseHelper();
+        }
+        return sink;
+    }
+
+    public static synchronized void set(TelemetrySink telemetrySink) {
+        sink = telemetrySink;
+    }
+}
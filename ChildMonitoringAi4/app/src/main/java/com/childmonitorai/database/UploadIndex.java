@@ -0,0 +1,408 @@
+package com.childmonitorai.database;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// On-device record of unique IDs that were already handed to the uploader, kept as one
+// segment per data type and day. Each segment has a Bloom filter for fast negative answers
+// and an exact set (persisted as an append-only file) to confirm positive ones, so uploads
+// no longer need a remote get() before every write. Only the most recently used segments
+// keep their exact set in memory; for the others a new ID is recognized from the Bloom
+// filter alone and the set is only read back from disk on a possible hit.
+//
+// Date keys that are per-record timestamps rather than days (MMS is stored under its
+// timestamp) are indexed in the segment of the day they fall on.
+public class UploadIndex {
+    private static final String TAG = "UploadIndex";
+    private static final String PREF_NAME = "UploadIndexPrefs";
+    private static final String KEY_CREATED_DATE = "createdDate";
+    private static final String INDEX_DIR = "upload_index";
+    private static final long RETENTION_MS = 7L * 24 * 60 * 60 * 1000; // 7 days on disk
+    private static final int MAX_EXACT_SEGMENTS = 12; // segments whose exact set stays in memory
+    private static final int MAX_SEGMENTS = 64; // segments kept in memory at all
+    private static final int BLOOM_BITS = 1 << 16;
+    private static final int BLOOM_HASHES = 4;
+    private static final String REMOVED_PREFIX = "-";
+
+    private static UploadIndex instance;
+
+    private File indexDir;
+    private String createdDate;
+    private final Map<String, Segment> segments = new LinkedHashMap<>(16, .75F, true);
+
+    // Lists the child keys of the remote date node, or null if they could not be read
+    interface RemoteIds {
+        void fetch(IdsListener listener);
+    }
+
+    interface IdsListener {
+        void onIds(List<String> ids);
+    }
+
+    private static class Segment {
+        final long[] bloom = new long[BLOOM_BITS / 64];
+        Set<String> exact;
+        Writer writer;
+        boolean loaded;
+        boolean rebuilding;
+        final List<Runnable> waiting = new ArrayList<>();
+    }
+
+    // Package-private so tests can start from an empty index
+    UploadIndex() {
+    }
+
+    public static synchronized UploadIndex getInstance() {
+        if (instance == null) {
+            instance = new UploadIndex();
+        }
+        return instance;
+    }
+
+    // Until this is called the index only lives in memory
+    public synchronized void initialize(Context context) {
+        if (indexDir != null) return;
+
+        File dir = new File(context.getFilesDir(), INDEX_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "Could not create upload index directory, keeping index in memory only");
+            return;
+        }
+        indexDir = dir;
+
+        SharedPreferences prefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        createdDate = prefs.getString(KEY_CREATED_DATE, null);
+        if (createdDate == null) {
+            createdDate = formatDate(System.currentTimeMillis());
+            prefs.edit().putString(KEY_CREATED_DATE, createdDate).apply();
+        }
+
+        deleteExpiredSegments();
+    }
+
+    // Runs onReady once the segment can answer contains() without going to the network.
+    // Days that started after the index was created are fully known locally; older days
+    // (fresh install or cleared data) are rebuilt once from the remote date node.
+    public void whenReady(String dataType, String date, DatabaseReference remoteDateNode, Runnable onReady) {
+        whenReady(dataType, date, listener -> remoteDateNode.get().addOnCompleteListener(task -> {
+            if (!task.isSuccessful() || task.getResult() == null) {
+                listener.onIds(null);
+                return;
+            }
+            List<String> ids = new ArrayList<>();
+            for (DataSnapshot child : task.getResult().getChildren()) {
+                ids.add(child.getKey());
+            }
+            listener.onIds(ids);
+        }), onReady);
+    }
+
+    void whenReady(String dataType, String date, RemoteIds remoteIds, Runnable onReady) {
+        boolean runNow = false;
+        boolean startRebuild = false;
+        String segmentKey = segmentKey(dataType, date);
+
+        synchronized (this) {
+            Segment segment = getSegment(segmentKey);
+            if (segment.rebuilding) {
+                segment.waiting.add(onReady);
+            } else if (segment.loaded || !needsRemoteRebuild(segmentKey, date)) {
+                segment.loaded = true;
+                runNow = true;
+            } else {
+                segment.waiting.add(onReady);
+                segment.rebuilding = true;
+                startRebuild = true;
+            }
+        }
+
+        if (runNow) {
+            onReady.run();
+            return;
+        }
+        if (!startRebuild) {
+            return;
+        }
+
+        Log.d(TAG, "Rebuilding upload index for " + segmentKey + " from remote");
+        remoteIds.fetch(ids -> {
+            List<Runnable> callbacks;
+            synchronized (this) {
+                Segment segment = getSegment(segmentKey);
+                if (ids != null) {
+                    for (String id : ids) {
+                        addInternal(segmentKey, segment, id);
+                    }
+                    segment.loaded = true;
+                } else {
+                    // Treat the day as empty rather than blocking uploads; worst case is a rewrite
+                    Log.e(TAG, "Failed to rebuild upload index for " + segmentKey);
+                    segment.loaded = true;
+                }
+                segment.rebuilding = false;
+                markRebuilt(segmentKey);
+                callbacks = new ArrayList<>(segment.waiting);
+                segment.waiting.clear();
+            }
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+        });
+    }
+
+    public synchronized boolean contains(String dataType, String date, String uniqueId) {
+        String segmentKey = segmentKey(dataType, date);
+        Segment segment = getSegment(segmentKey);
+        if (!bloomMightContain(segment.bloom, uniqueId)) {
+            return false;
+        }
+        return loadExact(segmentKey, segment).contains(uniqueId);
+    }
+
+    // Returns false if the ID was already recorded, so check-and-mark is a single step
+    public synchronized boolean markUploaded(String dataType, String date, String uniqueId) {
+        String segmentKey = segmentKey(dataType, date);
+        return addInternal(segmentKey, getSegment(segmentKey), uniqueId);
+    }
+
+    // Used when an upload fails so the record is retried on the next scan
+    public synchronized void forget(String dataType, String date, String uniqueId) {
+        String segmentKey = segmentKey(dataType, date);
+        Segment segment = getSegment(segmentKey);
+        if (segment.exact == null && !bloomMightContain(segment.bloom, uniqueId)) {
+            return;
+        }
+        if (loadExact(segmentKey, segment).remove(uniqueId)) {
+            append(segmentKey, segment, REMOVED_PREFIX + uniqueId);
+        }
+    }
+
+    private boolean addInternal(String segmentKey, Segment segment, String uniqueId) {
+        if (uniqueId == null) return false;
+        if (segment.exact != null || bloomMightContain(segment.bloom, uniqueId)) {
+            if (!loadExact(segmentKey, segment).add(uniqueId)) {
+                return false;
+            }
+        }
+        // else definitely new: appending is enough, the set picks it up if it is read again
+        bloomAdd(segment.bloom, uniqueId);
+        append(segmentKey, segment, uniqueId);
+        return true;
+    }
+
+    private Segment getSegment(String segmentKey) {
+        Segment segment = segments.get(segmentKey);
+        if (segment == null) {
+            segment = new Segment();
+            segments.put(segmentKey, segment);
+            // Reading the file once fills the Bloom filter, which stays after the set is trimmed
+            loadExact(segmentKey, segment);
+            trimSegments();
+        }
+        return segment;
+    }
+
+    // Older segments drop their exact set and keep only the Bloom filter in memory; the set
+    // is read back from disk the next time the filter reports a possible hit. Beyond
+    // MAX_SEGMENTS the least recently used segments are dropped entirely.
+    private void trimSegments() {
+        if (indexDir == null) return;
+
+        int seen = 0;
+        int withExact = 0;
+        List<Map.Entry<String, Segment>> ordered = new ArrayList<>(segments.entrySet());
+        for (int i = ordered.size() - 1; i >= 0; i--) {
+            Segment segment = ordered.get(i).getValue();
+            seen++;
+            if (segment.rebuilding || !segment.waiting.isEmpty()) continue;
+
+            if (seen > MAX_SEGMENTS) {
+                closeWriter(segment);
+                segments.remove(ordered.get(i).getKey());
+            } else if (segment.exact != null && ++withExact > MAX_EXACT_SEGMENTS) {
+                segment.exact = null;
+                closeWriter(segment);
+            }
+        }
+    }
+
+    private Set<String> loadExact(String segmentKey, Segment segment) {
+        if (segment.exact != null) {
+            return segment.exact;
+        }
+        segment.exact = new HashSet<>();
+
+        File file = segmentFile(segmentKey);
+        if (file == null || !file.exists()) {
+            return segment.exact;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(REMOVED_PREFIX)) {
+                    segment.exact.remove(line.substring(REMOVED_PREFIX.length()));
+                } else if (!line.isEmpty()) {
+                    segment.exact.add(line);
+                    bloomAdd(segment.bloom, line);
+                }
+            }
+            segment.loaded = true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read upload index " + segmentKey + ": " + e.getMessage());
+        }
+        return segment.exact;
+    }
+
+    private void append(String segmentKey, Segment segment, String line) {
+        File file = segmentFile(segmentKey);
+        if (file == null) return;
+
+        try {
+            if (segment.writer == null) {
+                segment.writer = new FileWriter(file, true);
+            }
+            segment.writer.write(line);
+            segment.writer.write('\n');
+            segment.writer.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to persist upload index entry: " + e.getMessage());
+            closeWriter(segment);
+        }
+    }
+
+    private void closeWriter(Segment segment) {
+        if (segment.writer == null) return;
+        try {
+            segment.writer.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing upload index writer: " + e.getMessage());
+        }
+        segment.writer = null;
+    }
+
+    private boolean needsRemoteRebuild(String segmentKey, String date) {
+        if (indexDir == null || createdDate == null) {
+            return false;
+        }
+        File file = segmentFile(segmentKey);
+        if (file != null && file.exists()) {
+            return false;
+        }
+        if (new File(indexDir, fileName(segmentKey) + ".rebuilt").exists()) {
+            return false;
+        }
+        // A per-record key (MMS timestamp) holds at most that one record, and writing it again
+        // is harmless, so only whole days are rebuilt
+        return isIsoDate(date) && date.compareTo(createdDate) <= 0;
+    }
+
+    private void markRebuilt(String segmentKey) {
+        if (indexDir == null) return;
+        try {
+            new File(indexDir, fileName(segmentKey) + ".rebuilt").createNewFile();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to mark " + segmentKey + " as rebuilt: " + e.getMessage());
+        }
+    }
+
+    private void deleteExpiredSegments() {
+        File[] files = indexDir.listFiles();
+        if (files == null) return;
+
+        long cutoff = System.currentTimeMillis() - RETENTION_MS;
+        for (File file : files) {
+            if (file.lastModified() < cutoff && !file.delete()) {
+                Log.w(TAG, "Failed to delete expired index segment " + file.getName());
+            }
+        }
+
+        Iterator<Map.Entry<String, Segment>> iterator = segments.entrySet().iterator();
+        while (iterator.hasNext()) {
+            File file = segmentFile(iterator.next().getKey());
+            if (file != null && !file.exists()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private File segmentFile(String segmentKey) {
+        return indexDir != null ? new File(indexDir, fileName(segmentKey) + ".idx") : null;
+    }
+
+    private static String segmentKey(String dataType, String date) {
+        return dataType + "/" + segmentDate(date);
+    }
+
+    // Epoch timestamps in seconds or milliseconds map to their day; other keys are kept
+    private static String segmentDate(String date) {
+        if (date == null || date.isEmpty() || date.length() > 15 || !date.matches("\\d+")) {
+            return date;
+        }
+        long timestamp = Long.parseLong(date);
+        return formatDate(timestamp < 100000000000L ? timestamp * 1000 : timestamp);
+    }
+
+    private static String fileName(String segmentKey) {
+        return segmentKey.replaceAll("[^a-zA-Z0-9_-]", "_");
+    }
+
+    private static boolean isIsoDate(String date) {
+        return date != null && date.matches("\\d{4}-\\d{2}-\\d{2}");
+    }
+
+    private static String formatDate(long timestamp) {
+        return new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date(timestamp));
+    }
+
+    private static void bloomAdd(long[] bloom, String value) {
+        int h1 = value.hashCode();
+        int h2 = mix(h1);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (h1 + i * h2) & (BLOOM_BITS - 1);
+            bloom[bit >>> 6] |= 1L << (bit & 63);
+        }
+    }
+
+    private static boolean bloomMightContain(long[] bloom, String value) {
+        int h1 = value.hashCode();
+        int h2 = mix(h1);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (h1 + i * h2) & (BLOOM_BITS - 1);
+            if ((bloom[bit >>> 6] & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h | 1;
+    }
+}
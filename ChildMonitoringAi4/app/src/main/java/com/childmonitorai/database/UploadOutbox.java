@@ -0,0 +1,256 @@
+package com.childmonitorai.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.childmonitorai.models.RecordSerializer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Disk-backed queue of records waiting for Firebase to acknowledge them. The record path
+// is the idempotency key: writing the same path again replaces the older pending value,
+// and replaying a record that already reached the server just rewrites the same data.
+// Only BatchUploader's worker thread touches this class.
+class UploadOutbox extends SQLiteOpenHelper {
+    private static final String TAG = "UploadOutbox";
+    private static final String DB_NAME = "upload_outbox.db";
+    private static final int DB_VERSION = 1;
+    private static final int MAX_ROWS = 50000; // oldest records are dropped beyond this
+
+    private static final String TABLE = "outbox";
+    private static final String COL_ID = "_id";
+    private static final String COL_DATA_TYPE = "data_type";
+    private static final String COL_PATH = "path";
+    private static final String COL_VALUE = "value";
+    private static final String COL_CREATED_AT = "created_at";
+
+    static class Entry {
+        final long id;
+        final String dataType;
+        final String path;
+        final Object value;
+
+        Entry(long id, String dataType, String path, Object value) {
+            this.id = id;
+            this.dataType = dataType;
+            this.path = path;
+            this.value = value;
+        }
+    }
+
+    UploadOutbox(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COL_DATA_TYPE + " TEXT NOT NULL, "
+                + COL_PATH + " TEXT NOT NULL UNIQUE, "
+                + COL_VALUE + " TEXT, "
+                + COL_CREATED_AT + " INTEGER NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    // Returns the row id, or -1 if the record could not be persisted
+    long put(String dataType, String path, Object value) {
+        return putEncoded(dataType, path, encode(value));
+    }
+
+    <T> long put(String dataType, String path, T record, RecordSerializer<T> serializer) {
+        return putEncoded(dataType, path, encode(record, serializer));
+    }
+
+    private long putEncoded(String dataType, String path, String encodedValue) {
+        if (encodedValue == null) {
+            // Firebase cannot store NaN or infinite numbers; a null row would delete the node
+            Log.e(TAG, "Not persisting " + path + ": value has a non-finite number");
+            return -1;
+        }
+        ContentValues values = new ContentValues();
+        values.put(COL_DATA_TYPE, dataType);
+        values.put(COL_PATH, path);
+        values.put(COL_VALUE, encodedValue);
+        values.put(COL_CREATED_AT, System.currentTimeMillis());
+        try {
+            return getWritableDatabase().insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to persist " + path + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    // Oldest records first
+    List<Entry> peek(int limit) {
+        return peek(limit, Collections.<String>emptySet());
+    }
+
+    // Oldest records first, skipping data types that are currently held back
+    List<Entry> peek(int limit, Set<String> excludedTypes) {
+        String selection = null;
+        String[] selectionArgs = null;
+        if (!excludedTypes.isEmpty()) {
+            StringBuilder placeholders = new StringBuilder();
+            for (int i = 0; i < excludedTypes.size(); i++) {
+                placeholders.append(i == 0 ? "?" : ", ?");
+            }
+            selection = COL_DATA_TYPE + " NOT IN (" + placeholders + ")";
+            selectionArgs = excludedTypes.toArray(new String[0]);
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE,
+                new String[]{COL_ID, COL_DATA_TYPE, COL_PATH, COL_VALUE},
+                selection, selectionArgs, null, null, COL_ID + " ASC", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                try {
+                    entries.add(new Entry(id, cursor.getString(1), cursor.getString(2), decode(cursor.getString(3))));
+                } catch (JSONException e) {
+                    Log.e(TAG, "Dropping unreadable outbox record " + cursor.getString(2));
+                    delete(id);
+                }
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to read outbox: " + e.getMessage());
+        }
+        return entries;
+    }
+
+    void delete(long id) {
+        try {
+            getWritableDatabase().delete(TABLE, COL_ID + " = ?", new String[]{String.valueOf(id)});
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to delete outbox record: " + e.getMessage());
+        }
+    }
+
+    // Compaction after acknowledgement; ids are removed in one transaction
+    void delete(List<Long> ids) {
+        if (ids.isEmpty()) return;
+        SQLiteDatabase db;
+        try {
+            db = getWritableDatabase();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to open outbox: " + e.getMessage());
+            return;
+        }
+        db.beginTransaction();
+        try {
+            for (Long id : ids) {
+                db.delete(TABLE, COL_ID + " = ?", new String[]{String.valueOf(id)});
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to delete acknowledged records: " + e.getMessage());
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Keeps disk usage bounded when the device stays offline for a long time
+    void trim() {
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            int deleted = db.delete(TABLE, COL_ID + " NOT IN (SELECT " + COL_ID + " FROM " + TABLE
+                    + " ORDER BY " + COL_ID + " DESC LIMIT " + MAX_ROWS + ")", null);
+            if (deleted > 0) {
+                Log.w(TAG, "Outbox full, dropped " + deleted + " oldest records");
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to trim outbox: " + e.getMessage());
+        }
+    }
+
+    // Values are the Map/List/primitive trees accepted by updateChildren(). Wrapping in an
+    // array keeps plain strings and numbers unambiguous when decoded. Null if the value holds
+    // a NaN or infinite number, which JSON cannot represent.
+    static String encode(Object value) {
+        return new JSONArray().put(JSONObject.wrap(value)).toString();
+    }
+
+    // Streams the serializer's fields into the same "[{...}]" form without building a map.
+    // Numbers are written by JSONObject.numberToString(), as JSONObject.wrap() values are, and
+    // a NaN or infinite one makes the whole record null as it does for encode(Object).
+    static <T> String encode(T record, RecordSerializer<T> serializer) {
+        StringBuilder json = new StringBuilder("[{");
+        boolean[] invalid = new boolean[1];
+        serializer.serialize(record, (field, value) -> {
+            if (json.length() > 2) {
+                json.append(',');
+            }
+            json.append(JSONObject.quote(field)).append(':');
+            if (value == null) {
+                json.append("null");
+            } else if (value instanceof Boolean) {
+                json.append(value);
+            } else if (value instanceof Number) {
+                try {
+                    json.append(JSONObject.numberToString((Number) value));
+                } catch (JSONException e) {
+                    invalid[0] = true;
+                    json.append("null");
+                }
+            } else {
+                json.append(JSONObject.quote(String.valueOf(value)));
+            }
+        });
+        return invalid[0] ? null : json.append("}]").toString();
+    }
+
+    static Object decode(String json) throws JSONException {
+        if (json == null) return null;
+        return fromJson(new JSONArray(json).get(0));
+    }
+
+    private static Object fromJson(Object json) throws JSONException {
+        if (json == JSONObject.NULL) {
+            return null;
+        }
+        if (json instanceof JSONObject) {
+            JSONObject object = (JSONObject) json;
+            Map<String, Object> map = new HashMap<>();
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                map.put(key, fromJson(object.get(key)));
+            }
+            return map;
+        }
+        if (json instanceof JSONArray) {
+            JSONArray array = (JSONArray) json;
+            List<Object> list = new ArrayList<>();
+            for (int i = 0; i < array.length(); i++) {
+                list.add(fromJson(array.get(i)));
+            }
+            return list;
+        }
+        return json;
+    }
+}
@@ -0,0 +1,8 @@
+package com.childmonitorai.database;
+
+// How urgently a data type has to reach Firebase
+public enum UploadPriority {
+    ALERT,   // parent notifications, sent as soon as they are enqueued
+    MESSAGE, // calls, messages, browsing and location, sent within seconds
+    BULK     // inventory, contacts and usage, held for an unmetered network or charging
+}
@@ -0,0 +1,162 @@
+package com.childmonitorai.database;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.util.Log;
+
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+
+import com.childmonitorai.helpers.BulkUploadWorker;
+import com.childmonitorai.helpers.NetworkHelper;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Decides when each priority class may use the radio. Alerts and messages always go out;
+// bulk data types are held by BatchUploader and UsageAccumulator until the device is on an
+// unmetered network or charging, or the data has waited MAX_BULK_HOLD_MS. While something
+// is held, two one-time WorkManager requests wait for those conditions, so held data is
+// still sent if the process is killed before they are met.
+public class UploadScheduler {
+    private static final String TAG = "UploadScheduler";
+    static final long MAX_BULK_HOLD_MS = 6 * 60 * 60 * 1000; // 6 hours
+
+    private static final String WORK_UNMETERED = "bulk_upload_unmetered";
+    private static final String WORK_CHARGING = "bulk_upload_charging";
+
+    private static UploadScheduler instance;
+
+    private final Map<String, UploadPriority> priorities = new HashMap<>();
+    private Context appContext;
+    private volatile boolean charging;
+    private boolean workRequested;
+
+    private UploadScheduler() {
+        priorities.put("notifications", UploadPriority.ALERT);
+
+        priorities.put("calls", UploadPriority.MESSAGE);
+        priorities.put("sms", UploadPriority.MESSAGE);
+        priorities.put("mms", UploadPriority.MESSAGE);
+        priorities.put("social_media_messages", UploadPriority.MESSAGE);
+        priorities.put("web_visits", UploadPriority.MESSAGE);
+        priorities.put("clipboard", UploadPriority.MESSAGE);
+        priorities.put("location", UploadPriority.MESSAGE);
+        priorities.put("archive", UploadPriority.MESSAGE);
+
+        priorities.put("apps", UploadPriority.BULK);
+        priorities.put("app_sessions", UploadPriority.BULK);
+        priorities.put("contacts", UploadPriority.BULK);
+        priorities.put("app_usage", UploadPriority.BULK);
+    }
+
+    public static synchronized UploadScheduler getInstance() {
+        if (instance == null) {
+            instance = new UploadScheduler();
+        }
+        return instance;
+    }
+
+    public void initialize(Context context) {
+        synchronized (this) {
+            if (appContext != null) return;
+            appContext = context.getApplicationContext();
+        }
+
+        // ACTION_BATTERY_CHANGED is sticky, so this returns the current state without a receiver
+        Intent battery = appContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        charging = battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+
+        IntentFilter powerFilter = new IntentFilter();
+        powerFilter.addAction(Intent.ACTION_POWER_CONNECTED);
+        powerFilter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+        appContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                charging = Intent.ACTION_POWER_CONNECTED.equals(intent.getAction());
+                Log.d(TAG, "Charging changed: " + charging);
+                if (charging) {
+                    releaseBulk();
+                }
+            }
+        }, powerFilter);
+
+        NetworkHelper.getInstance().initialize(appContext);
+        NetworkHelper.getInstance().addListener(() -> {
+            if (NetworkHelper.getInstance().isUnmetered()) {
+                releaseBulk();
+            }
+        });
+    }
+
+    public synchronized UploadPriority getPriority(String dataType) {
+        UploadPriority priority = priorities.get(dataType);
+        return priority != null ? priority : UploadPriority.MESSAGE;
+    }
+
+    public synchronized void setPriority(String dataType, UploadPriority priority) {
+        priorities.put(dataType, priority);
+    }
+
+    synchronized Set<String> getDataTypes(UploadPriority priority) {
+        Set<String> dataTypes = new HashSet<>();
+        for (Map.Entry<String, UploadPriority> entry : priorities.entrySet()) {
+            if (entry.getValue() == priority) {
+                dataTypes.add(entry.getKey());
+            }
+        }
+        return dataTypes;
+    }
+
+    // Nothing is held before initialize(), matching the behaviour before priorities existed
+    public boolean canSendBulk() {
+        if (appContext == null) return true;
+        return charging || NetworkHelper.getInstance().isUnmetered();
+    }
+
+    // Called by the uploaders whenever they keep bulk data back
+    synchronized void onBulkHeld() {
+        if (workRequested || appContext == null) return;
+        workRequested = true;
+
+        Constraints unmetered = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.UNMETERED)
+                .build();
+        Constraints whileCharging = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .setRequiresCharging(true)
+                .build();
+
+        WorkManager workManager = WorkManager.getInstance(appContext);
+        workManager.enqueueUniqueWork(WORK_UNMETERED, ExistingWorkPolicy.KEEP, buildRequest(unmetered));
+        workManager.enqueueUniqueWork(WORK_CHARGING, ExistingWorkPolicy.KEEP, buildRequest(whileCharging));
+        Log.d(TAG, "Bulk uploads held, waiting for an unmetered network or charging");
+    }
+
+    private OneTimeWorkRequest buildRequest(Constraints constraints) {
+        return new OneTimeWorkRequest.Builder(BulkUploadWorker.class)
+                .setConstraints(constraints)
+                .addTag("bulk_upload")
+                .build();
+    }
+
+    // Sends everything that was held back, whatever the current conditions. The task
+    // completes once every held batch has been attempted; failures stay in the outbox.
+    public Task<Void> releaseBulk() {
+        synchronized (this) {
+            workRequested = false;
+        }
+        Log.d(TAG, "Releasing held bulk uploads");
+        return Tasks.whenAll(BatchUploader.getInstance().flushBulk(), UsageAccumulator.getInstance().flush());
+    }
+}
@@ -0,0 +1,376 @@
+package com.childmonitorai.database;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.childmonitorai.helpers.MonitorMetrics;
+import com.childmonitorai.models.RecordSerializer;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DatabaseException;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ServerValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Collects per-day usage deltas locally and flushes them as ServerValue.increment() values
+// in one multi-path update, so concurrent writers (UsageTrackingWorker, AppUsageService)
+// never read-modify-write the same app_usage node. Usage is BULK data, so flushes are held
+// until UploadScheduler allows bulk uploads.
+// Every delta and value is also written to UsageJournal, and a flush stays there until
+// Firebase acknowledges it, so nothing is lost to a kill or reboot. Increments are not
+// idempotent: each flush also writes a usage_flushes/{flushId} marker in the same atomic
+// update, and a flush left over from a previous process is only resent if its marker is
+// missing on the server.
+public class UsageAccumulator {
+    private static final String TAG = "UsageAccumulator";
+    private static final long FLUSH_DELAY_MS = 30 * 1000; // 30 seconds
+
+    private static UsageAccumulator instance;
+
+    private final DatabaseReference usersRef;
+    private final ScheduledExecutorService scheduler;
+    private UsageJournal.Batch current = new UsageJournal.Batch();
+    private final Map<String, UsageJournal.Batch> sealed = new LinkedHashMap<>(); // flush id -> batch waiting for an ack
+    private final Set<String> inFlight = new HashSet<>();
+    private final Set<String> unverified = new HashSet<>(); // sealed by a previous process, may have been applied
+    private UsageJournal journal; // null until initialize() has loaded it
+    private boolean initialized;
+    private ScheduledFuture<?> scheduledFlush;
+    private long heldSince; // 0 while nothing is held back; restored from the journal on startup
+
+    private UsageAccumulator() {
+        usersRef = FirebaseDatabase.getInstance().getReference("users");
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    public static synchronized UsageAccumulator getInstance() {
+        if (instance == null) {
+            instance = new UsageAccumulator();
+        }
+        return instance;
+    }
+
+    // Opens the journal, persists what was collected before this call and picks up the
+    // deltas and unacknowledged flushes of a previous run
+    public void initialize(Context context) {
+        synchronized (this) {
+            if (initialized) return;
+            initialized = true;
+        }
+
+        Context appContext = context.getApplicationContext();
+        scheduler.execute(() -> {
+            UsageJournal opened = new UsageJournal(appContext);
+            Map<String, UsageJournal.Batch> stored = opened.load();
+            long oldest = opened.oldestCreatedAt();
+
+            synchronized (this) {
+                // Writes made from now on go to the journal as they happen
+                journal = opened;
+                for (Map.Entry<String, Map<String, Long>> node : current.deltas.entrySet()) {
+                    for (Map.Entry<String, Long> field : node.getValue().entrySet()) {
+                        opened.addDelta(node.getKey(), field.getKey(), field.getValue());
+                    }
+                }
+                for (Map.Entry<String, Map<String, Object>> node : current.values.entrySet()) {
+                    for (Map.Entry<String, Object> field : node.getValue().entrySet()) {
+                        opened.set(node.getKey(), field.getKey(), field.getValue());
+                    }
+                }
+
+                UsageJournal.Batch accumulating = stored.remove(UsageJournal.ACCUMULATING);
+                if (accumulating != null) {
+                    restore(accumulating);
+                }
+                for (Map.Entry<String, UsageJournal.Batch> batch : stored.entrySet()) {
+                    sealed.put(batch.getKey(), batch.getValue());
+                    unverified.add(batch.getKey());
+                }
+                // Usage held by the previous process keeps its place in the MAX_BULK_HOLD_MS window
+                if (oldest > 0 && (heldSince == 0 || oldest < heldSince)) {
+                    heldSince = oldest;
+                }
+                if (!current.isEmpty() || !sealed.isEmpty()) {
+                    Log.d(TAG, "Restored usage from the journal, " + stored.size() + " unacknowledged flushes");
+                    scheduleFlush();
+                }
+            }
+        });
+    }
+
+    // nodePath is relative to "users", e.g. "{uid}/phones/{model}/app_usage/{date}/{package}"
+    public synchronized void addDelta(String nodePath, String field, long delta) {
+        if (delta == 0) return;
+        Map<String, Long> nodeDeltas = current.deltas.get(nodePath);
+        if (nodeDeltas == null) {
+            nodeDeltas = new HashMap<>();
+            current.deltas.put(nodePath, nodeDeltas);
+        }
+        Long previous = nodeDeltas.get(field);
+        nodeDeltas.put(field, previous != null ? previous + delta : delta);
+        if (journal != null) {
+            journal.addDelta(nodePath, field, delta);
+        }
+        scheduleFlush();
+    }
+
+    public synchronized void set(String nodePath, String field, Object value) {
+        Map<String, Object> nodeValues = current.values.get(nodePath);
+        if (nodeValues == null) {
+            nodeValues = new HashMap<>();
+            current.values.put(nodePath, nodeValues);
+        }
+        nodeValues.put(field, value);
+        if (journal != null) {
+            journal.set(nodePath, field, value);
+        }
+        scheduleFlush();
+    }
+
+    // Keeps the largest value seen since the last flush, e.g. last_used timestamps
+    public synchronized void setMax(String nodePath, String field, long value) {
+        Map<String, Object> nodeValues = current.values.get(nodePath);
+        Object previous = nodeValues != null ? nodeValues.get(field) : null;
+        if (previous instanceof Long && (Long) previous >= value) {
+            return;
+        }
+        set(nodePath, field, value);
+    }
+
+    // Serializes a record into the node: counterFields become increments, the rest are set
+    public <T> void update(String nodePath, T record, RecordSerializer<T> serializer, Set<String> counterFields) {
+        synchronized (this) {
+            serializer.serialize(record, (field, value) -> {
+                if (counterFields.contains(field) && value instanceof Number) {
+                    addDelta(nodePath, field, ((Number) value).longValue());
+                } else {
+                    set(nodePath, field, value);
+                }
+            });
+        }
+    }
+
+    // Sends everything right away, even when bulk uploads are being held
+    public Task<Void> flush() {
+        TaskCompletionSource<Void> done = new TaskCompletionSource<>();
+        scheduler.execute(() -> flushNow(true).addOnCompleteListener(task -> done.trySetResult(null)));
+        return done.getTask();
+    }
+
+    private synchronized void scheduleFlush() {
+        if (scheduledFlush == null) {
+            scheduledFlush = scheduler.schedule(() -> flushNow(false), FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Runs on the scheduler thread. The batch is swapped and its journal rows sealed under the
+    // same lock the writes hold, so every row sealed belongs to the batch being sent and every
+    // later write stays accumulating.
+    private Task<Void> flushNow(boolean force) {
+        Map<String, UsageJournal.Batch> toSend = new LinkedHashMap<>();
+        synchronized (this) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if (current.isEmpty() && inFlight.containsAll(sealed.keySet())) {
+                return Tasks.forResult(null);
+            }
+            if (!force && hold()) {
+                return Tasks.forResult(null);
+            }
+            heldSince = 0;
+            if (!current.isEmpty()) {
+                String flushId = UUID.randomUUID().toString();
+                sealed.put(flushId, current);
+                current = new UsageJournal.Batch();
+                if (journal != null) {
+                    journal.seal(flushId);
+                }
+            }
+            for (Map.Entry<String, UsageJournal.Batch> batch : sealed.entrySet()) {
+                if (inFlight.add(batch.getKey())) {
+                    toSend.put(batch.getKey(), batch.getValue());
+                }
+            }
+        }
+
+        List<Task<Void>> attempts = new ArrayList<>();
+        for (Map.Entry<String, UsageJournal.Batch> batch : toSend.entrySet()) {
+            attempts.add(send(batch.getKey(), batch.getValue()));
+        }
+        return Tasks.whenAll(attempts);
+    }
+
+    // A flush sealed by a previous process may have reached the server before it died;
+    // its marker tells whether it did
+    private Task<Void> send(String flushId, UsageJournal.Batch batch) {
+        String marker = markerPath(flushId, batch);
+        boolean verify;
+        synchronized (this) {
+            verify = unverified.contains(flushId);
+        }
+        if (!verify) {
+            return commit(flushId, batch, marker);
+        }
+        return usersRef.child(marker).get().continueWithTask(task -> {
+            if (!task.isSuccessful()) {
+                Log.w(TAG, "Could not check usage flush " + flushId + ", retrying later");
+                retryLater(flushId);
+                return Tasks.forResult(null);
+            }
+            if (task.getResult().exists()) {
+                Log.d(TAG, "Usage flush " + flushId + " was already applied");
+                acknowledged(flushId, marker);
+                return Tasks.forResult(null);
+            }
+            synchronized (this) {
+                unverified.remove(flushId);
+            }
+            return commit(flushId, batch, marker);
+        });
+    }
+
+    private Task<Void> commit(String flushId, UsageJournal.Batch batch, String marker) {
+        Map<String, Object> updates = new HashMap<>();
+        for (Map.Entry<String, Map<String, Object>> node : batch.values.entrySet()) {
+            for (Map.Entry<String, Object> field : node.getValue().entrySet()) {
+                updates.put(node.getKey() + "/" + field.getKey(), field.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, Long>> node : batch.deltas.entrySet()) {
+            for (Map.Entry<String, Long> field : node.getValue().entrySet()) {
+                updates.put(node.getKey() + "/" + field.getKey(), ServerValue.increment(field.getValue()));
+            }
+        }
+        updates.put(marker, ServerValue.TIMESTAMP);
+
+        int nodeCount = Math.max(batch.deltas.size(), batch.values.size());
+        MonitorMetrics metrics = MonitorMetrics.forDataType("app_usage");
+        long payloadBytes = MonitorMetrics.estimateSize(updates);
+        Task<Void> commit;
+        try {
+            commit = usersRef.updateChildren(updates);
+        } catch (DatabaseException e) {
+            // Invalid path or value; resending the same flush can never succeed
+            Log.e(TAG, "Dropping usage flush " + flushId + " rejected by Firebase: " + e.getMessage());
+            metrics.recordError();
+            acknowledged(flushId, null);
+            return Tasks.forException(e);
+        }
+        return commit
+                .addOnSuccessListener(aVoid -> {
+                    Log.d(TAG, "Flushed usage for " + nodeCount + " nodes in one update");
+                    metrics.recordUploads(nodeCount);
+                    metrics.recordBytes(payloadBytes);
+                    acknowledged(flushId, marker);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Failed to flush usage deltas, keeping them for the next flush: " + e.getMessage());
+                    metrics.recordError();
+                    retryLater(flushId);
+                });
+    }
+
+    private synchronized void retryLater(String flushId) {
+        inFlight.remove(flushId);
+        scheduleFlush();
+    }
+
+    // The local copy goes first; a marker left behind by a kill in between is harmless
+    private synchronized void acknowledged(String flushId, String marker) {
+        sealed.remove(flushId);
+        inFlight.remove(flushId);
+        unverified.remove(flushId);
+        UsageJournal target = journal;
+        scheduler.execute(() -> {
+            if (target != null) {
+                target.delete(flushId);
+            }
+            if (marker != null) {
+                usersRef.child(marker).removeValue();
+            }
+        });
+    }
+
+    // Keeps accumulating while bulk uploads are not allowed, for at most MAX_BULK_HOLD_MS.
+    // Called with the lock held.
+    private boolean hold() {
+        UploadScheduler uploadScheduler = UploadScheduler.getInstance();
+        if (uploadScheduler.canSendBulk()) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (heldSince == 0) {
+            heldSince = now;
+            Log.d(TAG, "Holding usage updates until an unmetered network or charger is available");
+        }
+        long remaining = heldSince + UploadScheduler.MAX_BULK_HOLD_MS - now;
+        if (remaining <= 0) {
+            return false;
+        }
+        scheduledFlush = scheduler.schedule(() -> flushNow(false), remaining, TimeUnit.MILLISECONDS);
+        uploadScheduler.onBulkHeld();
+        return true;
+    }
+
+    // Adds deltas and values read back from the journal. Values set since this process
+    // started are newer and win. Called with the lock held.
+    private void restore(UsageJournal.Batch stored) {
+        for (Map.Entry<String, Map<String, Long>> node : stored.deltas.entrySet()) {
+            Map<String, Long> nodeDeltas = current.deltas.get(node.getKey());
+            if (nodeDeltas == null) {
+                nodeDeltas = new HashMap<>();
+                current.deltas.put(node.getKey(), nodeDeltas);
+            }
+            for (Map.Entry<String, Long> field : node.getValue().entrySet()) {
+                Long previous = nodeDeltas.get(field.getKey());
+                nodeDeltas.put(field.getKey(), previous != null ? previous + field.getValue() : field.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, Object>> node : stored.values.entrySet()) {
+            Map<String, Object> nodeValues = current.values.get(node.getKey());
+            if (nodeValues == null) {
+                nodeValues = new HashMap<>();
+                current.values.put(node.getKey(), nodeValues);
+            }
+            for (Map.Entry<String, Object> field : node.getValue().entrySet()) {
+                if (!nodeValues.containsKey(field.getKey())) {
+                    nodeValues.put(field.getKey(), field.getValue());
+                }
+            }
+        }
+    }
+
+    // "{uid}/phones/{model}/usage_flushes/{flushId}", next to the device's app_usage node
+    static String markerPath(String flushId, UsageJournal.Batch batch) {
+        String first = null;
+        for (String path : batch.deltas.keySet()) {
+            if (first == null || path.compareTo(first) < 0) first = path;
+        }
+        for (String path : batch.values.keySet()) {
+            if (first == null || path.compareTo(first) < 0) first = path;
+        }
+        int end = -1;
+        for (int i = 0; i < 3 && first != null; i++) {
+            end = first.indexOf('/', end + 1);
+            if (end < 0) break;
+        }
+        String device = end > 0 ? first.substring(0, end) : first;
+        return device + "/usage_flushes/" + flushId;
+    }
+}
@@ -0,0 +1,176 @@
+package com.childmonitorai.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// On-disk copy of UsageAccumulator's deltas and values, so usage held back for hours or
+// waiting for a flush survives the process. Rows with an empty flush id are still
+// accumulating; flush() seals them under a flush id, and they are deleted once Firebase
+// acknowledges that flush. Only UsageAccumulator touches this class; writes and seals run
+// under its lock, so a seal never overtakes a write to the batch being sealed.
+class UsageJournal extends SQLiteOpenHelper {
+    private static final String TAG = "UsageJournal";
+    private static final String DB_NAME = "usage_journal.db";
+    private static final int DB_VERSION = 2; // 2: created_at
+
+    static final String ACCUMULATING = "";
+
+    private static final String TABLE = "usage";
+    private static final String COL_FLUSH_ID = "flush_id";
+    private static final String COL_PATH = "path";
+    private static final String COL_FIELD = "field";
+    private static final String COL_COUNTER = "counter"; // 1 for increments, 0 for plain values
+    private static final String COL_DELTA = "delta";
+    private static final String COL_VALUE = "value";
+    private static final String COL_CREATED_AT = "created_at";
+
+    // Deltas and values of one flush, keyed by node path then field
+    static class Batch {
+        final Map<String, Map<String, Long>> deltas = new HashMap<>();
+        final Map<String, Map<String, Object>> values = new HashMap<>();
+
+        boolean isEmpty() {
+            return deltas.isEmpty() && values.isEmpty();
+        }
+    }
+
+    UsageJournal(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COL_FLUSH_ID + " TEXT NOT NULL, "
+                + COL_PATH + " TEXT NOT NULL, "
+                + COL_FIELD + " TEXT NOT NULL, "
+                + COL_COUNTER + " INTEGER NOT NULL, "
+                + COL_DELTA + " INTEGER NOT NULL DEFAULT 0, "
+                + COL_VALUE + " TEXT, "
+                + COL_CREATED_AT + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COL_FLUSH_ID + ", " + COL_PATH + ", " + COL_FIELD + ", " + COL_COUNTER + "))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    void addDelta(String path, String field, long delta) {
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.execSQL("UPDATE " + TABLE + " SET " + COL_DELTA + " = " + COL_DELTA + " + ? WHERE "
+                            + COL_FLUSH_ID + " = ? AND " + COL_PATH + " = ? AND " + COL_FIELD + " = ? AND " + COL_COUNTER + " = 1",
+                    new Object[]{delta, ACCUMULATING, path, field});
+            ContentValues values = new ContentValues();
+            values.put(COL_FLUSH_ID, ACCUMULATING);
+            values.put(COL_PATH, path);
+            values.put(COL_FIELD, field);
+            values.put(COL_COUNTER, 1);
+            values.put(COL_DELTA, delta);
+            values.put(COL_CREATED_AT, System.currentTimeMillis());
+            // No-op when the update above found the row
+            db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to persist usage delta for " + path + ": " + e.getMessage());
+        }
+    }
+
+    void set(String path, String field, Object value) {
+        ContentValues values = new ContentValues();
+        values.put(COL_FLUSH_ID, ACCUMULATING);
+        values.put(COL_PATH, path);
+        values.put(COL_FIELD, field);
+        values.put(COL_COUNTER, 0);
+        values.put(COL_VALUE, UploadOutbox.encode(value));
+        values.put(COL_CREATED_AT, System.currentTimeMillis());
+        try {
+            getWritableDatabase().insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to persist usage value for " + path + ": " + e.getMessage());
+        }
+    }
+
+    // Moves everything accumulated so far under flushId
+    void seal(String flushId) {
+        ContentValues values = new ContentValues();
+        values.put(COL_FLUSH_ID, flushId);
+        try {
+            getWritableDatabase().update(TABLE, values, COL_FLUSH_ID + " = ?", new String[]{ACCUMULATING});
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to seal usage flush: " + e.getMessage());
+        }
+    }
+
+    void delete(String flushId) {
+        try {
+            getWritableDatabase().delete(TABLE, COL_FLUSH_ID + " = ?", new String[]{flushId});
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to delete acknowledged usage flush: " + e.getMessage());
+        }
+    }
+
+    // When the oldest row still waiting was written, or 0 if there is none. Lets a hold
+    // carry on across restarts instead of starting over.
+    long oldestCreatedAt() {
+        try (Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT MIN(" + COL_CREATED_AT + ") FROM " + TABLE, null)) {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : 0;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to read usage journal: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    // Every batch on disk by flush id, the accumulating one under ACCUMULATING
+    Map<String, Batch> load() {
+        Map<String, Batch> batches = new LinkedHashMap<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE,
+                new String[]{COL_FLUSH_ID, COL_PATH, COL_FIELD, COL_COUNTER, COL_DELTA, COL_VALUE},
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                Batch batch = batches.get(cursor.getString(0));
+                if (batch == null) {
+                    batch = new Batch();
+                    batches.put(cursor.getString(0), batch);
+                }
+                String path = cursor.getString(1);
+                String field = cursor.getString(2);
+                if (cursor.getInt(3) == 1) {
+                    Map<String, Long> node = batch.deltas.get(path);
+                    if (node == null) {
+                        node = new HashMap<>();
+                        batch.deltas.put(path, node);
+                    }
+                    node.put(field, cursor.getLong(4));
+                } else {
+                    try {
+                        Map<String, Object> node = batch.values.get(path);
+                        if (node == null) {
+                            node = new HashMap<>();
+                            batch.values.put(path, node);
+                        }
+                        node.put(field, UploadOutbox.decode(cursor.getString(5)));
+                    } catch (JSONException e) {
+                        Log.e(TAG, "Dropping unreadable usage value " + path + "/" + field);
+                    }
+                }
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to read usage journal: " + e.getMessage());
+        }
+        return batches;
+    }
+}
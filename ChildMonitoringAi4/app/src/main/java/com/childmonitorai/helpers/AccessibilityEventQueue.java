@@ -0,0 +1,190 @@
+package com.childmonitorai.helpers;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Hands accessibility events from the callback thread to a single worker thread. The
+// callback only captures a NodeSnapshot; message extraction, uploads and analysis run on
+// the worker, so heavy scrolling cannot stall the accessibility service.
+//
+// Pending events are coalesced per package and window: a full pass replaces everything
+// pending for its window, and a partial scope replaces a pending one from the same source
+// node, so repeated content changes collapse into the latest state. The queue is bounded:
+//  - from HIGH_WATERMARK pending scopes, partial events are refused before anything is
+//    captured, until the worker drains back to LOW_WATERMARK (backpressure);
+//  - at MAX_PENDING, a full pass evicts the oldest pending window and a partial is refused.
+// Refused and evicted events are counted as drops in MonitorMetrics. Their messages are
+// still on screen and come back with the next pass; MessageDedup filters the repeats.
+public class AccessibilityEventQueue {
+    private static final String TAG = "AccessibilityEventQueue";
+    private static final int MAX_PENDING = 32;
+    private static final int HIGH_WATERMARK = 24;
+    private static final int LOW_WATERMARK = 8;
+
+    public interface Processor {
+        void process(CapturedEvent event);
+    }
+
+    public static class CapturedEvent {
+        public final String packageName;
+        public final int windowId;
+        public final boolean fullPass;
+        public final NodeSnapshot scope;
+
+        CapturedEvent(String packageName, int windowId, boolean fullPass, NodeSnapshot scope) {
+            this.packageName = packageName;
+            this.windowId = windowId;
+            this.fullPass = fullPass;
+            this.scope = scope;
+        }
+    }
+
+    // Everything pending for one package and window, oldest first
+    private static class PendingWindow {
+        CapturedEvent fullPass;
+        final LinkedHashMap<Long, CapturedEvent> partials = new LinkedHashMap<>();
+
+        int size() {
+            return (fullPass != null ? 1 : 0) + partials.size();
+        }
+    }
+
+    private final Processor processor;
+    private final MonitorMetrics metrics;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> new Thread(r, "AccessibilityEventWorker"));
+    private final LinkedHashMap<String, PendingWindow> pending = new LinkedHashMap<>();
+    private int depth;
+    private boolean throttled;
+    private boolean draining;
+
+    public AccessibilityEventQueue(Processor processor, MonitorMetrics metrics) {
+        this.processor = processor;
+        this.metrics = metrics;
+    }
+
+    // Asked before capturing, so a refused event costs nothing
+    public synchronized boolean accepts(boolean fullPass) {
+        if (fullPass) return true;
+        if (throttled && depth > LOW_WATERMARK) {
+            metrics.recordDrop();
+            return false;
+        }
+        throttled = depth >= HIGH_WATERMARK;
+        if (throttled) {
+            Log.w(TAG, "Event queue at " + depth + ", dropping content changes until it drains");
+            metrics.recordDrop();
+            return false;
+        }
+        return true;
+    }
+
+    // True if the window already has a full pass waiting, so later changes can be partial
+    public synchronized boolean hasPendingFullPass(String packageName, int windowId) {
+        PendingWindow window = pending.get(key(packageName, windowId));
+        return window != null && window.fullPass != null;
+    }
+
+    public synchronized void offer(String packageName, int windowId, boolean fullPass, NodeSnapshot scope) {
+        String key = key(packageName, windowId);
+        CapturedEvent event = new CapturedEvent(packageName, windowId, fullPass, scope);
+        PendingWindow window = pending.get(key);
+
+        if (fullPass) {
+            if (window != null) {
+                // Everything pending for the window is older than this capture
+                depth -= window.size();
+                pending.remove(key);
+            } else if (depth >= MAX_PENDING) {
+                evictOldest();
+            }
+            window = new PendingWindow();
+            window.fullPass = event;
+            pending.put(key, window);
+            depth++;
+        } else {
+            if (window == null) {
+                window = new PendingWindow();
+                pending.put(key, window);
+            }
+            if (window.partials.remove(scope.getSourceId()) != null) {
+                depth--;
+            } else if (depth >= MAX_PENDING) {
+                metrics.recordDrop();
+                if (window.size() == 0) pending.remove(key);
+                return;
+            }
+            window.partials.put(scope.getSourceId(), event);
+            depth++;
+        }
+
+        metrics.recordQueueDepth(depth);
+        if (!draining) {
+            draining = true;
+            worker.execute(this::drain);
+        }
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            pending.clear();
+            depth = 0;
+        }
+        worker.shutdown();
+    }
+
+    private void evictOldest() {
+        Iterator<Map.Entry<String, PendingWindow>> oldest = pending.entrySet().iterator();
+        if (!oldest.hasNext()) return;
+        PendingWindow evicted = oldest.next().getValue();
+        oldest.remove();
+        depth -= evicted.size();
+        for (int i = 0; i < evicted.size(); i++) {
+            metrics.recordDrop();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            List<CapturedEvent> batch = takeNextWindow();
+            if (batch == null) return;
+            for (CapturedEvent event : batch) {
+                try {
+                    processor.process(event);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error processing event from " + event.packageName + ": " + e.getMessage(), e);
+                    metrics.recordError();
+                }
+            }
+        }
+    }
+
+    private synchronized List<CapturedEvent> takeNextWindow() {
+        Iterator<Map.Entry<String, PendingWindow>> next = pending.entrySet().iterator();
+        if (!next.hasNext()) {
+            draining = false;
+            return null;
+        }
+        PendingWindow window = next.next().getValue();
+        next.remove();
+        depth -= window.size();
+        metrics.recordQueueDepth(depth);
+
+        List<CapturedEvent> batch = new ArrayList<>(window.size());
+        if (window.fullPass != null) {
+            batch.add(window.fullPass);
+        }
+        batch.addAll(window.partials.values());
+        return batch;
+    }
+
+    private static String key(String packageName, int windowId) {
+        return packageName + "#" + windowId;
+    }
+}
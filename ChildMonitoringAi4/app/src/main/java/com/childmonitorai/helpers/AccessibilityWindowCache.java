@@ -0,0 +1,125 @@
+package com.childmonitorai.helpers;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+// State kept between accessibility passes over the same window, so a content change only
+// costs the subtree that changed. A full pass (new window or window state change) records
+// what only the whole tree can tell, like the chat's contact name; later passes start from
+// the event source and skip nodes whose identity, text and position match the last pass.
+//
+// Windows are looked up from the accessibility thread and reset from the event worker;
+// a WindowState itself is only used by the worker.
+public class AccessibilityWindowCache {
+    private static final int MAX_WINDOWS = 4;
+    private static final int MAX_NODES_PER_WINDOW = 512;
+
+    public static class WindowState {
+        private final LinkedHashSet<Long> seenNodes = new LinkedHashSet<>();
+        // Message bubbles shown in the window by source ID, newest placement last
+        private final LinkedHashMap<Long, Bubble> bubbles = new LinkedHashMap<>();
+        public String contactName;
+        public boolean chatScreen;
+
+        // Returns false if the node is unchanged since it was last handled in this window
+        public boolean markChanged(NodeSnapshot node) {
+            if (!seenNodes.add(node.getFingerprint())) {
+                return false;
+            }
+            if (seenNodes.size() > MAX_NODES_PER_WINDOW) {
+                seenNodes.remove(seenNodes.iterator().next());
+            }
+            return true;
+        }
+
+        // Records where this pass's message bubbles are and returns the ordinal of each, in
+        // the same order: its position among the identical bubbles (same direction and text)
+        // in the window, counted from the top. A partial pass only sees the subtree that
+        // changed, so bubbles placed by earlier passes are counted too; otherwise a new bubble
+        // repeating an earlier message would get that message's ordinal and be deduped as it.
+        public int[] place(List<NodeSnapshot> nodes, boolean[] outgoing) {
+            Rect bounds = new Rect();
+            Bubble[] placed = new Bubble[nodes.size()];
+            for (int i = 0; i < placed.length; i++) {
+                NodeSnapshot node = nodes.get(i);
+                node.getBoundsInScreen(bounds);
+                placed[i] = new Bubble(MessageFingerprint.bubbleKey(outgoing[i], node.getText()), bounds.top, bounds.left);
+                // A view rebound to another message replaces what it showed before
+                bubbles.remove(node.getSourceId());
+                bubbles.put(node.getSourceId(), placed[i]);
+            }
+            Iterator<Long> eldest = bubbles.keySet().iterator();
+            while (bubbles.size() > MAX_NODES_PER_WINDOW) {
+                eldest.next();
+                eldest.remove();
+            }
+
+            Map<String, List<Bubble>> byKey = new HashMap<>();
+            for (Bubble bubble : bubbles.values()) {
+                List<Bubble> same = byKey.get(bubble.key);
+                if (same == null) {
+                    same = new ArrayList<>();
+                    byKey.put(bubble.key, same);
+                }
+                same.add(bubble);
+            }
+            int[] ordinals = new int[placed.length];
+            for (int i = 0; i < placed.length; i++) {
+                List<Bubble> same = byKey.get(placed[i].key);
+                if (same == null) continue; // evicted, only when a pass has more bubbles than the cap
+                for (Bubble other : same) {
+                    if (other.isAbove(placed[i])) {
+                        ordinals[i]++;
+                    }
+                }
+            }
+            return ordinals;
+        }
+    }
+
+    private static class Bubble {
+        final String key;
+        final int top;
+        final int left;
+
+        Bubble(String key, int top, int left) {
+            this.key = key;
+            this.top = top;
+            this.left = left;
+        }
+
+        boolean isAbove(Bubble other) {
+            return top < other.top || (top == other.top && left < other.left);
+        }
+    }
+
+    private final Map<Integer, WindowState> windows = new LinkedHashMap<Integer, WindowState>(8, .75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, WindowState> eldest) {
+            return size() > MAX_WINDOWS;
+        }
+    };
+
+    // Null until the window had a full pass
+    public synchronized WindowState get(int windowId) {
+        return windows.get(windowId);
+    }
+
+    // Starts over for a window, e.g. when it switched to another chat
+    public synchronized WindowState reset(int windowId) {
+        WindowState state = new WindowState();
+        windows.put(windowId, state);
+        return state;
+    }
+
+    public synchronized void clear() {
+        windows.clear();
+    }
+}
@@ -1,38 +1,167 @@
 package com.childmonitorai.helpers;
 
 import android.database.ContentObserver;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Handler;
-import android.os.Looper;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Change notifications are delivered on one shared background HandlerThread instead of the
+// main thread. Notifications for the same registered URI are coalesced for debounceMs, and
+// onContentChanged runs on a worker thread with at most one call per URI in flight; changes
+// that arrive while it runs trigger a single trailing call once it returns.
 public abstract class BaseContentObserver extends ContentObserver {
     private static final String TAG = "BaseContentObserver";
+    private static final long DEFAULT_DEBOUNCE_MS = 500;
+
+    private static Handler dispatchHandler;
+    // One thread per URI at most, since calls for the same URI never overlap
+    private static final ExecutorService syncExecutor = Executors.newCachedThreadPool();
+
     private Context context;
+    private final Handler handler;
+    private volatile long debounceMs;
+    private final List<Uri> registeredUris = new CopyOnWriteArrayList<>();
+    private final Map<String, DispatchState> dispatchStates = new HashMap<>(); // handler thread only
+
+    private class DispatchState {
+        final String key;
+        Uri lastUri;
+        boolean running;
+        boolean rerun;
+        final Runnable dispatch = this::dispatch;
+
+        DispatchState(String key) {
+            this.key = key;
+        }
+
+        void dispatch() {
+            if (running) {
+                rerun = true;
+                return;
+            }
+            running = true;
+            Uri uri = lastUri;
+            syncExecutor.execute(() -> {
+                try {
+                    onContentChanged(uri);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error handling change for " + key, e);
+                } finally {
+                    handler.post(this::onFinished);
+                }
+            });
+        }
+
+        void onFinished() {
+            running = false;
+            if (rerun) {
+                rerun = false;
+                dispatch();
+            }
+        }
+    }
 
     public BaseContentObserver(Context context) {
-        super(new Handler(Looper.getMainLooper()));
+        this(context, DEFAULT_DEBOUNCE_MS);
+    }
+
+    public BaseContentObserver(Context context, long debounceMs) {
+        this(context, getDispatchHandler(), debounceMs);
+    }
+
+    private BaseContentObserver(Context context, Handler handler, long debounceMs) {
+        super(handler);
         this.context = context;
+        this.handler = handler;
+        this.debounceMs = debounceMs;
+    }
+
+    private static synchronized Handler getDispatchHandler() {
+        if (dispatchHandler == null) {
+            HandlerThread thread = new HandlerThread("ContentObserverDispatch", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            dispatchHandler = new Handler(thread.getLooper());
+        }
+        return dispatchHandler;
+    }
+
+    public void setDebounceMs(long debounceMs) {
+        this.debounceMs = debounceMs;
     }
 
     @Override
     public void onChange(boolean selfChange, Uri uri) {
         super.onChange(selfChange, uri);
-        onContentChanged(uri);
+        String key = keyFor(uri);
+        DispatchState state = dispatchStates.get(key);
+        if (state == null) {
+            state = new DispatchState(key);
+            dispatchStates.put(key, state);
+        }
+        state.lastUri = uri;
+        handler.removeCallbacks(state.dispatch);
+        handler.postDelayed(state.dispatch, debounceMs);
+    }
+
+    // Android 11+ says which notifications are deletes; older releases only get onChange
+    @Override
+    public void onChange(boolean selfChange, Collection<Uri> uris, int flags) {
+        if ((flags & ContentResolver.NOTIFY_DELETE) != 0) {
+            for (Uri uri : uris) {
+                onContentDeleted(uri);
+            }
+        }
+        super.onChange(selfChange, uris, flags);
     }
 
-    // Abstract method to be implemented by subclasses
+    // Runs on a background worker thread, never concurrently for the same registered URI
     protected abstract void onContentChanged(Uri uri);
 
+    // Runs on the dispatch thread, before the debounced onContentChanged for the same change
+    protected void onContentDeleted(Uri uri) {
+    }
+
     public void registerObserver(Uri uri) {
+        registeredUris.add(uri);
         context.getContentResolver().registerContentObserver(uri, true, this);
     }
 
     public void unregisterObserver() {
         context.getContentResolver().unregisterContentObserver(this);
+        registeredUris.clear();
+        handler.post(() -> {
+            for (DispatchState state : dispatchStates.values()) {
+                handler.removeCallbacks(state.dispatch);
+            }
+            dispatchStates.clear();
+        });
     }
-    
+
     protected Context getContext() {
         return context;
     }
+
+    // Changes to rows below a registered URI (content://sms/42) count as changes to that URI
+    private String keyFor(Uri uri) {
+        if (uri == null) return "";
+        String value = uri.toString();
+        for (Uri registered : registeredUris) {
+            if (value.startsWith(registered.toString())) {
+                return registered.toString();
+            }
+        }
+        return value;
+    }
 }
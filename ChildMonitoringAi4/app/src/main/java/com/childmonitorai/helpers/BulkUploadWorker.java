@@ -0,0 +1,44 @@
+package com.childmonitorai.helpers;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.database.UploadScheduler;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Runs once WorkManager sees an unmetered network or a charger and sends the bulk uploads
+// that UploadScheduler has been holding back, including ones left in the outbox by a
+// previous process.
+public class BulkUploadWorker extends Worker {
+    private static final String TAG = "BulkUploadWorker";
+    private static final long RELEASE_TIMEOUT_SECONDS = 60;
+
+    public BulkUploadWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        DatabaseHelper.initialize(getApplicationContext());
+        try {
+            Tasks.await(UploadScheduler.getInstance().releaseBulk(), RELEASE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            Log.d(TAG, "Held bulk uploads sent");
+            return Result.success();
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Bulk uploads still in flight, retrying later");
+            return Result.retry();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to release bulk uploads: " + e.getMessage());
+            return Result.success(); // failed records stay in the outbox
+        }
+    }
+}
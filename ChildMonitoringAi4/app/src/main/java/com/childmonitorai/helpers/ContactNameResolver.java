@@ -0,0 +1,188 @@
+package com.childmonitorai.helpers;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.telephony.PhoneNumberUtils;
+import android.telephony.TelephonyManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Process-wide phone number -> contact name lookup shared by the SMS and call monitors and
+// the recover commands. Numbers are normalized to E.164 so "+1 555-0100" and "5550100" hit
+// the same entry. Misses are cached as well, so unknown senders cost one PhoneLookup query.
+//
+// preload() reads every phone row once so known numbers never leave the process; numbers it
+// cannot match still go through PhoneLookup, which matches more loosely. A single observer on
+// the contacts provider drops everything when a contact changes.
+public class ContactNameResolver {
+    private static final String TAG = "ContactNameResolver";
+    private static final int MAX_CACHED_NUMBERS = 1000;
+    private static final String NO_NAME = ""; // negative cache entry
+
+    private static ContactNameResolver instance;
+
+    private Context context;
+    private String countryIso;
+    private BaseContentObserver contactsObserver;
+    private long generation; // bumped on every invalidation so stale lookups are not cached
+
+    private final Map<String, String> cache = new LinkedHashMap<String, String>(64, .75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED_NUMBERS;
+        }
+    };
+    private Map<String, String> directory; // every contact number, set by preload()
+
+    private ContactNameResolver() {
+    }
+
+    public static synchronized ContactNameResolver getInstance() {
+        if (instance == null) {
+            instance = new ContactNameResolver();
+        }
+        return instance;
+    }
+
+    // Safe to call from every monitor; only the first call registers the observer
+    public synchronized void initialize(Context context) {
+        if (this.context != null) return;
+
+        this.context = context.getApplicationContext();
+        countryIso = detectCountryIso(this.context);
+        contactsObserver = new BaseContentObserver(this.context) {
+            @Override
+            protected void onContentChanged(Uri uri) {
+                invalidate();
+            }
+        };
+        try {
+            contactsObserver.registerObserver(ContactsContract.Contacts.CONTENT_URI);
+        } catch (SecurityException e) {
+            Log.w(TAG, "Cannot observe contacts, names may be stale: " + e.getMessage());
+        }
+    }
+
+    // Returns the contact name for a number, or null when it is not a contact
+    public String resolve(String phoneNumber) {
+        if (TextUtils.isEmpty(phoneNumber)) return null;
+
+        String key = normalize(phoneNumber);
+        long lookupGeneration;
+        synchronized (this) {
+            if (context == null) {
+                Log.w(TAG, "Resolver used before initialize()");
+                return null;
+            }
+            if (directory != null) {
+                String name = directory.get(key);
+                if (name != null) return name;
+            }
+            String cached = cache.get(key);
+            if (cached != null) {
+                return cached.equals(NO_NAME) ? null : cached;
+            }
+            lookupGeneration = generation;
+        }
+
+        String name = lookup(phoneNumber);
+        synchronized (this) {
+            if (lookupGeneration == generation) {
+                cache.put(key, name != null ? name : NO_NAME);
+            }
+        }
+        return name;
+    }
+
+    // Loads all contact numbers with one query; a no-op while the loaded copy is current.
+    // Meant for callers about to resolve many numbers, like a full rescan.
+    public void preload() {
+        long loadGeneration;
+        synchronized (this) {
+            if (context == null || directory != null) return;
+            loadGeneration = generation;
+        }
+
+        Map<String, String> loaded = new HashMap<>();
+        try (Cursor cursor = context.getContentResolver().query(
+                ContactsContract.CommonDataKinds.Phone.CONTENT_URI,
+                new String[]{
+                        ContactsContract.CommonDataKinds.Phone.NUMBER,
+                        ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER,
+                        ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME
+                },
+                null, null, null)) {
+            if (cursor == null) return;
+            while (cursor.moveToNext()) {
+                String normalized = cursor.getString(1);
+                String key = normalized != null ? normalized : normalize(cursor.getString(0));
+                if (key != null && !loaded.containsKey(key)) {
+                    loaded.put(key, cursor.getString(2));
+                }
+            }
+        } catch (SecurityException e) {
+            Log.w(TAG, "Cannot read contacts for preload: " + e.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            if (loadGeneration == generation) {
+                directory = loaded;
+                Log.d(TAG, "Preloaded " + loaded.size() + " contact numbers");
+            }
+        }
+    }
+
+    public synchronized void invalidate() {
+        generation++;
+        cache.clear();
+        directory = null;
+    }
+
+    private String lookup(String phoneNumber) {
+        Uri uri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI, Uri.encode(phoneNumber));
+        try (Cursor cursor = context.getContentResolver().query(uri,
+                new String[]{ContactsContract.PhoneLookup.DISPLAY_NAME}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor.getString(0);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Contact lookup failed: " + e.getMessage());
+        }
+        return null;
+    }
+
+    // E.164 when the number parses for the device's country; short codes and alphanumeric
+    // senders fall back to their digits (or the raw value)
+    private String normalize(String phoneNumber) {
+        if (phoneNumber == null) return null;
+        String e164 = PhoneNumberUtils.formatNumberToE164(phoneNumber, countryIso);
+        if (e164 != null) {
+            return e164;
+        }
+        String digits = PhoneNumberUtils.normalizeNumber(phoneNumber);
+        return TextUtils.isEmpty(digits) ? phoneNumber : digits;
+    }
+
+    private static String detectCountryIso(Context context) {
+        TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        String iso = null;
+        if (telephonyManager != null) {
+            iso = telephonyManager.getSimCountryIso();
+            if (TextUtils.isEmpty(iso)) {
+                iso = telephonyManager.getNetworkCountryIso();
+            }
+        }
+        if (TextUtils.isEmpty(iso)) {
+            iso = Locale.getDefault().getCountry();
+        }
+        return iso.toUpperCase(Locale.US);
+    }
+}
@@ -0,0 +1,160 @@
+package com.childmonitorai.helpers;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Local copy of what was last uploaded for each contact, keyed by CONTACT_ID, together with
+// the newest CONTACT_LAST_UPDATED_TIMESTAMP already synced. ContactMonitor compares fresh
+// provider rows against it to find the contacts that were added, edited or deleted, instead
+// of reading every contact back from Firebase.
+//
+// Changes are applied in memory straight away and written to disk by commit() once the
+// delta is accepted for upload; rollback() drops them again by reloading the last commit.
+public class ContactSnapshot {
+    private static final String TAG = "ContactSnapshot";
+    private static final String FILE_NAME = "contact_snapshot.tsv";
+    private static final String HEADER_PREFIX = "#";
+
+    public static class Entry {
+        public final String name;
+        public final long hash;
+        public final long creationTime;
+
+        Entry(String name, long hash, long creationTime) {
+            this.name = name;
+            this.hash = hash;
+            this.creationTime = creationTime;
+        }
+    }
+
+    private final File file;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long lastUpdated;
+
+    public ContactSnapshot(Context context) {
+        file = new File(context.getFilesDir(), FILE_NAME);
+        load();
+    }
+
+    public synchronized Entry get(String contactId) {
+        return entries.get(contactId);
+    }
+
+    public synchronized boolean contains(String contactId) {
+        return entries.containsKey(contactId);
+    }
+
+    public synchronized Set<String> ids() {
+        return new HashSet<>(entries.keySet());
+    }
+
+    // Newest contact update already included; 0 before the first sync
+    public synchronized long getLastUpdated() {
+        return lastUpdated;
+    }
+
+    public synchronized void put(String contactId, String name, long hash, long creationTime) {
+        entries.put(contactId, new Entry(name, hash, creationTime));
+    }
+
+    public synchronized void removeAll(Collection<String> contactIds) {
+        for (String contactId : contactIds) {
+            entries.remove(contactId);
+        }
+    }
+
+    public synchronized void setLastUpdated(long timestamp) {
+        lastUpdated = Math.max(lastUpdated, timestamp);
+    }
+
+    // Rewrites the snapshot file; the temporary file keeps the previous commit intact if
+    // the process dies halfway
+    public synchronized void commit() {
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new FileWriter(temp)) {
+            writer.write(HEADER_PREFIX + lastUpdated + "\n");
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry value = entry.getValue();
+                writer.write(entry.getKey() + "\t" + value.hash + "\t" + value.creationTime + "\t"
+                        + escape(value.name) + "\n");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write contact snapshot: " + e.getMessage());
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Failed to replace contact snapshot file");
+        }
+    }
+
+    public synchronized void rollback() {
+        load();
+    }
+
+    private void load() {
+        entries.clear();
+        lastUpdated = 0;
+        if (!file.exists()) return;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(HEADER_PREFIX)) {
+                    lastUpdated = Long.parseLong(line.substring(HEADER_PREFIX.length()));
+                    continue;
+                }
+                String[] fields = line.split("\t", 4);
+                if (fields.length < 4) continue;
+                entries.put(fields[0], new Entry(unescape(fields[3]),
+                        Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+            }
+        } catch (IOException | NumberFormatException e) {
+            // A damaged snapshot only costs one full re-sync
+            Log.e(TAG, "Failed to read contact snapshot, starting over: " + e.getMessage());
+            entries.clear();
+            lastUpdated = 0;
+        }
+    }
+
+    // 64-bit FNV-1a over the fields that are uploaded for a contact
+    public static long hash(String name, String phoneNumber) {
+        long hash = 0xcbf29ce484222325L;
+        String value = name + "\u0000" + phoneNumber;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static String escape(String value) {
+        if (value == null) return "";
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                builder.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+}
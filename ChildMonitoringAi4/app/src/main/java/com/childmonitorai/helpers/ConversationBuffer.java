@@ -0,0 +1,170 @@
+package com.childmonitorai.helpers;
+
+import android.util.Log;
+
+import com.childmonitorai.database.TelemetrySinks;
+import com.childmonitorai.models.MessageData;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Holds the new messages of each open chat and uploads them as one batch when the chat is
+// left (another conversation gets focus), after IDLE_TIMEOUT_MS without new messages, or
+// once MAX_MESSAGES are waiting. Scrolling back through a long history then costs a few
+// writes instead of one per bubble. Content that raised an alert is sent at once through
+// flushAll().
+//
+// Buffered messages are already marked in MessageDedup but only confirmed there once the
+// upload has stored them in the outbox, so a message lost with the process while buffered
+// is not remembered as handled.
+public class ConversationBuffer {
+    private static final String TAG = "ConversationBuffer";
+    private static final int MAX_MESSAGES = 50;
+    private static final long IDLE_TIMEOUT_MS = 15 * 1000;
+
+    private static class Conversation {
+        final String platform;
+        final String userId;
+        final String deviceModel;
+        // date -> message ID -> message, in arrival order
+        final Map<String, Map<String, MessageData>> messagesByDate = new LinkedHashMap<>();
+        final List<Long> fingerprints = new ArrayList<>();
+        int size;
+        ScheduledFuture<?> idleFlush;
+
+        Conversation(String platform, String userId, String deviceModel) {
+            this.platform = platform;
+            this.userId = userId;
+            this.deviceModel = deviceModel;
+        }
+    }
+
+    private final Map<String, Conversation> conversations = new HashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ConversationBufferFlusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private String focusedKey;
+
+    public void add(String platform, String contactName, String userId, String deviceModel,
+                    MessageFingerprint fingerprint, MessageData messageData) {
+        String key = key(platform, contactName);
+        String messageDate = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date());
+        Conversation full = null;
+        synchronized (this) {
+            Conversation conversation = conversations.get(key);
+            if (conversation == null) {
+                conversation = new Conversation(platform, userId, deviceModel);
+                conversations.put(key, conversation);
+            }
+            Map<String, MessageData> messages = conversation.messagesByDate.get(messageDate);
+            if (messages == null) {
+                messages = new LinkedHashMap<>();
+                conversation.messagesByDate.put(messageDate, messages);
+            }
+            if (messages.put(fingerprint.toKey(), messageData) == null) {
+                conversation.fingerprints.add(fingerprint.asLong());
+                conversation.size++;
+            }
+
+            if (conversation.size >= MAX_MESSAGES) {
+                full = remove(key);
+            } else {
+                if (conversation.idleFlush != null) {
+                    conversation.idleFlush.cancel(false);
+                }
+                conversation.idleFlush = scheduler.schedule(() -> flush(key), IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            upload(full);
+        }
+    }
+
+    // Called after each full pass with the chat now on screen (null when none); any other
+    // buffered conversation has been left and is sent
+    public void focus(String platform, String contactName) {
+        String key = contactName != null ? key(platform, contactName) : null;
+        List<Conversation> left = new ArrayList<>();
+        synchronized (this) {
+            if (key != null && key.equals(focusedKey)) return;
+            focusedKey = key;
+            for (String bufferedKey : new ArrayList<>(conversations.keySet())) {
+                if (!bufferedKey.equals(key)) {
+                    left.add(remove(bufferedKey));
+                }
+            }
+        }
+        for (Conversation conversation : left) {
+            upload(conversation);
+        }
+    }
+
+    public void flushAll() {
+        List<Conversation> pending;
+        synchronized (this) {
+            pending = new ArrayList<>();
+            for (String key : new ArrayList<>(conversations.keySet())) {
+                pending.add(remove(key));
+            }
+        }
+        for (Conversation conversation : pending) {
+            upload(conversation);
+        }
+    }
+
+    // Sends what is still buffered and stops the idle timer thread
+    public void shutdown() {
+        flushAll();
+        scheduler.shutdown();
+    }
+
+    private void flush(String key) {
+        Conversation conversation;
+        synchronized (this) {
+            conversation = remove(key);
+        }
+        if (conversation != null) {
+            upload(conversation);
+        }
+    }
+
+    // Caller holds the lock
+    private Conversation remove(String key) {
+        Conversation conversation = conversations.remove(key);
+        if (conversation != null && conversation.idleFlush != null) {
+            conversation.idleFlush.cancel(false);
+        }
+        return conversation;
+    }
+
+    private void upload(Conversation conversation) {
+        Log.d(TAG, "Uploading " + conversation.size + " buffered " + conversation.platform + " messages");
+        List<Task<Void>> stored = new ArrayList<>();
+        for (Map.Entry<String, Map<String, MessageData>> entry : conversation.messagesByDate.entrySet()) {
+            stored.add(TelemetrySinks.get().uploadSocialMessages(conversation.userId, conversation.deviceModel,
+                    conversation.platform, entry.getKey(), entry.getValue()));
+        }
+        Tasks.whenAll(stored)
+                .addOnSuccessListener(aVoid -> MessageDedup.getInstance().confirm(conversation.fingerprints))
+                // Left unconfirmed, so the messages are picked up again after a restart
+                .addOnFailureListener(e -> Log.e(TAG, "Failed to store " + conversation.platform + " messages: " + e.getMessage()));
+    }
+
+    private static String key(String platform, String contactName) {
+        return platform + '\u0000' + contactName;
+    }
+}
@@ -0,0 +1,66 @@
+package com.childmonitorai.helpers;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// Loads the per-app view selectors from assets/extraction_rules.json and compiles each
+// app's section into a TreeMatcher once. Supporting a changed chat layout means editing the
+// JSON, not the monitors.
+public class ExtractionRules {
+    private static final String TAG = "ExtractionRules";
+    private static final String RULES_ASSET = "extraction_rules.json";
+
+    private final Map<String, TreeMatcher> matchers;
+
+    private ExtractionRules(Map<String, TreeMatcher> matchers) {
+        this.matchers = matchers;
+    }
+
+    public static ExtractionRules load(Context context, int screenHeight) {
+        Map<String, TreeMatcher> matchers = new HashMap<>();
+        try (InputStream inputStream = context.getAssets().open(RULES_ASSET)) {
+            ByteArrayOutputStream json = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                json.write(buffer, 0, read);
+            }
+
+            JSONObject apps = new JSONObject(json.toString("UTF-8"));
+            Iterator<String> names = apps.keys();
+            while (names.hasNext()) {
+                String app = names.next();
+                matchers.put(app, TreeMatcher.compile(apps.getJSONObject(app), screenHeight));
+            }
+            Log.d(TAG, "Compiled extraction rules for " + matchers.keySet());
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Failed to load extraction rules: " + e.getMessage(), e);
+        }
+        return new ExtractionRules(matchers);
+    }
+
+    // An app without valid rules gets a matcher with no fields; its lookups throw, which the
+    // event queue logs as processing errors
+    public TreeMatcher forApp(String app) {
+        TreeMatcher matcher = matchers.get(app);
+        if (matcher == null) {
+            Log.e(TAG, "No extraction rules for " + app);
+            try {
+                matcher = TreeMatcher.compile(new JSONObject(), 0);
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return matcher;
+    }
+}
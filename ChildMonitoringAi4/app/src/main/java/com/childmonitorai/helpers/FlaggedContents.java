@@ -16,6 +16,9 @@ public class FlaggedContents {
     private static final String TAG = "FlaggedContents";
     private static List<String> flaggedKeywords = new ArrayList<>();
     private static List<String> flaggedUrls = new ArrayList<>();
+    // Compiled from both lists; replaced as a whole after every change, so readers on other
+    // threads always see a complete matcher
+    private static volatile KeywordMatcher flaggedMatcher = KeywordMatcher.EMPTY;
     private static boolean isInitialized = false;
     private static Map<String, GeofenceData> geofenceData = new HashMap<>();
     private static List<GeofenceDataListener> geofenceListeners = new ArrayList<>();
@@ -174,6 +177,8 @@ public class FlaggedContents {
                     }
                 }
 
+                rebuildMatcher();
+
                 // Check for removed items
                 for (String oldKeyword : oldKeywords) {
                     if (!flaggedKeywords.contains(oldKeyword)) {
@@ -204,6 +209,7 @@ public class FlaggedContents {
                 String keyword = snapshot.getValue(String.class);
                 if (keyword != null && !flaggedKeywords.contains(keyword.toLowerCase())) {
                     flaggedKeywords.add(keyword.toLowerCase());
+                    rebuildMatcher();
                     notifyContentUpdated();
                 }
             }
@@ -213,6 +219,7 @@ public class FlaggedContents {
                 String keyword = snapshot.getValue(String.class);
                 if (keyword != null) {
                     flaggedKeywords.remove(keyword.toLowerCase());
+                    rebuildMatcher();
                     notifyContentRemoved(keyword, "keyword");
                 }
             }
@@ -224,6 +231,7 @@ public class FlaggedContents {
                 String url = snapshot.getValue(String.class);
                 if (url != null && !flaggedUrls.contains(url.toLowerCase())) {
                     flaggedUrls.add(url.toLowerCase());
+                    rebuildMatcher();
                     notifyContentUpdated();
                 }
             }
@@ -233,12 +241,24 @@ public class FlaggedContents {
                 String url = snapshot.getValue(String.class);
                 if (url != null) {
                     flaggedUrls.remove(url.toLowerCase());
+                    rebuildMatcher();
                     notifyContentRemoved(url, "url");
                 }
             }
         });
     }
 
+    private static void rebuildMatcher() {
+        List<String> patterns = new ArrayList<>(flaggedKeywords);
+        patterns.addAll(flaggedUrls);
+        flaggedMatcher = KeywordMatcher.compile(patterns);
+    }
+
+    // Matches any flagged keyword or URL; a URL is flagged if it contains one of them
+    public static KeywordMatcher getMatcher() {
+        return flaggedMatcher;
+    }
+
     private static void notifyContentUpdated() {
         for (FlaggedContentListener listener : contentListeners) {
             listener.onFlaggedContentUpdated(
@@ -420,25 +440,7 @@ public class FlaggedContents {
     }
 
     public static boolean isFlaggedContent(String url) {
-        if (url == null) return false;
-        
-        String lowerUrl = url.toLowerCase();
-        
-        // Check against keywords
-        for (String keyword : flaggedKeywords) {
-            if (lowerUrl.contains(keyword)) {
-                return true;
-            }
-        }
-        
-        // Check against specific URLs
-        for (String flaggedUrl : flaggedUrls) {
-            if (lowerUrl.contains(flaggedUrl)) {
-                return true;
-            }
-        }
-        
-        return false;
+        return flaggedMatcher.matches(url);
     }
 
     public static GeofenceData getGeofenceById(String id) {
@@ -0,0 +1,195 @@
+package com.childmonitorai.helpers;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Incremental reader for a ContentProvider table (SMS, call log, MMS). Keeps a persisted
+// high-water mark (_id and date) per provider URI and only queries rows above it, so a
+// change notification costs the new rows instead of everything since installation.
+//
+// Rows handed to the RowHandler form a batch. The checkpoint only moves past a batch once
+// every row in it has been accepted (stored in the upload outbox or skipped as a duplicate)
+// and all earlier batches have moved too; a failed batch is read again on the next sync.
+public class IncrementalContentSync {
+    private static final String TAG = "IncrementalContentSync";
+    private static final String PREFS_NAME = "ContentSyncCheckpoints";
+
+    public interface RowHandler {
+        // Called with the cursor on the row; returns a task that completes once the row is
+        // accepted, or null when the row is ignored
+        Task<Void> onRow(Cursor cursor);
+    }
+
+    private final Context context;
+    private final Uri uri;
+    private final String[] projection;
+    private final String idColumn;
+    private final String dateColumn;
+    private final String key;
+    private final SharedPreferences prefs;
+
+    private long committedId;  // persisted checkpoint
+    private long committedDate;
+    private long floorDate;    // rows older than this are never read
+    private long queuedId;     // highest id handed out, ahead of committedId while batches are pending
+    private long queuedDate;
+    private final Map<Long, long[]> acceptedBatches = new HashMap<>(); // from id -> {to id, to date}
+    private boolean resetCheckPending = true; // on startup and after the provider reports a delete
+
+    // initialFloorDate is only used the first time this URI is synced; it is persisted so
+    // rows that arrive while the app is not running are still picked up after a restart.
+    // It must use the same unit as dateColumn (seconds for MMS).
+    public IncrementalContentSync(Context context, Uri uri, String[] projection,
+                                  String idColumn, String dateColumn, long initialFloorDate) {
+        this.context = context.getApplicationContext();
+        this.uri = uri;
+        this.projection = projection;
+        this.idColumn = idColumn;
+        this.dateColumn = dateColumn;
+        this.key = uri.toString();
+        this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        committedId = prefs.getLong(key + ":id", 0);
+        committedDate = prefs.getLong(key + ":date", 0);
+        floorDate = prefs.getLong(key + ":floor", -1);
+        if (floorDate < 0) {
+            floorDate = initialFloorDate;
+            prefs.edit().putLong(key + ":floor", floorDate).apply();
+        }
+        queuedId = committedId;
+        queuedDate = committedDate;
+    }
+
+    // Called when the provider reports deleted rows; the next sync checks whether the table
+    // was recreated
+    public synchronized void onRowsDeleted() {
+        resetCheckPending = true;
+    }
+
+    // Reads the rows above the watermark in _id order; returns how many were handed out
+    public synchronized int sync(RowHandler handler) {
+        if (resetCheckPending && queuedId == committedId) {
+            resetCheckPending = false;
+            checkForReset();
+        }
+
+        long fromId = queuedId;
+        long maxId = queuedId;
+        long maxDate = queuedDate;
+        List<Task<Void>> accepted = new ArrayList<>();
+        int rows = 0;
+
+        try (Cursor cursor = context.getContentResolver().query(uri, projection,
+                idColumn + " > ? AND " + dateColumn + " >= ?",
+                new String[]{String.valueOf(queuedId), String.valueOf(floorDate)},
+                idColumn + " ASC")) {
+            if (cursor == null) {
+                Log.w(TAG, "Query returned no cursor for " + key);
+                return 0;
+            }
+            int idIndex = cursor.getColumnIndexOrThrow(idColumn);
+            int dateIndex = cursor.getColumnIndexOrThrow(dateColumn);
+            while (cursor.moveToNext()) {
+                rows++;
+                maxId = Math.max(maxId, cursor.getLong(idIndex));
+                maxDate = Math.max(maxDate, cursor.getLong(dateIndex));
+                Task<Void> task = handler.onRow(cursor);
+                if (task != null) {
+                    accepted.add(task);
+                }
+            }
+        }
+
+        if (rows == 0) {
+            return 0;
+        }
+
+        queuedId = maxId;
+        queuedDate = maxDate;
+        long toId = maxId;
+        long toDate = maxDate;
+        Tasks.whenAll(accepted)
+                .addOnSuccessListener(aVoid -> onBatchAccepted(fromId, toId, toDate))
+                .addOnFailureListener(e -> onBatchFailed(fromId, e));
+        return rows;
+    }
+
+    private synchronized void onBatchAccepted(long fromId, long toId, long toDate) {
+        acceptedBatches.put(fromId, new long[]{toId, toDate});
+
+        // Batches can finish out of order; only move through a contiguous run
+        long[] next;
+        boolean moved = false;
+        while ((next = acceptedBatches.remove(committedId)) != null) {
+            committedId = next[0];
+            committedDate = Math.max(committedDate, next[1]);
+            moved = true;
+        }
+        if (moved) {
+            prefs.edit()
+                    .putLong(key + ":id", committedId)
+                    .putLong(key + ":date", committedDate)
+                    .apply();
+            Log.d(TAG, "Checkpoint for " + key + " moved to _id " + committedId);
+        }
+    }
+
+    private synchronized void onBatchFailed(long fromId, Exception e) {
+        Log.e(TAG, "Rows after _id " + fromId + " of " + key + " were not accepted, re-reading on next sync: " + e.getMessage());
+        queuedId = committedId;
+        queuedDate = committedDate;
+    }
+
+    // Provider ids only go backwards when the table was recreated (e.g. a restored backup).
+    // Start again from the newest date seen so rows with reused ids are not skipped.
+    // Called with no batch pending.
+    private void checkForReset() {
+        if (committedId == 0) return;
+
+        long newestId = 0;
+        try (Cursor cursor = queryNewestId()) {
+            if (cursor != null && cursor.moveToFirst()) {
+                newestId = cursor.getLong(0);
+            }
+        }
+        if (newestId >= committedId) return;
+
+        Log.w(TAG, "Ids of " + key + " went back from " + committedId + " to " + newestId + ", resetting checkpoint");
+        floorDate = Math.max(floorDate, committedDate + 1);
+        committedId = 0;
+        queuedId = 0;
+        acceptedBatches.clear();
+        prefs.edit()
+                .putLong(key + ":id", 0)
+                .putLong(key + ":floor", floorDate)
+                .apply();
+    }
+
+    // Only the first row is read. A LIMIT in sortOrder is rejected by strict providers, so it
+    // goes through QUERY_ARG_LIMIT where available; providers that ignore it still sort.
+    private Cursor queryNewestId() {
+        String[] idProjection = new String[]{idColumn};
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            Bundle queryArgs = new Bundle();
+            queryArgs.putStringArray(ContentResolver.QUERY_ARG_SORT_COLUMNS, idProjection);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_SORT_DIRECTION, ContentResolver.QUERY_SORT_DIRECTION_DESCENDING);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, 1);
+            return context.getContentResolver().query(uri, idProjection, queryArgs, null);
+        }
+        return context.getContentResolver().query(uri, idProjection, null, null, idColumn + " DESC");
+    }
+}
@@ -0,0 +1,164 @@
+package com.childmonitorai.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Finds any of a set of keywords in a text in one pass, however many keywords there are
+// (Aho-Corasick). Matching is case-insensitive, folding one char at a time with
+// Character.toLowerCase, so the text is never copied and a lookup allocates nothing.
+//
+// Instances are immutable and safe to share between threads; when the keywords change a new
+// matcher is compiled and swapped in (see FlaggedContents.getMatcher()).
+//
+// The automaton is stored as flat arrays: the transitions of state s are
+// edgeChars/edgeTargets[edgeStart[s] .. edgeStart[s + 1]), sorted by char for a binary
+// search, and output[s] is the index of a keyword ending at s or at one of its suffixes.
+public final class KeywordMatcher {
+    public static final KeywordMatcher EMPTY = compile(new ArrayList<String>());
+
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    private final String[] keywords;
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    private final int[] fail;
+    private final int[] output;
+
+    private KeywordMatcher(String[] keywords, int[] edgeStart, char[] edgeChars, int[] edgeTargets,
+                           int[] fail, int[] output) {
+        this.keywords = keywords;
+        this.edgeStart = edgeStart;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.fail = fail;
+        this.output = output;
+    }
+
+    // Null and empty keywords are skipped; an empty keyword would otherwise match every text
+    public static KeywordMatcher compile(Collection<String> keywords) {
+        List<String> accepted = new ArrayList<>(keywords.size());
+        List<Map<Character, Integer>> children = new ArrayList<>();
+        List<Integer> terminal = new ArrayList<>();
+        children.add(new HashMap<Character, Integer>());
+        terminal.add(NONE);
+
+        for (String keyword : keywords) {
+            if (keyword == null || keyword.isEmpty()) continue;
+            int state = ROOT;
+            for (int i = 0; i < keyword.length(); i++) {
+                Character ch = Character.toLowerCase(keyword.charAt(i));
+                Integer next = children.get(state).get(ch);
+                if (next == null) {
+                    next = children.size();
+                    children.add(new HashMap<Character, Integer>());
+                    terminal.add(NONE);
+                    children.get(state).put(ch, next);
+                }
+                state = next;
+            }
+            // Duplicates report the first occurrence
+            if (terminal.get(state) == NONE) {
+                terminal.set(state, accepted.size());
+                accepted.add(keyword);
+            }
+        }
+
+        int states = children.size();
+        int[] edgeStart = new int[states + 1];
+        char[] edgeChars = new char[states - 1];
+        int[] edgeTargets = new int[states - 1];
+        int edge = 0;
+        for (int state = 0; state < states; state++) {
+            edgeStart[state] = edge;
+            Map<Character, Integer> stateChildren = children.get(state);
+            char[] chars = new char[stateChildren.size()];
+            int i = 0;
+            for (Character ch : stateChildren.keySet()) {
+                chars[i++] = ch;
+            }
+            Arrays.sort(chars);
+            for (char ch : chars) {
+                edgeChars[edge] = ch;
+                edgeTargets[edge] = stateChildren.get(ch);
+                edge++;
+            }
+        }
+        edgeStart[states] = edge;
+
+        int[] fail = new int[states];
+        int[] output = new int[states];
+        output[ROOT] = NONE;
+        KeywordMatcher matcher = new KeywordMatcher(accepted.toArray(new String[0]), edgeStart, edgeChars,
+                edgeTargets, fail, output);
+
+        // Breadth first, so the failure state of every parent is final before its children
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = ROOT;
+        while (head < tail) {
+            int state = queue[head++];
+            for (int e = edgeStart[state]; e < edgeStart[state + 1]; e++) {
+                int child = edgeTargets[e];
+                fail[child] = state == ROOT ? ROOT : matcher.step(fail[state], edgeChars[e]);
+                output[child] = terminal.get(child) != NONE ? terminal.get(child) : output[fail[child]];
+                queue[tail++] = child;
+            }
+        }
+        return matcher;
+    }
+
+    public boolean matches(CharSequence text) {
+        return findFirst(text) != null;
+    }
+
+    // The keyword that ends first in text, as it was passed to compile(), or null
+    public String findFirst(CharSequence text) {
+        if (text == null || keywords.length == 0) return null;
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            state = step(state, Character.toLowerCase(text.charAt(i)));
+            if (output[state] != NONE) {
+                return keywords[output[state]];
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return keywords.length;
+    }
+
+    // Follows failure links until a state has a transition on ch, ending at the root
+    private int step(int state, char ch) {
+        while (true) {
+            int next = transition(state, ch);
+            if (next != NONE) return next;
+            if (state == ROOT) return ROOT;
+            state = fail[state];
+        }
+    }
+
+    private int transition(int state, char ch) {
+        int low = edgeStart[state];
+        int high = edgeStart[state + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = edgeChars[mid];
+            if (midChar < ch) {
+                low = mid + 1;
+            } else if (midChar > ch) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return NONE;
+    }
+}
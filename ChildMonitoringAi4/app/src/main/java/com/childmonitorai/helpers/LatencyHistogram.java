@@ -0,0 +1,84 @@
+package com.childmonitorai.helpers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free log-linear histogram in the style of HdrHistogram: every power of two is split
+// into 4 sub-buckets, so any recorded value is reported within 25% using 253 counters,
+// from 0 up to Long.MAX_VALUE. Recording is a single atomic increment.
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = 1 + 63 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    // Upper bound of the bucket holding the given percentile (0-100), capped at the max seen
+    public long getPercentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0) return 0;
+
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        max.set(0);
+    }
+
+    // 0 has its own bucket; otherwise the position of the highest bit picks the power of two
+    // and the next SUB_BUCKET_BITS bits pick the sub-bucket
+    private static int indexOf(long value) {
+        if (value == 0) return 0;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = exponent >= SUB_BUCKET_BITS
+                ? (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1)
+                : (int) (value << (SUB_BUCKET_BITS - exponent)) & (SUB_BUCKETS - 1);
+        return 1 + exponent * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index == 0) return 0;
+        int exponent = (index - 1) / SUB_BUCKETS;
+        int subBucket = (index - 1) % SUB_BUCKETS;
+        if (exponent < SUB_BUCKET_BITS) {
+            // Small values map to single integers
+            return (1L << exponent) + (subBucket >> (SUB_BUCKET_BITS - exponent));
+        }
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (1L << exponent) + subBucket * width;
+        return lower + width - 1;
+    }
+}
@@ -0,0 +1,233 @@
+package com.childmonitorai.helpers;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+// Remembers which chat messages the social monitors have already handled, shared by the
+// WhatsApp, Instagram, Snapchat and Telegram monitors. Messages are kept as their 64-bit
+// MessageFingerprint in two rotating generations of fixed-size open-addressing tables: a message
+// is known if either generation has it, and a generation is dropped after GENERATION_MS or
+// once it fills up. Memory stays at 2 x TABLE_SIZE longs however busy the chats are.
+//
+// The tables are written to disk every SAVE_EVERY confirmed messages and on save(), so
+// bubbles seen before a service restart are not uploaded again. A message marked new stays
+// out of the saved tables until confirm() reports it is stored in the upload outbox; if the
+// process dies while it is still buffered, it is picked up again after the restart. Lookups and hits are reported
+// through MonitorMetrics under MonitorMetrics.SOCIAL_DEDUP (events = lookups, dedup = hits).
+public class MessageDedup {
+    private static final String TAG = "MessageDedup";
+    private static final String FILE_NAME = "social_message_dedup.bin";
+    private static final int FILE_VERSION = 2;
+    private static final int TABLE_SIZE = 8192; // power of two
+    private static final int MAX_ENTRIES = TABLE_SIZE / 2; // keeps probe chains short
+    private static final long GENERATION_MS = 24L * 60 * 60 * 1000; // known for 24-48 hours
+    private static final int SAVE_EVERY = 32;
+
+    private static MessageDedup instance;
+
+    private long[] current = new long[TABLE_SIZE];
+    private long[] previous = new long[TABLE_SIZE];
+    private int currentSize;
+    private long generationStart = System.currentTimeMillis();
+    private long hits;
+    private long misses;
+    private int unsaved;
+    // Marked new but not yet in the outbox; never written to disk
+    private final Set<Long> unconfirmed = new HashSet<>();
+    private File file;
+    private final MonitorMetrics metrics = MonitorMetrics.get(MonitorMetrics.SOCIAL_DEDUP);
+
+    private MessageDedup() {
+    }
+
+    public static synchronized MessageDedup getInstance() {
+        if (instance == null) {
+            instance = new MessageDedup();
+        }
+        return instance;
+    }
+
+    // Until this is called the dedup state only lives in memory
+    public synchronized void initialize(Context context) {
+        if (file != null) return;
+        file = new File(context.getFilesDir(), FILE_NAME);
+        load();
+    }
+
+    // Returns true the first time a message is seen within the window; fingerprint comes from
+    // MessageFingerprint.asLong(), which is never 0
+    public synchronized boolean markNew(long fingerprint) {
+        rotateIfNeeded();
+        metrics.recordEvent();
+
+        if (contains(current, fingerprint)) {
+            hits++;
+            metrics.recordDedupHit();
+            return false;
+        }
+        if (contains(previous, fingerprint)) {
+            // Still on screen, carry it into the current generation
+            insert(fingerprint);
+            hits++;
+            metrics.recordDedupHit();
+            return false;
+        }
+
+        insert(fingerprint);
+        unconfirmed.add(fingerprint);
+        misses++;
+        return true;
+    }
+
+    // Called once the messages are stored in the upload outbox, so they may now be saved
+    public synchronized void confirm(Collection<Long> fingerprints) {
+        for (Long fingerprint : fingerprints) {
+            if (unconfirmed.remove(fingerprint)) {
+                unsaved++;
+            }
+        }
+        if (unsaved >= SAVE_EVERY) {
+            save();
+        }
+    }
+
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public synchronized void save() {
+        if (file == null || unsaved == 0) return;
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FILE_VERSION);
+            out.writeLong(generationStart);
+            writeTable(out, current, unconfirmed);
+            writeTable(out, previous, unconfirmed);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save message dedup state: " + e.getMessage());
+            return;
+        }
+        if (temp.renameTo(file)) {
+            unsaved = 0;
+        } else {
+            Log.e(TAG, "Failed to replace message dedup file");
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_VERSION) return;
+            long savedGenerationStart = in.readLong();
+            long[] savedCurrent = new long[TABLE_SIZE];
+            long[] savedPrevious = new long[TABLE_SIZE];
+            int savedSize = readTable(in, savedCurrent);
+            readTable(in, savedPrevious);
+
+            generationStart = savedGenerationStart;
+            current = savedCurrent;
+            previous = savedPrevious;
+            currentSize = savedSize;
+            rotateIfNeeded();
+            Log.d(TAG, "Restored " + currentSize + " message fingerprints");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load message dedup state, starting empty: " + e.getMessage());
+        }
+    }
+
+    private void rotateIfNeeded() {
+        long now = System.currentTimeMillis();
+        if (now - generationStart >= 2 * GENERATION_MS) {
+            // Both generations expired, e.g. after a long time with the service stopped
+            Arrays.fill(current, 0);
+            Arrays.fill(previous, 0);
+        } else if (now - generationStart >= GENERATION_MS || currentSize >= MAX_ENTRIES) {
+            long[] dropped = previous;
+            previous = current;
+            current = dropped;
+            Arrays.fill(current, 0);
+        } else {
+            return;
+        }
+        currentSize = 0;
+        generationStart = now;
+        unsaved++;
+        // Unconfirmed messages that rotated out would be new again anyway
+        Iterator<Long> pending = unconfirmed.iterator();
+        while (pending.hasNext()) {
+            long fingerprint = pending.next();
+            if (!contains(current, fingerprint) && !contains(previous, fingerprint)) {
+                pending.remove();
+            }
+        }
+    }
+
+    private void insert(long fingerprint) {
+        int slot = slotOf(fingerprint);
+        while (current[slot] != 0) {
+            if (current[slot] == fingerprint) return;
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        current[slot] = fingerprint;
+        currentSize++;
+    }
+
+    private static boolean contains(long[] table, long fingerprint) {
+        int slot = slotOf(fingerprint);
+        while (table[slot] != 0) {
+            if (table[slot] == fingerprint) return true;
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return false;
+    }
+
+    private static int slotOf(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & (TABLE_SIZE - 1);
+    }
+
+    // Only occupied slots are written, as (slot, fingerprint) pairs
+    private static void writeTable(DataOutputStream out, long[] table, Set<Long> skipped) throws IOException {
+        int size = 0;
+        for (long value : table) {
+            if (value != 0 && !skipped.contains(value)) size++;
+        }
+        out.writeInt(size);
+        for (int slot = 0; slot < table.length; slot++) {
+            if (table[slot] != 0 && !skipped.contains(table[slot])) {
+                out.writeShort(slot);
+                out.writeLong(table[slot]);
+            }
+        }
+    }
+
+    private static int readTable(DataInputStream in, long[] table) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            in.readUnsignedShort();
+            // Probed again rather than put back in the saved slot: entries left out of the
+            // file (unconfirmed ones) would otherwise leave gaps in the probe chains
+            long fingerprint = in.readLong();
+            int slot = slotOf(fingerprint);
+            while (table[slot] != 0 && table[slot] != fingerprint) {
+                slot = (slot + 1) & (TABLE_SIZE - 1);
+            }
+            table[slot] = fingerprint;
+        }
+        return size;
+    }
+}
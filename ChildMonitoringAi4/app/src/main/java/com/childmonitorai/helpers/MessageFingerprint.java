@@ -0,0 +1,147 @@
+package com.childmonitorai.helpers;
+
+import android.util.Base64;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+
+// Stable identity of a chat message: 128-bit MurmurHash3 (x64 variant) over platform,
+// contact, direction, normalized text and a discriminator that tells identical bubbles
+// apart (their on-screen ordinal, or the notification time). The same message seen again
+// gets the same fingerprint, so it serves both as the MessageDedup key (low 64 bits) and as
+// the compact Firebase key (22 URL-safe base64 characters).
+public final class MessageFingerprint {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    // Bubbles with the same key differ only by their ordinal
+    static String bubbleKey(boolean outgoing, String text) {
+        return (outgoing ? "out" : "in") + '\u0000' + normalize(text);
+    }
+
+    private final long high;
+    private final long low;
+
+    private MessageFingerprint(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    public static MessageFingerprint of(String platform, String contact, boolean outgoing, String text, long discriminator) {
+        String identity = platform + '\u0000' + (contact != null ? contact.trim() : "") + '\u0000'
+                + (outgoing ? "out" : "in") + '\u0000' + normalize(text) + '\u0000' + discriminator;
+        return murmur3(identity.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // The text alone, for results that only depend on what was written (toxicity scores)
+    public static MessageFingerprint ofText(String text) {
+        return murmur3(normalize(text).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Whitespace and Unicode composition differences do not make a different message
+    static String normalize(String text) {
+        if (text == null) return "";
+        return Normalizer.normalize(text, Normalizer.Form.NFC).trim().replaceAll("\\s+", " ");
+    }
+
+    // Never 0, which MessageDedup uses for empty slots
+    public long asLong() {
+        return low != 0 ? low : high | 1;
+    }
+
+    // Safe as a Firebase key: only letters, digits, '-' and '_'
+    public String toKey() {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (high >>> (56 - 8 * i));
+            bytes[8 + i] = (byte) (low >>> (56 - 8 * i));
+        }
+        return Base64.encodeToString(bytes, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof MessageFingerprint)) return false;
+        MessageFingerprint fingerprint = (MessageFingerprint) other;
+        return high == fingerprint.high && low == fingerprint.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (low ^ (low >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return toKey();
+    }
+
+    private static MessageFingerprint murmur3(byte[] data) {
+        long h1 = 0;
+        long h2 = 0;
+        int blocks = data.length / 16;
+
+        for (int i = 0; i < blocks; i++) {
+            long k1 = getLong(data, i * 16);
+            long k2 = getLong(data, i * 16 + 8);
+
+            k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+            k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        int tail = blocks * 16;
+        switch (data.length & 15) {
+            case 15: k2 ^= (long) (data[tail + 14] & 0xff) << 48;
+            case 14: k2 ^= (long) (data[tail + 13] & 0xff) << 40;
+            case 13: k2 ^= (long) (data[tail + 12] & 0xff) << 32;
+            case 12: k2 ^= (long) (data[tail + 11] & 0xff) << 24;
+            case 11: k2 ^= (long) (data[tail + 10] & 0xff) << 16;
+            case 10: k2 ^= (long) (data[tail + 9] & 0xff) << 8;
+            case 9:
+                k2 ^= data[tail + 8] & 0xff;
+                k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+            case 8: k1 ^= (long) (data[tail + 7] & 0xff) << 56;
+            case 7: k1 ^= (long) (data[tail + 6] & 0xff) << 48;
+            case 6: k1 ^= (long) (data[tail + 5] & 0xff) << 40;
+            case 5: k1 ^= (long) (data[tail + 4] & 0xff) << 32;
+            case 4: k1 ^= (long) (data[tail + 3] & 0xff) << 24;
+            case 3: k1 ^= (long) (data[tail + 2] & 0xff) << 16;
+            case 2: k1 ^= (long) (data[tail + 1] & 0xff) << 8;
+            case 1:
+                k1 ^= data[tail] & 0xff;
+                k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+        }
+
+        h1 ^= data.length;
+        h2 ^= data.length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new MessageFingerprint(h1, h2);
+    }
+
+    // Little-endian, as in the reference implementation
+    private static long getLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (data[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,110 @@
+package com.childmonitorai.helpers;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Reads the sender and text body of many MMS at once. Text parts are fetched for a window of
+// message IDs with one IN (...) query instead of one query per message. Addresses stay per
+// message: MmsProvider only matches content://mms/#/addr and returns null for a bare
+// content://mms/addr, so there is no bulk form to use. Only text parts are selected, so
+// images and other attachments are never opened, and text stored in a file is streamed
+// through a reused buffer up to MAX_TEXT_CHARS per message.
+//
+// Not thread-safe; callers keep one instance per reader thread.
+public class MmsPartsReader {
+    private static final String TAG = "MmsPartsReader";
+    private static final Uri PART_URI = Uri.parse("content://mms/part");
+    private static final int WINDOW_SIZE = 100; // IDs per IN (...) query
+    private static final int MAX_TEXT_CHARS = 32 * 1024;
+    private static final int ADDRESS_TYPE_FROM = 137;
+
+    public static class MmsContent {
+        public String senderAddress;
+        public final StringBuilder text = new StringBuilder();
+    }
+
+    private final ContentResolver contentResolver;
+    private final char[] buffer = new char[4096];
+
+    public MmsPartsReader(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    // Returns mmsId -> content for every requested ID; sender is null when it was not found
+    public Map<String, MmsContent> read(List<String> mmsIds) {
+        Map<String, MmsContent> contents = new HashMap<>();
+        for (String mmsId : mmsIds) {
+            contents.put(mmsId, new MmsContent());
+        }
+        for (int from = 0; from < mmsIds.size(); from += WINDOW_SIZE) {
+            List<String> window = mmsIds.subList(from, Math.min(mmsIds.size(), from + WINDOW_SIZE));
+            readAddresses(window, contents);
+            readTextParts(window, contents);
+        }
+        return contents;
+    }
+
+    private void readAddresses(List<String> window, Map<String, MmsContent> contents) {
+        for (String mmsId : window) {
+            try (Cursor cursor = contentResolver.query(Uri.parse("content://mms/" + mmsId + "/addr"),
+                    new String[]{"address"}, "type = " + ADDRESS_TYPE_FROM, null, null)) {
+                if (cursor != null && cursor.moveToFirst()) {
+                    contents.get(mmsId).senderAddress = cursor.getString(0);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error fetching sender address for MMS ID: " + mmsId, e);
+            }
+        }
+    }
+
+    private void readTextParts(List<String> window, Map<String, MmsContent> contents) {
+        try (Cursor cursor = contentResolver.query(PART_URI, new String[]{"_id", "mid", "text"},
+                "ct IN ('text/plain', 'text/html') AND mid IN (" + placeholders(window.size()) + ")",
+                window.toArray(new String[0]), "_id ASC")) {
+            if (cursor == null) return;
+            while (cursor.moveToNext()) {
+                MmsContent content = contents.get(cursor.getString(1));
+                if (content == null || content.text.length() >= MAX_TEXT_CHARS) continue;
+
+                String text = cursor.getString(2);
+                if (text != null) {
+                    int room = MAX_TEXT_CHARS - content.text.length();
+                    content.text.append(text, 0, Math.min(text.length(), room));
+                } else {
+                    appendPartFile(cursor.getString(0), content.text);
+                }
+            }
+        }
+    }
+
+    private void appendPartFile(String partId, StringBuilder text) {
+        try (InputStream inputStream = contentResolver.openInputStream(Uri.parse("content://mms/part/" + partId))) {
+            if (inputStream == null) return;
+            Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+            int read;
+            while (text.length() < MAX_TEXT_CHARS
+                    && (read = reader.read(buffer, 0, Math.min(buffer.length, MAX_TEXT_CHARS - text.length()))) != -1) {
+                text.append(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading text part of MMS ID: " + partId, e);
+        }
+    }
+
+    private static String placeholders(int count) {
+        return TextUtils.join(",", Collections.nCopies(count, "?"));
+    }
+}
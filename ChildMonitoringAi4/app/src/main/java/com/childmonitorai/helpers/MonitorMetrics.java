@@ -0,0 +1,187 @@
+package com.childmonitorai.helpers;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-monitor counters and upload latency, cheap enough to update on every event from any
+// thread. Monitors record what they observe; the upload pipeline (BatchUploader,
+// UsageAccumulator) records uploads, bytes and errors under the monitor owning the data
+// type. OnRefreshStatsMonitor publishes snapshotAll() with every refresh result.
+public class MonitorMetrics {
+    public static final String SMS = "SMSMonitor";
+    public static final String CALLS = "CallMonitor";
+    public static final String MMS = "MMSMonitor";
+    public static final String CONTACTS = "ContactMonitor";
+    public static final String PHOTOS = "PhotosMonitor";
+    public static final String WEB = "WebMonitorService";
+    public static final String SOCIAL = "SocialMediaMonitorService";
+    public static final String SOCIAL_DEDUP = "SocialMessageDedup";
+    public static final String APP_USAGE = "AppUsageService";
+
+    private static final ConcurrentHashMap<String, MonitorMetrics> registry = new ConcurrentHashMap<>();
+    private static final Map<String, String> dataTypeMonitors = new HashMap<>();
+
+    static {
+        dataTypeMonitors.put("sms", SMS);
+        dataTypeMonitors.put("calls", CALLS);
+        dataTypeMonitors.put("mms", MMS);
+        dataTypeMonitors.put("contacts", CONTACTS);
+        dataTypeMonitors.put("web_visits", WEB);
+        dataTypeMonitors.put("social_media_messages", SOCIAL);
+        dataTypeMonitors.put("app_usage", APP_USAGE);
+        dataTypeMonitors.put("app_sessions", APP_USAGE);
+    }
+
+    private final AtomicLong eventsObserved = new AtomicLong();
+    private final AtomicLong recordsUploaded = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong dedupHits = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong queueDepth = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+    private final AtomicLong nodePasses = new AtomicLong();
+    private final AtomicLong nodesObtained = new AtomicLong();
+    private final AtomicLong maxNodesPerPass = new AtomicLong();
+    private final AtomicLong maxNodesHeld = new AtomicLong();
+    private final LatencyHistogram uploadLatency = new LatencyHistogram();
+
+    private MonitorMetrics() {
+    }
+
+    public static MonitorMetrics get(String monitor) {
+        MonitorMetrics metrics = registry.get(monitor);
+        if (metrics == null) {
+            MonitorMetrics created = new MonitorMetrics();
+            metrics = registry.putIfAbsent(monitor, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    // Data types without a dedicated monitor above (location, clipboard, apps...) are
+    // tracked under their own name
+    public static MonitorMetrics forDataType(String dataType) {
+        String monitor = dataTypeMonitors.get(dataType);
+        return get(monitor != null ? monitor : dataType);
+    }
+
+    public void recordEvent() {
+        eventsObserved.incrementAndGet();
+    }
+
+    public void recordEvents(long count) {
+        eventsObserved.addAndGet(count);
+    }
+
+    public void recordDedupHit() {
+        dedupHits.incrementAndGet();
+    }
+
+    public void recordError() {
+        errors.incrementAndGet();
+    }
+
+    // An event discarded by a bounded queue before it was processed
+    public void recordDrop() {
+        dropped.incrementAndGet();
+    }
+
+    // Current depth of the monitor's event queue; the maximum is kept alongside
+    public void recordQueueDepth(long depth) {
+        queueDepth.set(depth);
+        updateMax(maxQueueDepth, depth);
+    }
+
+    // One NodeScope pass: nodes obtained from the framework, and the most held unrecycled at once
+    public void recordNodePass(long obtained, long peakHeld) {
+        nodePasses.incrementAndGet();
+        nodesObtained.addAndGet(obtained);
+        updateMax(maxNodesPerPass, obtained);
+        updateMax(maxNodesHeld, peakHeld);
+    }
+
+    // One record committed, latencyMs after it was handed to the uploader
+    public void recordUpload(long latencyMs) {
+        recordsUploaded.incrementAndGet();
+        uploadLatency.record(latencyMs);
+    }
+
+    // Records committed without a known latency, e.g. replayed from the outbox
+    public void recordUploads(int count) {
+        recordsUploaded.addAndGet(count);
+    }
+
+    public void recordBytes(long bytes) {
+        bytesSent.addAndGet(bytes);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("events", eventsObserved.get());
+        snapshot.put("uploaded", recordsUploaded.get());
+        snapshot.put("bytes", bytesSent.get());
+        snapshot.put("dedup", dedupHits.get());
+        snapshot.put("errors", errors.get());
+        if (maxQueueDepth.get() > 0) {
+            snapshot.put("queue_depth", queueDepth.get());
+            snapshot.put("queue_depth_max", maxQueueDepth.get());
+            snapshot.put("dropped", dropped.get());
+        }
+        if (nodePasses.get() > 0) {
+            snapshot.put("node_passes", nodePasses.get());
+            snapshot.put("nodes_per_pass", nodesObtained.get() / nodePasses.get());
+            snapshot.put("nodes_per_pass_max", maxNodesPerPass.get());
+            snapshot.put("nodes_held_max", maxNodesHeld.get());
+        }
+        if (uploadLatency.getCount() > 0) {
+            snapshot.put("p50_ms", uploadLatency.getPercentile(50));
+            snapshot.put("p99_ms", uploadLatency.getPercentile(99));
+            snapshot.put("max_ms", uploadLatency.getMax());
+        }
+        return snapshot;
+    }
+
+    // Counters are cumulative since process start
+    public static Map<String, Object> snapshotAll() {
+        Map<String, Object> all = new HashMap<>();
+        for (Map.Entry<String, MonitorMetrics> entry : registry.entrySet()) {
+            all.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return all;
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    // Rough JSON size of a Firebase value, used for bytesSent
+    public static long estimateSize(Object value) {
+        if (value == null) {
+            return 4;
+        } else if (value instanceof String) {
+            return ((String) value).length() + 2;
+        } else if (value instanceof Map) {
+            long size = 2;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += String.valueOf(entry.getKey()).length() + 4 + estimateSize(entry.getValue());
+            }
+            return size;
+        } else if (value instanceof Collection) {
+            long size = 2;
+            for (Object item : (Collection<?>) value) {
+                size += estimateSize(item) + 1;
+            }
+            return size;
+        }
+        return String.valueOf(value).length();
+    }
+}
@@ -0,0 +1,89 @@
+package com.childmonitorai.helpers;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Single connectivity callback shared by everything that needs to resume work when the
+// device gets a network back (outbox replay, spooled storage uploads, held bulk uploads).
+public class NetworkHelper {
+    private static final String TAG = "NetworkHelper";
+
+    public interface ConnectivityListener {
+        void onNetworkAvailable();
+    }
+
+    private static NetworkHelper instance;
+
+    private final List<ConnectivityListener> listeners = new CopyOnWriteArrayList<>();
+    private ConnectivityManager connectivityManager;
+
+    private NetworkHelper() {
+    }
+
+    public static synchronized NetworkHelper getInstance() {
+        if (instance == null) {
+            instance = new NetworkHelper();
+        }
+        return instance;
+    }
+
+    public synchronized void initialize(Context context) {
+        if (connectivityManager != null) return;
+
+        connectivityManager = (ConnectivityManager) context.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            Log.e(TAG, "ConnectivityManager not available");
+            return;
+        }
+
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+        try {
+            connectivityManager.registerNetworkCallback(request, new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    Log.d(TAG, "Network available, notifying " + listeners.size() + " listeners");
+                    for (ConnectivityListener listener : listeners) {
+                        listener.onNetworkAvailable();
+                    }
+                }
+            });
+        } catch (SecurityException e) {
+            Log.e(TAG, "Failed to register network callback: " + e.getMessage());
+        }
+    }
+
+    public void addListener(ConnectivityListener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(ConnectivityListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Assumes a connection until initialize() has been called, so callers just try the upload
+    public boolean isConnected() {
+        if (connectivityManager == null) return true;
+        NetworkInfo info = connectivityManager.getActiveNetworkInfo();
+        return info != null && info.isConnected();
+    }
+
+    // Wi-Fi and other unmetered networks; false until initialize() has been called so bulk
+    // uploads are not let through before the real state is known
+    public boolean isUnmetered() {
+        if (connectivityManager == null) return false;
+        return isConnected() && !connectivityManager.isActiveNetworkMetered();
+    }
+}
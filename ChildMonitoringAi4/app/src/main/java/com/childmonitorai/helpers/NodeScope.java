@@ -0,0 +1,77 @@
+package com.childmonitorai.helpers;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Owns every AccessibilityNodeInfo obtained during one pass over a window and recycles them
+// all on close(), so use it with try-with-resources. Before API 33 each node holds a pooled
+// object and a binder reference until recycled; lists from findAccessibilityNodeInfosByViewId
+// and getChild()/getParent() results are easy to leak otherwise.
+//
+// Walks over large trees can hand a node back early with release(), which keeps the pool
+// warm. Each pass reports to the monitor's MonitorMetrics how many nodes it obtained and
+// the most it held at once, which release() keeps near the tree depth.
+public class NodeScope implements AutoCloseable {
+    private final MonitorMetrics metrics;
+    private final List<AccessibilityNodeInfo> nodes = new ArrayList<>();
+    private int obtained;
+    private int peakHeld;
+
+    public NodeScope(MonitorMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Takes ownership of a node obtained elsewhere (event source, window root); null is ignored
+    public AccessibilityNodeInfo track(AccessibilityNodeInfo node) {
+        if (node != null) {
+            nodes.add(node);
+            obtained++;
+            peakHeld = Math.max(peakHeld, nodes.size());
+        }
+        return node;
+    }
+
+    public AccessibilityNodeInfo getChild(AccessibilityNodeInfo node, int index) {
+        return track(node.getChild(index));
+    }
+
+    public AccessibilityNodeInfo getParent(AccessibilityNodeInfo node) {
+        return track(node.getParent());
+    }
+
+    public List<AccessibilityNodeInfo> findByViewId(AccessibilityNodeInfo node, String viewId) {
+        List<AccessibilityNodeInfo> found = node.findAccessibilityNodeInfosByViewId(viewId);
+        if (found == null) {
+            return new ArrayList<>();
+        }
+        for (AccessibilityNodeInfo match : found) {
+            track(match);
+        }
+        return found;
+    }
+
+    // Recycles a node before the scope closes. The node must not be used afterwards.
+    public void release(AccessibilityNodeInfo node) {
+        // Walks release the node they obtained last, so search from the end
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            if (nodes.get(i) == node) {
+                nodes.remove(i);
+                node.recycle();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (AccessibilityNodeInfo node : nodes) {
+            node.recycle();
+        }
+        nodes.clear();
+        metrics.recordNodePass(obtained, peakHeld);
+        obtained = 0;
+        peakHeld = 0;
+    }
+}
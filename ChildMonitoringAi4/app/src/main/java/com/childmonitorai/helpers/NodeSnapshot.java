@@ -0,0 +1,148 @@
+package com.childmonitorai.helpers;
+
+import android.graphics.Rect;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Copy of the parts of an accessibility subtree the chat monitors read (view ID, class,
+// text, bounds), taken on the accessibility thread so the monitors can run on a worker
+// after the live nodes are recycled. The getters mirror AccessibilityNodeInfo.
+//
+// Ancestors of the captured scope are copied without their other children, so
+// getParent() still works for the outgoing-message heuristics.
+public class NodeSnapshot {
+    private static final int MAX_NODES = 1500;
+    private static final int MAX_ANCESTORS = 10;
+
+    private final String viewId;
+    private final String className;
+    private final String text;
+    private final int left, top, right, bottom;
+    private final long sourceId;
+    private final long fingerprint;
+    private NodeSnapshot parent;
+    private List<NodeSnapshot> children = Collections.emptyList();
+
+    private NodeSnapshot(AccessibilityNodeInfo node) {
+        Rect bounds = new Rect();
+        node.getBoundsInScreen(bounds);
+        CharSequence nodeText = node.getText();
+        CharSequence nodeClass = node.getClassName();
+        viewId = node.getViewIdResourceName();
+        className = nodeClass != null ? nodeClass.toString() : null;
+        text = nodeText != null ? nodeText.toString() : null;
+        left = bounds.left;
+        top = bounds.top;
+        right = bounds.right;
+        bottom = bounds.bottom;
+
+        // The node's hashCode identifies the view it came from; text and bounds change when
+        // the view is rebound to another message or scrolled
+        sourceId = node.hashCode();
+        long hash = sourceId;
+        hash = hash * 31 + (text != null ? text.hashCode() : 0);
+        hash = hash * 31 + left;
+        hash = hash * 31 + top;
+        hash = hash * 31 + right;
+        hash = hash * 31 + bottom;
+        fingerprint = hash;
+    }
+
+    // Copies scope, its subtree (up to MAX_NODES) and, for a partial scope, its ancestors.
+    // Nodes obtained here are released through nodes as soon as they are copied; scope itself
+    // stays with the caller.
+    public static NodeSnapshot capture(AccessibilityNodeInfo scope, boolean withAncestors, NodeScope nodes) {
+        NodeSnapshot snapshot = new NodeSnapshot(scope);
+        int[] budget = {MAX_NODES - 1};
+        captureChildren(scope, snapshot, budget, nodes);
+        if (withAncestors) {
+            captureAncestors(scope, snapshot, nodes);
+        }
+        return snapshot;
+    }
+
+    private static void captureChildren(AccessibilityNodeInfo node, NodeSnapshot snapshot, int[] budget, NodeScope nodes) {
+        int count = node.getChildCount();
+        if (count == 0) return;
+        snapshot.children = new ArrayList<>(count);
+        for (int i = 0; i < count && budget[0] > 0; i++) {
+            AccessibilityNodeInfo child = nodes.getChild(node, i);
+            if (child == null) continue;
+            NodeSnapshot childSnapshot = new NodeSnapshot(child);
+            childSnapshot.parent = snapshot;
+            snapshot.children.add(childSnapshot);
+            budget[0]--;
+            captureChildren(child, childSnapshot, budget, nodes);
+            nodes.release(child);
+        }
+    }
+
+    private static void captureAncestors(AccessibilityNodeInfo scope, NodeSnapshot snapshot, NodeScope nodes) {
+        AccessibilityNodeInfo current = nodes.getParent(scope);
+        NodeSnapshot below = snapshot;
+        for (int depth = 0; current != null && depth < MAX_ANCESTORS; depth++) {
+            NodeSnapshot ancestor = new NodeSnapshot(current);
+            below.parent = ancestor;
+            below = ancestor;
+            AccessibilityNodeInfo next = nodes.getParent(current);
+            nodes.release(current);
+            current = next;
+        }
+    }
+
+    public String getViewIdResourceName() {
+        return viewId;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void getBoundsInScreen(Rect outBounds) {
+        outBounds.set(left, top, right, bottom);
+    }
+
+    // Same for every capture of the same view
+    public long getSourceId() {
+        return sourceId;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public NodeSnapshot getParent() {
+        return parent;
+    }
+
+    public int getChildCount() {
+        return children.size();
+    }
+
+    public NodeSnapshot getChild(int index) {
+        return children.get(index);
+    }
+
+    // Pre-order, including this node, like AccessibilityNodeInfo.findAccessibilityNodeInfosByViewId
+    public List<NodeSnapshot> findByViewId(String viewId) {
+        List<NodeSnapshot> matches = new ArrayList<>();
+        collectByViewId(this, viewId, matches);
+        return matches;
+    }
+
+    private static void collectByViewId(NodeSnapshot node, String viewId, List<NodeSnapshot> matches) {
+        if (viewId.equals(node.viewId)) {
+            matches.add(node);
+        }
+        for (NodeSnapshot child : node.children) {
+            collectByViewId(child, viewId, matches);
+        }
+    }
+}
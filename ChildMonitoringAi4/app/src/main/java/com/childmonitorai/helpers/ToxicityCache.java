@@ -0,0 +1,240 @@
+package com.childmonitorai.helpers;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Toxicity scores already computed for a message text, so the same text is never scored
+// twice, including across service restarts. Keyed by MessageFingerprint.ofText(), so
+// whitespace and Unicode composition differences share one entry; results expire after
+// TTL_MS.
+//
+// Bounded at MAX_ENTRIES in W-TinyLFU style: new entries go to a small LRU window, and a
+// text pushed out of the window only replaces the main area's least recently used entry
+// if it has been looked up more often, according to a count-min sketch of recent
+// frequencies. One-off messages then cannot flush out the texts that keep coming back.
+//
+// All methods are synchronized; they only touch small in-memory maps. The entries are
+// written to disk every SAVE_EVERY new results and on save().
+public class ToxicityCache {
+    private static final String TAG = "ToxicityCache";
+    private static final String FILE_NAME = "toxicity_cache.bin";
+    private static final int FILE_VERSION = 1;
+    private static final int MAX_ENTRIES = 2000;
+    private static final int WINDOW_ENTRIES = MAX_ENTRIES / 100;
+    private static final int MAIN_ENTRIES = MAX_ENTRIES - WINDOW_ENTRIES;
+    private static final long TTL_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final int SAVE_EVERY = 32;
+
+    // Count-min sketch: 4 rows of 4-bit-range counters, halved after SAMPLE_SIZE increments
+    // so old popularity fades
+    private static final int SKETCH_BITS = 12;
+    private static final int SKETCH_WIDTH = 1 << SKETCH_BITS;
+    private static final int SAMPLE_SIZE = 10 * MAX_ENTRIES;
+    private static final long[] SKETCH_SEEDS = {
+            0x9e3779b97f4a7c15L, 0xc2b2ae3d27d4eb4fL, 0x165667b19e3779f9L, 0xd6e8feb86659fd93L};
+
+    public static class Result {
+        public final boolean isToxic;
+        public final String highestLabel;
+        public final double highestScore;
+        public final long scoredAt;
+
+        Result(boolean isToxic, String highestLabel, double highestScore, long scoredAt) {
+            this.isToxic = isToxic;
+            this.highestLabel = highestLabel;
+            this.highestScore = highestScore;
+            this.scoredAt = scoredAt;
+        }
+    }
+
+    private static ToxicityCache instance;
+
+    // Access-ordered, least recently used first
+    private final LinkedHashMap<Long, Result> window = new LinkedHashMap<>(WINDOW_ENTRIES * 2, .75F, true);
+    private final LinkedHashMap<Long, Result> main = new LinkedHashMap<>(MAIN_ENTRIES * 2, .75F, true);
+    private final byte[][] sketch = new byte[SKETCH_SEEDS.length][SKETCH_WIDTH];
+    private int sketchAdditions;
+    private final long ttlMs;
+    private int unsaved;
+    private File file;
+
+    private ToxicityCache() {
+        this(TTL_MS);
+    }
+
+    // Tests use a short TTL
+    ToxicityCache(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    public static synchronized ToxicityCache getInstance() {
+        if (instance == null) {
+            instance = new ToxicityCache();
+        }
+        return instance;
+    }
+
+    // Until this is called results only live in memory
+    public synchronized void initialize(Context context) {
+        if (file != null) return;
+        file = new File(context.getFilesDir(), FILE_NAME);
+        load();
+    }
+
+    // Null when the text has not been scored or its result expired
+    public synchronized Result get(String text) {
+        long key = MessageFingerprint.ofText(text).asLong();
+        recordAccess(key);
+        Result result = window.get(key);
+        if (result == null) {
+            result = main.get(key);
+        }
+        if (result != null && System.currentTimeMillis() - result.scoredAt > ttlMs) {
+            window.remove(key);
+            main.remove(key);
+            unsaved++;
+            return null;
+        }
+        return result;
+    }
+
+    public synchronized void put(String text, boolean isToxic, String highestLabel, double highestScore) {
+        long key = MessageFingerprint.ofText(text).asLong();
+        Result result = new Result(isToxic, highestLabel, highestScore, System.currentTimeMillis());
+        if (main.containsKey(key)) {
+            main.put(key, result);
+        } else {
+            window.put(key, result);
+            if (window.size() > WINDOW_ENTRIES) {
+                evictFromWindow();
+            }
+        }
+        if (++unsaved >= SAVE_EVERY) {
+            save();
+        }
+    }
+
+    public synchronized int size() {
+        return window.size() + main.size();
+    }
+
+    public synchronized void save() {
+        if (file == null || unsaved == 0) return;
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FILE_VERSION);
+            // Least recently used first, so reloading in file order keeps the recency order
+            out.writeInt(main.size() + window.size());
+            writeEntries(out, main);
+            writeEntries(out, window);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save toxicity cache: " + e.getMessage());
+            return;
+        }
+        if (temp.renameTo(file)) {
+            unsaved = 0;
+        } else {
+            Log.e(TAG, "Failed to replace toxicity cache file");
+        }
+    }
+
+    // The window's least recently used entry either moves to the main area or is dropped
+    private void evictFromWindow() {
+        Iterator<Map.Entry<Long, Result>> windowEntries = window.entrySet().iterator();
+        Map.Entry<Long, Result> candidate = windowEntries.next();
+        windowEntries.remove();
+
+        if (main.size() < MAIN_ENTRIES) {
+            main.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+        Map.Entry<Long, Result> victim = main.entrySet().iterator().next();
+        if (frequency(candidate.getKey()) > frequency(victim.getKey())) {
+            main.remove(victim.getKey());
+            main.put(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    private void recordAccess(long key) {
+        for (int row = 0; row < SKETCH_SEEDS.length; row++) {
+            int index = sketchIndex(key, row);
+            if (sketch[row][index] < 15) {
+                sketch[row][index]++;
+            }
+        }
+        if (++sketchAdditions >= SAMPLE_SIZE) {
+            for (byte[] counters : sketch) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>= 1;
+                }
+            }
+            sketchAdditions /= 2;
+        }
+    }
+
+    private int frequency(long key) {
+        int frequency = Integer.MAX_VALUE;
+        for (int row = 0; row < SKETCH_SEEDS.length; row++) {
+            frequency = Math.min(frequency, sketch[row][sketchIndex(key, row)]);
+        }
+        return frequency;
+    }
+
+    private static int sketchIndex(long key, int row) {
+        return (int) ((key * SKETCH_SEEDS[row]) >>> (64 - SKETCH_BITS));
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_VERSION) return;
+            long now = System.currentTimeMillis();
+            int count = in.readInt();
+            LinkedHashMap<Long, Result> restored = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                long key = in.readLong();
+                Result result = new Result(in.readBoolean(), in.readUTF(), in.readDouble(), in.readLong());
+                if (now - result.scoredAt <= ttlMs) {
+                    restored.put(key, result);
+                }
+            }
+
+            // Everything restored starts in the main area; the most recent entries win if the
+            // file holds more than fits
+            int skip = Math.max(0, restored.size() - MAIN_ENTRIES);
+            for (Map.Entry<Long, Result> entry : restored.entrySet()) {
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                main.put(entry.getKey(), entry.getValue());
+            }
+            Log.d(TAG, "Restored " + main.size() + " toxicity results");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load toxicity cache, starting empty: " + e.getMessage());
+        }
+    }
+
+    private static void writeEntries(DataOutputStream out, LinkedHashMap<Long, Result> entries) throws IOException {
+        for (Map.Entry<Long, Result> entry : entries.entrySet()) {
+            Result result = entry.getValue();
+            out.writeLong(entry.getKey());
+            out.writeBoolean(result.isToxic);
+            out.writeUTF(result.highestLabel != null ? result.highestLabel : "");
+            out.writeDouble(result.highestScore);
+            out.writeLong(result.scoredAt);
+        }
+    }
+}
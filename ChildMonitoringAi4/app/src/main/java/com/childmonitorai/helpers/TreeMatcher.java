@@ -0,0 +1,284 @@
+package com.childmonitorai.helpers;
+
+import android.graphics.Rect;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+// One chat app's extraction rules, compiled so every field is collected in a single walk
+// of a NodeSnapshot instead of one view ID search per candidate ID. Selectors are indexed
+// by the view ID (or parent view ID) they require, so each node only checks the selectors
+// that can match it.
+//
+// A field is a list of selectors in priority order plus a mode:
+//  - "first": trimmed text of the match from the earliest selector (pre-order within it)
+//  - "all": every matching node with text, in pre-order
+//  - "present": true when at least minMatches different selectors matched
+// Selector keys, all optional and combined with AND; keys set on the field itself apply to
+// each of its selectors:
+//  viewId / idName            exact resource name, or the part after ":id/" in any package
+//  parentViewId / parentIdName same for the direct parent
+//  className, hasText, textPattern (regex on trimmed text), excludeTexts (ignoring case),
+//  maxTopFraction             node top within this fraction of the screen height
+public class TreeMatcher {
+    private static final String MODE_FIRST = "first";
+    private static final String MODE_ALL = "all";
+    private static final String MODE_PRESENT = "present";
+
+    private static class Field {
+        final String name;
+        final String mode;
+        final int minMatches;
+
+        Field(String name, String mode, int minMatches) {
+            this.name = name;
+            this.mode = mode;
+            this.minMatches = minMatches;
+        }
+    }
+
+    private static class Selector {
+        final int field;
+        final int priority;
+        String viewId;
+        String idName;
+        String parentViewId;
+        String parentIdName;
+        String className;
+        boolean hasText;
+        Pattern textPattern;
+        Set<String> excludeTexts;
+        int maxTop = Integer.MAX_VALUE;
+
+        Selector(int field, int priority) {
+            this.field = field;
+            this.priority = priority;
+        }
+
+        boolean matches(NodeSnapshot node, NodeSnapshot parent) {
+            if (viewId != null && !viewId.equals(node.getViewIdResourceName())) return false;
+            if (idName != null && !idName.equals(idName(node.getViewIdResourceName()))) return false;
+            String parentId = parent != null ? parent.getViewIdResourceName() : null;
+            if (parentViewId != null && !parentViewId.equals(parentId)) return false;
+            if (parentIdName != null && !parentIdName.equals(idName(parentId))) return false;
+            if (className != null && !className.equals(node.getClassName())) return false;
+
+            String text = node.getText();
+            if (hasText || textPattern != null || excludeTexts != null) {
+                if (text == null || text.trim().isEmpty()) return false;
+                String trimmed = text.trim();
+                if (textPattern != null && !textPattern.matcher(trimmed).matches()) return false;
+                if (excludeTexts != null && excludeTexts.contains(trimmed.toLowerCase(Locale.ROOT))) return false;
+            }
+            if (maxTop != Integer.MAX_VALUE) {
+                Rect bounds = new Rect();
+                node.getBoundsInScreen(bounds);
+                if (bounds.top > maxTop) return false;
+            }
+            return true;
+        }
+    }
+
+    // Fields collected by one match() call
+    public class Result {
+        private final NodeSnapshot[] first = new NodeSnapshot[fields.size()];
+        private final int[] firstPriority = new int[fields.size()];
+        private final List<List<NodeSnapshot>> all = new ArrayList<>(fields.size());
+        private final BitSet[] present = new BitSet[fields.size()];
+
+        private Result() {
+            for (int i = 0; i < fields.size(); i++) {
+                firstPriority[i] = Integer.MAX_VALUE;
+                all.add(null);
+                present[i] = new BitSet();
+            }
+        }
+
+        private void accept(Selector selector, NodeSnapshot node) {
+            String mode = fields.get(selector.field).mode;
+            if (MODE_FIRST.equals(mode)) {
+                // Pre-order, so the first node seen wins among equal priorities
+                if (selector.priority < firstPriority[selector.field] && node.getText() != null
+                        && !node.getText().trim().isEmpty()) {
+                    first[selector.field] = node;
+                    firstPriority[selector.field] = selector.priority;
+                }
+            } else if (MODE_ALL.equals(mode)) {
+                if (node.getText() == null) return;
+                List<NodeSnapshot> nodes = all.get(selector.field);
+                if (nodes == null) {
+                    nodes = new ArrayList<>();
+                    all.set(selector.field, nodes);
+                }
+                // A node matched by several selectors of the field is listed once
+                if (nodes.isEmpty() || nodes.get(nodes.size() - 1) != node) {
+                    nodes.add(node);
+                }
+            } else {
+                present[selector.field].set(selector.priority);
+            }
+        }
+
+        public String first(String field, String defaultValue) {
+            NodeSnapshot node = first[fieldIndex(field)];
+            return node != null ? node.getText().trim() : defaultValue;
+        }
+
+        public List<NodeSnapshot> all(String field) {
+            List<NodeSnapshot> nodes = all.get(fieldIndex(field));
+            return nodes != null ? nodes : Collections.<NodeSnapshot>emptyList();
+        }
+
+        public boolean present(String field) {
+            int index = fieldIndex(field);
+            return present[index].cardinality() >= fields.get(index).minMatches;
+        }
+    }
+
+    private final List<Field> fields = new ArrayList<>();
+    private final Map<String, Integer> fieldIndexes = new HashMap<>();
+    private final Map<String, List<Selector>> byViewId = new HashMap<>();
+    private final Map<String, List<Selector>> byIdName = new HashMap<>();
+    private final Map<String, List<Selector>> byParentViewId = new HashMap<>();
+    private final Map<String, List<Selector>> byParentIdName = new HashMap<>();
+    private final List<Selector> unindexed = new ArrayList<>();
+
+    // rules maps field name -> {"mode", "minMatches", "selectors": [...]}
+    public static TreeMatcher compile(JSONObject rules, int screenHeight) throws JSONException {
+        TreeMatcher matcher = new TreeMatcher();
+        Iterator<String> names = rules.keys();
+        while (names.hasNext()) {
+            String name = names.next();
+            JSONObject fieldRules = rules.getJSONObject(name);
+            JSONArray selectors = fieldRules.getJSONArray("selectors");
+            String mode = fieldRules.optString("mode", MODE_FIRST);
+            if (!MODE_FIRST.equals(mode) && !MODE_ALL.equals(mode) && !MODE_PRESENT.equals(mode)) {
+                throw new JSONException("Unknown mode " + mode + " for field " + name);
+            }
+
+            int fieldIndex = matcher.fields.size();
+            matcher.fields.add(new Field(name, mode, fieldRules.optInt("minMatches", 1)));
+            matcher.fieldIndexes.put(name, fieldIndex);
+            for (int priority = 0; priority < selectors.length(); priority++) {
+                matcher.index(compileSelector(selectors.getJSONObject(priority), fieldRules, fieldIndex, priority, screenHeight));
+            }
+        }
+        return matcher;
+    }
+
+    private static Selector compileSelector(JSONObject json, JSONObject field, int fieldIndex, int priority,
+                                            int screenHeight) throws JSONException {
+        Selector selector = new Selector(fieldIndex, priority);
+        selector.viewId = optString(json, field, "viewId");
+        selector.idName = optString(json, field, "idName");
+        selector.parentViewId = optString(json, field, "parentViewId");
+        selector.parentIdName = optString(json, field, "parentIdName");
+        selector.className = optString(json, field, "className");
+        selector.hasText = (json.has("hasText") ? json : field).optBoolean("hasText", false);
+        String textPattern = optString(json, field, "textPattern");
+        if (textPattern != null) {
+            selector.textPattern = Pattern.compile(textPattern);
+        }
+        JSONArray excludeTexts = (json.has("excludeTexts") ? json : field).optJSONArray("excludeTexts");
+        if (excludeTexts != null) {
+            selector.excludeTexts = new HashSet<>();
+            for (int i = 0; i < excludeTexts.length(); i++) {
+                selector.excludeTexts.add(excludeTexts.getString(i).toLowerCase(Locale.ROOT));
+            }
+        }
+        JSONObject bounds = json.has("maxTopFraction") ? json : field;
+        if (bounds.has("maxTopFraction")) {
+            selector.maxTop = (int) (screenHeight * bounds.getDouble("maxTopFraction"));
+        }
+        return selector;
+    }
+
+    // Keys set on the field apply to all of its selectors unless a selector overrides them
+    private static String optString(JSONObject selector, JSONObject field, String key) {
+        return (selector.has(key) ? selector : field).optString(key, null);
+    }
+
+    private void index(Selector selector) {
+        if (selector.viewId != null) {
+            add(byViewId, selector.viewId, selector);
+        } else if (selector.idName != null) {
+            add(byIdName, selector.idName, selector);
+        } else if (selector.parentViewId != null) {
+            add(byParentViewId, selector.parentViewId, selector);
+        } else if (selector.parentIdName != null) {
+            add(byParentIdName, selector.parentIdName, selector);
+        } else {
+            unindexed.add(selector);
+        }
+    }
+
+    private static void add(Map<String, List<Selector>> index, String key, Selector selector) {
+        List<Selector> selectors = index.get(key);
+        if (selectors == null) {
+            selectors = new ArrayList<>();
+            index.put(key, selectors);
+        }
+        selectors.add(selector);
+    }
+
+    public Result match(NodeSnapshot root) {
+        Result result = new Result();
+        visit(root, root.getParent(), result);
+        return result;
+    }
+
+    private void visit(NodeSnapshot node, NodeSnapshot parent, Result result) {
+        String viewId = node.getViewIdResourceName();
+        if (viewId != null) {
+            check(byViewId.get(viewId), node, parent, result);
+            check(byIdName.get(idName(viewId)), node, parent, result);
+        }
+        String parentId = parent != null ? parent.getViewIdResourceName() : null;
+        if (parentId != null) {
+            check(byParentViewId.get(parentId), node, parent, result);
+            check(byParentIdName.get(idName(parentId)), node, parent, result);
+        }
+        check(unindexed, node, parent, result);
+
+        for (int i = 0; i < node.getChildCount(); i++) {
+            visit(node.getChild(i), node, result);
+        }
+    }
+
+    private static void check(List<Selector> selectors, NodeSnapshot node, NodeSnapshot parent, Result result) {
+        if (selectors == null) return;
+        for (Selector selector : selectors) {
+            if (selector.matches(node, parent)) {
+                result.accept(selector, node);
+            }
+        }
+    }
+
+    private int fieldIndex(String field) {
+        Integer index = fieldIndexes.get(field);
+        if (index == null) {
+            throw new IllegalArgumentException("No extraction rule for field " + field);
+        }
+        return index;
+    }
+
+    // "com.whatsapp:id/message_text" -> "message_text"
+    private static String idName(String viewId) {
+        if (viewId == null) return null;
+        int separator = viewId.indexOf(":id/");
+        return separator >= 0 ? viewId.substring(separator + 4) : viewId;
+    }
+}
@@ -15,6 +15,8 @@ import androidx.work.WorkerParameters;
 import androidx.work.WorkManager;
 
 import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.database.TelemetrySink;
+import com.childmonitorai.database.TelemetrySinks;
 import com.childmonitorai.models.AppUsageData;
 import com.childmonitorai.monitors.AppUsageService;
 
@@ -65,7 +67,8 @@ public class UsageTrackingWorker extends Worker {
 
             // Process events here before starting service
             UsageEvents.Event event = new UsageEvents.Event();
-            DatabaseHelper databaseHelper = new DatabaseHelper();
+            DatabaseHelper.initialize(context);
+            TelemetrySink databaseHelper = TelemetrySinks.get();
             Map<String, AppUsageData> usageDataMap = new HashMap<>();
 
             while (events.hasNextEvent()) {
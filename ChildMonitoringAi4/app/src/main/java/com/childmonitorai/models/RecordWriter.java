@@ -0,0 +1,7 @@
+package com.childmonitorai.models;
+
+// Destination for the fields of one record. The batch uploader implements this by writing
+// "{recordPath}/{field}" entries straight into its multi-path update payload.
+public interface RecordWriter {
+    void write(String field, Object value);
+}
@@ -7,7 +7,8 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.util.Log;
 
-import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.database.TelemetrySink;
+import com.childmonitorai.database.TelemetrySinks;
 import com.childmonitorai.helpers.Preferences;
 import com.childmonitorai.models.AppData;
 import com.childmonitorai.services.FcmService;
@@ -19,14 +20,14 @@ import java.util.List;
 public class AppMonitor {
     private static final String TAG = "AppMonitor";
     private final Context context;
-    private final DatabaseHelper databaseHelper;
+    private final TelemetrySink databaseHelper;
     private final String userId;
     private final String phoneModel;
     private android.content.BroadcastReceiver appChangeReceiver;
 
     public AppMonitor(Context context, String userId, String phoneModel) {
         this.context = context;
-        this.databaseHelper = new DatabaseHelper();
+        this.databaseHelper = TelemetrySinks.get();
         this.userId = userId;
         this.phoneModel = phoneModel;
     }
@@ -22,7 +22,9 @@ import androidx.work.WorkManager;
 
 import com.childmonitorai.R;
 import com.childmonitorai.helpers.UsageTrackingWorker;
-import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.helpers.MonitorMetrics;
+import com.childmonitorai.database.TelemetrySink;
+import com.childmonitorai.database.TelemetrySinks;
 import com.childmonitorai.models.AppUsageData;
 import com.childmonitorai.models.SessionData;
 
@@ -40,7 +42,7 @@ public class AppUsageService extends Service {
 
     private String userId;
     private String phoneModel;
-    private DatabaseHelper databaseHelper;
+    private TelemetrySink databaseHelper;
     private UsageStatsManager usageStatsManager;
     private Map<String, AppUsageData> appUsageMap;
     private Map<String, com.childmonitorai.models.SessionData> activeSessions;
@@ -49,7 +51,7 @@ public class AppUsageService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
-        databaseHelper = new DatabaseHelper();
+        databaseHelper = TelemetrySinks.get();
         usageStatsManager = (UsageStatsManager) getSystemService(Context.USAGE_STATS_SERVICE);
         appUsageMap = new ConcurrentHashMap<>();
         activeSessions = new ConcurrentHashMap<>();
@@ -146,6 +148,7 @@ public class AppUsageService extends Service {
         }
         
         Log.d(TAG, "Processed " + eventCount + " events");
+        MonitorMetrics.get(MonitorMetrics.APP_USAGE).recordEvents(eventCount);
     }
 
     private AppUsageData getOrCreateAppUsageData(String packageName) {
@@ -209,6 +212,7 @@ public class AppUsageService extends Service {
             usageData.setLastUpdateTime(System.currentTimeMillis());
         } catch (Exception e) {
             Log.e(TAG, "Error handling event for " + packageName, e);
+            MonitorMetrics.get(MonitorMetrics.APP_USAGE).recordError();
         }
     }
 
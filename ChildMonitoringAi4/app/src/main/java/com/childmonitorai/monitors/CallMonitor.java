@@ -1,14 +1,16 @@
 package com.childmonitorai.monitors;
 import com.childmonitorai.helpers.BaseContentObserver;
-import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.helpers.ContactNameResolver;
+import com.childmonitorai.helpers.IncrementalContentSync;
+import com.childmonitorai.helpers.MonitorMetrics;
+import com.childmonitorai.database.TelemetrySink;
+import com.childmonitorai.database.TelemetrySinks;
 import com.childmonitorai.models.CallData;
 
 
 import android.content.Context;
-import android.database.Cursor;
 import android.net.Uri;
 import android.provider.CallLog;
-import android.provider.ContactsContract;
 import android.util.Log;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -21,12 +23,21 @@ public class CallMonitor {
     private Context context;
     private BaseContentObserver callLogObserver;
     private long installationDate;
+    private final IncrementalContentSync callSync;
+    private final ContactNameResolver contactNameResolver;
 
     public CallMonitor(Context context, String userId, String phoneModel) {
         this.context = context;
         this.userId = userId;  
         this.phoneModel = phoneModel;  
         this.installationDate = System.currentTimeMillis(); // Set installation date to current time
+        this.contactNameResolver = ContactNameResolver.getInstance();
+        contactNameResolver.initialize(context);
+        // Only calls newer than the last checkpoint are read; installationDate applies to the first run
+        this.callSync = new IncrementalContentSync(context, CallLog.Calls.CONTENT_URI,
+                new String[]{CallLog.Calls._ID, CallLog.Calls.NUMBER, CallLog.Calls.TYPE,
+                        CallLog.Calls.DURATION, CallLog.Calls.DATE},
+                CallLog.Calls._ID, CallLog.Calls.DATE, installationDate);
     }
 
     public void startMonitoring() {
@@ -35,8 +46,14 @@ public class CallMonitor {
             @Override
             protected void onContentChanged(Uri uri) {
                 // Handle content change (new call log)
+                MonitorMetrics.get(MonitorMetrics.CALLS).recordEvent();
                 fetchCalls();
             }
+
+            @Override
+            protected void onContentDeleted(Uri uri) {
+                callSync.onRowsDeleted();
+            }
         };
 
         // Register the ContentObserver to observe changes in the call log
@@ -70,68 +87,31 @@ public class CallMonitor {
     }
 
     private void fetchCalls() {
-        Cursor cursor = null;
         try {
-            cursor = context.getContentResolver().query(CallLog.Calls.CONTENT_URI,
-                    null, "date >= ?", new String[]{String.valueOf(installationDate)}, CallLog.Calls.DATE + " DESC");
-
-            if (cursor != null && cursor.moveToFirst()) {
-                do {
-                    int phoneNumberColumnIndex = cursor.getColumnIndex(CallLog.Calls.NUMBER);
-                    int callTypeColumnIndex = cursor.getColumnIndex(CallLog.Calls.TYPE);
-                    int callDurationColumnIndex = cursor.getColumnIndex(CallLog.Calls.DURATION);
-                    int callDateColumnIndex = cursor.getColumnIndex(CallLog.Calls.DATE);
-
-                    if (phoneNumberColumnIndex != -1 && callTypeColumnIndex != -1 &&
-                            callDurationColumnIndex != -1 && callDateColumnIndex != -1) {
-
-                        String phoneNumber = cursor.getString(phoneNumberColumnIndex);
-                        String callType = cursor.getString(callTypeColumnIndex);
-                        long callDuration = cursor.getLong(callDurationColumnIndex);
-                        long timestamp = cursor.getLong(callDateColumnIndex);
-                        String callDate = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date(timestamp));
-                        String contactName = getContactName(phoneNumber); 
-
-                        if (timestamp >= installationDate) { // Check if call log is from the date of installation
-                            CallData callData = new CallData(phoneNumber, callType, callDuration, callDate);
-                            callData.setTimestamp(timestamp);
-                            callData.setContactName(contactName); 
-
-                            // Generate a unique ID based on phone number and timestamp
-                            String uniqueCallId = generateUniqueId(phoneNumber, timestamp);
-
-                            // Check for duplication of recent calls only
-                            DatabaseHelper dbHelper = new DatabaseHelper();
-                            dbHelper.uploadCallDataByDate(userId, phoneModel, callData, uniqueCallId, callDate);
-                        }
-                    } else {
-                        Log.w(TAG, "Missing required columns in the call log.");
-                    }
-                } while (cursor.moveToNext());
-            }
+            TelemetrySink dbHelper = TelemetrySinks.get();
+            int count = callSync.sync(cursor -> {
+                String phoneNumber = cursor.getString(cursor.getColumnIndexOrThrow(CallLog.Calls.NUMBER));
+                String callType = cursor.getString(cursor.getColumnIndexOrThrow(CallLog.Calls.TYPE));
+                long callDuration = cursor.getLong(cursor.getColumnIndexOrThrow(CallLog.Calls.DURATION));
+                long timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(CallLog.Calls.DATE));
+                String callDate = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date(timestamp));
+                String contactName = contactNameResolver.resolve(phoneNumber); 
+
+                CallData callData = new CallData(phoneNumber, callType, callDuration, callDate);
+                callData.setTimestamp(timestamp);
+                callData.setContactName(contactName); 
+
+                // Generate a unique ID based on phone number and timestamp
+                String uniqueCallId = generateUniqueId(phoneNumber, timestamp);
+
+                // The checkpoint moves once the outbox has the call
+                return dbHelper.uploadCallDataByDate(userId, phoneModel, callData, uniqueCallId, callDate);
+            });
+            Log.d(TAG, "Read " + count + " new call log entries");
         } catch (Exception e) {
             Log.e(TAG, "Error fetching call logs: " + e.getMessage());
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-    }
-
-    private String getContactName(String phoneNumber) {
-        String contactName = null;
-        Uri uri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI, Uri.encode(phoneNumber));
-        Cursor cursor = context.getContentResolver().query(uri, new String[]{ContactsContract.PhoneLookup.DISPLAY_NAME}, null, null, null);
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                int nameColumnIndex = cursor.getColumnIndex(ContactsContract.PhoneLookup.DISPLAY_NAME);
-                if (nameColumnIndex >= 0) {
-                    contactName = cursor.getString(nameColumnIndex);
-                }
-            }
-            cursor.close();
+            MonitorMetrics.get(MonitorMetrics.CALLS).recordError();
         }
-        return contactName;
     }
 
     private String generateUniqueId(String phoneNumber, long timestamp) {
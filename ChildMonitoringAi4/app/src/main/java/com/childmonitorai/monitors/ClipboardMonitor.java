@@ -1,5 +1,6 @@
 package com.childmonitorai.monitors;
-import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.database.TelemetrySink;
+import com.childmonitorai.database.TelemetrySinks;
 import com.childmonitorai.models.ClipboardData;
 
 
@@ -50,7 +51,7 @@ public class ClipboardMonitor {
                             ClipboardData clipboardData = new ClipboardData(copiedText, System.currentTimeMillis());
 
                             // Upload clipboard data to Firebase
-                            DatabaseHelper.uploadClipboardDataByDate(userId, phoneModel, clipboardData);
+                            TelemetrySinks.get().uploadClipboardData(userId, phoneModel, clipboardData);
 
                             // Save the current clipboard content to SharedPreferences
                             SharedPreferences.Editor editor = sharedPreferences.edit();
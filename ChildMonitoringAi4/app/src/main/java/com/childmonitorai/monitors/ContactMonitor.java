@@ -1,34 +1,59 @@
 package com.childmonitorai.monitors;
 import com.childmonitorai.helpers.BaseContentObserver;
-import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.helpers.ContactSnapshot;
+import com.childmonitorai.helpers.MonitorMetrics;
+import com.childmonitorai.database.TelemetrySink;
+import com.childmonitorai.database.TelemetrySinks;
 import com.childmonitorai.models.ContactData;
+import com.google.android.gms.tasks.Tasks;
 
 
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.provider.ContactsContract;
+import android.text.TextUtils;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 public class ContactMonitor {
     private static final String TAG = "ContactMonitor";
     private String userId;
     private String phoneModel;
     private Context context;
     private BaseContentObserver contactObserver;
-    private DatabaseHelper databaseHelper;
+    // Account syncs touch many contacts in a burst; wait for it to settle before diffing
+    private static final long CONTACT_CHANGE_DEBOUNCE_MS = 2000;
+    private static final int MAX_IDS_PER_QUERY = 500; // stays under SQLite's 999 bound arguments
+    private static final long SEED_TIMEOUT_SECONDS = 30;
+    private static final long ACCEPT_TIMEOUT_SECONDS = 30;
+    private TelemetrySink databaseHelper;
+    private final ContactSnapshot snapshot;
+    private volatile boolean seeded; // snapshot holds the contacts already on the server
 
     public ContactMonitor(Context context, String userId, String phoneModel) {
         this.context = context;
         this.userId = userId;
         this.phoneModel = phoneModel;
-        this.databaseHelper = new DatabaseHelper();
+        this.databaseHelper = TelemetrySinks.get();
+        this.snapshot = new ContactSnapshot(context);
     }
 
     public void startMonitoring() {
-        contactObserver = new BaseContentObserver(context) {
+        contactObserver = new BaseContentObserver(context, CONTACT_CHANGE_DEBOUNCE_MS) {
             @Override
             protected void onContentChanged(Uri uri) {
+                MonitorMetrics.get(MonitorMetrics.CONTACTS).recordEvent();
                 fetchContacts();
             }
         };
@@ -42,56 +67,200 @@ public class ContactMonitor {
         }
     }
 
+    // Uploads only what changed since the last sync: contacts updated after the snapshot's
+    // timestamp are compared by hash, and deletions come from DeletedContacts plus contacts
+    // that no longer have a phone number.
+    // Before the first sync (a new install, or the upgrade that introduced the snapshot) the
+    // snapshot is seeded from the server, so contacts that are already uploaded keep their
+    // creationTime and nameBeforeModification instead of being rewritten as new.
     private void fetchContacts() {
-        Cursor cursor = null;
         try {
-            cursor = context.getContentResolver().query(
+            long since = snapshot.getLastUpdated();
+            boolean firstSync = since == 0;
+            if (firstSync && !seeded && !seedFromServer()) {
+                return;
+            }
+            Map<String, Long> updatedContacts = new HashMap<>();
+            long newestUpdate = queryUpdatedContacts(since, updatedContacts);
+
+            Map<String, ContactData> changed = new HashMap<>();
+            Set<String> deleted = knownContacts(queryDeletedContacts(since));
+            if (firstSync) {
+                // The first sync reads every contact, so anything else on the server is gone
+                for (String contactId : snapshot.ids()) {
+                    if (!updatedContacts.containsKey(contactId)) {
+                        deleted.add(contactId);
+                    }
+                }
+            }
+            if (!updatedContacts.isEmpty()) {
+                Map<String, String[]> phones = queryPhones(updatedContacts.keySet());
+                long now = System.currentTimeMillis();
+                for (Map.Entry<String, Long> entry : updatedContacts.entrySet()) {
+                    String contactId = entry.getKey();
+                    String[] phone = phones.get(contactId);
+                    if (phone == null) {
+                        // Only contacts with a phone number are tracked
+                        if (snapshot.contains(contactId)) {
+                            deleted.add(contactId);
+                        }
+                        continue;
+                    }
+
+                    long hash = ContactSnapshot.hash(phone[0], phone[1]);
+                    ContactSnapshot.Entry previous = snapshot.get(contactId);
+                    if (previous != null && previous.hash == hash) {
+                        MonitorMetrics.get(MonitorMetrics.CONTACTS).recordDedupHit();
+                        continue;
+                    }
+
+                    ContactData contactData = new ContactData(phone[0], phone[1],
+                            previous != null ? previous.creationTime : now, entry.getValue(),
+                            previous != null ? previous.name : null);
+                    changed.put(generateUniqueId(contactId), contactData);
+                    snapshot.put(contactId, phone[0], hash, contactData.getCreationTime());
+                }
+            }
+            snapshot.removeAll(deleted);
+            snapshot.setLastUpdated(newestUpdate);
+
+            if (changed.isEmpty() && deleted.isEmpty()) {
+                snapshot.commit();
+                return;
+            }
+
+            Log.d(TAG, "Contact delta: " + changed.size() + " changed, " + deleted.size() + " deleted");
+            List<String> deletedIds = new ArrayList<>();
+            for (String contactId : deleted) {
+                deletedIds.add(generateUniqueId(contactId));
+            }
+            // Waits on the observer's worker thread, so the next sync cannot change the snapshot
+            // before this delta is committed or rolled back. Acceptance only means the delta is
+            // in the outbox, so this is short.
+            try {
+                Tasks.await(databaseHelper.uploadContactDelta(userId, phoneModel, changed, deletedIds),
+                        ACCEPT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                snapshot.commit();
+            } catch (ExecutionException | TimeoutException e) {
+                // The same delta is computed again on the next change
+                Log.e(TAG, "Contact delta was not accepted: " + e.getMessage());
+                rollback();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rollback();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error fetching contacts: " + e.getMessage());
+            MonitorMetrics.get(MonitorMetrics.CONTACTS).recordError();
+            rollback();
+        }
+    }
+
+    // Runs on the observer's worker thread. Returns false when the server could not be read;
+    // nothing is uploaded then, and the next change tries again.
+    private boolean seedFromServer() {
+        Map<String, ContactData> uploaded;
+        try {
+            uploaded = Tasks.await(databaseHelper.fetchContacts(userId, phoneModel), SEED_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            Log.w(TAG, "Could not read uploaded contacts, will retry on the next change: " + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, ContactData> entry : uploaded.entrySet()) {
+            ContactData contact = entry.getValue();
+            snapshot.put(entry.getKey(), contact.getName(), ContactSnapshot.hash(contact.getName(), contact.getPhoneNumber()),
+                    contact.getCreationTime() > 0 ? contact.getCreationTime() : now);
+        }
+        seeded = true;
+        Log.d(TAG, "Seeded contact snapshot with " + uploaded.size() + " uploaded contacts");
+        return true;
+    }
+
+    // Reloads the last commit; seeded entries that were never committed are gone with it
+    private void rollback() {
+        snapshot.rollback();
+        if (snapshot.getLastUpdated() == 0) {
+            seeded = false;
+        }
+    }
+
+    // Fills contactId -> last updated for contacts changed after since; returns the newest timestamp
+    private long queryUpdatedContacts(long since, Map<String, Long> updatedContacts) {
+        long newest = since;
+        try (Cursor cursor = context.getContentResolver().query(
+                ContactsContract.Contacts.CONTENT_URI,
+                new String[]{ContactsContract.Contacts._ID, ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP},
+                ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?",
+                new String[]{String.valueOf(since)}, null)) {
+            if (cursor == null) return newest;
+            while (cursor.moveToNext()) {
+                long lastUpdated = cursor.getLong(1);
+                updatedContacts.put(cursor.getString(0), lastUpdated);
+                newest = Math.max(newest, lastUpdated);
+            }
+        }
+        return newest;
+    }
+
+    private List<String> queryDeletedContacts(long since) {
+        List<String> deleted = new ArrayList<>();
+        if (since == 0) return deleted; // nothing uploaded yet
+        try (Cursor cursor = context.getContentResolver().query(
+                ContactsContract.DeletedContacts.CONTENT_URI,
+                new String[]{ContactsContract.DeletedContacts.CONTACT_ID},
+                ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ?",
+                new String[]{String.valueOf(since)}, null)) {
+            if (cursor == null) return deleted;
+            while (cursor.moveToNext()) {
+                deleted.add(cursor.getString(0));
+            }
+        }
+        return deleted;
+    }
+
+    // contactId -> {display name, number}, preferring the primary number when there are several
+    private Map<String, String[]> queryPhones(Set<String> contactIds) {
+        Map<String, String[]> phones = new HashMap<>();
+        List<String> ids = new ArrayList<>(contactIds);
+        for (int from = 0; from < ids.size(); from += MAX_IDS_PER_QUERY) {
+            List<String> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_IDS_PER_QUERY));
+            String placeholders = TextUtils.join(",", Collections.nCopies(chunk.size(), "?"));
+            try (Cursor cursor = context.getContentResolver().query(
                     ContactsContract.CommonDataKinds.Phone.CONTENT_URI,
                     new String[]{
                             ContactsContract.CommonDataKinds.Phone.CONTACT_ID,
                             ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME,
-                            ContactsContract.CommonDataKinds.Phone.NUMBER,
-                            ContactsContract.CommonDataKinds.Phone.CONTACT_LAST_UPDATED_TIMESTAMP
+                            ContactsContract.CommonDataKinds.Phone.NUMBER
                     },
-                    null, null,
-                    ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME + " ASC");
-
-            if (cursor != null && cursor.moveToFirst()) {
-                do {
-                    int contactIdIndex = cursor.getColumnIndex(ContactsContract.CommonDataKinds.Phone.CONTACT_ID);
-                    int contactNameIndex = cursor.getColumnIndex(ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME);
-                    int contactNumberIndex = cursor.getColumnIndex(ContactsContract.CommonDataKinds.Phone.NUMBER);
-                    int lastUpdatedIndex = cursor.getColumnIndex(ContactsContract.CommonDataKinds.Phone.CONTACT_LAST_UPDATED_TIMESTAMP);
-
-                    if (contactIdIndex != -1 && contactNameIndex != -1 && contactNumberIndex != -1) {
-                        String contactId = cursor.getString(contactIdIndex);
-                        String contactName = cursor.getString(contactNameIndex);
-                        String contactNumber = cursor.getString(contactNumberIndex);
-                        long lastUpdated = lastUpdatedIndex != -1 ? cursor.getLong(lastUpdatedIndex) : System.currentTimeMillis();
-
-                        String uniqueContactId = generateUniqueId(contactId);
-
-                        // Create a ContactData object with the last updated timestamp
-                        ContactData contactData = new ContactData(
-                                contactName, 
-                                contactNumber,
-                                System.currentTimeMillis(),
-                                lastUpdated, 
-                                null // name before modification will be set by DatabaseHelper if needed
-                        );
-
-                        // DatabaseHelper will handle the duplicate check and update logic
-                        databaseHelper.uploadContactData(userId, phoneModel, contactData, uniqueContactId);
+                    ContactsContract.CommonDataKinds.Phone.CONTACT_ID + " IN (" + placeholders + ")",
+                    chunk.toArray(new String[0]),
+                    ContactsContract.CommonDataKinds.Phone.IS_SUPER_PRIMARY + " DESC")) {
+                if (cursor == null) continue;
+                while (cursor.moveToNext()) {
+                    String contactId = cursor.getString(0);
+                    if (!phones.containsKey(contactId)) {
+                        phones.put(contactId, new String[]{cursor.getString(1), cursor.getString(2)});
                     }
-                } while (cursor.moveToNext());
+                }
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error fetching contacts: " + e.getMessage());
-        } finally {
-            if (cursor != null) {
-                cursor.close();
+        }
+        return phones;
+    }
+
+    // Only contacts that were uploaded need a delete
+    private Set<String> knownContacts(List<String> contactIds) {
+        Set<String> known = new HashSet<>();
+        for (String contactId : contactIds) {
+            if (snapshot.contains(contactId)) {
+                known.add(contactId);
             }
         }
+        return known;
     }
 
     private String generateUniqueId(String contactId) {
@@ -1,59 +1,64 @@
 package com.childmonitorai.monitors;
-import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.helpers.AccessibilityWindowCache;
+import com.childmonitorai.helpers.ConversationBuffer;
+import com.childmonitorai.helpers.MessageDedup;
+import com.childmonitorai.helpers.MessageFingerprint;
+import com.childmonitorai.helpers.NodeSnapshot;
+import com.childmonitorai.helpers.TreeMatcher;
 import com.childmonitorai.models.MessageData;
 
 
 import android.util.DisplayMetrics;
 import android.util.Log;
-import android.view.accessibility.AccessibilityNodeInfo;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
-import java.util.Set;
 
 public class InstagramMonitor {
     private static final String TAG = "InstagramMonitor";
-    private static final String INSTAGRAM_PACKAGE = "com.instagram.android";
     private final DisplayMetrics displayMetrics;
+    private final TreeMatcher matcher;
+    private final ConversationBuffer conversationBuffer;
 
-    public InstagramMonitor(DisplayMetrics displayMetrics) {
+    public InstagramMonitor(DisplayMetrics displayMetrics, TreeMatcher matcher, ConversationBuffer conversationBuffer) {
         this.displayMetrics = displayMetrics;
+        this.matcher = matcher;
+        this.conversationBuffer = conversationBuffer;
     }
 
     public static class MessageInfo {
         String message;
         boolean isOutgoing;
+        int ordinal;
 
-        MessageInfo(String message, boolean isOutgoing) {
+        MessageInfo(String message, boolean isOutgoing, int ordinal) {
             this.message = message;
             this.isOutgoing = isOutgoing;
+            this.ordinal = ordinal;
         }
     }
 
-    public void processMessages(AccessibilityNodeInfo rootNode, Set<String> processedMessages, 
-                              String userId, String deviceModel, DatabaseHelper databaseHelper,
-                              int maxMessageLength) {
-        Log.d(TAG, "Processing Instagram messages. Root node available: " + (rootNode != null));
-
-        List<MessageInfo> messages = extractMessages(rootNode);
-        String contactName = extractUserName(rootNode);
-        String messageDate = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date());
+    // scopeNode is the captured window root on a full pass, otherwise the subtree that changed.
+    // Returns the texts of messages not seen before.
+    public List<String> processMessages(NodeSnapshot scopeNode, boolean fullPass, AccessibilityWindowCache.WindowState window,
+                              MessageDedup messageDedup, String userId, String deviceModel) {
+        List<String> newMessages = new ArrayList<>();
+        Log.d(TAG, "Processing Instagram messages. Full pass: " + fullPass);
+
+        TreeMatcher.Result fields = matcher.match(scopeNode);
+        if (fullPass) {
+            window.contactName = fields.first("contactName", "Instagram User");
+            Log.d(TAG, "Instagram username: " + window.contactName);
+        }
+        List<MessageInfo> messages = extractMessages(fields, window);
+        String contactName = window.contactName != null ? window.contactName : "Instagram User";
 
         for (MessageInfo messageInfo : messages) {
-            String sanitizedMessage = sanitizeData(messageInfo.message);
-            String sanitizedContactName = sanitizeData(contactName);
-
-            if (sanitizedMessage.length() > maxMessageLength) {
-                sanitizedMessage = sanitizedMessage.substring(0, maxMessageLength);
-            }
-
-            String messageKey = sanitizedMessage + "|" + messageInfo.isOutgoing + "|" + sanitizedContactName;
+            MessageFingerprint fingerprint = MessageFingerprint.of("instagram", contactName, messageInfo.isOutgoing,
+                    messageInfo.message, messageInfo.ordinal);
 
-            if (processedMessages.add(messageKey)) {
+            if (messageDedup.markNew(fingerprint.asLong())) {
+                newMessages.add(messageInfo.message);
                 Log.d(TAG, "New Instagram message: " + messageInfo.message +
                         " | Outgoing: " + messageInfo.isOutgoing +
                         " | Contact: " + contactName);
@@ -67,92 +72,34 @@ public class InstagramMonitor {
                         "instagram"
                 );
 
-                String uniqueMessageId = sanitizedContactName + "|" + messageInfo.isOutgoing + "|" + 
-                                       sanitizedMessage + "|" + System.currentTimeMillis();
-                databaseHelper.uploadSocialMessageData(userId, deviceModel, messageData, uniqueMessageId, messageDate, "instagram");
-            }
-        }
-    }
-
-    private boolean isChatScreen(AccessibilityNodeInfo rootNode) {
-        if (rootNode == null) return false;
-
-        String[] chatScreenIndicators = {
-                INSTAGRAM_PACKAGE + ":id/direct_text_input_container",
-                INSTAGRAM_PACKAGE + ":id/direct_thread_toolbar",
-                INSTAGRAM_PACKAGE + ":id/direct_thread_messages_list",
-                INSTAGRAM_PACKAGE + ":id/direct_thread_view",
-                INSTAGRAM_PACKAGE + ":id/thread_message_list"
-        };
-
-        int indicatorsFound = 0;
-        for (String indicator : chatScreenIndicators) {
-            List<AccessibilityNodeInfo> nodes = rootNode.findAccessibilityNodeInfosByViewId(indicator);
-            if (!nodes.isEmpty()) {
-                indicatorsFound++;
-                if (indicatorsFound >= 2) {
-                    return true;
-                }
+                conversationBuffer.add("instagram", contactName, userId, deviceModel, fingerprint, messageData);
             }
         }
-        return false;
-    }
-
-    private String extractUserName(AccessibilityNodeInfo rootNode) {
-        if (rootNode == null) {
-            Log.d(TAG, "Root node is null, returning default username.");
-            return "Instagram User";
-        }
-
-        // Try header_subtitle first
-        List<AccessibilityNodeInfo> subtitleNodes =
-                rootNode.findAccessibilityNodeInfosByViewId(INSTAGRAM_PACKAGE + ":id/header_subtitle");
-        if (!subtitleNodes.isEmpty() && subtitleNodes.get(0).getText() != null) {
-            String username = subtitleNodes.get(0).getText().toString().trim();
-            Log.d(TAG, "Found username in header_subtitle: " + username);
-            return username;
-        }
-
-        // Try header_title if subtitle is empty
-        List<AccessibilityNodeInfo> titleNodes =
-                rootNode.findAccessibilityNodeInfosByViewId(INSTAGRAM_PACKAGE + ":id/header_title");
-        if (!titleNodes.isEmpty() && titleNodes.get(0).getText() != null) {
-            String username = titleNodes.get(0).getText().toString().trim();
-            Log.d(TAG, "Found username in header_title: " + username);
-            return username;
-        }
-
-        Log.d(TAG, "No username found in either header_subtitle or header_title");
-        return "Instagram User";
+        return newMessages;
     }
 
-    private List<MessageInfo> extractMessages(AccessibilityNodeInfo rootNode) {
+    private List<MessageInfo> extractMessages(TreeMatcher.Result fields, AccessibilityWindowCache.WindowState window) {
         List<MessageInfo> messages = new ArrayList<>();
-        List<String> possibleMessageIds = Arrays.asList(
-                INSTAGRAM_PACKAGE + ":id/direct_text_message_text_view",
-                INSTAGRAM_PACKAGE + ":id/message_text",
-                INSTAGRAM_PACKAGE + ":id/direct_message_text",
-                INSTAGRAM_PACKAGE + ":id/message_content",
-                INSTAGRAM_PACKAGE + ":id/direct_text",
-                INSTAGRAM_PACKAGE + ":id/row_direct_message_text_view"
-        );
-
-        for (String viewId : possibleMessageIds) {
-            List<AccessibilityNodeInfo> messageNodes = rootNode.findAccessibilityNodeInfosByViewId(viewId);
-            for (AccessibilityNodeInfo node : messageNodes) {
-                if (node != null && node.getText() != null) {
-                    String messageText = node.getText().toString();
-                    boolean isOutgoing = isOutgoingMessage(node);
-                    messages.add(new MessageInfo(messageText, isOutgoing));
-                }
+        List<NodeSnapshot> nodes = fields.all("messages");
+        boolean[] outgoing = new boolean[nodes.size()];
+        for (int i = 0; i < outgoing.length; i++) {
+            outgoing[i] = isOutgoingMessage(nodes.get(i));
+        }
+        // Placed before the change check so unchanged bubbles still count for the ordinals
+        int[] ordinals = window.place(nodes, outgoing);
+        for (int i = 0; i < nodes.size(); i++) {
+            NodeSnapshot node = nodes.get(i);
+            if (window.markChanged(node)) {
+                String messageText = node.getText().toString();
+                messages.add(new MessageInfo(messageText, outgoing[i], ordinals[i]));
             }
         }
 
         return messages;
     }
 
-    private boolean isOutgoingMessage(AccessibilityNodeInfo node) {
-        AccessibilityNodeInfo parent = node;
+    private boolean isOutgoingMessage(NodeSnapshot node) {
+        NodeSnapshot parent = node;
         int maxDepth = 10;
         int currentDepth = 0;
 
@@ -174,9 +121,4 @@ public class InstagramMonitor {
 
         return false;
     }
-
-    private String sanitizeData(String input) {
-        if (input == null) return "";
-        return input.replaceAll("[.#$\\[\\]/]", "_");
-    }
 }
@@ -14,7 +14,8 @@ import android.util.Log;
 
 import androidx.core.content.ContextCompat;
 
-import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.database.TelemetrySink;
+import com.childmonitorai.database.TelemetrySinks;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -173,7 +174,7 @@ public class LocationMonitor {
         locationData.put("accuracy", accuracy);
 
         // Reference path for location data
-        DatabaseHelper dbHelper = new DatabaseHelper();
+        TelemetrySink dbHelper = TelemetrySinks.get();
         dbHelper.uploadLocationDataByDate(userId, phoneModel, locationData, timestamp, locationDate);
     }
 
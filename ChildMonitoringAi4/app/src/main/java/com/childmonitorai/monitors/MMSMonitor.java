@@ -1,6 +1,10 @@
 package com.childmonitorai.monitors;
 import com.childmonitorai.helpers.BaseContentObserver;
-import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.helpers.IncrementalContentSync;
+import com.childmonitorai.helpers.MmsPartsReader;
+import com.childmonitorai.helpers.MonitorMetrics;
+import com.childmonitorai.database.TelemetrySink;
+import com.childmonitorai.database.TelemetrySinks;
 import com.childmonitorai.models.MMSData;
 
 
@@ -8,7 +12,6 @@ import android.Manifest;
 import android.app.Activity;
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.provider.Telephony;
@@ -17,9 +20,12 @@ import android.util.Log;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 public class MMSMonitor {
     private Context context;
@@ -28,12 +34,32 @@ public class MMSMonitor {
     private static final String TAG = "MMSMonitor";
     private long installationDate;
     private BaseContentObserver mmsObserver;
+    private final IncrementalContentSync mmsSync;
+    private final MmsPartsReader partsReader;
+
+    private static class PendingMms {
+        final String mmsId;
+        final long timestamp;
+        final String subject;
+        final TaskCompletionSource<Void> accepted = new TaskCompletionSource<>();
+
+        PendingMms(String mmsId, long timestamp, String subject) {
+            this.mmsId = mmsId;
+            this.timestamp = timestamp;
+            this.subject = subject;
+        }
+    }
 
     public MMSMonitor(Context context, String userId, String phoneModel) {
         this.context = context;
         this.userId = userId;
         this.phoneModel = phoneModel;
         this.installationDate = System.currentTimeMillis(); // Set installation date to current time
+        // The MMS table stores dates in seconds, unlike SMS and the call log
+        this.mmsSync = new IncrementalContentSync(context, Telephony.Mms.CONTENT_URI,
+                new String[]{Telephony.Mms._ID, Telephony.Mms.DATE, Telephony.Mms.SUBJECT},
+                Telephony.Mms._ID, Telephony.Mms.DATE, installationDate / 1000);
+        this.partsReader = new MmsPartsReader(context.getContentResolver());
     }
 
     public void startMonitoring() {
@@ -56,111 +82,73 @@ public class MMSMonitor {
         mmsObserver = new BaseContentObserver(context) {
             @Override
             protected void onContentChanged(Uri uri) {
+                MonitorMetrics.get(MonitorMetrics.MMS).recordEvent();
                 fetchMms();
             }
+
+            @Override
+            protected void onContentDeleted(Uri uri) {
+                mmsSync.onRowsDeleted();
+            }
         };
 
-        context.getContentResolver().registerContentObserver(Telephony.Mms.CONTENT_URI, true, mmsObserver);
+        mmsObserver.registerObserver(Telephony.Mms.CONTENT_URI);
     }
 
 
+    // Rows are collected during the sync and extracted in windows afterwards, so sender and
+    // text lookups cost two queries per window instead of two per message
     private void fetchMms() {
-        Uri mmsUri = Telephony.Mms.CONTENT_URI;
-        String[] projection = {Telephony.Mms._ID, Telephony.Mms.DATE, Telephony.Mms.SUBJECT};
-
-        try (Cursor cursor = context.getContentResolver().query(mmsUri, projection, "date >= ?", new String[]{String.valueOf(installationDate)}, Telephony.Mms.DATE + " DESC")) {
-            if (cursor != null && cursor.moveToFirst()) {
-                do {
-                    String mmsId = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Mms._ID));
-                    long timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(Telephony.Mms.DATE));
-                    String subject = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Mms.SUBJECT));
-                    String senderAddress = fetchSenderAddress(mmsId);
-                    String content = fetchMmsContent(mmsId);
-
-                    if (timestamp >= installationDate) { // Check if MMS is from the date of installation
-                        if (senderAddress != null) {
-                            MMSData mmsData = new MMSData(subject, timestamp, senderAddress, content);
-                            uploadMmsData(mmsData, mmsId);
-                        } else {
-                            Log.e(TAG, "Sender address not found for MMS ID: " + mmsId);
-                        }
-                    }
-                } while (cursor.moveToNext());
-            } else {
-                Log.w(TAG, "No MMS data found or failed to query MMS content provider.");
+        List<PendingMms> pending = new ArrayList<>();
+        try {
+            int count = mmsSync.sync(cursor -> {
+                PendingMms mms = new PendingMms(
+                        cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Mms._ID)),
+                        cursor.getLong(cursor.getColumnIndexOrThrow(Telephony.Mms.DATE)),
+                        cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Mms.SUBJECT)));
+                pending.add(mms);
+                return mms.accepted.getTask();
+            });
+            Log.d(TAG, "Read " + count + " new MMS");
+
+            List<String> mmsIds = new ArrayList<>();
+            for (PendingMms mms : pending) {
+                mmsIds.add(mms.mmsId);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error querying MMS content provider.", e);
-        }
-    }
-
-    private String fetchSenderAddress(String mmsId) {
-        Uri addressUri = Uri.parse("content://mms/" + mmsId + "/addr");
-        try (Cursor cursor = context.getContentResolver().query(addressUri, new String[]{"address", "type"}, null, null, null)) {
-            if (cursor != null && cursor.moveToFirst()) {
-                int type = cursor.getInt(cursor.getColumnIndexOrThrow("type"));
-                if (type == 137) {  // 137 is the type for MMS sender
-                    return cursor.getString(cursor.getColumnIndexOrThrow("address"));
-                }
+            Map<String, MmsPartsReader.MmsContent> contents;
+            synchronized (partsReader) {
+                contents = partsReader.read(mmsIds);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error fetching sender address for MMS ID: " + mmsId, e);
-        }
-        return null;
-    }
 
-    private String fetchMmsContent(String mmsId) {
-        Uri contentUri = Uri.parse("content://mms/" + mmsId + "/part");
-        StringBuilder contentBuilder = new StringBuilder();
-
-        try (Cursor cursor = context.getContentResolver().query(contentUri, null, null, null, null)) {
-            if (cursor != null && cursor.moveToFirst()) {
-                do {
-                    String partId = cursor.getString(cursor.getColumnIndexOrThrow("_id"));
-                    String type = cursor.getString(cursor.getColumnIndexOrThrow("ct"));
-
-                    // Check for text content
-                    if ("text/plain".equals(type) || "text/html".equals(type)) {
-                        String data = cursor.getString(cursor.getColumnIndexOrThrow("text"));
-                        if (data != null) {
-                            contentBuilder.append(data);
-                        } else {
-                            contentBuilder.append(readTextPart(partId));
-                        }
-                    }
-                } while (cursor.moveToNext());
+            for (PendingMms mms : pending) {
+                MmsPartsReader.MmsContent content = contents.get(mms.mmsId);
+                if (content.senderAddress == null) {
+                    Log.e(TAG, "Sender address not found for MMS ID: " + mms.mmsId);
+                    mms.accepted.trySetResult(null);
+                    continue;
+                }
+                MMSData mmsData = new MMSData(mms.subject, mms.timestamp, content.senderAddress, content.text.toString());
+                uploadMmsData(mmsData, mms.mmsId)
+                        .addOnSuccessListener(aVoid -> mms.accepted.trySetResult(null))
+                        .addOnFailureListener(mms.accepted::trySetException);
             }
         } catch (Exception e) {
-            Log.e(TAG, "Error fetching MMS content for MMS ID: " + mmsId, e);
-        }
-
-        return contentBuilder.toString();
-    }
-
-    private String readTextPart(String partId) {
-        Uri partUri = Uri.parse("content://mms/part/" + partId);
-        StringBuilder stringBuilder = new StringBuilder();
-
-        try (InputStream inputStream = context.getContentResolver().openInputStream(partUri);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                stringBuilder.append(line);
+            Log.e(TAG, "Error querying MMS content provider.", e);
+            MonitorMetrics.get(MonitorMetrics.MMS).recordError();
+            // Leaves the checkpoint where it was so these MMS are read again
+            for (PendingMms mms : pending) {
+                mms.accepted.trySetException(e);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error reading text part of MMS ID: " + partId, e);
         }
-
-        return stringBuilder.toString();
     }
 
-    private void uploadMmsData(MMSData mmsData, String mmsId) {
-        new DatabaseHelper().uploadMMSDataByDate(userId, phoneModel, mmsData, mmsId, String.valueOf(mmsData.getDate()));
+    private Task<Void> uploadMmsData(MMSData mmsData, String mmsId) {
+        return TelemetrySinks.get().uploadMMSDataByDate(userId, phoneModel, mmsData, mmsId, String.valueOf(mmsData.getDate()));
     }
 
     public void stopMonitoring() {
         if (mmsObserver != null) {
-            context.getContentResolver().unregisterContentObserver(mmsObserver);
+            mmsObserver.unregisterObserver();
             mmsObserver = null;
             Log.i(TAG, "MMS monitoring stopped successfully");
         }
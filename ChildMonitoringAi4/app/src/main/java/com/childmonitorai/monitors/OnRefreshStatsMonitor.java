@@ -14,6 +14,7 @@ import android.Manifest;
 import android.content.pm.PackageManager;
 import androidx.core.content.ContextCompat;
 
+import com.childmonitorai.helpers.MonitorMetrics;
 import com.childmonitorai.helpers.PermissionHelper;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
@@ -92,6 +93,7 @@ public class OnRefreshStatsMonitor {
                 location.getAccuracy(),
                 location.getTime()
             );
+            result.metrics = MonitorMetrics.snapshotAll();
 
             databaseReference
                 .child("users")
@@ -109,6 +111,7 @@ public class OnRefreshStatsMonitor {
             partialResult.put("isConnected", isFirebaseConnected);
             partialResult.put("connectionInfo", getDetailedConnectionInfo());
             partialResult.put("timestamp", System.currentTimeMillis());
+            partialResult.put("metrics", MonitorMetrics.snapshotAll());
 
             // Update only non-location fields
             databaseReference
@@ -216,6 +219,7 @@ public class OnRefreshStatsMonitor {
         public double location_longitude;
         public float location_accuracy;
         public long location_timestamp;
+        public Map<String, Object> metrics; // per-monitor counters, see MonitorMetrics
 
         public RefreshResult(int batteryLevel, String chargingStatus, boolean isConnected, 
                            String connectionInfo, long timestamp, double latitude,
@@ -14,7 +14,9 @@ import android.util.Log;
 import androidx.core.content.ContextCompat;
 
 import com.childmonitorai.helpers.BaseContentObserver;
+import com.childmonitorai.helpers.MonitorMetrics;
 import com.childmonitorai.database.FirebaseStorageHelper;
+import com.childmonitorai.database.TelemetrySinks;
 import com.childmonitorai.detectors.NSFWDetector;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -23,8 +25,6 @@ import android.content.Intent;
 import com.childmonitorai.services.FcmService;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
 
 import androidx.documentfile.provider.DocumentFile;
 import android.os.ParcelFileDescriptor;
@@ -122,17 +122,9 @@ public class PhotosMonitor extends BaseContentObserver {
     private void registerPhotoObserver() {
         Context context = getContext();
         if (context != null) {
-            // Register for both internal and external storage changes
-            context.getContentResolver().registerContentObserver(
-                MediaStore.Images.Media.INTERNAL_CONTENT_URI,
-                true, // true to watch descendants
-                this
-            );
-            context.getContentResolver().registerContentObserver(
-                MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                true, // true to watch descendants
-                this
-            );
+            // Register for both internal and external storage changes, descendants included
+            registerObserver(MediaStore.Images.Media.INTERNAL_CONTENT_URI);
+            registerObserver(MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
             isMonitoring = true;
             Log.d(TAG, "Photo observers registered successfully");
         }
@@ -161,6 +153,7 @@ public class PhotosMonitor extends BaseContentObserver {
     protected void onContentChanged(Uri uri) {
         try {
             Log.d(TAG, "Content change detected for URI: " + uri);
+            MonitorMetrics.get(MonitorMetrics.PHOTOS).recordEvent();
             if (isImageContentUri(uri)) {
                 Log.d(TAG, "New photo detected - analyzing single photo");
                 analyzeNewPhoto(uri);
@@ -177,7 +170,9 @@ public class PhotosMonitor extends BaseContentObserver {
         );
     }
 
-    private void analyzeNewPhoto(Uri changedUri) {
+    // Internal and external storage changes are dispatched independently, so the photo
+    // scans are serialized here to keep lastProcessedId consistent
+    private synchronized void analyzeNewPhoto(Uri changedUri) {
         Context context = getContext();
         if (context == null || !hasStoragePermission()) {
             Log.e(TAG, "Context null or no permission");
@@ -253,6 +248,7 @@ public class PhotosMonitor extends BaseContentObserver {
             }
         } catch (Exception e) {
             Log.e(TAG, "Error processing photo: " + e.getMessage(), e);
+            MonitorMetrics.get(MonitorMetrics.PHOTOS).recordError();
         }
     }
 
@@ -294,18 +290,23 @@ public class PhotosMonitor extends BaseContentObserver {
                     }
 
                     byte[] compressedImageData = outputStream.toByteArray();
+                    MonitorMetrics metrics = MonitorMetrics.get(MonitorMetrics.PHOTOS);
+                    long uploadStart = System.currentTimeMillis();
                     
                     // Upload to Firebase Storage with userId and phoneModel
                     firebaseStorageHelper.uploadNSFWPhoto(imagePath, compressedImageData, userId, phoneModel, 
                         new FirebaseStorageHelper.PhotoCallback() {
                             @Override
                             public void onSuccess(String downloadUrl) {
+                                metrics.recordUpload(System.currentTimeMillis() - uploadStart);
+                                metrics.recordBytes(compressedImageData.length);
                                 sendNSFWNotification(fileName, nsfwScore, downloadUrl, scores);
                                 Log.i(TAG, "Successfully uploaded NSFW image: " + fileName);
                             }
 
                             @Override
                             public void onFailure(String error) {
+                                metrics.recordError();
                                 Log.e(TAG, "Failed to upload NSFW photo: " + error);
                             }
                         });
@@ -373,29 +374,18 @@ public class PhotosMonitor extends BaseContentObserver {
         );
 
         // Save notification to Firebase Database
-        String currentDate = new SimpleDateFormat("yyyyMMdd", Locale.getDefault()).format(new Date());
-        DatabaseReference notificationsRef = FirebaseDatabase.getInstance()
-            .getReference("users")
-            .child(userId)
-            .child("phones")
-            .child(phoneModel)
-            .child("notifications")
-            .child(currentDate);
-
-        String notificationId = notificationsRef.push().getKey();
-        if (notificationId != null) {
-            Map<String, Object> notification = new HashMap<>();
-            notification.put("title", title);
-            notification.put("body", message);
-            notification.put("timestamp", System.currentTimeMillis());
-            notification.put("type", "nsfw_detection");
-            notification.put("imageUrl", imageUrl);
-            notification.put("nsfwScore", nsfwScore);
-            notification.put("fileName", fileName);
-            notification.put("scores", scores);
-
-            notificationsRef.child(notificationId).setValue(notification);
-        }
+        Map<String, Object> notification = new HashMap<>();
+        notification.put("title", title);
+        notification.put("body", message);
+        notification.put("timestamp", System.currentTimeMillis());
+        notification.put("type", "nsfw_detection");
+        notification.put("imageUrl", imageUrl);
+        notification.put("nsfwScore", nsfwScore);
+        notification.put("fileName", fileName);
+        notification.put("scores", scores);
+
+        TelemetrySinks.get().uploadAlert(userId, phoneModel, notification)
+            .addOnFailureListener(e -> Log.e(TAG, "Failed to log NSFW notification: " + e.getMessage()));
 
         // Send FCM notification
         Intent intent = new Intent(context, FcmService.class);
@@ -405,7 +395,7 @@ public class PhotosMonitor extends BaseContentObserver {
         context.startService(intent);
     }
 
-    private void checkNewPhotos() {
+    private synchronized void checkNewPhotos() {
         Context context = getContext();
         if (context == null || !hasStoragePermission()) {
             Log.e(TAG, "Context null or no permission");
@@ -452,7 +442,7 @@ public class PhotosMonitor extends BaseContentObserver {
                 }
                 Context context = getContext();
                 if (context != null) {
-                    context.getContentResolver().unregisterContentObserver(this);
+                    unregisterObserver();
                 }
             } catch (Exception e) {
                 Log.e(TAG, "Error stopping PhotosMonitor: " + e.getMessage(), e);
@@ -1,15 +1,17 @@
 package com.childmonitorai.monitors;
 import com.childmonitorai.helpers.BaseContentObserver;
-import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.helpers.ContactNameResolver;
+import com.childmonitorai.helpers.IncrementalContentSync;
+import com.childmonitorai.helpers.MonitorMetrics;
+import com.childmonitorai.database.TelemetrySink;
+import com.childmonitorai.database.TelemetrySinks;
 import com.childmonitorai.models.SMSData;
 
 
 import android.Manifest;
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.net.Uri;
-import android.provider.ContactsContract;
 import android.util.Log;
 
 import androidx.core.content.ContextCompat;
@@ -25,12 +27,19 @@ public class SMSMonitor {
     private Context context;
     private BaseContentObserver smsObserver;
     private long installationDate;
+    private final IncrementalContentSync smsSync;
+    private final ContactNameResolver contactNameResolver;
 
     public SMSMonitor(Context context, String userId, String phoneModel) {
         this.context = context;
         this.userId = userId;
         this.phoneModel = phoneModel;
         this.installationDate = System.currentTimeMillis(); // Set installation date to current time
+        this.contactNameResolver = ContactNameResolver.getInstance();
+        contactNameResolver.initialize(context);
+        // Only rows newer than the last checkpoint are read; installationDate applies to the first run
+        this.smsSync = new IncrementalContentSync(context, Uri.parse("content://sms"),
+                new String[]{"_id", "type", "address", "body", "date"}, "_id", "date", installationDate);
     }
 
     public void startMonitoring() {
@@ -45,8 +54,14 @@ public class SMSMonitor {
             @Override
             protected void onContentChanged(Uri uri) {
                 // Handle content change (new SMS)
+                MonitorMetrics.get(MonitorMetrics.SMS).recordEvent();
                 fetchSMS();
             }
+
+            @Override
+            protected void onContentDeleted(Uri uri) {
+                smsSync.onRowsDeleted();
+            }
         };
 
         // Register the ContentObserver to observe changes in the SMS database
@@ -66,57 +81,35 @@ public class SMSMonitor {
 
 
     private void fetchSMS() {
-        Cursor cursor = null;
         try {
-            cursor = context.getContentResolver().query(
-                    Uri.parse("content://sms"),
-                    null, "date >= ?", new String[]{String.valueOf(installationDate)}, "date DESC");
-
-            if (cursor != null && cursor.moveToFirst()) {
-                do {
-                    int typeColumnIndex = cursor.getColumnIndex("type");
-                    int addressColumnIndex = cursor.getColumnIndex("address");
-                    int bodyColumnIndex = cursor.getColumnIndex("body");
-                    int dateColumnIndex = cursor.getColumnIndex("date");
-
-                    if (typeColumnIndex != -1 && addressColumnIndex != -1 &&
-                            bodyColumnIndex != -1 && dateColumnIndex != -1) {
-
-                        String type = cursor.getString(typeColumnIndex); // Message type
-                        String address = cursor.getString(addressColumnIndex); // Sender/Receiver
-                        String body = cursor.getString(bodyColumnIndex); // Message body
-                        long timestamp = cursor.getLong(dateColumnIndex); // Message timestamp
-                        String smsDate = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date(timestamp));
-
-                        if (timestamp >= installationDate) { // Check if SMS is from the date of installation
-                            // Fetch contact name if available
-                            String contactName = getContactName(address);
-
-                            // Create SMSData object
-                            SMSData smsData = new SMSData(type, address, body, smsDate);
-                            smsData.setTimestamp(timestamp);
-                            smsData.setContactName(contactName); // Set contact name
-
-                            // Generate unique ID for SMS based on address and timestamp
-                            String uniqueSMSId = generateUniqueId(address, timestamp);
-
-                            // Upload SMS to Firebase
-                            DatabaseHelper dbHelper = new DatabaseHelper();
-                            dbHelper.uploadSMSDataByDate(userId, phoneModel, smsData, uniqueSMSId, smsDate);
-                        }
-                    } else {
-                        Log.w(TAG, "Missing required columns in SMS log.");
-                    }
-                } while (cursor.moveToNext());
-            }
+            TelemetrySink dbHelper = TelemetrySinks.get();
+            int count = smsSync.sync(cursor -> {
+                String type = cursor.getString(cursor.getColumnIndexOrThrow("type")); // Message type
+                String address = cursor.getString(cursor.getColumnIndexOrThrow("address")); // Sender/Receiver
+                String body = cursor.getString(cursor.getColumnIndexOrThrow("body")); // Message body
+                long timestamp = cursor.getLong(cursor.getColumnIndexOrThrow("date")); // Message timestamp
+                String smsDate = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date(timestamp));
+
+                // Fetch contact name if available
+                String contactName = contactNameResolver.resolve(address);
+
+                // Create SMSData object
+                SMSData smsData = new SMSData(type, address, body, smsDate);
+                smsData.setTimestamp(timestamp);
+                smsData.setContactName(contactName); // Set contact name
+
+                // Generate unique ID for SMS based on address and timestamp
+                String uniqueSMSId = generateUniqueId(address, timestamp);
+
+                // Upload SMS to Firebase; the checkpoint moves once the outbox has it
+                return dbHelper.uploadSMSDataByDate(userId, phoneModel, smsData, uniqueSMSId, smsDate);
+            });
+            Log.d(TAG, "Read " + count + " new SMS");
         } catch (SecurityException se) {
             Log.e(TAG, "SMS Permission denied: " + se.getMessage());
         } catch (Exception e) {
             Log.e(TAG, "Error fetching SMS logs: " + e.getMessage());
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
+            MonitorMetrics.get(MonitorMetrics.SMS).recordError();
         }
     }
 
@@ -124,23 +117,6 @@ public class SMSMonitor {
         return address + "_" + timestamp; // Combination of address and timestamp
     }
 
-    private String getContactName(String phoneNumber) {
-        Uri uri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI, Uri.encode(phoneNumber));
-        Cursor cursor = context.getContentResolver().query(uri, new String[]{ContactsContract.PhoneLookup.DISPLAY_NAME}, null, null, null);
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                int nameColumnIndex = cursor.getColumnIndex(ContactsContract.PhoneLookup.DISPLAY_NAME);
-                if (nameColumnIndex != -1) {
-                    String contactName = cursor.getString(nameColumnIndex);
-                    cursor.close();
-                    return contactName;
-                }
-            }
-            cursor.close();
-        }
-        return null;
-    }
-
     public void stopMonitoring() {
         try {
             // Unregister the ContentObserver when monitoring is stopped
@@ -1,62 +1,68 @@
 package com.childmonitorai.monitors;
-import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.helpers.AccessibilityWindowCache;
+import com.childmonitorai.helpers.ConversationBuffer;
+import com.childmonitorai.helpers.MessageDedup;
+import com.childmonitorai.helpers.MessageFingerprint;
+import com.childmonitorai.helpers.NodeSnapshot;
+import com.childmonitorai.helpers.TreeMatcher;
 import com.childmonitorai.models.MessageData;
 
 import android.graphics.Rect;
 import android.util.DisplayMetrics;
 import android.util.Log;
-import android.view.accessibility.AccessibilityNodeInfo;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
-import java.util.Set;
 
 public class SnapchatMonitor {
     private static final String TAG = "SnapchatMonitor";
-    private static final String SNAPCHAT_PACKAGE = "com.snapchat.android";
     private final DisplayMetrics displayMetrics;
-    private final DatabaseHelper databaseHelper;
+    private final ConversationBuffer conversationBuffer;
+    private final TreeMatcher matcher;
 
     private static class MessageInfo {
         String message;
         boolean isOutgoing;
+        int ordinal;
 
-        MessageInfo(String message, boolean isOutgoing) {
+        MessageInfo(String message, boolean isOutgoing, int ordinal) {
             this.message = message;
             this.isOutgoing = isOutgoing;
+            this.ordinal = ordinal;
         }
     }
 
-    public SnapchatMonitor(DisplayMetrics displayMetrics) {
+    public SnapchatMonitor(DisplayMetrics displayMetrics, TreeMatcher matcher, ConversationBuffer conversationBuffer) {
         this.displayMetrics = displayMetrics;
-        this.databaseHelper = new DatabaseHelper();
+        this.matcher = matcher;
+        this.conversationBuffer = conversationBuffer;
     }
 
-    public void processMessages(AccessibilityNodeInfo rootNode, Set<String> processedMessages, 
-                              String userId, String deviceModel, int maxMessageLength) {
-        Log.d(TAG, "Processing Snapchat messages. Root node available: " + (rootNode != null));
-
-        if (!isSnapchatChatScreen(rootNode)) {
+    // scopeNode is the captured window root on a full pass, otherwise the subtree that changed.
+    // Returns the texts of messages not seen before.
+    public List<String> processMessages(NodeSnapshot scopeNode, boolean fullPass, AccessibilityWindowCache.WindowState window,
+                              MessageDedup messageDedup, String userId, String deviceModel) {
+        List<String> newMessages = new ArrayList<>();
+        Log.d(TAG, "Processing Snapchat messages. Full pass: " + fullPass);
+
+        TreeMatcher.Result fields = matcher.match(scopeNode);
+        if (fullPass) {
+            window.chatScreen = fields.present("chatScreen");
+            window.contactName = window.chatScreen ? fields.first("contactName", "Snapchat User") : null;
+        }
+        if (!window.chatScreen) {
             Log.d(TAG, "Not in Snapchat chat screen - skipping message processing");
-            return;
+            return newMessages;
         }
 
-        String contactName = extractContactName(rootNode);
-        List<MessageInfo> messages = extractMessages(rootNode);
+        String contactName = window.contactName;
+        List<MessageInfo> messages = extractMessages(fields, window);
 
         for (MessageInfo messageInfo : messages) {
-            String sanitizedMessage = sanitizeData(messageInfo.message);
-            String sanitizedContactName = sanitizeData(contactName);
-
-            if (sanitizedMessage.length() > maxMessageLength) {
-                sanitizedMessage = sanitizedMessage.substring(0, maxMessageLength);
-            }
-
-            String messageKey = sanitizedMessage + "|" + messageInfo.isOutgoing + "|" + sanitizedContactName;
+            MessageFingerprint fingerprint = MessageFingerprint.of("snapchat", contactName, messageInfo.isOutgoing,
+                    messageInfo.message, messageInfo.ordinal);
 
-            if (processedMessages.add(messageKey)) {
+            if (messageDedup.markNew(fingerprint.asLong())) {
+                newMessages.add(messageInfo.message);
                 MessageData messageData = new MessageData(
                     messageInfo.isOutgoing ? "You" : contactName,
                     messageInfo.isOutgoing ? contactName : "You",
@@ -66,83 +72,33 @@ public class SnapchatMonitor {
                     "snapchat"
                 );
 
-                String uniqueMessageId = sanitizedContactName + "|" + messageInfo.isOutgoing + "|" + 
-                                       sanitizedMessage + "|" + System.currentTimeMillis();
-                String messageDate = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date());
-
-                databaseHelper.uploadSocialMessageData(userId, deviceModel, messageData, 
-                                                     uniqueMessageId, messageDate, "snapchat");
-            }
-        }
-    }
-
-    private boolean isSnapchatChatScreen(AccessibilityNodeInfo rootNode) {
-        if (rootNode == null) return false;
-
-        String[] chatIndicators = {
-            SNAPCHAT_PACKAGE + ":id/chat_input_text_field",
-            SNAPCHAT_PACKAGE + ":id/chat_message_list",
-            SNAPCHAT_PACKAGE + ":id/chat_input_layout",
-            SNAPCHAT_PACKAGE + ":id/chat_message_composer",
-            SNAPCHAT_PACKAGE + ":id/chat_screen_container"
-        };
-
-        int indicatorsFound = 0;
-        for (String indicator : chatIndicators) {
-            if (!rootNode.findAccessibilityNodeInfosByViewId(indicator).isEmpty()) {
-                indicatorsFound++;
-                if (indicatorsFound >= 2) return true;
-            }
-        }
-        return false;
-    }
-
-    private String extractContactName(AccessibilityNodeInfo rootNode) {
-        String[] snapchatIds = {
-            SNAPCHAT_PACKAGE + ":id/chat_title_bar_username",
-            SNAPCHAT_PACKAGE + ":id/chat_username_text",
-            SNAPCHAT_PACKAGE + ":id/chat_friend_name",
-            SNAPCHAT_PACKAGE + ":id/conversation_title",
-            SNAPCHAT_PACKAGE + ":id/username_text",
-            SNAPCHAT_PACKAGE + ":id/display_name_text"
-        };
-
-        for (String id : snapchatIds) {
-            List<AccessibilityNodeInfo> nodes = rootNode.findAccessibilityNodeInfosByViewId(id);
-            for (AccessibilityNodeInfo node : nodes) {
-                String name = extractValidName(node);
-                if (name != null) return name;
+                conversationBuffer.add("snapchat", contactName, userId, deviceModel, fingerprint, messageData);
             }
         }
-
-        return "Snapchat User";
+        return newMessages;
     }
 
-    private List<MessageInfo> extractMessages(AccessibilityNodeInfo rootNode) {
+    private List<MessageInfo> extractMessages(TreeMatcher.Result fields, AccessibilityWindowCache.WindowState window) {
         List<MessageInfo> messages = new ArrayList<>();
-        String[] messageIds = {
-            SNAPCHAT_PACKAGE + ":id/chat_message_text",
-            SNAPCHAT_PACKAGE + ":id/chat_message_content",
-            SNAPCHAT_PACKAGE + ":id/message_text_view",
-            SNAPCHAT_PACKAGE + ":id/chat_message"
-        };
-
-        for (String id : messageIds) {
-            List<AccessibilityNodeInfo> nodes = rootNode.findAccessibilityNodeInfosByViewId(id);
-            for (AccessibilityNodeInfo node : nodes) {
-                if (node != null && node.getText() != null) {
-                    messages.add(new MessageInfo(
-                        node.getText().toString(),
-                        isOutgoingMessage(node)
-                    ));
-                }
+        List<NodeSnapshot> nodes = fields.all("messages");
+        boolean[] outgoing = new boolean[nodes.size()];
+        for (int i = 0; i < outgoing.length; i++) {
+            outgoing[i] = isOutgoingMessage(nodes.get(i));
+        }
+        // Placed before the change check so unchanged bubbles still count for the ordinals
+        int[] ordinals = window.place(nodes, outgoing);
+        for (int i = 0; i < nodes.size(); i++) {
+            NodeSnapshot node = nodes.get(i);
+            if (window.markChanged(node)) {
+                String messageText = node.getText().toString();
+                messages.add(new MessageInfo(messageText, outgoing[i], ordinals[i]));
             }
         }
         return messages;
     }
 
-    private boolean isOutgoingMessage(AccessibilityNodeInfo node) {
-        AccessibilityNodeInfo parent = node;
+    private boolean isOutgoingMessage(NodeSnapshot node) {
+        NodeSnapshot parent = node;
         int maxDepth = 10;
         int currentDepth = 0;
 
@@ -164,30 +120,4 @@ public class SnapchatMonitor {
         }
         return false;
     }
-
-    private String extractValidName(AccessibilityNodeInfo node) {
-        if (node == null || node.getText() == null) return null;
-        String name = node.getText().toString().trim();
-        return isValidUsername(name) ? name : null;
-    }
-
-    private boolean isValidUsername(String text) {
-        if (text == null || text.isEmpty() || text.length() > 30) return false;
-        String[] invalidTexts = {
-            "Chat", "Snap", "Story", "Stories", "Camera", "Memories",
-            "Discover", "Spotlight", "Map", "Send To", "New Chat",
-            "Add Friends", "Search", "Settings", "Snapchat User"
-        };
-        for (String invalid : invalidTexts) {
-            if (text.equalsIgnoreCase(invalid)) return false;
-        }
-        return text.matches("^[\\w.-]+$");
-    }
-
-    private String sanitizeData(String input) {
-        if (input == null) return "_empty_";
-        String sanitized = input.replaceAll("[^a-zA-Z0-9_-]", "_");
-        return sanitized.matches("^[0-9].*") ? "_" + sanitized : 
-               sanitized.isEmpty() ? "_empty_" : sanitized;
-    }
 }
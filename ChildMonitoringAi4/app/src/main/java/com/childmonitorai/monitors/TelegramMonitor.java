@@ -1,65 +1,70 @@
 package com.childmonitorai.monitors;
-import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.helpers.AccessibilityWindowCache;
+import com.childmonitorai.helpers.ConversationBuffer;
+import com.childmonitorai.helpers.MessageDedup;
+import com.childmonitorai.helpers.MessageFingerprint;
+import com.childmonitorai.helpers.NodeSnapshot;
+import com.childmonitorai.helpers.TreeMatcher;
 import com.childmonitorai.models.MessageData;
 
 
 import android.graphics.Rect;
 import android.util.DisplayMetrics;
 import android.util.Log;
-import android.view.accessibility.AccessibilityNodeInfo;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
-import java.util.Set;
 
 public class TelegramMonitor {
     private static final String TAG = "TelegramMonitor";
     public static final String TELEGRAM_PACKAGE = "org.telegram.messenger";
-    private static final String[] TELEGRAM_PACKAGES = {
-        "org.telegram.messenger",
-        "org.telegram.messenger.web",
-        "org.telegram.messenger.beta"
-    };
     private final DisplayMetrics displayMetrics;
+    private final TreeMatcher matcher;
+    private final ConversationBuffer conversationBuffer;
 
-    public TelegramMonitor(DisplayMetrics displayMetrics) {
+    // The rules match view IDs by name, so they cover the web and beta builds as well
+    public TelegramMonitor(DisplayMetrics displayMetrics, TreeMatcher matcher, ConversationBuffer conversationBuffer) {
         this.displayMetrics = displayMetrics;
+        this.matcher = matcher;
+        this.conversationBuffer = conversationBuffer;
     }
 
     private static class MessageInfo {
         String message;
         boolean isOutgoing;
+        int ordinal;
 
-        MessageInfo(String message, boolean isOutgoing) {
+        MessageInfo(String message, boolean isOutgoing, int ordinal) {
             this.message = message;
             this.isOutgoing = isOutgoing;
+            this.ordinal = ordinal;
         }
     }
 
-    public void processMessages(AccessibilityNodeInfo rootNode, Set<String> processedMessages, 
-                              String userId, String deviceModel, int maxMessageLength) {
-        String contactName = extractContactName(rootNode);
-        if (contactName.equals("Unknown Contact")) {
+    // scopeNode is the captured window root on a full pass, otherwise the subtree that changed.
+    // Returns the texts of messages not seen before.
+    public List<String> processMessages(NodeSnapshot scopeNode, boolean fullPass, AccessibilityWindowCache.WindowState window,
+                              MessageDedup messageDedup, String userId, String deviceModel) {
+        List<String> newMessages = new ArrayList<>();
+        TreeMatcher.Result fields = matcher.match(scopeNode);
+        if (fullPass) {
+            window.contactName = fields.first("contactName", "Unknown Contact");
+            Log.d(TAG, "Telegram contact name: " + window.contactName);
+        }
+        String contactName = window.contactName;
+        if (contactName == null || contactName.equals("Unknown Contact")) {
             Log.d(TAG, "Unable to determine Telegram contact name");
-            return;
+            return newMessages;
         }
 
-        List<MessageInfo> messages = extractMessages(rootNode);
+        List<MessageInfo> messages = extractMessages(fields, window);
         for (MessageInfo messageInfo : messages) {
-            String sanitizedMessage = sanitizeData(messageInfo.message);
-            String sanitizedContactName = sanitizeData(contactName);
-
-            if (sanitizedMessage.length() > maxMessageLength) {
-                sanitizedMessage = sanitizedMessage.substring(0, maxMessageLength);
-            }
-
             String messageDirection = messageInfo.isOutgoing ? "outgoing" : "incoming";
-            String messageKey = sanitizedMessage + "|" + messageInfo.isOutgoing + "|" + sanitizedContactName;
+            MessageFingerprint fingerprint = MessageFingerprint.of("telegram", contactName, messageInfo.isOutgoing,
+                    messageInfo.message, messageInfo.ordinal);
 
-            if (processedMessages.add(messageKey)) {
+            if (messageDedup.markNew(fingerprint.asLong())) {
+                newMessages.add(messageInfo.message);
                 Log.d(TAG, "New Telegram message: " + messageInfo.message +
                         " | Outgoing: " + messageInfo.isOutgoing +
                         " | Contact: " + contactName);
@@ -73,116 +78,45 @@ public class TelegramMonitor {
                         "telegram"
                 );
 
-                String uniqueMessageId = sanitizedContactName + "|" + System.currentTimeMillis() + 
-                                       "|" + messageDirection + "|" + sanitizedMessage;
-                String messageDate = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date());
-
-                DatabaseHelper databaseHelper = new DatabaseHelper();
-                //databaseHelper.uploadSocialMessageData(userId, deviceModel, messageData,uniqueMessageId, messageDate, "telegram");
-            }
-        }
-    }
-
-    private String extractContactName(AccessibilityNodeInfo rootNode) {
-        Log.d(TAG, "Attempting to extract contact name");
-
-        // Search for contact name in the app bar FrameLayout
-        for (String packageName : TELEGRAM_PACKAGES) {
-            List<AccessibilityNodeInfo> frameLayouts = rootNode.findAccessibilityNodeInfosByViewId(packageName + ":id/view");
-            Log.d(TAG, "Found " + frameLayouts.size() + " frame layouts with ID " + packageName + ":id/view");
-            for (AccessibilityNodeInfo frameLayout : frameLayouts) {
-                if (frameLayout != null) {
-                    for (int i = 0; i < frameLayout.getChildCount(); i++) {
-                        AccessibilityNodeInfo child = frameLayout.getChild(i);
-                        if (child != null && child.getText() != null) {
-                            String name = child.getText().toString().trim();
-                            if (!name.isEmpty()) {
-                                Log.d(TAG, "Found contact name in app bar: " + name);
-                                return name;
-                            }
-                        }
-                    }
-                }
-            }
-        }
-
-        // Search for contact name using known view IDs
-        String[] possibleIds = {
-            ":id/action_bar_title",
-            ":id/chat_title",
-            ":id/name",
-            ":id/chat_name",
-            ":id/toolbar_title"
-        };
-
-        for (String packageName : TELEGRAM_PACKAGES) {
-            for (String id : possibleIds) {
-                List<AccessibilityNodeInfo> nodes = rootNode.findAccessibilityNodeInfosByViewId(packageName + id);
-                Log.d(TAG, "Found " + nodes.size() + " nodes with ID " + packageName + id);
-                if (!nodes.isEmpty() && nodes.get(0) != null && nodes.get(0).getText() != null) {
-                    String name = nodes.get(0).getText().toString();
-                    Log.d(TAG, "Found contact name: " + name);
-                    return name;
-                }
-            }
-        }
-
-        // Fallback: search for text nodes in the entire hierarchy
-        List<AccessibilityNodeInfo> textNodes = new ArrayList<>();
-        findTextNodes(rootNode, textNodes);
-        for (AccessibilityNodeInfo textNode : textNodes) {
-            String name = textNode.getText().toString().trim();
-            if (!name.isEmpty()) {
-                Log.d(TAG, "Found contact name in entire hierarchy: " + name);
-                return name;
+                //conversationBuffer.add("telegram", contactName, userId, deviceModel, fingerprint, messageData);
             }
         }
-
-        Log.w(TAG, "Could not find contact name");
-        return "Unknown Contact";
+        return newMessages;
     }
 
-    private List<MessageInfo> extractMessages(AccessibilityNodeInfo rootNode) {
+    private List<MessageInfo> extractMessages(TreeMatcher.Result fields, AccessibilityWindowCache.WindowState window) {
         List<MessageInfo> messages = new ArrayList<>();
-        Log.d(TAG, "Attempting to extract messages");
-
-        // Search for messages using known view IDs
-        String[] messageIds = {
-            ":id/message_text",
-            ":id/chat_message_text",
-            ":id/messageText",
-            ":id/bubble_message_text"
-        };
-
-        for (String packageName : TELEGRAM_PACKAGES) {
-            for (String id : messageIds) {
-                List<AccessibilityNodeInfo> messageContainers = rootNode.findAccessibilityNodeInfosByViewId(packageName + id);
-                Log.d(TAG, "Searching messages with ID " + packageName + id + ". Found: " + messageContainers.size());
-
-                for (AccessibilityNodeInfo container : messageContainers) {
-                    if (container != null && container.getText() != null) {
-                        String messageText = container.getText().toString();
-                        boolean isOutgoing = isOutgoingMessage(container);
-                        messages.add(new MessageInfo(messageText, isOutgoing));
-                        Log.d(TAG, "Found message: " + messageText + " (outgoing: " + isOutgoing + ")");
-                    } else {
-                        Log.d(TAG, "Message container is null or has no text");
-                    }
-                }
+        List<NodeSnapshot> containers = fields.all("messages");
+        boolean[] outgoing = new boolean[containers.size()];
+        for (int i = 0; i < outgoing.length; i++) {
+            outgoing[i] = isOutgoingMessage(containers.get(i));
+        }
+        // Placed before the change check so unchanged bubbles still count for the ordinals
+        int[] ordinals = window.place(containers, outgoing);
+        for (int i = 0; i < containers.size(); i++) {
+            NodeSnapshot container = containers.get(i);
+            if (window.markChanged(container)) {
+                String messageText = container.getText().toString();
+                messages.add(new MessageInfo(messageText, outgoing[i], ordinals[i]));
+                Log.d(TAG, "Found message: " + messageText + " (outgoing: " + outgoing[i] + ")");
             }
         }
 
-        // Fallback: search for text nodes in the entire hierarchy
+        // Fallback: any text in the changed hierarchy
         if (messages.isEmpty()) {
-            Log.d(TAG, "No messages found with specific IDs, searching entire hierarchy for text nodes");
-            List<AccessibilityNodeInfo> textNodes = new ArrayList<>();
-            findTextNodes(rootNode, textNodes);
-            for (AccessibilityNodeInfo textNode : textNodes) {
-                String messageText = textNode.getText().toString().trim();
-                if (!messageText.isEmpty()) {
-                    boolean isOutgoing = isOutgoingMessage(textNode);
-                    messages.add(new MessageInfo(messageText, isOutgoing));
-                    Log.d(TAG, "Found message in entire hierarchy: " + messageText + " (outgoing: " + isOutgoing + ")");
+            List<NodeSnapshot> textNodes = fields.all("texts");
+            boolean[] textOutgoing = new boolean[textNodes.size()];
+            for (int i = 0; i < textOutgoing.length; i++) {
+                textOutgoing[i] = isOutgoingMessage(textNodes.get(i));
+            }
+            // Placed before the change check so unchanged bubbles still count for the ordinals
+            int[] textOrdinals = window.place(textNodes, textOutgoing);
+            for (int i = 0; i < textNodes.size(); i++) {
+                NodeSnapshot textNode = textNodes.get(i);
+                if (window.markChanged(textNode)) {
+                    String messageText = textNode.getText().trim();
+                    messages.add(new MessageInfo(messageText, textOutgoing[i], textOrdinals[i]));
+                    Log.d(TAG, "Found message in entire hierarchy: " + messageText + " (outgoing: " + textOutgoing[i] + ")");
                 }
             }
         }
@@ -191,23 +125,13 @@ public class TelegramMonitor {
         return messages;
     }
 
-    private void findTextNodes(AccessibilityNodeInfo node, List<AccessibilityNodeInfo> textNodes) {
-        if (node == null) return;
-        if (node.getText() != null) {
-            textNodes.add(node);
-        }
-        for (int i = 0; i < node.getChildCount(); i++) {
-            findTextNodes(node.getChild(i), textNodes);
-        }
-    }
-
-    private boolean isOutgoingMessage(AccessibilityNodeInfo node) {
+    private boolean isOutgoingMessage(NodeSnapshot node) {
         if (node == null) {
             return false;
         }
 
         // Check message position to determine if it's outgoing
-        AccessibilityNodeInfo parentNode = node.getParent();
+        NodeSnapshot parentNode = node.getParent();
         while (parentNode != null) {
             Rect nodePosition = new Rect();
             parentNode.getBoundsInScreen(nodePosition);
@@ -225,11 +149,4 @@ public class TelegramMonitor {
 
         return false;
     }
-
-    private String sanitizeData(String input) {
-        if (input == null) {
-            return "";
-        }
-        return input.replaceAll("[.#$\\[\\]/]", "_");
-    }
 }
@@ -1,61 +1,68 @@
 package com.childmonitorai.monitors;
-import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.helpers.AccessibilityWindowCache;
+import com.childmonitorai.helpers.ConversationBuffer;
+import com.childmonitorai.helpers.MessageDedup;
+import com.childmonitorai.helpers.MessageFingerprint;
+import com.childmonitorai.helpers.NodeSnapshot;
+import com.childmonitorai.helpers.TreeMatcher;
 import com.childmonitorai.models.MessageData;
 
 
 import android.graphics.Rect;
 import android.util.DisplayMetrics;
 import android.util.Log;
-import android.view.accessibility.AccessibilityNodeInfo;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
-import java.util.Set;
 
 public class WhatsappMonitor {
     private static final String TAG = "WhatsappMonitor";
     public static final String WHATSAPP_PACKAGE = "com.whatsapp";
     private final DisplayMetrics displayMetrics;
+    private final TreeMatcher matcher;
+    private final ConversationBuffer conversationBuffer;
 
-    public WhatsappMonitor(DisplayMetrics displayMetrics) {
+    public WhatsappMonitor(DisplayMetrics displayMetrics, TreeMatcher matcher, ConversationBuffer conversationBuffer) {
         this.displayMetrics = displayMetrics;
+        this.matcher = matcher;
+        this.conversationBuffer = conversationBuffer;
     }
 
     private static class MessageInfo {
         String message;
         boolean isOutgoing;
+        int ordinal;
 
-        MessageInfo(String message, boolean isOutgoing) {
+        MessageInfo(String message, boolean isOutgoing, int ordinal) {
             this.message = message;
             this.isOutgoing = isOutgoing;
+            this.ordinal = ordinal;
         }
     }
 
-    public void processMessages(AccessibilityNodeInfo rootNode, Set<String> processedMessages, 
-                              String userId, String deviceModel, int maxMessageLength) {
-        String contactName = extractContactName(rootNode);
-        if (contactName.equals("Unknown Contact")) {
+    // scopeNode is the captured window root on a full pass, otherwise the subtree that changed.
+    // Returns the texts of messages not seen before.
+    public List<String> processMessages(NodeSnapshot scopeNode, boolean fullPass, AccessibilityWindowCache.WindowState window,
+                              MessageDedup messageDedup, String userId, String deviceModel) {
+        List<String> newMessages = new ArrayList<>();
+        TreeMatcher.Result fields = matcher.match(scopeNode);
+        if (fullPass) {
+            window.contactName = fields.first("contactName", "Unknown Contact");
+        }
+        String contactName = window.contactName;
+        if (contactName == null || contactName.equals("Unknown Contact")) {
             Log.d(TAG, "Unable to determine WhatsApp contact name");
-            return;
+            return newMessages;
         }
 
-        List<MessageInfo> messages = extractMessages(rootNode);
+        List<MessageInfo> messages = extractMessages(fields, window);
         for (MessageInfo messageInfo : messages) {
-            String sanitizedMessage = sanitizeData(messageInfo.message);
-            String sanitizedContactName = sanitizeData(contactName);
-
-            // Truncate the message if needed
-            if (sanitizedMessage.length() > maxMessageLength) {
-                sanitizedMessage = sanitizedMessage.substring(0, maxMessageLength);
-            }
-
             String messageDirection = messageInfo.isOutgoing ? "outgoing" : "incoming";
-            String messageKey = sanitizedMessage + "|" + messageInfo.isOutgoing + "|" + sanitizedContactName;
+            MessageFingerprint fingerprint = MessageFingerprint.of("whatsapp", contactName, messageInfo.isOutgoing,
+                    messageInfo.message, messageInfo.ordinal);
 
-            if (processedMessages.add(messageKey)) {
+            if (messageDedup.markNew(fingerprint.asLong())) {
+                newMessages.add(messageInfo.message);
                 Log.d(TAG, "New WhatsApp message: " + messageInfo.message +
                         " | Outgoing: " + messageInfo.isOutgoing +
                         " | Contact: " + contactName);
@@ -69,53 +76,39 @@ public class WhatsappMonitor {
                         "whatsapp"
                 );
 
-                String uniqueMessageId = sanitizedContactName + "|" + System.currentTimeMillis() + 
-                                       "|" + messageDirection + "|" + sanitizedMessage;
-                String messageDate = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date());
-
-                DatabaseHelper databaseHelper = new DatabaseHelper();
-                databaseHelper.uploadSocialMessageData(userId, deviceModel, messageData, 
-                                                     uniqueMessageId, messageDate, "whatsapp");
+                conversationBuffer.add("whatsapp", contactName, userId, deviceModel, fingerprint, messageData);
             }
         }
+        return newMessages;
     }
 
-    private String extractContactName(AccessibilityNodeInfo rootNode) {
-        List<AccessibilityNodeInfo> nodes = rootNode.findAccessibilityNodeInfosByViewId(WHATSAPP_PACKAGE + ":id/conversation_contact_name");
-        if (!nodes.isEmpty() && nodes.get(0) != null && nodes.get(0).getText() != null) {
-            return nodes.get(0).getText().toString();
-        }
-
-        nodes = rootNode.findAccessibilityNodeInfosByViewId(WHATSAPP_PACKAGE + ":id/conversation_title");
-        if (!nodes.isEmpty() && nodes.get(0) != null && nodes.get(0).getText() != null) {
-            return nodes.get(0).getText().toString();
-        }
-
-        return "Unknown Contact";
-    }
-
-    private List<MessageInfo> extractMessages(AccessibilityNodeInfo rootNode) {
+    private List<MessageInfo> extractMessages(TreeMatcher.Result fields, AccessibilityWindowCache.WindowState window) {
         List<MessageInfo> messages = new ArrayList<>();
-        List<AccessibilityNodeInfo> messageContainers = rootNode.findAccessibilityNodeInfosByViewId(WHATSAPP_PACKAGE + ":id/message_text");
-
-        for (AccessibilityNodeInfo container : messageContainers) {
-            if (container != null && container.getText() != null) {
+        List<NodeSnapshot> containers = fields.all("messages");
+        boolean[] outgoing = new boolean[containers.size()];
+        for (int i = 0; i < outgoing.length; i++) {
+            outgoing[i] = isOutgoingMessage(containers.get(i));
+        }
+        // Placed before the change check so unchanged bubbles still count for the ordinals
+        int[] ordinals = window.place(containers, outgoing);
+        for (int i = 0; i < containers.size(); i++) {
+            NodeSnapshot container = containers.get(i);
+            if (window.markChanged(container)) {
                 String messageText = container.getText().toString();
-                boolean isOutgoing = isOutgoingMessage(container);
-                messages.add(new MessageInfo(messageText, isOutgoing));
+                messages.add(new MessageInfo(messageText, outgoing[i], ordinals[i]));
             }
         }
 
         return messages;
     }
 
-    private boolean isOutgoingMessage(AccessibilityNodeInfo node) {
+    private boolean isOutgoingMessage(NodeSnapshot node) {
         if (node == null) {
             return false;
         }
 
         if (node.getViewIdResourceName() != null && node.getViewIdResourceName().contains("message_text")) {
-            AccessibilityNodeInfo parentNode = node.getParent();
+            NodeSnapshot parentNode = node.getParent();
             if (parentNode != null) {
                 Rect nodePosition = new Rect();
                 parentNode.getBoundsInScreen(nodePosition);
@@ -128,11 +121,4 @@ public class WhatsappMonitor {
 
         return false;
     }
-
-    private String sanitizeData(String input) {
-        if (input == null) {
-            return "";
-        }
-        return input.replaceAll("[.#$\\[\\]/]", "_");
-    }
 }
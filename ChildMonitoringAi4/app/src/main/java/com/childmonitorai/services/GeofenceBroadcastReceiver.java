@@ -6,6 +6,8 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.util.Log;
 
+import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.database.TelemetrySinks;
 import com.childmonitorai.helpers.FlaggedContents;
 import com.childmonitorai.helpers.Preferences;
 import com.childmonitorai.models.GeofenceData;
@@ -13,19 +15,12 @@ import com.google.android.gms.location.Geofence;
 import com.google.android.gms.location.GeofencingEvent;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
 import java.util.HashMap;
 import java.util.Map;
 
 public class GeofenceBroadcastReceiver extends BroadcastReceiver {
     private static final String TAG = "GeofenceReceiver";
 
-    private String getCurrentDate() {
-        java.text.SimpleDateFormat dateFormat = new java.text.SimpleDateFormat("yyyyMMdd");
-        return dateFormat.format(new java.util.Date());
-    }
-
     @Override
     public void onReceive(Context context, Intent intent) {
         // First check if geofence alerts are enabled
@@ -96,15 +91,7 @@ public class GeofenceBroadcastReceiver extends BroadcastReceiver {
         }
 
         // Upload to database
-        String currentDate = getCurrentDate();
-        DatabaseReference notificationsRef = FirebaseDatabase.getInstance()
-            .getReference("users")
-            .child(userId)
-            .child("phones")
-            .child(phoneModel)
-            .child("notifications")
-            .child(currentDate);
-
+        DatabaseHelper.initialize(context);
         Map<String, Object> notification = new HashMap<>();
         notification.put("title", title);
         notification.put("body", message);
@@ -112,7 +99,7 @@ public class GeofenceBroadcastReceiver extends BroadcastReceiver {
         notification.put("type", "geofence_alert");
         notification.put("deviceModel", phoneModel);
 
-        notificationsRef.push().setValue(notification)
+        TelemetrySinks.get().uploadAlert(userId, phoneModel, notification)
             .addOnSuccessListener(aVoid -> Log.d(TAG, "Geofence notification logged to database"))
             .addOnFailureListener(e -> Log.e(TAG, "Failed to log geofence notification: " + e.getMessage()));
 
@@ -25,6 +25,7 @@ import com.childmonitorai.PermissionActivity;
 import com.childmonitorai.R;
 import com.childmonitorai.commands.CommandExecutor;
 import com.childmonitorai.commands.CommandListener;
+import com.childmonitorai.database.DatabaseHelper;
 import com.childmonitorai.helpers.UsageTrackingWorker;
 import com.childmonitorai.monitors.AppMonitor;
 import com.childmonitorai.monitors.AppUsageService;
@@ -71,6 +72,7 @@ public class MonitoringService extends Service {
         } catch (Exception e) {
             Log.e(TAG, "Firebase persistence already enabled or other error: " + e.getMessage());
         }
+        DatabaseHelper.initialize(this);
     }
 
     @Nullable
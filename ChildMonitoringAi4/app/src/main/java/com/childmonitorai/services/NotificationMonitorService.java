@@ -7,13 +7,21 @@ import android.os.Bundle;
 import android.util.Log;
 
 import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.database.TelemetrySink;
+import com.childmonitorai.database.TelemetrySinks;
+import com.childmonitorai.helpers.KeywordMatcher;
+import com.childmonitorai.helpers.MessageFingerprint;
 import com.childmonitorai.models.MessageData;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import android.os.Build;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class NotificationMonitorService extends NotificationListenerService {
     private static final String TAG = "NotificationMonitor";
@@ -24,12 +32,54 @@ public class NotificationMonitorService extends NotificationListenerService {
     private static final String SIGNAL_PACKAGE = "org.thoughtcrime.securesms";
     private static final String MESSENGER_PACKAGE = "com.facebook.orca";
 
-    private DatabaseHelper databaseHelper;
+    private static final UnwantedPatterns WHATSAPP_UNWANTED = new UnwantedPatterns(
+            "(?i).*new messages?.*",
+            "(?i)messages from.*",
+            "(?i)you may have.*messages",
+            "(?i)whatsapp web.*active",
+            "(?i)checking for.*messages",
+            "(?i).*broadcast list",
+            "(?i).*security code.*changed",
+            "(?i).*backup.*progress",
+            ".*\\d+ unread messages",
+            "(?i).*new messages from.*chats?",
+            "(?i).*new message from.*",
+            "(?i)Checking for new messages",
+            "(?i).*messages?$",
+            "(?i)\\d+\\s+messages?\\s+from\\s+\\d+\\s+chats?"
+    );
+    private static final UnwantedPatterns INSTAGRAM_UNWANTED = new UnwantedPatterns(
+            "(?i).*added to their stor(y|ies).*",
+            "(?i).*posted (a|their) (photo|reel).*",
+            "(?i).*(went|going) live.*",
+            "(?i).*started a live video.*",
+            "(?i).*recently added.*",
+            "(?i).*just added their stor(y|ies).*",
+            "(?i).*added to their close friends.*",
+            "(?i).*recently shared a reel.*",
+            "(?i).*who you might know.*",
+            "(?i).*shared a post.*",
+            "(?i).*see what .* person sent you.*",
+            "(?i).*unread messages from .* people.*",
+            "(?i).*follow .* and others you know.*",
+            "(?i).*photos and videos.*"
+    );
+    private static final UnwantedPatterns SNAPCHAT_UNWANTED = new UnwantedPatterns(
+            "(?i).*new friend suggestion.*",
+            "(?i).*from your contacts.*",
+            "(?i).*started watching.*",
+            "(?i).*posted a story.*",
+            "(?i).*posted a memory.*",
+            "(?i).*posted a snap.*"
+    );
+
+    private TelemetrySink databaseHelper;
 
     @Override
     public void onCreate() {
         super.onCreate();
-        databaseHelper = new DatabaseHelper();
+        DatabaseHelper.initialize(this);
+        databaseHelper = TelemetrySinks.get();
     }
 
     @Override
@@ -60,7 +110,7 @@ public class NotificationMonitorService extends NotificationListenerService {
             }
 
             // Process message based on app
-            processMessage(packageName, title, text);
+            processMessage(packageName, title, text, notification.when);
 
         } catch (Exception e) {
             Log.e(TAG, "Error processing notification: " + e.getMessage());
@@ -81,77 +131,70 @@ public class NotificationMonitorService extends NotificationListenerService {
     }
 
     private boolean isUnwantedWhatsAppNotification(String title, String text) {
-        String[] unwantedPatterns = {
-            "(?i).*new messages?.*",
-            "(?i)messages from.*",
-            "(?i)you may have.*messages",
-            "(?i)whatsapp web.*active",
-            "(?i)checking for.*messages",
-            "(?i).*broadcast list",
-            "(?i).*security code.*changed",
-            "(?i).*backup.*progress",
-            ".*\\d+ unread messages",
-            "(?i).*new messages from.*chats?",
-            "(?i).*new message from.*",
-            "(?i)Checking for new messages",
-            "(?i).*messages?$",
-            "(?i)\\d+\\s+messages?\\s+from\\s+\\d+\\s+chats?"
-        };
-
-        return containsAnyPattern(text, unwantedPatterns) || 
-               containsAnyPattern(title, unwantedPatterns);
+        return WHATSAPP_UNWANTED.matches(text) || WHATSAPP_UNWANTED.matches(title);
     }
 
     private boolean isUnwantedInstagramNotification(String title, String text) {
-        String[] unwantedPatterns = {
-            "(?i).*added to their stor(y|ies).*",
-            "(?i).*posted (a|their) (photo|reel).*",
-            "(?i).*(went|going) live.*",
-            "(?i).*started a live video.*",
-            "(?i).*recently added.*",
-            "(?i).*just added their stor(y|ies).*",
-            "(?i).*added to their close friends.*",
-            "(?i).*recently shared a reel.*",
-            "(?i).*who you might know.*",
-            "(?i).*shared a post.*",
-            "(?i).*see what .* person sent you.*",
-            "(?i).*unread messages from .* people.*",
-            "(?i).*follow .* and others you know.*",
-            "(?i).*photos and videos.*"
-        };
-        
-        return containsAnyPattern(text, unwantedPatterns) || 
-               containsAnyPattern(title, unwantedPatterns);
+        return INSTAGRAM_UNWANTED.matches(text) || INSTAGRAM_UNWANTED.matches(title);
     }
 
     private boolean isUnwantedSnapchatNotification(String title, String text) {
-        String[] unwantedPatterns = {
-            "(?i).*new friend suggestion.*",
-            "(?i).*from your contacts.*",
-            "(?i).*started watching.*",
-            "(?i).*posted a story.*",
-            "(?i).*posted a memory.*",
-            "(?i).*posted a snap.*",
-        };
-        
-        return containsAnyPattern(text, unwantedPatterns) || 
-               containsAnyPattern(title, unwantedPatterns);
+        return SNAPCHAT_UNWANTED.matches(text) || SNAPCHAT_UNWANTED.matches(title);
     }
 
-    private boolean containsAnyPattern(String input, String[] patterns) {
-        if (input == null) return false;
-        
-        for (String pattern : patterns) {
-            try {
-                if (input.matches(pattern) || input.toLowerCase().matches(pattern.toLowerCase())) {
-                    Log.d(TAG, "Matched pattern: " + pattern + " for text: " + input);
+    // A notification filter compiled once: patterns of the form "(?i).*some words.*" only ask
+    // whether the text contains the words, so those share one KeywordMatcher pass; the rest
+    // are real regexes and are matched case-insensitively as before. ".*" does not cross line
+    // breaks, so like the regexes they replace the words only match single-line texts; a
+    // multi-line chat message that quotes "new message" is kept.
+    private static class UnwantedPatterns {
+        private static final Pattern LITERAL = Pattern.compile("\\(\\?i\\)\\.\\*([\\p{L}\\p{N}' ]+)\\.\\*");
+
+        private final KeywordMatcher literals;
+        private final Pattern[] regexes;
+
+        UnwantedPatterns(String... patterns) {
+            List<String> words = new ArrayList<>();
+            List<Pattern> compiled = new ArrayList<>();
+            for (String pattern : patterns) {
+                Matcher literal = LITERAL.matcher(pattern);
+                if (literal.matches()) {
+                    words.add(literal.group(1));
+                } else {
+                    compiled.add(Pattern.compile(pattern, Pattern.CASE_INSENSITIVE));
+                }
+            }
+            literals = KeywordMatcher.compile(words);
+            regexes = compiled.toArray(new Pattern[0]);
+        }
+
+        boolean matches(String input) {
+            if (input == null) return false;
+
+            String word = hasLineBreak(input) ? null : literals.findFirst(input);
+            if (word != null) {
+                Log.d(TAG, "Matched pattern: .*" + word + ".* for text: " + input);
+                return true;
+            }
+            for (Pattern regex : regexes) {
+                if (regex.matcher(input).matches()) {
+                    Log.d(TAG, "Matched pattern: " + regex.pattern() + " for text: " + input);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // The line terminators "." does not match
+        private static boolean hasLineBreak(String input) {
+            for (int i = 0; i < input.length(); i++) {
+                char ch = input.charAt(i);
+                if (ch == '\n' || ch == '\r' || ch == '\u0085' || ch == '\u2028' || ch == '\u2029') {
                     return true;
                 }
-            } catch (Exception e) {
-                Log.e(TAG, "Error matching pattern: " + pattern + ", Error: " + e.getMessage());
             }
+            return false;
         }
-        return false;
     }
 
     private boolean isTargetMessagingApp(String packageName) {
@@ -163,7 +206,7 @@ public class NotificationMonitorService extends NotificationListenerService {
                packageName.equals(MESSENGER_PACKAGE);
     }
 
-    private void processMessage(String packageName, String sender, String messageText) {
+    private void processMessage(String packageName, String sender, String messageText, long postedAt) {
         String platform = getPlatformName(packageName);
         String userId = getUserId();
         String phoneModel = getDeviceModel();
@@ -179,11 +222,8 @@ public class NotificationMonitorService extends NotificationListenerService {
             platform
         );
 
-        // Create unique message ID
-        String uniqueMessageId = sanitizeData(sender) + "|" + 
-                               System.currentTimeMillis() + "|" +
-                               "incoming" + "|" + 
-                               sanitizeData(messageText);
+        // Reposts of the same notification keep their time, so they map to the same ID
+        String uniqueMessageId = MessageFingerprint.of(platform, sender, false, messageText, postedAt).toKey();
 
         // Upload to Firebase using the same path as AccessibilityService
         databaseHelper.uploadSocialMessageData(
@@ -228,14 +268,6 @@ public class NotificationMonitorService extends NotificationListenerService {
         return new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(new Date());
     }
 
-    private String sanitizeData(String input) {
-        if (input == null) {
-            return "";
-        }
-        // Remove characters that Firebase doesn't allow in paths
-        return input.replaceAll("[.#$\\[\\]/]", "_");
-    }
-
     @Override
     public void onNotificationRemoved(StatusBarNotification sbn) {
         // Not needed for our use case
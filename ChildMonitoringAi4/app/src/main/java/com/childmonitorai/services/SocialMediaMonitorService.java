@@ -10,6 +10,8 @@ import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
 
 import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.database.TelemetrySink;
+import com.childmonitorai.database.TelemetrySinks;
 import com.childmonitorai.monitors.InstagramMonitor;
 import com.childmonitorai.monitors.SnapchatMonitor;
 import com.childmonitorai.monitors.TelegramMonitor;
@@ -18,20 +20,26 @@ import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
+import com.childmonitorai.helpers.AccessibilityEventQueue;
+import com.childmonitorai.helpers.AccessibilityWindowCache;
+import com.childmonitorai.helpers.ConversationBuffer;
+import com.childmonitorai.helpers.ExtractionRules;
+import com.childmonitorai.helpers.KeywordMatcher;
+import com.childmonitorai.helpers.MessageDedup;
+import com.childmonitorai.helpers.NodeScope;
+import com.childmonitorai.helpers.NodeSnapshot;
 import com.childmonitorai.helpers.Preferences;
+import com.childmonitorai.helpers.ToxicityCache;
+import com.childmonitorai.helpers.MonitorMetrics;
+import com.childmonitorai.ml.ToxicityAnalyzer;
+import com.childmonitorai.ml.ToxicityClient;
 
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
-import java.util.Set;
 
 public class SocialMediaMonitorService extends AccessibilityService {
     private static final String TAG = "SocialMediaMonitorService";
@@ -41,42 +49,24 @@ public class SocialMediaMonitorService extends AccessibilityService {
     private static final String TELEGRAM_PACKAGE = "org.telegram.messenger";
 
     private DatabaseReference mDatabase;
-    private Set<String> processedMessages = new HashSet<>();
-    private static final int MAX_PROCESSED_MESSAGES = 100;
-    private static final int MAX_MESSAGE_LENGTH = 20;
+    private MessageDedup messageDedup;
 
     private WhatsappMonitor whatsappMonitor;
     private InstagramMonitor instagramMonitor;
     private SnapchatMonitor snapchatMonitor;
     private TelegramMonitor telegramMonitor;
-    private DatabaseHelper databaseHelper;
+    private TelemetrySink databaseHelper;
+    private final AccessibilityWindowCache windowCache = new AccessibilityWindowCache();
+    private AccessibilityEventQueue eventQueue;
+    private ToxicityAnalyzer toxicityAnalyzer;
+    private ToxicityClient toxicityClient;
+    private final ConversationBuffer conversationBuffer = new ConversationBuffer();
 
     private static final String HUGGING_FACE_API_KEY = ""; // API key
-    private static final String API_URL = "https://api-inference.huggingface.co/models/unitary/unbiased-toxic-roberta";
-    private static final int MAX_RETRIES = 3;
-    private static final int RETRY_DELAY_MS = 1000; // 1 second delay between retries
-
-    private static final int MAX_CACHE_SIZE = 1000; // Maximum number of cached results
-    private Map<String, ToxicityResult> analyzedMessages = new LinkedHashMap<String, ToxicityResult>(MAX_CACHE_SIZE + 1, .75F, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<String, ToxicityResult> eldest) {
-            return size() > MAX_CACHE_SIZE;
-        }
-    };
-
-    private static class ToxicityResult {
-        boolean isToxic;
-        String highestLabel;
-        double highestScore;
-        long timestamp;
-
-        ToxicityResult(boolean isToxic, String highestLabel, double highestScore) {
-            this.isToxic = isToxic;
-            this.highestLabel = highestLabel;
-            this.highestScore = highestScore;
-            this.timestamp = System.currentTimeMillis();
-        }
-    }
+    private static final KeywordMatcher FALLBACK_TOXIC_KEYWORDS = KeywordMatcher.compile(Arrays.asList(
+            "bad", "hate", "kill", "die", "stupid"));
+
+    private ToxicityCache toxicityCache;
 
     private Preferences preferences;
     private boolean monitorWhatsapp = true;
@@ -87,13 +77,22 @@ public class SocialMediaMonitorService extends AccessibilityService {
     @Override
     public void onCreate() {
         super.onCreate();
+        DatabaseHelper.initialize(this);
         mDatabase = FirebaseDatabase.getInstance().getReference("social_media_messages");
         DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
-        whatsappMonitor = new WhatsappMonitor(displayMetrics);
-        instagramMonitor = new InstagramMonitor(displayMetrics);
-        snapchatMonitor = new SnapchatMonitor(displayMetrics);
-        telegramMonitor = new TelegramMonitor(displayMetrics);
-        databaseHelper = new DatabaseHelper();
+        ExtractionRules extractionRules = ExtractionRules.load(this, displayMetrics.heightPixels);
+        whatsappMonitor = new WhatsappMonitor(displayMetrics, extractionRules.forApp("whatsapp"), conversationBuffer);
+        instagramMonitor = new InstagramMonitor(displayMetrics, extractionRules.forApp("instagram"), conversationBuffer);
+        snapchatMonitor = new SnapchatMonitor(displayMetrics, extractionRules.forApp("snapchat"), conversationBuffer);
+        telegramMonitor = new TelegramMonitor(displayMetrics, extractionRules.forApp("telegram"), conversationBuffer);
+        databaseHelper = TelemetrySinks.get();
+        messageDedup = MessageDedup.getInstance();
+        messageDedup.initialize(this);
+        toxicityCache = ToxicityCache.getInstance();
+        toxicityCache.initialize(this);
+        toxicityAnalyzer = new ToxicityAnalyzer(this);
+        toxicityClient = new ToxicityClient(ToxicityClient.DEFAULT_ENDPOINT, HUGGING_FACE_API_KEY);
+        eventQueue = new AccessibilityEventQueue(this::processEvent, MonitorMetrics.get(MonitorMetrics.SOCIAL));
         Log.d(TAG, "Service created");
 
         // Initialize preferences and monitoring states
@@ -210,60 +209,111 @@ public class SocialMediaMonitorService extends AccessibilityService {
         if (!isPackageMonitored(packageName)) {
             return;
         }
-
-        AccessibilityNodeInfo rootNode = getRootInActiveWindow();
-        if (rootNode == null) {
-            Log.e(TAG, "Root node is null for package: " + packageName);
+        MonitorMetrics.get(MonitorMetrics.SOCIAL).recordEvent();
+
+        // Content changes in a window that already had (or has queued) a full pass only look
+        // at the changed subtree; anything else (new window, screen switch, no source) walks
+        // from the root
+        int windowId = event.getWindowId();
+        boolean partial = event.getEventType() == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
+                && (windowCache.get(windowId) != null || eventQueue.hasPendingFullPass(packageName, windowId));
+        if (!eventQueue.accepts(!partial)) {
             return;
         }
 
-        try {
-            if (packageName.equals(WHATSAPP_PACKAGE)) {
-                whatsappMonitor.processMessages(rootNode, processedMessages, getUserId(), getDeviceModel(), MAX_MESSAGE_LENGTH);
-            } else if (packageName.equals(INSTAGRAM_PACKAGE)) {
-                instagramMonitor.processMessages(rootNode, processedMessages, getUserId(), getDeviceModel(), databaseHelper, MAX_MESSAGE_LENGTH);
-            } else if (packageName.equals(SNAPCHAT_PACKAGE)) {
-                snapchatMonitor.processMessages(rootNode, processedMessages, getUserId(), getDeviceModel(), MAX_MESSAGE_LENGTH);
-            } else if (packageName.equals(TELEGRAM_PACKAGE)) {
-                telegramMonitor.processMessages(rootNode, processedMessages, getUserId(), getDeviceModel(), MAX_MESSAGE_LENGTH);
+        // Only the snapshot is taken here; everything else runs on the queue's worker
+        try (NodeScope nodes = new NodeScope(MonitorMetrics.get(MonitorMetrics.SOCIAL))) {
+            AccessibilityNodeInfo scopeNode = partial ? nodes.track(event.getSource()) : null;
+            boolean fullPass = scopeNode == null;
+            if (fullPass) {
+                scopeNode = nodes.track(getRootInActiveWindow());
+                if (scopeNode == null) {
+                    Log.e(TAG, "Root node is null for package: " + packageName);
+                    return;
+                }
+                windowId = scopeNode.getWindowId();
             }
+            eventQueue.offer(packageName, windowId, fullPass, NodeSnapshot.capture(scopeNode, !fullPass, nodes));
+        }
+    }
 
-            // Only perform toxicity analysis if suspicious content monitoring is enabled
-            if (preferences.isSuspiciousContent()) {
-                // Process any messages in the processedMessages set
-                for (String message : processedMessages) {
-                    if (message != null && !message.isEmpty()) {
-                        // Check if message was already analyzed
-                        ToxicityResult cachedResult = analyzedMessages.get(message);
-                        if (cachedResult != null) {
-                            Log.d(TAG, String.format("Cached Result - Message: %s | Highest Label: %s | Score: %.4f | Toxic: %b", 
-                                message, cachedResult.highestLabel, cachedResult.highestScore, cachedResult.isToxic));
-                            continue;
-                        }
-
-                        // Use a background thread for new toxicity analysis
-                        new Thread(() -> {
-                            ToxicityResult result = performToxicityAnalysis(message);
-                            if (result != null) {
-                                analyzedMessages.put(message, result);
-                                Log.d(TAG, String.format("New Analysis - Message: %s | Highest Label: %s | Score: %.4f | Toxic: %b", 
-                                    message, result.highestLabel, result.highestScore, result.isToxic));
-                            }
-                        }).start();
+    // Runs on the event queue's worker thread
+    private void processEvent(AccessibilityEventQueue.CapturedEvent event) {
+        AccessibilityWindowCache.WindowState window = event.fullPass
+                ? windowCache.reset(event.windowId) : windowCache.get(event.windowId);
+        if (window == null) {
+            return;
+        }
+
+        String packageName = event.packageName;
+        NodeSnapshot scopeNode = event.scope;
+        boolean fullPass = event.fullPass;
+        List<String> newMessages = new ArrayList<>();
+        String platform = null;
+        if (packageName.equals(WHATSAPP_PACKAGE)) {
+            platform = "whatsapp";
+            newMessages = whatsappMonitor.processMessages(scopeNode, fullPass, window, messageDedup, getUserId(), getDeviceModel());
+        } else if (packageName.equals(INSTAGRAM_PACKAGE)) {
+            platform = "instagram";
+            newMessages = instagramMonitor.processMessages(scopeNode, fullPass, window, messageDedup, getUserId(), getDeviceModel());
+        } else if (packageName.equals(SNAPCHAT_PACKAGE)) {
+            platform = "snapchat";
+            newMessages = snapchatMonitor.processMessages(scopeNode, fullPass, window, messageDedup, getUserId(), getDeviceModel());
+        } else if (packageName.equals(TELEGRAM_PACKAGE)) {
+            platform = "telegram";
+            newMessages = telegramMonitor.processMessages(scopeNode, fullPass, window, messageDedup, getUserId(), getDeviceModel());
+        }
+
+        // A full pass follows a screen change, so the chat shown now is the one that stays
+        // buffered; the messages of any chat that was left are uploaded
+        if (fullPass && platform != null) {
+            conversationBuffer.focus(platform, window.contactName);
+        }
+
+        // Only perform toxicity analysis if suspicious content monitoring is enabled
+        if (preferences.isSuspiciousContent()) {
+            // Only messages seen for the first time need analysis
+            List<String> unanalyzed = new ArrayList<>();
+            for (String message : newMessages) {
+                if (message != null && !message.isEmpty()) {
+                    // Check if message was already analyzed
+                    ToxicityCache.Result cachedResult = toxicityCache.get(message);
+                    if (cachedResult != null) {
+                        Log.d(TAG, String.format("Cached Result - Message: %s | Highest Label: %s | Score: %.4f | Toxic: %b", 
+                            message, cachedResult.highestLabel, cachedResult.highestScore, cachedResult.isToxic));
+                        MonitorMetrics.get(MonitorMetrics.SOCIAL).recordDedupHit();
+                        continue;
                     }
+                    unanalyzed.add(message);
                 }
-            } else {
-                Log.d(TAG, "Skipping toxicity analysis - suspicious content monitoring is disabled");
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error processing messages: " + e.getMessage(), e);
-        } finally {
-            rootNode.recycle();
+            if (!unanalyzed.isEmpty() && !analyzeOnDevice(unanalyzed)) {
+                analyzeRemotely(unanalyzed);
+            }
+        } else {
+            Log.d(TAG, "Skipping toxicity analysis - suspicious content monitoring is disabled");
         }
+    }
 
-        if (processedMessages.size() > MAX_PROCESSED_MESSAGES) {
-            processedMessages.clear();
+    // Scores the messages with the local model in one batch; false when the model is not
+    // available, in which case the remote API is used
+    private boolean analyzeOnDevice(List<String> messages) {
+        List<ToxicityAnalyzer.Result> results = toxicityAnalyzer.analyzeBatch(messages);
+        if (results == null) {
+            return false;
         }
+        for (int i = 0; i < messages.size(); i++) {
+            String message = messages.get(i);
+            ToxicityAnalyzer.Result result = results.get(i);
+            toxicityCache.put(message, result.isToxic, result.highestLabel, result.highestScore);
+            Log.d(TAG, String.format("On-device Analysis - Message: %s | Highest Label: %s | Score: %.4f | Toxic: %b",
+                message, result.highestLabel, result.highestScore, result.isToxic));
+            if (result.isToxic) {
+                sendToxicityAlert("Toxic Content Detected", String.format("Label: %s (Score: %.2f)\nMessage: %s",
+                    result.highestLabel, result.highestScore, message), result.highestLabel, result.highestScore);
+            }
+        }
+        return true;
     }
 
     private boolean isPackageMonitored(String packageName) {
@@ -278,139 +328,59 @@ public class SocialMediaMonitorService extends AccessibilityService {
         return isMonitored;
     }
 
-    private ToxicityResult performToxicityAnalysis(String message) {
-        int retryCount = 0;
-        while (retryCount < MAX_RETRIES) {
-            HttpURLConnection conn = null;
-            try {
-                // Create URL and connection
-                URL url = new URL(API_URL);
-                conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setRequestProperty("Authorization", "Bearer " + HUGGING_FACE_API_KEY);
-                conn.setRequestProperty("Content-Type", "application/json");
-                conn.setDoOutput(true);
-                conn.setConnectTimeout(5000);
-                conn.setReadTimeout(5000);
-
-                // Sanitize and prepare the message
-                String sanitizedMessage = message.replace("\"", "\\\"")
-                                              .replace("\n", "\\n")
-                                              .replace("\r", "\\r")
-                                              .replace("\t", "\\t");
-                
-                // Prepare JSON payload
-                JSONObject jsonInput = new JSONObject();
-                jsonInput.put("inputs", sanitizedMessage);
-                String payload = jsonInput.toString();
-
-                // Send request
-                try (OutputStream os = conn.getOutputStream()) {
-                    byte[] input = payload.getBytes("utf-8");
-                    os.write(input, 0, input.length);
-                }
-
-                // Check response code
-                int responseCode = conn.getResponseCode();
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    // Read response
-                    StringBuilder response = new StringBuilder();
-                    try (Scanner scanner = new Scanner(conn.getInputStream(), "UTF-8")) {
-                        while (scanner.hasNextLine()) {
-                            response.append(scanner.nextLine());
-                        }
-                    }
-
-                    // Parse response array
-                    JSONArray resultsArray = new JSONArray(response.toString());
-                    JSONArray predictions = resultsArray.getJSONArray(0);
-                    
-                    String highestLabel = "";
-                    double highestScore = 0;
-                    boolean isToxic = false;
-
-                    // Process each prediction in the first array
-                    for (int i = 0; i < predictions.length(); i++) {
-                        JSONObject prediction = predictions.getJSONObject(i);
-                        String label = prediction.getString("label");
-                        double score = prediction.getDouble("score");
-
-                        if (score > highestScore) {
-                            highestScore = score;
-                            highestLabel = label;
-                        }
-
-                        if ((label.equals("toxicity") || 
-                             label.equals("severe_toxicity") || 
-                             label.equals("threat") || 
-                             label.equals("insult")) && 
-                            score > 0.5) {
-                            isToxic = true;
-                        }
-                    }
-
-                    ToxicityResult result = new ToxicityResult(isToxic, highestLabel, highestScore);
-                    
-                    // Send notification if content is toxic
-                    if (isToxic) {
-                        Intent fcmIntent = new Intent(getApplicationContext(), FcmService.class);
-                        fcmIntent.putExtra("title", "Toxic Content Detected");
-                        fcmIntent.putExtra("message", String.format("Label: %s (Score: %.2f)\nMessage: %s", 
-                            highestLabel, highestScore, message));
-                        fcmIntent.putExtra("url", ""); // Optional: Add a URL if needed
-                        startService(fcmIntent);
-                        
+    // Scores the messages through the remote API; messages it cannot score (breaker open,
+    // request failed) get the keyword check instead. Keyword results are not cached, so the
+    // text is scored properly if it comes up again.
+    private void analyzeRemotely(List<String> messages) {
+        toxicityClient.analyze(messages, (chunk, results) -> {
+            for (int i = 0; i < chunk.size(); i++) {
+                String message = chunk.get(i);
+                if (results != null) {
+                    ToxicityAnalyzer.Result result = results.get(i);
+                    toxicityCache.put(message, result.isToxic, result.highestLabel, result.highestScore);
+                    Log.d(TAG, String.format("New Analysis - Message: %s | Highest Label: %s | Score: %.4f | Toxic: %b",
+                        message, result.highestLabel, result.highestScore, result.isToxic));
+                    if (result.isToxic) {
+                        sendToxicityAlert("Toxic Content Detected", String.format("Label: %s (Score: %.2f)\nMessage: %s",
+                            result.highestLabel, result.highestScore, message), result.highestLabel, result.highestScore);
                         Log.w(TAG, "Toxic content detected and notification sent");
                     }
-                    
-                    return result;
-                } else if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
-                    // Service unavailable - retry after delay
-                    retryCount++;
-                    if (retryCount < MAX_RETRIES) {
-                        Log.w(TAG, "Service unavailable, retrying in " + RETRY_DELAY_MS + "ms (Attempt " + retryCount + " of " + MAX_RETRIES + ")");
-                        Thread.sleep(RETRY_DELAY_MS);
-                        continue;
-                    }
-                    Log.e(TAG, "Service still unavailable after " + MAX_RETRIES + " retries");
-                } else {
-                    // Other error codes - log and return
-                    Log.e(TAG, "Server returned HTTP " + responseCode + ": " + conn.getResponseMessage());
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error analyzing toxicity: " + e.getMessage() + 
-                      "\nMessage content: " + message.substring(0, Math.min(message.length(), 100)) +
-                      "\nFull stack trace:", e);
-            } finally {
-                if (conn != null) {
-                    conn.disconnect();
+                } else if (performFallbackToxicityCheck(message)) {
+                    sendToxicityAlert("Toxic Content Detected (Fallback)", "Toxic keyword found in message: " + message, "fallback", 1.0);
+                    Log.w(TAG, "Toxic content detected by fallback check and notification sent");
                 }
             }
-            retryCount++;
-        }
+        });
+    }
 
-        // Fallback to keyword check if API fails
-        boolean isToxic = performFallbackToxicityCheck(message);
-        if (isToxic) {
-            Intent fcmIntent = new Intent(getApplicationContext(), FcmService.class);
-            fcmIntent.putExtra("title", "Toxic Content Detected (Fallback)");
-            fcmIntent.putExtra("message", "Toxic keyword found in message: " + message);
-            fcmIntent.putExtra("url", "");
-            startService(fcmIntent);
-            
-            Log.w(TAG, "Toxic content detected by fallback check and notification sent");
-        }
-        return new ToxicityResult(isToxic, "fallback", isToxic ? 1.0 : 0.0);
+    // Pushes the alert to the parent and records it with the other notifications
+    private void sendToxicityAlert(String title, String body, String label, double score) {
+        // The flagged message should reach the parent with the alert, not after the chat closes
+        conversationBuffer.flushAll();
+
+        Intent fcmIntent = new Intent(getApplicationContext(), FcmService.class);
+        fcmIntent.putExtra("title", title);
+        fcmIntent.putExtra("message", body);
+        fcmIntent.putExtra("url", "");
+        startService(fcmIntent);
+
+        Map<String, Object> notification = new HashMap<>();
+        notification.put("title", title);
+        notification.put("body", body);
+        notification.put("timestamp", System.currentTimeMillis());
+        notification.put("type", "toxicity_alert");
+        notification.put("label", label);
+        notification.put("score", score);
+        notification.put("deviceModel", getDeviceModel());
+        databaseHelper.uploadAlert(getUserId(), getDeviceModel(), notification)
+                .addOnFailureListener(e -> Log.e(TAG, "Failed to log toxicity alert: " + e.getMessage()));
     }
 
     private boolean performFallbackToxicityCheck(String message) {
-        String[] toxicKeywords = {"bad", "hate", "kill", "die", "stupid"};
-        String lowercaseMessage = message.toLowerCase();
-        for (String keyword : toxicKeywords) {
-            if (lowercaseMessage.contains(keyword)) {
-                Log.d(TAG, "Fallback toxicity check - Found toxic keyword: " + keyword);
-                return true;
-            }
+        String keyword = FALLBACK_TOXIC_KEYWORDS.findFirst(message);
+        if (keyword != null) {
+            Log.d(TAG, "Fallback toxicity check - Found toxic keyword: " + keyword);
+            return true;
         }
         return false;
     }
@@ -428,4 +398,17 @@ public class SocialMediaMonitorService extends AccessibilityService {
     public void onInterrupt() {
         Log.d(TAG, "Service interrupted");
     }
+
+    @Override
+    public void onDestroy() {
+        eventQueue.shutdown();
+        conversationBuffer.shutdown();
+        toxicityAnalyzer.close();
+        toxicityClient.shutdown();
+        // Keep what was already seen and scored so the next start does not redo it
+        messageDedup.save();
+        toxicityCache.save();
+        Log.d(TAG, String.format("Service destroyed, message dedup hit rate: %.2f", messageDedup.getHitRate()));
+        super.onDestroy();
+    }
 }
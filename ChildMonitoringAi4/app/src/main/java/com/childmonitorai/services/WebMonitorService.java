@@ -1,6 +1,8 @@
 package com.childmonitorai.services;
 import com.childmonitorai.helpers.FlaggedContents;
 import com.childmonitorai.database.DatabaseHelper;
+import com.childmonitorai.database.TelemetrySink;
+import com.childmonitorai.database.TelemetrySinks;
 import com.childmonitorai.models.WebVisitData;
 
 
@@ -16,12 +18,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
 import com.childmonitorai.helpers.Preferences;
-
-
-import java.util.ArrayList;
+import com.childmonitorai.helpers.MonitorMetrics;
+import com.childmonitorai.helpers.NodeScope;
 
 public class WebMonitorService extends AccessibilityService implements FlaggedContents.FlaggedContentListener {
     private static final String TAG = "WebMonitor";
@@ -33,15 +32,13 @@ public class WebMonitorService extends AccessibilityService implements FlaggedCo
     // Cache to store the visited URLs and their timestamps
     private Map<String, Long> visitedUrlsCache = new HashMap<>();
     private static final long CACHE_EXPIRY_TIME = 5 * 1000; // 5 seconds cache expiry
-    private DatabaseHelper dbHelper;
+    private TelemetrySink dbHelper;
     private Map<String, WebVisitData> activeVisits = new HashMap<>();
     private static final long INACTIVE_THRESHOLD = 30 * 1000; // 30 seconds threshold
     private static final long UPDATE_INTERVAL = 5 * 1000; // Update duration every 5 seconds
     private String currentUrl = null;
     private static final String CHANNEL_ID = "flagged_content_channel";
     private FlaggedContents flaggedContents;
-    private List<String> currentFlaggedKeywords = new ArrayList<>();
-    private List<String> currentFlaggedUrls = new ArrayList<>();
     private Preferences preferences;
 
     private boolean getUserInfo() {
@@ -67,7 +64,8 @@ public class WebMonitorService extends AccessibilityService implements FlaggedCo
             return;
         }
 
-        dbHelper = new DatabaseHelper();
+        DatabaseHelper.initialize(this);
+        dbHelper = TelemetrySinks.get();
         flaggedContents = new FlaggedContents();
         preferences = new Preferences(); // Initialize Preferences
         FlaggedContents.initialize();
@@ -99,6 +97,7 @@ public class WebMonitorService extends AccessibilityService implements FlaggedCo
 
     @Override
     public void onAccessibilityEvent(AccessibilityEvent event) {
+        MonitorMetrics.get(MonitorMetrics.WEB).recordEvent();
         if (userId == null || phoneModel == null) {
             if (!getUserInfo()) {
                 return;
@@ -110,11 +109,15 @@ public class WebMonitorService extends AccessibilityService implements FlaggedCo
 
             String packageName = event.getPackageName().toString();
             if (isBrowserPackage(packageName)) {
-                AccessibilityNodeInfo rootNode = event.getSource();
-                if (rootNode != null) {
-                    String url = extractUrlFromNode(rootNode);
-                    handleUrlVisit(url, packageName);
+                String url;
+                try (NodeScope nodes = new NodeScope(MonitorMetrics.get(MonitorMetrics.WEB))) {
+                    AccessibilityNodeInfo rootNode = nodes.track(event.getSource());
+                    if (rootNode == null) {
+                        return;
+                    }
+                    url = extractUrlFromNode(rootNode, nodes);
                 }
+                handleUrlVisit(url, packageName);
             }
         }
     }
@@ -185,11 +188,6 @@ public class WebMonitorService extends AccessibilityService implements FlaggedCo
         }
     }
 
-    private String getCurrentDate() {
-        java.text.SimpleDateFormat dateFormat = new java.text.SimpleDateFormat("yyyyMMdd");
-        return dateFormat.format(new java.util.Date());
-    }
-
     private void sendNotificationToParent(String flaggedUrl) {
         // Check if blocked website alerts are enabled
         if (!preferences.isBlockedWebsite()) {
@@ -205,18 +203,7 @@ public class WebMonitorService extends AccessibilityService implements FlaggedCo
         fcmIntent.putExtra("userId", userId); 
         startService(fcmIntent);
         
-        // Get current date for organization
-        String currentDate = getCurrentDate();
-        
         // Log the flagged content for record keeping (without notification)
-        DatabaseReference notificationsRef = FirebaseDatabase.getInstance()
-            .getReference("users")
-            .child(userId)
-            .child("phones")
-            .child(phoneModel)
-            .child("notifications")
-            .child(currentDate);  
-
         Map<String, Object> notification = new HashMap<>();
         notification.put("title", "Flagged Content Alert");
         notification.put("body", "Child attempted to visit: " + flaggedUrl);
@@ -225,8 +212,8 @@ public class WebMonitorService extends AccessibilityService implements FlaggedCo
         notification.put("url", flaggedUrl);
         notification.put("deviceModel", phoneModel);
 
-        notificationsRef.push().setValue(notification)
-            .addOnSuccessListener(aVoid -> Log.d(TAG, "Flagged content logged to database for date: " + currentDate))
+        dbHelper.uploadAlert(userId, phoneModel, notification)
+            .addOnSuccessListener(aVoid -> Log.d(TAG, "Flagged content logged to database"))
             .addOnFailureListener(e -> Log.e(TAG, "Failed to log flagged content: " + e.getMessage()));
     }
 
@@ -234,12 +221,13 @@ public class WebMonitorService extends AccessibilityService implements FlaggedCo
         return packageName.contains("chrome") || packageName.contains("browser") || packageName.contains("firefox");
     }
 
-    private String extractUrlFromNode(AccessibilityNodeInfo node) {
+    // Every node found is owned by nodes and recycled when the caller closes it
+    private String extractUrlFromNode(AccessibilityNodeInfo node, NodeScope nodes) {
         if (node == null) {
             return null;
         }
 
-        List<AccessibilityNodeInfo> editTextNodes = node.findAccessibilityNodeInfosByViewId("com.android.chrome:id/url_bar");
+        List<AccessibilityNodeInfo> editTextNodes = nodes.findByViewId(node, "com.android.chrome:id/url_bar");
         if (!editTextNodes.isEmpty()) {
             AccessibilityNodeInfo editTextNode = editTextNodes.get(0);
             CharSequence text = editTextNode.getText();
@@ -249,7 +237,7 @@ public class WebMonitorService extends AccessibilityService implements FlaggedCo
         }
 
         // Check for other potential URL locations (e.g., web view titles)
-        List<AccessibilityNodeInfo> webViews = node.findAccessibilityNodeInfosByViewId("android:id/title");
+        List<AccessibilityNodeInfo> webViews = nodes.findByViewId(node, "android:id/title");
         if (!webViews.isEmpty()) {
             AccessibilityNodeInfo webView = webViews.get(0);
             CharSequence title = webView.getContentDescription();
@@ -293,9 +281,6 @@ public class WebMonitorService extends AccessibilityService implements FlaggedCo
 
     @Override
     public void onFlaggedContentUpdated(List<String> keywords, List<String> urls) {
-        currentFlaggedKeywords = keywords;
-        currentFlaggedUrls = urls;
-        
         // Check current URL against new flagged content
         if (currentUrl != null) {
             if (isFlaggedContent(currentUrl)) {
@@ -306,35 +291,16 @@ public class WebMonitorService extends AccessibilityService implements FlaggedCo
 
     @Override
     public void onFlaggedContentRemoved(String removedItem, String type) {
+        // FlaggedContents has already recompiled its matcher without the item
         Log.d(TAG, "Flagged content removed - " + type + ": " + removedItem);
-        if ("keyword".equals(type)) {
-            currentFlaggedKeywords.remove(removedItem.toLowerCase());
-        } else if ("url".equals(type)) {
-            currentFlaggedUrls.remove(removedItem.toLowerCase());
-        }
     }
 
     private boolean isFlaggedContent(String url) {
-        if (url == null) return false;
-        
-        String lowerUrl = url.toLowerCase();
-        
-        // Check against current keywords
-        for (String keyword : currentFlaggedKeywords) {
-            if (lowerUrl.contains(keyword)) {
-                Log.d(TAG, "Flagged content detected - keyword: " + keyword);
-                return true;
-            }
+        String match = FlaggedContents.getMatcher().findFirst(url);
+        if (match != null) {
+            Log.d(TAG, "Flagged content detected - keyword or URL: " + match);
+            return true;
         }
-        
-        // Check against current URLs
-        for (String flaggedUrl : currentFlaggedUrls) {
-            if (lowerUrl.contains(flaggedUrl)) {
-                Log.d(TAG, "Flagged content detected - URL: " + flaggedUrl);
-                return true;
-            }
-        }
-        
         return false;
     }
 
@@ -0,0 +1,68 @@
+package com.childmonitorai.database;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchUploaderTest {
+    private static final String CONTACT = "uid/phones/model/contacts/42";
+
+    @Test
+    public void laterDeleteReplacesEarlierFieldWrites() {
+        TreeMap<String, Object> updates = new TreeMap<>();
+        BatchUploader.putCollapsed(updates, CONTACT + "/nameAfterModification", "Bob");
+        BatchUploader.putCollapsed(updates, CONTACT + "/phoneNumber", "555");
+        BatchUploader.putCollapsed(updates, "uid/phones/model/contacts/420/phoneNumber", "777");
+        BatchUploader.putCollapsed(updates, CONTACT, null);
+
+        assertEquals(2, updates.size());
+        assertTrue(updates.containsKey(CONTACT));
+        assertNull(updates.get(CONTACT));
+        assertEquals("777", updates.get("uid/phones/model/contacts/420/phoneNumber"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void laterFieldWriteIsMergedIntoEarlierDelete() {
+        TreeMap<String, Object> updates = new TreeMap<>();
+        BatchUploader.putCollapsed(updates, CONTACT, null);
+        BatchUploader.putCollapsed(updates, CONTACT + "/phoneNumber", "555");
+        BatchUploader.putCollapsed(updates, CONTACT + "/meta/source", "sim");
+
+        assertEquals(1, updates.size());
+        Map<String, Object> contact = (Map<String, Object>) updates.get(CONTACT);
+        assertEquals("555", contact.get("phoneNumber"));
+        assertEquals("sim", ((Map<String, Object>) contact.get("meta")).get("source"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void mergeDoesNotModifyTheEarlierValue() {
+        TreeMap<String, Object> updates = new TreeMap<>();
+        Map<String, Object> original = new TreeMap<>();
+        original.put("phoneNumber", "555");
+        BatchUploader.putCollapsed(updates, CONTACT, original);
+        BatchUploader.putCollapsed(updates, CONTACT + "/phoneNumber", null);
+
+        assertEquals("555", original.get("phoneNumber"));
+        assertFalse(((Map<String, Object>) updates.get(CONTACT)).containsKey("phoneNumber"));
+    }
+
+    @Test
+    public void unrelatedPathsAreKeptAsIs() {
+        TreeMap<String, Object> updates = new TreeMap<>();
+        BatchUploader.putCollapsed(updates, "uid/phones/model/sms/2024-01-01/1", "a");
+        BatchUploader.putCollapsed(updates, "uid/phones/model/sms/2024-01-01/10", "b");
+        BatchUploader.putCollapsed(updates, "uid/phones/model/sms/2024-01-01/1", "c");
+
+        assertEquals(2, updates.size());
+        assertEquals("c", updates.get("uid/phones/model/sms/2024-01-01/1"));
+        assertEquals("b", updates.get("uid/phones/model/sms/2024-01-01/10"));
+    }
+}
@@ -0,0 +1,144 @@
+package com.childmonitorai.database;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Archived web, location and clipboard rows are only readable through this format, so
+// everything ArchiveWriter stores has to come back out of it unchanged
+public class ChunkCodecTest {
+
+    private static ChunkCodec.Row row(long timestamp, Object... fields) {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < fields.length; i += 2) {
+            map.put((String) fields[i], fields[i + 1]);
+        }
+        return new ChunkCodec.Row(timestamp, map);
+    }
+
+    // The chunk is stored as base64 text (android.util.Base64 NO_WRAP uses the same alphabet)
+    private static List<ChunkCodec.Row> roundTrip(List<ChunkCodec.Row> rows) throws IOException {
+        String stored = Base64.getEncoder().encodeToString(ChunkCodec.encode(rows));
+        return ChunkCodec.decode(Base64.getDecoder().decode(stored));
+    }
+
+    @Test
+    public void rowsRoundTripWithTheirTypes() throws IOException {
+        List<ChunkCodec.Row> rows = Arrays.asList(
+                row(1710150000000L, "url", "https://example.com/a?q=\u00e9\u4e2d", "title", "Example",
+                        "visits", 3, "incognito", false, "lat", 52.5200066),
+                row(1710150004500L, "url", "https://example.com/b", "title", "", "visits", -7L,
+                        "incognito", true, "lat", -0.5f));
+
+        List<ChunkCodec.Row> decoded = roundTrip(rows);
+
+        assertEquals(2, decoded.size());
+        assertEquals(1710150000000L, decoded.get(0).getTimestamp());
+        assertEquals(1710150004500L, decoded.get(1).getTimestamp());
+        Map<String, Object> first = decoded.get(0).getFields();
+        assertEquals("https://example.com/a?q=\u00e9\u4e2d", first.get("url"));
+        assertEquals(3L, first.get("visits")); // every integer type comes back as a Long
+        assertEquals(false, first.get("incognito"));
+        assertEquals(52.5200066, (Double) first.get("lat"), 0);
+        Map<String, Object> second = decoded.get(1).getFields();
+        assertEquals("", second.get("title"));
+        assertEquals(-7L, second.get("visits"));
+        assertEquals(true, second.get("incognito"));
+        assertEquals(-0.5, (Double) second.get("lat"), 0);
+    }
+
+    // Columns missing from a row and null values both decode as absent fields
+    @Test
+    public void nullsAndMissingColumnsAreLeftOut() throws IOException {
+        List<ChunkCodec.Row> rows = Arrays.asList(
+                row(100, "text", null, "app", "notes"),
+                row(200, "text", "copied"),
+                row(300));
+
+        List<ChunkCodec.Row> decoded = roundTrip(rows);
+
+        assertFalse(decoded.get(0).getFields().containsKey("text"));
+        assertEquals("notes", decoded.get(0).getFields().get("app"));
+        assertEquals("copied", decoded.get(1).getFields().get("text"));
+        assertFalse(decoded.get(1).getFields().containsKey("app"));
+        assertTrue(decoded.get(2).getFields().isEmpty());
+        assertEquals(300, decoded.get(2).getTimestamp());
+    }
+
+    @Test
+    public void outOfOrderAndExtremeTimestampsRoundTrip() throws IOException {
+        long[] timestamps = {1710150000000L, 1710149000000L, 0, -1, 1710150000001L, Long.MAX_VALUE, Long.MIN_VALUE, 5};
+        List<ChunkCodec.Row> rows = new ArrayList<>();
+        for (long timestamp : timestamps) {
+            rows.add(row(timestamp, "t", timestamp));
+        }
+
+        List<ChunkCodec.Row> decoded = roundTrip(rows);
+
+        assertEquals(timestamps.length, decoded.size());
+        for (int i = 0; i < timestamps.length; i++) {
+            assertEquals(timestamps[i], decoded.get(i).getTimestamp());
+            assertEquals(timestamps[i], decoded.get(i).getFields().get("t"));
+        }
+    }
+
+    @Test
+    public void randomRowsRoundTrip() throws IOException {
+        Random random = new Random(11);
+        String[] columns = {"a", "b", "c", "d"};
+        for (int round = 0; round < 200; round++) {
+            List<ChunkCodec.Row> rows = new ArrayList<>();
+            long timestamp = random.nextLong();
+            for (int i = random.nextInt(30); i > 0; i--) {
+                timestamp += random.nextInt(2000001) - 1000000;
+                Map<String, Object> fields = new HashMap<>();
+                for (String column : columns) {
+                    switch (random.nextInt(6)) {
+                        case 0: break; // missing
+                        case 1: fields.put(column, random.nextLong()); break;
+                        case 2: fields.put(column, random.nextDouble() * 360 - 180); break;
+                        case 3: fields.put(column, random.nextBoolean()); break;
+                        case 4: fields.put(column, ""); break;
+                        default: fields.put(column, "v" + random.nextInt(5)); break;
+                    }
+                }
+                rows.add(new ChunkCodec.Row(timestamp, fields));
+            }
+
+            List<ChunkCodec.Row> decoded = roundTrip(rows);
+
+            assertEquals(rows.size(), decoded.size());
+            for (int i = 0; i < rows.size(); i++) {
+                assertEquals(rows.get(i).getTimestamp(), decoded.get(i).getTimestamp());
+                assertEquals(rows.get(i).getFields(), decoded.get(i).getFields());
+            }
+        }
+    }
+
+    @Test
+    public void emptyChunkRoundTrips() throws IOException {
+        assertTrue(roundTrip(new ArrayList<ChunkCodec.Row>()).isEmpty());
+    }
+
+    @Test
+    public void otherDataIsRejected() {
+        try {
+            ChunkCodec.decode(new byte[]{1, 2, 3, 4});
+            fail("decoded garbage");
+        } catch (IOException expected) {
+            // not gzip
+        }
+    }
+}
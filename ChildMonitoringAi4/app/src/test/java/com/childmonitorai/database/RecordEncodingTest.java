@@ -0,0 +1,185 @@
+package com.childmonitorai.database;
+
+import com.childmonitorai.models.CallData;
+import com.childmonitorai.models.RecordSerializer;
+import com.childmonitorai.models.RecordSerializers;
+import com.childmonitorai.models.RecordSerializersTest;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RecordEncodingTest {
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 50000;
+
+    @Test
+    public void streamedOutboxRowsDecodeToTheSerializedMap() throws Exception {
+        assertRoundTrip(RecordSerializersTest.call(), RecordSerializers.CALL);
+        assertRoundTrip(RecordSerializersTest.sms(), RecordSerializers.SMS);
+        assertRoundTrip(RecordSerializersTest.mms(), RecordSerializers.MMS);
+        assertRoundTrip(RecordSerializersTest.message(), RecordSerializers.MESSAGE);
+        assertRoundTrip(RecordSerializersTest.webVisit(), RecordSerializers.WEB_VISIT);
+        assertRoundTrip(RecordSerializersTest.clipboard(), RecordSerializers.CLIPBOARD);
+        assertRoundTrip(RecordSerializersTest.session(), RecordSerializers.SESSION);
+        assertRoundTrip(RecordSerializersTest.appUsage(), RecordSerializers.APP_USAGE);
+        assertRoundTrip(RecordSerializersTest.contact(), RecordSerializers.CONTACT);
+    }
+
+    @Test
+    public void quotesAndNullsSurviveTheRoundTrip() throws Exception {
+        CallData call = new CallData("\"555\"\n\\", null, 0, "2024-03-11");
+        assertRoundTrip(call, RecordSerializers.CALL);
+    }
+
+    // Bytes allocated per call record by the old map-based outbox row and the streamed one.
+    // Allocation counts, unlike timings, do not depend on machine load.
+    @Test
+    public void streamedOutboxRowsAllocateLessThanTheMapPath() {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        Assume.assumeTrue(threads != null);
+        CallData call = RecordSerializersTest.call();
+
+        long mapOutbox = measure(threads, () -> UploadOutbox.encode(baselineMap(call)));
+        long streamedOutbox = measure(threads, () -> UploadOutbox.encode(call, RecordSerializers.CALL));
+
+        assertTrue("map " + mapOutbox + " bytes, streamed " + streamedOutbox, streamedOutbox < mapOutbox);
+    }
+
+    // Every Number is written unquoted, exactly as JSONObject.wrap() writes it for the map path
+    @Test
+    public void numbersAreWrittenAsTheMapPathWritesThem() throws Exception {
+        Map<String, Object> fields = new TreeMap<>();
+        fields.put("double", 1.5d);
+        fields.put("whole_double", 5.0d);
+        fields.put("large_double", 1e20d);
+        fields.put("float", 2.25f);
+        fields.put("short", (short) 7);
+        fields.put("byte", (byte) 3);
+        fields.put("long", Long.MAX_VALUE);
+        RecordSerializer<Map<String, Object>> serializer = (record, writer) -> {
+            for (Map.Entry<String, Object> field : record.entrySet()) {
+                writer.write(field.getKey(), field.getValue());
+            }
+        };
+
+        String streamed = UploadOutbox.encode(fields, serializer);
+
+        Map<?, ?> decoded = (Map<?, ?>) UploadOutbox.decode(streamed);
+        assertEquals(UploadOutbox.decode(UploadOutbox.encode(fields)), decoded);
+        for (String field : fields.keySet()) {
+            assertTrue(field, decoded.get(field) instanceof Number);
+        }
+        assertEquals(1.5, ((Number) decoded.get("double")).doubleValue(), 0);
+        assertEquals(Long.MAX_VALUE, ((Number) decoded.get("long")).longValue());
+    }
+
+    // JSON has no NaN or Infinity; the record is refused instead of written as a string
+    @Test
+    public void nonFiniteNumbersAreRejected() {
+        RecordSerializer<Double> serializer = (value, writer) -> {
+            writer.write("name", "x");
+            writer.write("score", value);
+        };
+
+        assertNull(UploadOutbox.encode(Double.NaN, serializer));
+        assertNull(UploadOutbox.encode(Float.POSITIVE_INFINITY, (value, writer) -> writer.write("score", value)));
+        assertNotNull(UploadOutbox.encode(0.5, serializer));
+    }
+
+    @Test
+    public void payloadWriterMatchesCollapsedWrites() {
+        String path = "uid/phones/Pixel/calls/2024-03-11/call1";
+        CallData first = RecordSerializersTest.call();
+        CallData second = new CallData("555-0199", "MISSED", 0, "2024-03-11");
+
+        TreeMap<String, Object> direct = new TreeMap<>();
+        BatchUploader.PayloadWriter payload = new BatchUploader.PayloadWriter(direct);
+        direct.put("uid/phones/Pixel/calls/2024-03-11/call0/number", "555");
+        payload.begin(path);
+        RecordSerializers.CALL.serialize(first, payload);
+        // The same record again overlaps the first one and is collapsed field by field
+        payload.begin(path);
+        RecordSerializers.CALL.serialize(second, payload);
+
+        TreeMap<String, Object> collapsed = new TreeMap<>();
+        collapsed.put("uid/phones/Pixel/calls/2024-03-11/call0/number", "555");
+        for (CallData call : new CallData[]{first, second}) {
+            RecordSerializers.CALL.serialize(call, (field, value) -> BatchUploader.putCollapsed(collapsed, path + "/" + field, value));
+        }
+        assertEquals(collapsed, direct);
+        assertEquals("MISSED", direct.get(path + "/type"));
+    }
+
+    private static <T> void assertRoundTrip(T record, RecordSerializer<T> serializer) throws Exception {
+        Map<String, Object> expected = RecordSerializers.toMap(record, serializer);
+        assertEquals(normalize(expected, false), UploadOutbox.decode(UploadOutbox.encode(record, serializer)));
+        // Same row as the generic encoder wrote for the hand-built maps, which left out nulls
+        assertEquals(UploadOutbox.decode(UploadOutbox.encode(expected)),
+                normalize(UploadOutbox.decode(UploadOutbox.encode(record, serializer)), true));
+    }
+
+    // org.json hands back Integer for longs that fit
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> normalize(Object map, boolean dropNulls) {
+        Map<String, Object> normalized = new HashMap<>();
+        for (Map.Entry<String, Object> entry : ((Map<String, Object>) map).entrySet()) {
+            Object value = entry.getValue();
+            if (value == null && dropNulls) {
+                continue;
+            }
+            if (value instanceof Long && (Long) value == ((Long) value).intValue()) {
+                value = ((Long) value).intValue();
+            }
+            normalized.put(entry.getKey(), value);
+        }
+        return normalized;
+    }
+
+    // The map DatabaseHelper built for every call before the serializers
+    private static Map<String, Object> baselineMap(CallData call) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("date", call.getDate());
+        map.put("duration", call.getCallDuration());
+        map.put("number", call.getPhoneNumber());
+        map.put("type", call.getCallType());
+        map.put("timestamp", call.getTimestamp());
+        map.put("contactName", call.getContactName());
+        return map;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+                ((com.sun.management.ThreadMXBean) bean).setThreadAllocatedMemoryEnabled(true);
+                return (com.sun.management.ThreadMXBean) bean;
+            }
+        } catch (LinkageError | UnsupportedOperationException e) {
+            // Not a HotSpot-style JVM
+        }
+        return null;
+    }
+
+    private static long measure(com.sun.management.ThreadMXBean threads, Runnable body) {
+        for (int i = 0; i < WARMUP; i++) {
+            body.run();
+        }
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ITERATIONS; i++) {
+            body.run();
+        }
+        return (threads.getThreadAllocatedBytes(thread) - before) / ITERATIONS;
+    }
+}
@@ -0,0 +1,118 @@
+package com.childmonitorai.database;
+
+import com.childmonitorai.models.CallData;
+import com.childmonitorai.models.ContactData;
+import com.childmonitorai.models.MessageData;
+import com.childmonitorai.models.SMSData;
+import com.google.android.gms.tasks.Task;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingTelemetrySinkTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsUseDatabaseHelperPathsAndSerializedFields() {
+        RecordingTelemetrySink sink = new RecordingTelemetrySink();
+        CallData call = new CallData("555-0100", "INCOMING", 42, "2024-03-11");
+        call.setTimestamp(1710150000000L);
+
+        Task<Void> accepted = sink.uploadCallDataByDate("uid", "Pixel", call, "call1", "2024-03-11");
+
+        assertTrue(accepted.isSuccessful());
+        List<RecordingTelemetrySink.Record> records = sink.getRecords("calls");
+        assertEquals(1, records.size());
+        RecordingTelemetrySink.Record record = records.get(0);
+        assertEquals(DatabaseHelper.getPhoneDataPath("uid", "Pixel", "calls", "call1", "2024-03-11"), record.getPath());
+        assertEquals("uid/phones/Pixel/calls/2024-03-11/call1", record.getPath());
+
+        Map<?, ?> value = (Map<?, ?>) record.getValue();
+        assertEquals("555-0100", value.get("number"));
+        assertEquals("INCOMING", value.get("type"));
+        assertEquals(42L, value.get("duration"));
+        assertEquals(1710150000000L, value.get("timestamp"));
+    }
+
+    @Test
+    public void contactDeltaRecordsChangesAndDeletes() {
+        RecordingTelemetrySink sink = new RecordingTelemetrySink();
+        Map<String, ContactData> changed = new LinkedHashMap<>();
+        changed.put("7", new ContactData("Ann", "555", 1L, 2L, null));
+
+        assertTrue(sink.uploadContactDelta("uid", "Pixel", changed, Collections.singletonList("9")).isSuccessful());
+
+        List<RecordingTelemetrySink.Record> records = sink.getRecords("contacts");
+        assertEquals(2, records.size());
+        assertEquals("uid/phones/Pixel/contacts/7", records.get(0).getPath());
+        assertEquals("Ann", ((Map<?, ?>) records.get(0).getValue()).get("name"));
+        assertEquals("uid/phones/Pixel/contacts/9", records.get(1).getPath());
+        assertNull(records.get(1).getValue());
+    }
+
+    @Test
+    public void socialBatchesAreRecordedPerMessageWithPlatform() {
+        RecordingTelemetrySink sink = new RecordingTelemetrySink();
+        Map<String, MessageData> messages = new LinkedHashMap<>();
+        messages.put("m1", new MessageData("Ann", "me", "hi", "10:00", "incoming", null));
+        messages.put("m2", new MessageData("me", "Ann", "hello", "10:01", "outgoing", null));
+
+        sink.uploadSocialMessages("uid", "Pixel", "WhatsApp", "2024-03-11", messages);
+
+        List<RecordingTelemetrySink.Record> records = sink.getRecords("social_media_messages");
+        assertEquals(2, records.size());
+        assertEquals("uid/phones/Pixel/social_media_messages/2024-03-11/WhatsApp/m2", records.get(1).getPath());
+        assertEquals("WhatsApp", ((Map<?, ?>) records.get(1).getValue()).get("platform"));
+        assertEquals(2, sink.getStats("social_media_messages").getCount());
+    }
+
+    @Test
+    public void oldRecordsAreDroppedButStatsKeepCounting() {
+        RecordingTelemetrySink sink = new RecordingTelemetrySink(3);
+        for (int i = 0; i < 5; i++) {
+            sink.uploadSMSDataByDate("uid", "Pixel", new SMSData("inbox", "555", "body" + i, "2024-03-11"), "sms" + i, "2024-03-11");
+        }
+
+        List<RecordingTelemetrySink.Record> records = sink.getRecords();
+        assertEquals(3, records.size());
+        assertEquals("uid/phones/Pixel/sms/2024-03-11/sms2", records.get(0).getPath());
+        RecordingTelemetrySink.Stats stats = sink.getStats("sms");
+        assertEquals(5, stats.getCount());
+        assertTrue(stats.getMaxNanos() >= stats.getAverageNanos());
+
+        sink.reset();
+        assertTrue(sink.getRecords().isEmpty());
+        assertEquals(0, sink.getStats("sms").getCount());
+    }
+
+    @Test
+    public void recordsAreAppendedToTheFile() throws Exception {
+        File file = folder.newFile("records.tsv");
+        RecordingTelemetrySink sink = new RecordingTelemetrySink(10, file);
+        sink.uploadSMSDataByDate("uid", "Pixel", new SMSData("inbox", "555", "hello", "2024-03-11"), "sms1", "2024-03-11");
+        sink.uploadAlert("uid", "Pixel", Collections.<String, Object>singletonMap("title", "alert"));
+        sink.close();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        String[] columns = lines.get(0).split("\t");
+        assertEquals("sms", columns[1]);
+        assertEquals("uid/phones/Pixel/sms/2024-03-11/sms1", columns[2]);
+        assertTrue(columns[3].contains("body=hello"));
+        assertTrue(lines.get(1).split("\t")[2].startsWith("uid/phones/Pixel/notifications/"));
+    }
+}
@@ -0,0 +1,167 @@
+package com.childmonitorai.database;
+
+import android.content.Context;
+
+import com.childmonitorai.TestContext;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UploadIndexTest {
+    private static final String CREATED = "2024-03-10";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        context = new TestContext(folder.newFolder("files"));
+        context.getSharedPreferences("UploadIndexPrefs", Context.MODE_PRIVATE)
+                .edit().putString("createdDate", CREATED).apply();
+    }
+
+    private UploadIndex newIndex() {
+        UploadIndex index = new UploadIndex();
+        index.initialize(context);
+        return index;
+    }
+
+    private static final UploadIndex.RemoteIds NO_REMOTE = listener -> fail("Unexpected remote read");
+
+    @Test
+    public void markUploadedReportsDuplicatesAcrossRestarts() {
+        UploadIndex index = newIndex();
+        assertTrue(index.markUploaded("sms", "2024-03-11", "a"));
+        assertFalse(index.markUploaded("sms", "2024-03-11", "a"));
+        assertTrue(index.markUploaded("sms", "2024-03-12", "a"));
+
+        UploadIndex restarted = newIndex();
+        assertFalse(restarted.markUploaded("sms", "2024-03-11", "a"));
+        assertTrue(restarted.markUploaded("calls", "2024-03-11", "a"));
+    }
+
+    @Test
+    public void forgottenIdsAreNewAgainAfterRestart() {
+        UploadIndex index = newIndex();
+        index.markUploaded("sms", "2024-03-11", "a");
+        index.forget("sms", "2024-03-11", "a");
+        assertTrue(newIndex().markUploaded("sms", "2024-03-11", "a"));
+    }
+
+    @Test
+    public void daysAfterCreationAreReadyWithoutRemoteRead() {
+        UploadIndex index = newIndex();
+        boolean[] ran = new boolean[1];
+        index.whenReady("sms", "2024-03-11", NO_REMOTE, () -> ran[0] = true);
+        assertTrue(ran[0]);
+    }
+
+    @Test
+    public void olderDaysAreRebuiltOnceFromRemote() {
+        UploadIndex index = newIndex();
+        List<UploadIndex.IdsListener> fetches = new ArrayList<>();
+        List<String> ran = new ArrayList<>();
+        index.whenReady("sms", CREATED, fetches::add, () -> ran.add("first"));
+        index.whenReady("sms", CREATED, fetches::add, () -> ran.add("second"));
+
+        // Both callers wait for the single remote read
+        assertEquals(1, fetches.size());
+        assertTrue(ran.isEmpty());
+
+        fetches.get(0).onIds(Arrays.asList("remote1", "remote2"));
+        assertEquals(Arrays.asList("first", "second"), ran);
+        assertFalse(index.markUploaded("sms", CREATED, "remote1"));
+        assertTrue(index.markUploaded("sms", CREATED, "local"));
+
+        // The rebuilt day is known locally from now on
+        UploadIndex restarted = newIndex();
+        restarted.whenReady("sms", CREATED, NO_REMOTE, () -> ran.add("third"));
+        assertEquals("third", ran.get(2));
+        assertFalse(restarted.markUploaded("sms", CREATED, "remote2"));
+    }
+
+    @Test
+    public void failedRebuildTreatsTheDayAsEmpty() {
+        UploadIndex index = newIndex();
+        List<String> ran = new ArrayList<>();
+        index.whenReady("sms", "2024-03-01", listener -> listener.onIds(null), () -> ran.add("ready"));
+        assertEquals(1, ran.size());
+        assertTrue(index.markUploaded("sms", "2024-03-01", "a"));
+    }
+
+    @Test
+    public void timestampKeysShareADaySegmentAndAreNeverRebuilt() {
+        UploadIndex index = newIndex();
+        // Seconds and milliseconds, both before the index was created
+        long seconds = 1709900000L;
+        String[] keys = {String.valueOf(seconds), String.valueOf(seconds + 60), String.valueOf((seconds + 120) * 1000)};
+        for (int i = 0; i < keys.length; i++) {
+            boolean[] ran = new boolean[1];
+            index.whenReady("mms", keys[i], NO_REMOTE, () -> ran[0] = true);
+            assertTrue(ran[0]);
+            assertTrue(index.markUploaded("mms", keys[i], "mms" + i));
+        }
+        assertFalse(index.markUploaded("mms", keys[2], "mms0"));
+
+        File[] files = new File(context.getFilesDir(), "upload_index").listFiles();
+        assertEquals(1, files.length);
+    }
+
+    @Test
+    public void bloomAndExactSetAgreeOnceSetsAreTrimmed() {
+        UploadIndex index = newIndex();
+        Random random = new Random(7);
+        List<String> days = new ArrayList<>();
+        for (int day = 11; day <= 31; day++) {
+            days.add("2024-03-" + day);
+        }
+        // More days than keep their exact set in memory
+        List<Set<String>> expected = new ArrayList<>();
+        for (String day : days) {
+            Set<String> ids = new HashSet<>();
+            for (int i = 0; i < 300; i++) {
+                String id = Long.toHexString(random.nextLong());
+                ids.add(id);
+                assertTrue(index.markUploaded("sms", day, id));
+            }
+            expected.add(ids);
+        }
+
+        for (int d = 0; d < days.size(); d++) {
+            for (String id : expected.get(d)) {
+                assertTrue(index.contains("sms", days.get(d), id));
+            }
+            for (int i = 0; i < 300; i++) {
+                String id = Long.toHexString(random.nextLong());
+                assertEquals(expected.get(d).contains(id), index.contains("sms", days.get(d), id));
+                // A new ID on a trimmed segment is recorded without reading the set back
+                assertTrue(index.markUploaded("sms", days.get(d), id));
+                expected.get(d).add(id);
+            }
+        }
+
+        UploadIndex restarted = newIndex();
+        for (int d = 0; d < days.size(); d++) {
+            for (String id : expected.get(d)) {
+                assertFalse(restarted.markUploaded("sms", days.get(d), id));
+            }
+        }
+    }
+}
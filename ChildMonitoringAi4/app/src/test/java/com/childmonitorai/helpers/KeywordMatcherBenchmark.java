@@ -0,0 +1,65 @@
+package com.childmonitorai.helpers;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.logging.Logger;
+
+// Times KeywordMatcher against the contains loop it replaced, with 10k keywords and
+// chat-sized texts. Wall-clock numbers depend on the machine, so this is not part of the
+// unit suite and asserts nothing about them; remove @Ignore to run it locally.
+@Ignore("Benchmark, run by hand")
+public class KeywordMatcherBenchmark {
+    private static final Logger LOG = Logger.getLogger("KeywordMatcherBenchmark");
+
+    @Test
+    public void tenThousandKeywords() {
+        Random random = new Random(7);
+        List<String> keywords = KeywordMatcherTest.randomKeywords(random, 10000);
+        List<String> texts = KeywordMatcherTest.chatTexts(random, keywords, 200);
+
+        long compileStart = System.nanoTime();
+        KeywordMatcher matcher = KeywordMatcher.compile(keywords);
+        long compileNs = System.nanoTime() - compileStart;
+
+        // Warm up both, then time them over the same texts
+        timeLoop(keywords, texts, 2);
+        timeMatcher(matcher, texts, 200);
+        long loopNs = timeLoop(keywords, texts, 3);
+        long matcherNs = timeMatcher(matcher, texts, 300);
+
+        LOG.info(String.format(Locale.US, "%d keywords: compile %d ms, %.1f us per lookup, contains loop %.1f us",
+                keywords.size(), compileNs / 1000000, matcherNs / 1000.0, loopNs / 1000.0));
+    }
+
+    // Mean nanoseconds per text
+    private static long timeLoop(List<String> keywords, List<String> texts, int rounds) {
+        int hits = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (String text : texts) {
+                if (KeywordMatcherTest.containsLoop(keywords, text)) hits++;
+            }
+        }
+        return consume(hits, System.nanoTime() - start) / ((long) rounds * texts.size());
+    }
+
+    private static long timeMatcher(KeywordMatcher matcher, List<String> texts, int rounds) {
+        int hits = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (String text : texts) {
+                if (matcher.matches(text)) hits++;
+            }
+        }
+        return consume(hits, System.nanoTime() - start) / ((long) rounds * texts.size());
+    }
+
+    // Uses the hit count so the JIT cannot drop the loops
+    private static long consume(int hits, long elapsedNs) {
+        return hits < 0 ? 0 : elapsedNs;
+    }
+}
@@ -0,0 +1,143 @@
+package com.childmonitorai.helpers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KeywordMatcherTest {
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+    // What KeywordMatcher replaced: contains() on lowercased copies, one keyword at a time
+    static boolean containsLoop(List<String> keywords, String text) {
+        String lowerText = text.toLowerCase();
+        for (String keyword : keywords) {
+            if (!keyword.isEmpty() && lowerText.contains(keyword.toLowerCase())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void emptyMatcherMatchesNothing() {
+        assertNull(KeywordMatcher.EMPTY.findFirst("anything"));
+        assertNull(KeywordMatcher.EMPTY.findFirst(""));
+        assertEquals(0, KeywordMatcher.compile(Arrays.asList("", null)).size());
+        assertFalse(KeywordMatcher.compile(Arrays.asList("", null)).matches("anything"));
+        assertFalse(KeywordMatcher.compile(Collections.singletonList("word")).matches(null));
+    }
+
+    @Test
+    public void overlappingKeywordsReportTheOneThatEndsFirst() {
+        KeywordMatcher matcher = KeywordMatcher.compile(Arrays.asList("he", "she", "hers"));
+
+        assertEquals("she", matcher.findFirst("ushers")); // "he" ends there too, as a suffix
+        assertEquals("he", matcher.findFirst("hers"));
+        assertEquals("he", matcher.findFirst("ahe"));
+        assertNull(matcher.findFirst("hsh"));
+    }
+
+    @Test
+    public void matchAtTheEndOfTheText() {
+        KeywordMatcher matcher = KeywordMatcher.compile(Arrays.asList("hers", "xyz"));
+
+        assertEquals("hers", matcher.findFirst("it is hers"));
+        assertNull(matcher.findFirst("it is her"));
+    }
+
+    @Test
+    public void failureLinksResumeInsideAPartialMatch() {
+        KeywordMatcher matcher = KeywordMatcher.compile(Arrays.asList("abcd", "bce"));
+
+        assertEquals("bce", matcher.findFirst("abce"));
+        assertEquals("abcd", matcher.findFirst("aabcd"));
+    }
+
+    @Test
+    public void caseIsFoldedAndKeywordsAreReportedAsGiven() {
+        KeywordMatcher matcher = KeywordMatcher.compile(Arrays.asList("Drugs", "drugs", "SeLf HaRm"));
+
+        assertEquals(2, matcher.size());
+        assertEquals("Drugs", matcher.findFirst("DRUGS for sale"));
+        assertEquals("SeLf HaRm", matcher.findFirst("talking about self harm"));
+    }
+
+    // A small alphabet with both cases, so random keywords overlap and often match
+    @Test
+    public void agreesWithTheContainsLoop() {
+        Random random = new Random(42);
+        String alphabet = "abcABC \u00e9\u00c9";
+        for (int round = 0; round < 2000; round++) {
+            List<String> keywords = new ArrayList<>();
+            int count = random.nextInt(12);
+            for (int i = 0; i < count; i++) {
+                keywords.add(randomText(random, alphabet, random.nextInt(5)));
+            }
+            String text = randomText(random, alphabet, random.nextInt(40));
+
+            KeywordMatcher matcher = KeywordMatcher.compile(keywords);
+            String found = matcher.findFirst(text);
+
+            assertEquals(keywords + " in \"" + text + "\"", containsLoop(keywords, text), found != null);
+            if (found != null) {
+                assertTrue(text.toLowerCase().contains(found.toLowerCase()));
+            }
+        }
+    }
+
+    // The size the flagged keyword list is expected to reach; timed in KeywordMatcherBenchmark
+    @Test
+    public void tenThousandKeywordsAgreeWithTheContainsLoop() {
+        Random random = new Random(7);
+        List<String> keywords = randomKeywords(random, 10000);
+        List<String> texts = chatTexts(random, keywords, 200);
+
+        KeywordMatcher matcher = KeywordMatcher.compile(keywords);
+
+        int matched = 0;
+        for (String text : texts) {
+            boolean expected = containsLoop(keywords, text);
+            assertEquals(text, expected, matcher.matches(text));
+            if (expected) matched++;
+        }
+        assertTrue(matched >= 20);
+    }
+
+    static List<String> randomKeywords(Random random, int count) {
+        List<String> keywords = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keywords.add(randomText(random, LETTERS, 5 + random.nextInt(8)));
+        }
+        return keywords;
+    }
+
+    // 200-char texts of words; every tenth has one of the keywords in it, upper-cased
+    static List<String> chatTexts(Random random, List<String> keywords, int count) {
+        List<String> texts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder text = new StringBuilder(randomText(random, LETTERS + "      ", 200));
+            if (i % 10 == 0) {
+                text.insert(random.nextInt(text.length()), keywords.get(random.nextInt(keywords.size())).toUpperCase());
+            }
+            texts.add(text.toString());
+        }
+        return texts;
+    }
+
+    static String randomText(Random random, String alphabet, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,138 @@
+package com.childmonitorai.helpers;
+
+import com.childmonitorai.TestContext;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ToxicityCacheTest {
+    private static final int MAX_ENTRIES = 2000; // ToxicityCache.MAX_ENTRIES
+    private static final int WINDOW_ENTRIES = 20; // ToxicityCache.WINDOW_ENTRIES
+    private static final long DAY_MS = 24 * 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        context = new TestContext(folder.newFolder("files"));
+    }
+
+    private ToxicityCache newCache(long ttlMs) {
+        ToxicityCache cache = new ToxicityCache(ttlMs);
+        cache.initialize(context);
+        return cache;
+    }
+
+    // MessageFingerprint.ofText only hashes, so this runs without android.util.Base64
+    @Test
+    public void equivalentTextsShareAnEntry() {
+        ToxicityCache cache = new ToxicityCache(DAY_MS);
+        cache.put("caf\u00e9  au lait", true, "insult", 0.8);
+
+        ToxicityCache.Result result = cache.get(" cafe\u0301 au\tlait\n"); // decomposed
+
+        assertNotNull(result);
+        assertTrue(result.isToxic);
+        assertEquals("insult", result.highestLabel);
+        assertNull(cache.get("cafe au lait"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void expiredResultsAreDropped() throws Exception {
+        ToxicityCache cache = new ToxicityCache(50);
+        cache.put("hello", false, "toxicity", 0.1);
+        assertNotNull(cache.get("hello"));
+
+        Thread.sleep(100);
+
+        assertNull(cache.get("hello"));
+        assertEquals(0, cache.size());
+    }
+
+    // A text looked up before it was scored is kept over the main area's least recently used
+    // entry; texts seen once never displace anything
+    @Test
+    public void onlyFrequentTextsAreAdmittedWhenFull() {
+        ToxicityCache cache = new ToxicityCache(DAY_MS);
+        for (int i = 0; i < MAX_ENTRIES; i++) {
+            cache.put("text " + i, false, "toxicity", 0.1);
+        }
+        assertEquals(MAX_ENTRIES, cache.size());
+
+        for (int i = 0; i < 3; i++) {
+            assertNull(cache.get("you idiot"));
+        }
+        cache.put("you idiot", true, "insult", 0.9);
+        for (int i = 0; i < 2 * WINDOW_ENTRIES; i++) {
+            cache.put("once " + i, false, "toxicity", 0.1);
+        }
+
+        assertEquals(MAX_ENTRIES, cache.size());
+        assertNotNull(cache.get("you idiot"));
+        assertNull(cache.get("text 0")); // the victim
+        assertNotNull(cache.get("text 1"));
+        assertNotNull(cache.get("text " + (MAX_ENTRIES - WINDOW_ENTRIES - 1))); // last one in the main area
+        assertNull(cache.get("text " + (MAX_ENTRIES - WINDOW_ENTRIES))); // was still in the window
+        assertNull(cache.get("once 0"));
+        assertNotNull(cache.get("once " + (2 * WINDOW_ENTRIES - 1)));
+    }
+
+    @Test
+    public void resultsSurviveARestart() {
+        ToxicityCache cache = newCache(DAY_MS);
+        cache.put("you idiot", true, "insult", 0.9);
+        cache.put("hello", false, "toxicity", 0.05);
+        cache.save();
+
+        ToxicityCache restarted = newCache(DAY_MS);
+
+        assertEquals(2, restarted.size());
+        ToxicityCache.Result result = restarted.get("you idiot");
+        assertNotNull(result);
+        assertTrue(result.isToxic);
+        assertEquals("insult", result.highestLabel);
+        assertEquals(0.9, result.highestScore, 0);
+        assertEquals(cache.get("you idiot").scoredAt, result.scoredAt);
+        assertFalse(restarted.get("hello").isToxic);
+    }
+
+    @Test
+    public void expiredResultsAreNotRestored() throws Exception {
+        ToxicityCache cache = newCache(50);
+        cache.put("hello", false, "toxicity", 0.05);
+        cache.save();
+
+        Thread.sleep(100);
+
+        assertEquals(0, newCache(50).size());
+    }
+
+    @Test
+    public void unreadableFileStartsEmpty() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(new File(context.getFilesDir(), "toxicity_cache.bin"))) {
+            out.write(new byte[]{0, 0, 0, 1, 0, 0, 0, 5, 1, 2}); // version 1, 5 entries, then cut off
+        }
+
+        ToxicityCache cache = newCache(DAY_MS);
+
+        assertEquals(0, cache.size());
+        cache.put("hello", false, "toxicity", 0.05);
+        cache.save();
+        assertNotNull(newCache(DAY_MS).get("hello"));
+    }
+}
@@ -0,0 +1,216 @@
+package com.childmonitorai.ml;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Drives ToxicityClient's retries and circuit breaker against a local HTTP stub. The breaker
+// opens after 3 consecutive 503s and, in these tests, stays open for OPEN_MS.
+public class ToxicityClientTest {
+    private static final long RETRY_MS = 10;
+    private static final long OPEN_MS = 300;
+    private static final String SCORES = "[[{\"label\":\"toxicity\",\"score\":0.9},{\"label\":\"insult\",\"score\":0.2}],"
+            + "[{\"label\":\"toxicity\",\"score\":0.1}]]";
+
+    private HttpServer server;
+    private ToxicityClient client;
+    private final Deque<Integer> statuses = new ArrayDeque<>(); // scripted; empty means 200
+    private final AtomicInteger requests = new AtomicInteger();
+    private final LinkedBlockingQueue<String> bodies = new LinkedBlockingQueue<>();
+    private volatile CountDownLatch hold; // when set, requests wait for it before answering
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::respond);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        client = new ToxicityClient("http://127.0.0.1:" + server.getAddress().getPort() + "/model", "key",
+                RETRY_MS, OPEN_MS);
+    }
+
+    @After
+    public void tearDown() {
+        client.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void scoresArePairedWithTheirMessages() throws Exception {
+        List<ToxicityAnalyzer.Result> results = analyze("you idiot", "hello");
+
+        assertNotNull(results);
+        assertTrue(results.get(0).isToxic);
+        assertEquals("toxicity", results.get(0).highestLabel);
+        assertEquals(0.9, results.get(0).highestScore, 1e-6);
+        assertFalse(results.get(1).isToxic);
+        JSONObject request = new JSONObject(bodies.take());
+        assertEquals("you idiot", request.getJSONArray("inputs").getString(0));
+        assertEquals(2, request.getJSONArray("inputs").length());
+    }
+
+    @Test
+    public void unavailableIsRetried() throws Exception {
+        script(503, 503);
+
+        assertNotNull(analyze("you idiot", "hello"));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void breakerOpensAfterThreeFailuresAndFailsFast() throws Exception {
+        script(503, 503, 503);
+        assertNull(analyze("you idiot", "hello"));
+        assertEquals(3, requests.get());
+
+        // Open: nothing reaches the server, even though it would answer now
+        assertNull(analyze("you idiot", "hello"));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void successfulTrialClosesTheBreaker() throws Exception {
+        openBreaker();
+        Thread.sleep(OPEN_MS + 50);
+
+        assertNotNull(analyze("you idiot", "hello"));
+        assertEquals(4, requests.get());
+        // Closed again: the next request goes straight through
+        assertNotNull(analyze("you idiot", "hello"));
+        assertEquals(5, requests.get());
+    }
+
+    @Test
+    public void failedTrialReopensWithoutRetrying() throws Exception {
+        openBreaker();
+        Thread.sleep(OPEN_MS + 50);
+
+        script(503);
+        assertNull(analyze("you idiot", "hello"));
+        assertEquals(4, requests.get());
+        assertNull(analyze("you idiot", "hello"));
+        assertEquals(4, requests.get());
+    }
+
+    @Test
+    public void onlyOneTrialAtATime() throws Exception {
+        openBreaker();
+        Thread.sleep(OPEN_MS + 50);
+
+        hold = new CountDownLatch(1);
+        LinkedBlockingQueue<List<ToxicityAnalyzer.Result>> trial = new LinkedBlockingQueue<>();
+        client.analyze(Arrays.asList("you idiot", "hello"), (messages, results) -> trial.add(wrap(results)));
+        waitForRequests(4);
+
+        // The trial is still waiting for its response
+        assertNull(analyze("you idiot", "hello"));
+        hold.countDown();
+        assertNotNull(trial.poll(5, TimeUnit.SECONDS).get(0));
+        assertEquals(4, requests.get());
+    }
+
+    @Test
+    public void otherErrorsDoNotOpenTheBreaker() throws Exception {
+        script(500, 500, 500);
+        for (int i = 0; i < 3; i++) {
+            assertNull(analyze("you idiot", "hello"));
+        }
+
+        assertNotNull(analyze("you idiot", "hello"));
+        assertEquals(4, requests.get());
+    }
+
+    private void openBreaker() throws Exception {
+        script(503, 503, 503);
+        assertNull(analyze("you idiot", "hello"));
+        assertEquals(3, requests.get());
+    }
+
+    private void script(Integer... codes) {
+        synchronized (statuses) {
+            statuses.addAll(Arrays.asList(codes));
+        }
+    }
+
+    // Results of one chunk, waiting for the callback
+    private List<ToxicityAnalyzer.Result> analyze(String... messages) throws InterruptedException {
+        LinkedBlockingQueue<List<ToxicityAnalyzer.Result>> done = new LinkedBlockingQueue<>();
+        client.analyze(Arrays.asList(messages), (chunk, results) -> done.add(wrap(results)));
+        List<ToxicityAnalyzer.Result> results = done.poll(5, TimeUnit.SECONDS);
+        assertNotNull("no callback", results);
+        return results.get(0) == null ? null : results;
+    }
+
+    // LinkedBlockingQueue takes no nulls
+    private static List<ToxicityAnalyzer.Result> wrap(List<ToxicityAnalyzer.Result> results) {
+        return results != null ? results : Collections.<ToxicityAnalyzer.Result>singletonList(null);
+    }
+
+    private void waitForRequests(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (requests.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, requests.get());
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        bodies.add(read(exchange.getRequestBody()));
+        CountDownLatch latch = hold;
+        if (latch != null) {
+            try {
+                latch.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Integer status;
+        synchronized (statuses) {
+            status = statuses.poll();
+        }
+        byte[] body = (status == null ? SCORES : "{\"error\":\"loading\"}").getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status == null ? 200 : status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        return body.toString("UTF-8");
+    }
+}
@@ -0,0 +1,244 @@
+package com.childmonitorai.models;
+
+import org.junit.Test;
+
+import java.beans.Introspector;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+// Each serializer must produce exactly the map DatabaseHelper used to build by hand, or for
+// the POJOs it passed to setValue(), the bean properties Firebase's mapper wrote
+public class RecordSerializersTest {
+
+    public static CallData call() {
+        CallData call = new CallData("555-0100", "OUTGOING", 93, "2024-03-11");
+        call.setTimestamp(1710150000000L);
+        call.setContactName("Ann");
+        return call;
+    }
+
+    public static SMSData sms() {
+        SMSData sms = new SMSData("inbox", "555-0100", "see you at 5", "2024-03-11");
+        sms.setTimestamp(1710150000000L);
+        sms.setContactName("Ann");
+        return sms;
+    }
+
+    public static MMSData mms() {
+        return new MMSData("photo", 1710150000L, "555-0100", "look at this");
+    }
+
+    public static MessageData message() {
+        return new MessageData("Ann", "me", "hi there", "10:02", "incoming", "WhatsApp");
+    }
+
+    public static WebVisitData webVisit() {
+        WebVisitData visit = new WebVisitData("https://example.com/a", "com.android.chrome", 1710150000000L);
+        visit.setTitle("Example");
+        visit.setDatabaseKey("-Nabc");
+        visit.updateDuration(1710150042000L);
+        visit.setActive(false);
+        return visit;
+    }
+
+    public static ClipboardData clipboard() {
+        return new ClipboardData("copied text", 1710150000000L);
+    }
+
+    public static SessionData session() {
+        SessionData session = new SessionData("s1", "com.example.game", "Game", 1710150000000L);
+        session.setEndTime(1710150600000L);
+        session.setDuration(600000L);
+        session.setTimedOut(true);
+        return session;
+    }
+
+    public static AppUsageData appUsage() {
+        AppUsageData usage = new AppUsageData("com.example.game", "Game", 600000L, 1710150000000L);
+        usage.setLaunchCount(3);
+        usage.setLastTimeUsed(1710150600000L);
+        usage.setFirstTimeUsed(1710100000000L);
+        usage.setTotalForegroundTime(700000L);
+        usage.setDayLaunchCount(5);
+        usage.setDayUsageTime(800000L);
+        usage.setSystemApp(false);
+        usage.setCategory("games");
+        usage.setLastUpdateTime(1710150700000L);
+        return usage;
+    }
+
+    public static ContactData contact() {
+        return new ContactData("Ann", "555-0100", 1710100000000L, 1710150000000L, "Annie");
+    }
+
+    @Test
+    public void callMatchesBaselineMap() {
+        CallData call = call();
+        Map<String, Object> baseline = new HashMap<>();
+        baseline.put("date", call.getDate());
+        baseline.put("duration", call.getCallDuration());
+        baseline.put("number", call.getPhoneNumber());
+        baseline.put("type", call.getCallType());
+        baseline.put("timestamp", call.getTimestamp());
+        baseline.put("contactName", call.getContactName());
+        assertEquals(baseline, serialize(call, RecordSerializers.CALL));
+    }
+
+    @Test
+    public void smsMatchesBaselineMap() {
+        SMSData sms = sms();
+        Map<String, Object> baseline = new HashMap<>();
+        baseline.put("type", sms.getType());
+        baseline.put("address", sms.getAddress());
+        baseline.put("body", sms.getBody());
+        baseline.put("timestamp", sms.getTimestamp());
+        baseline.put("date", sms.getDate());
+        baseline.put("contactName", sms.getContactName());
+        assertEquals(baseline, serialize(sms, RecordSerializers.SMS));
+    }
+
+    @Test
+    public void mmsMatchesBaselineMap() {
+        MMSData mms = mms();
+        Map<String, Object> baseline = new HashMap<>();
+        baseline.put("subject", mms.getSubject());
+        baseline.put("date", mms.getDate());
+        baseline.put("senderAddress", mms.getSenderAddress());
+        baseline.put("content", mms.getContent());
+        assertEquals(baseline, serialize(mms, RecordSerializers.MMS));
+    }
+
+    @Test
+    public void messageMatchesBaselineMap() {
+        MessageData message = message();
+        Map<String, Object> baseline = new HashMap<>();
+        baseline.put("sender", message.getSender());
+        baseline.put("receiver", message.getReceiver());
+        baseline.put("message", message.getMessage());
+        baseline.put("timestamp", message.getTimestamp());
+        baseline.put("direction", message.getDirection());
+        baseline.put("platform", "WhatsApp");
+        assertEquals(baseline, serialize(message, RecordSerializers.MESSAGE));
+    }
+
+    @Test
+    public void clipboardMatchesBaselineMap() {
+        ClipboardData clipboard = clipboard();
+        Map<String, Object> baseline = new HashMap<>();
+        baseline.put("content", clipboard.getContent());
+        baseline.put("timestamp", clipboard.getTimestamp());
+        assertEquals(baseline, serialize(clipboard, RecordSerializers.CLIPBOARD));
+    }
+
+    @Test
+    public void sessionMatchesBaselineMap() {
+        SessionData session = session();
+        Map<String, Object> baseline = new HashMap<>();
+        baseline.put("package_name", session.getPackageName());
+        baseline.put("app_name", session.getAppName());
+        baseline.put("start_time", session.getStartTime());
+        baseline.put("end_time", session.getEndTime());
+        baseline.put("duration", session.getDuration());
+        baseline.put("timed_out", session.isTimedOut());
+        assertEquals(baseline, serialize(session, RecordSerializers.SESSION));
+    }
+
+    @Test
+    public void appUsageMatchesBaselineMap() {
+        AppUsageData usage = appUsage();
+        Map<String, Object> baseline = new HashMap<>();
+        baseline.put("package_name", usage.getPackageName());
+        baseline.put("app_name", usage.getAppName());
+        baseline.put("usage_duration", usage.getUsageDuration());
+        baseline.put("launch_count", usage.getLaunchCount());
+        baseline.put("last_used", usage.getLastTimeUsed());
+        baseline.put("first_time_used", usage.getFirstTimeUsed());
+        baseline.put("total_foreground_time", usage.getTotalForegroundTime());
+        baseline.put("day_launch_count", usage.getDayLaunchCount());
+        baseline.put("day_usage_time", usage.getDayUsageTime());
+        baseline.put("is_system_app", usage.isSystemApp());
+        baseline.put("category", usage.getCategory());
+        // The baseline stamped the upload time here; DatabaseHelper now sets it on the record
+        baseline.put("last_update_time", usage.getLastUpdateTime());
+        baseline.put("timestamp", usage.getTimestamp());
+        assertEquals(baseline, serialize(usage, RecordSerializers.APP_USAGE));
+    }
+
+    @Test
+    public void webVisitMatchesBeanProperties() {
+        WebVisitData visit = webVisit();
+        assertEquals(beanProperties(visit), serialize(visit, RecordSerializers.WEB_VISIT));
+    }
+
+    @Test
+    public void contactMatchesBeanProperties() {
+        ContactData contact = contact();
+        assertEquals(beanProperties(contact), serialize(contact, RecordSerializers.CONTACT));
+    }
+
+    @Test
+    public void nullFieldsAreWrittenAsNull() {
+        Map<String, Object> map = serialize(new ContactData("Ann", "555", 1L, 2L, null), RecordSerializers.CONTACT);
+        assertEquals(5, map.size());
+        assertNull(map.get("nameBeforeModification"));
+    }
+
+    @Test
+    public void serializersAreRegisteredForTheirClasses() {
+        assertSame(RecordSerializers.CALL, RecordSerializers.forClass(CallData.class));
+        assertSame(RecordSerializers.SMS, RecordSerializers.forClass(SMSData.class));
+        assertSame(RecordSerializers.MMS, RecordSerializers.forClass(MMSData.class));
+        assertSame(RecordSerializers.MESSAGE, RecordSerializers.forClass(MessageData.class));
+        assertSame(RecordSerializers.WEB_VISIT, RecordSerializers.forClass(WebVisitData.class));
+        assertSame(RecordSerializers.CLIPBOARD, RecordSerializers.forClass(ClipboardData.class));
+        assertSame(RecordSerializers.SESSION, RecordSerializers.forClass(SessionData.class));
+        assertSame(RecordSerializers.APP_USAGE, RecordSerializers.forClass(AppUsageData.class));
+        assertSame(RecordSerializers.CONTACT, RecordSerializers.forClass(ContactData.class));
+    }
+
+    // Also fails if a serializer writes the same field twice
+    private static <T> Map<String, Object> serialize(T record, RecordSerializer<T> serializer) {
+        Map<String, Object> fields = new HashMap<>();
+        serializer.serialize(record, (field, value) -> {
+            if (fields.containsKey(field)) {
+                fail("Field written twice: " + field);
+            }
+            fields.put(field, value);
+        });
+        assertEquals(fields, RecordSerializers.toMap(record, serializer));
+        return fields;
+    }
+
+    // Public no-argument getX()/isX() methods, named the way Firebase's mapper names them
+    private static Map<String, Object> beanProperties(Object bean) {
+        Map<String, Object> properties = new HashMap<>();
+        try {
+            for (Method method : bean.getClass().getMethods()) {
+                if (method.getDeclaringClass() == Object.class || method.getParameterTypes().length > 0
+                        || Modifier.isStatic(method.getModifiers())) {
+                    continue;
+                }
+                String name = method.getName();
+                String property;
+                if (name.startsWith("get") && name.length() > 3) {
+                    property = name.substring(3);
+                } else if (name.startsWith("is") && name.length() > 2 && method.getReturnType() == boolean.class) {
+                    property = name.substring(2);
+                } else {
+                    continue;
+                }
+                properties.put(Introspector.decapitalize(property), method.invoke(bean));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+        return properties;
+    }
+}